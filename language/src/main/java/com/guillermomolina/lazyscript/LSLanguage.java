@@ -40,23 +40,41 @@
  */
 package com.guillermomolina.lazyscript;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 import com.guillermomolina.lazyscript.builtins.LSBuiltinNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSFunctionLiteralNode;
+import com.guillermomolina.lazyscript.nodes.local.LSReadArgumentNode;
+import com.guillermomolina.lazyscript.nodes.root.LSRootNode;
 import com.guillermomolina.lazyscript.nodes.root.LSEvalRootNode;
-import com.guillermomolina.lazyscript.parser.LSParserVisitor;
+import com.guillermomolina.lazyscript.parser.LSParser;
+import com.guillermomolina.lazyscript.runtime.LSCodeCache;
 import com.guillermomolina.lazyscript.runtime.LSContext;
+import com.guillermomolina.lazyscript.runtime.LSEvalCache;
+import com.guillermomolina.lazyscript.runtime.LSModuleLoader;
 import com.guillermomolina.lazyscript.runtime.interop.LSLanguageView;
 import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.Option;
+import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.TruffleLogger;
 import com.oracle.truffle.api.TruffleLanguage.ContextPolicy;
 import com.oracle.truffle.api.debug.DebuggerTags;
 import com.oracle.truffle.api.dsl.NodeFactory;
+import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.instrumentation.ProvidedTags;
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -64,28 +82,265 @@ import com.oracle.truffle.api.nodes.NodeInfo;
 import com.oracle.truffle.api.nodes.RootNode;
 import com.oracle.truffle.api.source.Source;
 
+import org.graalvm.options.OptionCategory;
+import org.graalvm.options.OptionDescriptors;
+import org.graalvm.options.OptionKey;
+import org.graalvm.options.OptionStability;
+import org.graalvm.options.OptionValues;
+
 @TruffleLanguage.Registration(id = LSLanguage.ID, name = LSLanguage.NAME, defaultMimeType = LSLanguage.MIME_TYPE, characterMimeTypes = LSLanguage.MIME_TYPE, contextPolicy = ContextPolicy.SHARED, fileTypeDetectors = LSFileDetector.class)
 @ProvidedTags({ StandardTags.CallTag.class, StandardTags.StatementTag.class, StandardTags.RootTag.class,
         StandardTags.RootBodyTag.class, StandardTags.ExpressionTag.class, DebuggerTags.AlwaysHalt.class,
         StandardTags.ReadVariableTag.class, StandardTags.WriteVariableTag.class })
 public final class LSLanguage extends TruffleLanguage<LSContext> {
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSLanguage.class);
+
     public static final AtomicInteger counter = new AtomicInteger();
 
     public static final String ID = "ls";
     public static final String NAME = "LazyScript";
     public static final String MIME_TYPE = "application/x-lazyscript";
 
+    @Option(help = "Maximum number of guest frames captured in the stack trace of an exception, -1 for no limit.", category = OptionCategory.USER, stability = OptionStability.STABLE) //
+    public static final OptionKey<Integer> StackTraceLimit = new OptionKey<>(-1);
+
+    @Option(help = "Maximum number of sources evaluated with eval whose parsed code is kept, 0 disables the cache.", category = OptionCategory.EXPERT, stability = OptionStability.STABLE) //
+    public static final OptionKey<Integer> EvalCacheSize = new OptionKey<>(256);
+
+    @Option(help = "Maximum number of parsed sources whose call targets are kept by the language, 0 disables the cache.", category = OptionCategory.EXPERT, stability = OptionStability.STABLE) //
+    public static final OptionKey<Integer> ParseCacheSize = new OptionKey<>(256);
+
+    @Option(help = "Directory where parsed scripts are cached between runs, empty to disable the cache.", category = OptionCategory.USER, stability = OptionStability.STABLE) //
+    public static final OptionKey<String> CodeCache = new OptionKey<>("");
+
+    @Option(help = "Size in characters of the buffer of the standard output, 0 to flush every line.", category = OptionCategory.USER, stability = OptionStability.STABLE) //
+    public static final OptionKey<Integer> OutputBufferSize = new OptionKey<>(8192);
+
+    @Option(help = "Allows the code of a context to run on several threads at the same time: spawn, workers and parallel arrays. The context must also allow creating threads.", category = OptionCategory.USER, stability = OptionStability.STABLE) //
+    public static final OptionKey<Boolean> Threads = new OptionKey<>(false);
+
     private final Assumption singleContext = Truffle.getRuntime().createAssumption("Single LS context.");
 
+    /**
+     * The call targets of the last parsed sources, least recently used first.
+     * The map is created with the first context, with the capacity given by
+     * {@link #ParseCacheSize}.
+     */
+    private volatile Map<Source, CallTarget> parseCache;
+
+    /**
+     * The call targets of the imported modules, created with the parse cache
+     * and with the same capacity.
+     */
+    private volatile Map<Source, RootCallTarget> moduleCache;
+
+    /**
+     * The threads that parse modules for the {@link LSModuleLoader}, and the
+     * threads that wait for them, the only ones that may enter a context
+     * while others are in it.
+     */
+    private final Set<Thread> moduleThreads = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /** Set while the current thread creates a thread of the module loader. */
+    private final ThreadLocal<Boolean> creatingModuleThread = new ThreadLocal<>();
+
+    /**
+     * Whether the contexts may be entered by several threads at the same time,
+     * the value of {@link #Threads} in the contexts of the language.
+     */
+    private volatile boolean threads;
+
+    /**
+     * The call targets of the top-level functions of the last version of each
+     * script, by script key (see {@link #getScriptKey}) and literal position
+     * and text. Bounded like the {@link #parseCache}.
+     */
+    private volatile Map<String, Map<String, RootCallTarget>> definedFunctions;
+
+    private volatile LSEvalCache evalCache;
+
+    private static final Source BUILTIN_SOURCE = Source.newBuilder(LSLanguage.ID, "", "LS builtin").build();
+
+    /** The call targets of the builtins, shared by all the contexts. */
+    private final Map<NodeFactory<? extends LSBuiltinNode>, RootCallTarget> builtinCallTargets = new ConcurrentHashMap<>();
+
     public LSLanguage() {
         counter.incrementAndGet();
     }
 
     @Override
     protected LSContext createContext(Env env) {
+        if (evalCache == null) {
+            synchronized (this) {
+                if (evalCache == null) {
+                    evalCache = new LSEvalCache(env.getOptions().get(EvalCacheSize));
+                    parseCache = createCache(env.getOptions().get(ParseCacheSize));
+                    moduleCache = createCache(env.getOptions().get(ParseCacheSize));
+                    definedFunctions = createCache(env.getOptions().get(ParseCacheSize));
+                    threads = env.getOptions().get(Threads);
+                }
+            }
+        }
         return new LSContext(this, env);
     }
 
+    private static <K, V> Map<K, V> createCache(int capacity) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * A context that is pre-initialized, while building a native image,
+     * installs its builtins eagerly, so their functions and call targets are
+     * part of the image.
+     */
+    @Override
+    protected void initializeContext(LSContext context) {
+        if (context.getEnv().isPreInitialization()) {
+            context.installPendingBuiltins();
+        }
+    }
+
+    /**
+     * Reuses a pre-initialized context, with its prototypes and builtins, if the
+     * options allow sharing the language.
+     */
+    @Override
+    protected boolean patchContext(LSContext context, Env newEnv) {
+        if (!areOptionsCompatible(context.getEnv().getOptions(), newEnv.getOptions())) {
+            return false;
+        }
+        context.patchContext(newEnv);
+        return true;
+    }
+
+    /**
+     * LazyScript objects are not synchronized, so contexts are only entered by
+     * several threads at the same time if the {@link #Threads} option allows
+     * it, the threads of the context must then synchronize the objects they
+     * share (see {@link LSContext#spawn}). Otherwise only to parse modules:
+     * the threads of the {@link LSModuleLoader} only parse, while the thread
+     * that imports them waits.
+     */
+    @Override
+    protected boolean isThreadAccessAllowed(Thread thread, boolean singleThreaded) {
+        return singleThreaded || threads || moduleThreads.contains(thread) || creatingModuleThread.get() != null;
+    }
+
+    /**
+     * Creates a polyglot thread of the {@link LSModuleLoader}, that may enter
+     * the context with the thread that imports the modules.
+     */
+    public Thread createModuleThread(Env env, Runnable runnable) {
+        creatingModuleThread.set(Boolean.TRUE);
+        try {
+            final Thread thread = env.createThread(runnable);
+            moduleThreads.add(thread);
+            return thread;
+        } finally {
+            creatingModuleThread.remove();
+        }
+    }
+
+    /**
+     * Allows the thread to enter a context with the threads of the
+     * {@link LSModuleLoader}, until it stops.
+     */
+    public void addModuleThread(Thread thread) {
+        moduleThreads.add(thread);
+    }
+
+    public void removeModuleThread(Thread thread) {
+        moduleThreads.remove(thread);
+    }
+
+    /**
+     * Stops the polyglot threads of the context before it is closed.
+     */
+    @Override
+    protected void finalizeContext(LSContext context) {
+        context.joinThreads();
+        context.flushOutput();
+        context.getWorkerPool().shutdown();
+        context.getParallelArrays().shutdown();
+        context.getModuleLoader().shutdown();
+        context.getEventLoop().shutdown();
+    }
+
+    /**
+     * Contexts share a language instance, and its {@link LSEvalCache}, parse
+     * and module caches, only if they use the same cache sizes, and the same
+     * thread access.
+     */
+    @Override
+    protected boolean areOptionsCompatible(OptionValues firstOptions, OptionValues newOptions) {
+        return firstOptions.get(EvalCacheSize).equals(newOptions.get(EvalCacheSize)) &&
+                        firstOptions.get(ParseCacheSize).equals(newOptions.get(ParseCacheSize)) &&
+                        firstOptions.get(Threads).equals(newOptions.get(Threads));
+    }
+
+    public LSEvalCache getEvalCache() {
+        return evalCache;
+    }
+
+    @Override
+    protected OptionDescriptors getOptionDescriptors() {
+        return new LSLanguageOptionDescriptors();
+    }
+
+    /**
+     * Returns the call target of a builtin. The root node of a builtin is
+     * created once per language, the first time a context installs the
+     * builtin, and shared by all the contexts.
+     */
+    public RootCallTarget getBuiltinCallTarget(NodeFactory<? extends LSBuiltinNode> factory) {
+        return builtinCallTargets.computeIfAbsent(factory, this::createBuiltinCallTarget);
+    }
+
+    private RootCallTarget createBuiltinCallTarget(NodeFactory<? extends LSBuiltinNode> factory) {
+        /*
+         * The builtin node factory is a class that is automatically generated by the
+         * Truffle DLL. The signature returned by the factory reflects the signature of
+         * the @Specialization
+         *
+         * methods in the builtin classes.
+         */
+        int argumentCount = factory.getExecutionSignature().size();
+        LSExpressionNode[] argumentNodes = new LSExpressionNode[argumentCount];
+        /*
+         * Builtin functions are like normal functions, i.e., the arguments are passed
+         * in as an Object[] array encapsulated in LSArguments. A LSReadArgumentNode
+         * extracts a parameter from this array.
+         */
+        for (int i = 0; i < argumentCount; i++) {
+            argumentNodes[i] = new LSReadArgumentNode(i);
+        }
+        /* Instantiate the builtin node. This node performs the actual functionality. */
+        LSBuiltinNode builtinBodyNode = factory.createNode((Object) argumentNodes);
+        builtinBodyNode.addRootTag();
+        /*
+         * The name of the builtin function is specified via an annotation on the node
+         * class.
+         */
+        String name = lookupNodeInfo(builtinBodyNode.getClass()).shortName();
+        builtinBodyNode.setUnavailableSourceSection();
+
+        /*
+         * Wrap the builtin in a RootNode. Truffle requires all AST to start with a
+         * RootNode.
+         */
+        LSRootNode rootNode = new LSRootNode(this, new FrameDescriptor(), builtinBodyNode,
+                BUILTIN_SOURCE.createUnavailableSection(), name);
+        LOG.log(Level.FINE, "Created call target for builtin: {0}", name);
+        return Truffle.getRuntime().createCallTarget(rootNode);
+    }
+
     public static NodeInfo lookupNodeInfo(Class<?> clazz) {
         if (clazz == null) {
             return null;
@@ -98,19 +353,116 @@ public final class LSLanguage extends TruffleLanguage<LSContext> {
         }
     }
 
+    /**
+     * The language is {@link ContextPolicy#SHARED shared}, so the parsed ASTs do
+     * not depend on any context and one language instance serves all the
+     * contexts of an engine. The call targets are cached per {@link Source}
+     * (equal content and name), so every context evaluating the same script
+     * reuses the same call target, and the code already compiled for it.
+     * Sources that are not {@link Source#isCached() cached} are always parsed
+     * again. The cache is bounded by {@link #ParseCacheSize}, the least recently
+     * parsed source, with its AST, is dropped first.
+     */
     @Override
     protected CallTarget parse(ParsingRequest request) throws Exception {
         Source source = request.getSource();
+        if (!request.getArgumentNames().isEmpty()) {
+            throw new NotImplementedException();
+        }
+        if (!source.isCached()) {
+            return parseSource(source);
+        }
+        CallTarget callTarget = parseCache.get(source);
+        if (callTarget == null) {
+            /* Parse outside of the map, so other sources can be parsed in parallel. */
+            callTarget = parseSource(source);
+            CallTarget existing = parseCache.putIfAbsent(source, callTarget);
+            if (existing != null) {
+                callTarget = existing;
+            }
+        }
+        return callTarget;
+    }
 
-        LSParserVisitor visitor;
-        if (request.getArgumentNames().isEmpty()) {
-            visitor = new LSParserVisitor(this, source);
+    /**
+     * Scripts read from files go through the {@link LSCodeCache} of the
+     * context, if there is one, and the modules they import are parsed before
+     * they run (see {@link LSModuleLoader}).
+     */
+    private CallTarget parseSource(Source source) {
+        LSExpressionNode moduleNode;
+        if (source.getPath() != null) {
+            LSContext context = getCurrentContext();
+            moduleNode = parseModuleNode(source, context.getCodeCache());
+            context.getModuleLoader().preParseImports(source);
         } else {
-            throw new NotImplementedException();
+            moduleNode = parseModuleNode(source, null);
         }
-        RootNode evalMain = new LSEvalRootNode(this, visitor.parse());
+        RootNode evalMain = new LSEvalRootNode(this, moduleNode);
         return Truffle.getRuntime().createCallTarget(evalMain);
     }
+    private LSExpressionNode parseModuleNode(Source source, LSCodeCache codeCache) {
+        if (codeCache != null) {
+            return codeCache.parse(source);
+        }
+        return new LSParser(this, source).parse();
+    }
+
+    /**
+     * Returns the call target of a module imported with {@code import}, that
+     * takes the exports object as {@code this}. Modules are parsed once per
+     * language, while they are in the module cache, and may be parsed in
+     * parallel by the {@link LSModuleLoader}.
+     */
+    public RootCallTarget parseModule(Source source, LSCodeCache codeCache) {
+        RootCallTarget callTarget = moduleCache.get(source);
+        if (callTarget == null) {
+            LSFunctionLiteralNode moduleNode = (LSFunctionLiteralNode) parseModuleNode(source, codeCache);
+            callTarget = moduleNode.getCallTarget();
+            RootCallTarget existing = moduleCache.putIfAbsent(source, callTarget);
+            if (existing != null) {
+                callTarget = existing;
+            }
+        }
+        return callTarget;
+    }
+
+    /**
+     * Returns the identity of the script of a source: its path, or the URI it
+     * was given, or {@code null} if the source is not reloaded. Literal
+     * sources, that only have a display name, and the sources that are not
+     * {@link Source#isCached() cached}, as the ones of {@code eval}, are never
+     * reloaded: two of them with the same name are unrelated scripts.
+     */
+    public static String getScriptKey(Source source) {
+        if (!source.isCached()) {
+            return null;
+        }
+        if (source.getPath() != null) {
+            return source.getPath();
+        }
+        final URI uri = source.getURI();
+        /* Truffle makes up a truffle: URI from the content of literal sources */
+        return "truffle".equals(uri.getScheme()) ? null : uri.toString();
+    }
+
+    /**
+     * Scripts are re-parsed incrementally, at the granularity of top-level
+     * functions: parsing a new version of a script, a source with the same
+     * {@link #getScriptKey key}, reloads it. The functions whose text and
+     * position did not change keep their call target. The functions that changed get new call
+     * targets, that replace the old ones in the functions of every context
+     * (see {@link LSContext#defineFunction}).
+     */
+    public RootCallTarget findDefinedFunction(String scriptKey, String key) {
+        Map<String, RootCallTarget> functions = definedFunctions.get(scriptKey);
+        return functions == null ? null : functions.get(key);
+    }
+
+    public void setDefinedFunctions(String scriptKey, Map<String, RootCallTarget> functions) {
+        definedFunctions.put(scriptKey, functions);
+    }
+
     /**
      * SLLanguage specifies the {@link ContextPolicy#SHARED} in
      * {@link Registration#contextPolicy()}. This means that a single {@link TruffleLanguage}
@@ -138,6 +490,10 @@ public final class LSLanguage extends TruffleLanguage<LSContext> {
         return singleContext.isValid();
     }
 
+    public Assumption getSingleContextAssumption() {
+        return singleContext;
+    }
+
     @Override
     protected Object getLanguageView(LSContext context, Object value) {
         return LSLanguageView.create(value);
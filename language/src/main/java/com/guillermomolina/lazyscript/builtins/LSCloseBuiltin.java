@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.builtins;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSJsonReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSLineReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSMappedFile;
+import com.guillermomolina.lazyscript.runtime.objects.LSWorker;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.nodes.NodeInfo;
+
+/**
+ * Built-in method of workers that waits for the pending messages and closes
+ * the context of the worker. For line and JSON readers, it stops reading and
+ * closes the file, and for mapped files it releases the mapping.
+ */
+@NodeInfo(shortName = "close")
+public abstract class LSCloseBuiltin extends LSBuiltinNode {
+
+    @Specialization
+    public LSWorker close(LSWorker self) {
+        self.close();
+        return self;
+    }
+
+    @Specialization
+    public LSLineReader close(LSLineReader self) {
+        self.close(this);
+        return self;
+    }
+
+    @Specialization
+    public LSJsonReader close(LSJsonReader self) {
+        self.close(this);
+        return self;
+    }
+
+    @Specialization
+    public LSMappedFile close(LSMappedFile self) {
+        self.close();
+        return self;
+    }
+}
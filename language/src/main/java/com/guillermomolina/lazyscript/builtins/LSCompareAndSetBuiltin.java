@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.builtins;
+
+import java.util.Objects;
+
+import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.interop.UnsupportedTypeException;
+import com.oracle.truffle.api.nodes.NodeInfo;
+
+/**
+ * Built-in method that atomically replaces an element of an array, or a
+ * property of an object, if its current value is the expected one. Numbers,
+ * booleans and strings are compared by value, the other values by identity.
+ * Returns whether the value was replaced.
+ */
+@NodeInfo(shortName = "compareAndSet")
+public abstract class LSCompareAndSetBuiltin extends LSBuiltinNode {
+
+    @Specialization
+    @TruffleBoundary
+    public boolean compareAndSetElement(LSArray self, long index, Object expected, Object value) {
+        synchronized (self) {
+            if (index < 0 || index >= self.getSize()) {
+                throw LSUndefinedNameException.undefinedProperty(this, index);
+            }
+            if (!Objects.equals(self.get((int) index), expected)) {
+                return false;
+            }
+            self.set((int) index, value);
+            return true;
+        }
+    }
+
+    @Specialization
+    @TruffleBoundary
+    public boolean compareAndSetMember(LSObject self, String name, Object expected, Object value) {
+        final InteropLibrary objectLibrary = InteropLibrary.getUncached(self);
+        synchronized (self) {
+            try {
+                if (!Objects.equals(objectLibrary.readMember(self, name), expected)) {
+                    return false;
+                }
+                objectLibrary.writeMember(self, name, value);
+                return true;
+            } catch (UnsupportedMessageException | UnknownIdentifierException | UnsupportedTypeException e) {
+                throw LSUndefinedNameException.undefinedProperty(this, name);
+            }
+        }
+    }
+}
@@ -42,10 +42,12 @@ package com.guillermomolina.lazyscript.builtins;
 
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.runtime.LSContext;
+import com.guillermomolina.lazyscript.runtime.LSEvalCache;
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.CachedLanguage;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.nodes.DirectCallNode;
 import com.oracle.truffle.api.nodes.NodeInfo;
@@ -56,7 +58,8 @@ import com.oracle.truffle.api.source.Source;
  * <p>
  * The call target is cached against the mime type and the source code, so that if they are the same
  * each time then a direct call will be made to a cached AST, allowing it to be compiled and
- * possibly inlined.
+ * possibly inlined. Sites that evaluate more sources share the {@link LSEvalCache} of the language,
+ * so repeated sources are only parsed once.
  */
 @NodeInfo(shortName = "eval")
 public abstract class LSEvalBuiltin extends LSBuiltinNode {
@@ -64,7 +67,7 @@ public abstract class LSEvalBuiltin extends LSBuiltinNode {
     static final int LIMIT = 2;
 
     @Specialization(guards = {"stringsEqual(cachedId, id)", "stringsEqual(cachedCode, code)"}, limit = "LIMIT")
-    public Object evalCached(String id, String code,
+    public Object evalCached(Object self, String id, String code,
                     @Cached("id") String cachedId,
                     @Cached("code") String cachedCode,
                     @CachedContext(LSLanguage.class) LSContext context,
@@ -74,13 +77,22 @@ public abstract class LSEvalBuiltin extends LSBuiltinNode {
 
     @TruffleBoundary
     @Specialization(replaces = "evalCached")
-    public Object evalUncached(String id, String code, @CachedContext(LSLanguage.class) LSContext context) {
-        return parse(id, code, context).call();
+    public Object evalUncached(Object self, String id, String code,
+                    @CachedLanguage LSLanguage language,
+                    @CachedContext(LSLanguage.class) LSContext context) {
+        return language.getEvalCache().get(createSource(id, code), context::parse).call();
     }
 
     protected CallTarget parse(String id, String code, LSContext context) {
-        final Source source = Source.newBuilder(id, code, "(eval)").build();
-        return context.parse(source);
+        return context.parse(createSource(id, code));
+    }
+
+    /**
+     * The sources are not cached by the engine, their call targets are either
+     * kept in the AST or in the bounded {@link LSEvalCache}.
+     */
+    private static Source createSource(String id, String code) {
+        return Source.newBuilder(id, code, "(eval)").cached(false).build();
     }
 
     /* Work around findbugs warning in generate code. */
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.builtins;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.interop.UnsupportedTypeException;
+import com.oracle.truffle.api.nodes.NodeInfo;
+
+/**
+ * Built-in method that atomically adds a number to an integer element of an
+ * array, or to an integer property of an object, and returns the previous
+ * value. It is meant for counters shared by threads, so it does not switch to
+ * big integers, an overflow is an error.
+ */
+@NodeInfo(shortName = "getAndAdd")
+public abstract class LSGetAndAddBuiltin extends LSBuiltinNode {
+
+    @Specialization
+    @TruffleBoundary
+    public Object getAndAddElement(LSArray self, long index, long delta) {
+        synchronized (self) {
+            if (index < 0 || index >= self.getSize()) {
+                throw LSUndefinedNameException.undefinedProperty(this, index);
+            }
+            final Object current = self.get((int) index);
+            self.set((int) index, add(current, delta));
+            return current;
+        }
+    }
+
+    @Specialization
+    @TruffleBoundary
+    public Object getAndAddMember(LSObject self, String name, long delta) {
+        final InteropLibrary objectLibrary = InteropLibrary.getUncached(self);
+        synchronized (self) {
+            try {
+                final Object current = objectLibrary.readMember(self, name);
+                objectLibrary.writeMember(self, name, add(current, delta));
+                return current;
+            } catch (UnsupportedMessageException | UnknownIdentifierException | UnsupportedTypeException e) {
+                throw LSUndefinedNameException.undefinedProperty(this, name);
+            }
+        }
+    }
+
+    private Object add(Object current, long delta) {
+        if (!(current instanceof Long)) {
+            throw LSException.typeError(this, current, delta);
+        }
+        try {
+            return Math.addExact((long) current, delta);
+        } catch (ArithmeticException e) {
+            throw new LSException("Integer overflow", this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.builtins;
+
+import java.io.PrintWriter;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.runtime.LSContext;
+import com.guillermomolina.lazyscript.runtime.interop.LSLanguageView;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.nodes.NodeInfo;
+
+/**
+ * Builtin function to write a value to the {@link LSContext#getOutput() standard output}, without
+ * a line separator, see {@link LSPrintlnBuiltin}.
+ */
+@NodeInfo(shortName = "print")
+public abstract class LSPrintBuiltin extends LSBuiltinNode {
+
+    @Specialization
+    public long print(long self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public double print(double self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public boolean print(boolean self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public String print(String self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    @TruffleBoundary
+    public Object print(Object self,
+                    @CachedLibrary(limit = "3") InteropLibrary interop,
+                    @CachedContext(LSLanguage.class) LSContext context) {
+        final Object value = interop.toDisplayString(LSLanguageView.forValue(self));
+        context.getOutput().print(value);
+        return self;
+    }
+
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, long value) {
+        out.print(value);
+    }
+
+    /**
+     * Whole decimals are written as integers, as the language view displays
+     * them.
+     */
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, double value) {
+        if (InteropLibrary.getUncached().fitsInLong(value)) {
+            out.print((long) value);
+        } else {
+            out.print(value);
+        }
+    }
+
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, boolean value) {
+        out.print(value);
+    }
+
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, String value) {
+        out.print(value);
+    }
+}
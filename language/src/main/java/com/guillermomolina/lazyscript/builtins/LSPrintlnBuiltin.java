@@ -40,6 +40,8 @@
  */
 package com.guillermomolina.lazyscript.builtins;
 
+import java.io.PrintWriter;
+
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.runtime.LSContext;
 import com.guillermomolina.lazyscript.runtime.interop.LSLanguageView;
@@ -53,7 +55,9 @@ import com.oracle.truffle.api.nodes.NodeInfo;
 /**
  * Builtin function to write a value to the {@link LSContext#getOutput() standard output}. The
  * different specialization leverage the typed {@code println} methods available in Java, i.e.,
- * primitive values are printed without converting them to a {@link String} first.
+ * primitive values are printed without converting them to a {@link String} first, and without
+ * going through the {@link LSLanguageView language view}, that gives them the same display
+ * strings.
  * <p>
  * Printing involves a lot of Java code, so we need to tell the optimizing system that it should not
  * unconditionally inline everything reachable from the println() method. This is done via the
@@ -62,6 +66,30 @@ import com.oracle.truffle.api.nodes.NodeInfo;
 @NodeInfo(shortName = "println")
 public abstract class LSPrintlnBuiltin extends LSBuiltinNode {
 
+    @Specialization
+    public long println(long self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public double println(double self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public boolean println(boolean self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
+    @Specialization
+    public String println(String self, @CachedContext(LSLanguage.class) LSContext context) {
+        doPrint(context.getOutput(), self);
+        return self;
+    }
+
     @Specialization
     @TruffleBoundary
     public Object println(Object self,
@@ -72,4 +100,31 @@ public abstract class LSPrintlnBuiltin extends LSBuiltinNode {
         return self;
     }
 
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, long value) {
+        out.println(value);
+    }
+
+    /**
+     * Whole decimals are written as integers, as the language view displays
+     * them.
+     */
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, double value) {
+        if (InteropLibrary.getUncached().fitsInLong(value)) {
+            out.println((long) value);
+        } else {
+            out.println(value);
+        }
+    }
+
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, boolean value) {
+        out.println(value);
+    }
+
+    @TruffleBoundary
+    private static void doPrint(PrintWriter out, String value) {
+        out.println(value);
+    }
 }
@@ -59,6 +59,8 @@ public abstract class LSReadlnBuiltin extends LSBuiltinNode {
 
     @Specialization
     public String readln(@CachedContext(LSLanguage.class) LSContext context) {
+        /* The output may be a prompt for the input. */
+        context.flushOutput();
         String result = doRead(context.getInput());
         if (result == null) {
             /*
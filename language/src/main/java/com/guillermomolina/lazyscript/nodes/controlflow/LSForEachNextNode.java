@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSJsonReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSLineReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray.ElementType;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * Fetches the element of a {@link LSForEachNode for-each loop} at the given
+ * index, or {@link #END} once the iterated value has no more elements. Arrays
+ * are read straight from their {@link LSArray#getStorage() storage strategy},
+ * so iterating does not allocate per element. Readers ignore the index and
+ * read their next line or record.
+ */
+public abstract class LSForEachNextNode extends Node {
+
+    static final int CACHE_LIMIT = 3;
+
+    /** Returned once the iterated value has no more elements. */
+    public static final Object END = new Object();
+
+    public abstract Object execute(Object iterable, long index);
+
+    @Specialization(guards = "isLongStorage(array)")
+    protected Object doLongArray(LSArray array, long index) {
+        final long[] storage = (long[]) array.getStorage();
+        return index < storage.length ? storage[(int) index] : END;
+    }
+
+    @Specialization(guards = "isDoubleStorage(array)")
+    protected Object doDoubleArray(LSArray array, long index) {
+        final double[] storage = (double[]) array.getStorage();
+        return index < storage.length ? storage[(int) index] : END;
+    }
+
+    @Specialization(guards = "isObjectStorage(array)")
+    protected Object doObjectArray(LSArray array, long index) {
+        final Object[] storage = (Object[]) array.getStorage();
+        return index < storage.length ? storage[(int) index] : END;
+    }
+
+    @Specialization(guards = "array.getElementType() == elementType", limit = "CACHE_LIMIT")
+    protected Object doTypedArray(LSTypedArray array, long index,
+                    @Cached("array.getElementType()") ElementType elementType) {
+        return index < array.getSize() ? array.read(elementType, (int) index) : END;
+    }
+
+    @Specialization
+    protected Object doLines(LSLineReader lines, @SuppressWarnings("unused") long index) {
+        final String line = lines.next(this);
+        return line == null ? END : line;
+    }
+
+    @Specialization
+    protected Object doRecords(LSJsonReader records, @SuppressWarnings("unused") long index) {
+        final Object record = records.next(this);
+        return record == null ? END : record;
+    }
+
+    /**
+     * The property names of an object, taken when the loop started.
+     */
+    @Specialization
+    protected Object doNames(Object[] names, long index) {
+        return index < names.length ? names[(int) index] : END;
+    }
+
+    /**
+     * Foreign arrays, and the members of foreign objects.
+     */
+    @Specialization(guards = {"!isLSObject(iterable)", "!isNames(iterable)"}, limit = "CACHE_LIMIT")
+    protected Object doForeign(Object iterable, long index,
+                    @CachedLibrary("iterable") InteropLibrary iterables) {
+        try {
+            return index < iterables.getArraySize(iterable) ? iterables.readArrayElement(iterable, index) : END;
+        } catch (UnsupportedMessageException | InvalidArrayIndexException e) {
+            throw LSException.typeError(this, iterable);
+        }
+    }
+
+    protected static boolean isLongStorage(LSArray array) {
+        return array.getStorage() instanceof long[];
+    }
+
+    protected static boolean isDoubleStorage(LSArray array) {
+        return array.getStorage() instanceof double[];
+    }
+
+    protected static boolean isObjectStorage(LSArray array) {
+        return array.getStorage() instanceof Object[];
+    }
+
+    protected static boolean isLSObject(Object object) {
+        return object instanceof LSObject;
+    }
+
+    protected static boolean isNames(Object object) {
+        return object instanceof Object[];
+    }
+
+}
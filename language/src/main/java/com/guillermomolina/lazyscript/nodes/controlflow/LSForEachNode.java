@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteVariableNode;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSJsonReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSLineReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.NodeChild;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.NodeInfo;
+import com.oracle.truffle.api.object.Shape;
+
+/**
+ * The node implementing a for-each loop: {@code for (x of collection) body}.
+ * Arrays and typed arrays are iterated by element, objects by property name, in
+ * insertion order, line readers by line and JSON readers by record.
+ * Foreign arrays and foreign objects with members are iterated through interop.
+ * <p>
+ * This node only decides what is iterated: the collection itself, or the
+ * property names of an object, which are cached per {@link Shape}. It stores it
+ * in a hidden frame slot, next to a {@code long} index, and runs a
+ * {@link LSForEachRepeatingNode} in a Truffle {@link LoopNode}, so the
+ * iterations are counted and long running loops are compiled with on-stack
+ * replacement, like the {@link LSForNode counted for loop}.
+ */
+@NodeInfo(shortName = "for", description = "The node implementing a for-each loop")
+@NodeChild(value = "iterableNode", type = LSExpressionNode.class)
+public abstract class LSForEachNode extends LSStatementNode {
+
+    static final int CACHE_LIMIT = 3;
+
+    @Child private LoopNode loopNode;
+
+    private final FrameSlot iterableSlot;
+    private final FrameSlot indexSlot;
+
+    protected LSForEachNode(FrameSlot iterableSlot, FrameSlot indexSlot, LSWriteVariableNode variableNode,
+                    LSStatementNode bodyNode) {
+        this.iterableSlot = iterableSlot;
+        this.indexSlot = indexSlot;
+        this.loopNode = Truffle.getRuntime().createLoopNode(
+                        new LSForEachRepeatingNode(iterableSlot, indexSlot, variableNode, bodyNode));
+    }
+
+    @Specialization
+    protected void doArray(VirtualFrame frame, LSArray array) {
+        iterate(frame, array);
+    }
+
+    @Specialization
+    protected void doTypedArray(VirtualFrame frame, LSTypedArray array) {
+        iterate(frame, array);
+    }
+
+    /**
+     * Line readers are iterated by line, the lines are read as the loop goes.
+     */
+    @Specialization
+    protected void doLines(VirtualFrame frame, LSLineReader lines) {
+        iterate(frame, lines);
+    }
+
+    /**
+     * JSON readers are iterated by record, the records are parsed as the loop
+     * goes.
+     */
+    @Specialization
+    protected void doRecords(VirtualFrame frame, LSJsonReader records) {
+        iterate(frame, records);
+    }
+
+    @Specialization(guards = {"!isArray(object)", "object.getShape() == cachedShape"}, limit = "CACHE_LIMIT", assumptions = "cachedShape.getValidAssumption()")
+    protected void doObjectCached(VirtualFrame frame, LSObject object,
+                    @Cached("object.getShape()") Shape cachedShape,
+                    @Cached(value = "getPropertyNames(cachedShape)", dimensions = 1) Object[] names) {
+        iterate(frame, names);
+    }
+
+    @Specialization(guards = "!isArray(object)", replaces = "doObjectCached")
+    protected void doObject(VirtualFrame frame, LSObject object) {
+        iterate(frame, getPropertyNames(object.getShape()));
+    }
+
+    @Specialization(guards = {"!isLSObject(iterable)", "iterables.hasArrayElements(iterable)"}, limit = "CACHE_LIMIT")
+    protected void doForeignArray(VirtualFrame frame, Object iterable,
+                    @CachedLibrary("iterable") InteropLibrary iterables) {
+        iterate(frame, iterable);
+    }
+
+    @Specialization(guards = {"!isLSObject(iterable)", "!iterables.hasArrayElements(iterable)", "iterables.hasMembers(iterable)"}, limit = "CACHE_LIMIT")
+    protected void doForeignMembers(VirtualFrame frame, Object iterable,
+                    @CachedLibrary("iterable") InteropLibrary iterables) {
+        try {
+            iterate(frame, iterables.getMembers(iterable));
+        } catch (UnsupportedMessageException e) {
+            throw LSException.typeError(this, iterable);
+        }
+    }
+
+    @Fallback
+    protected void typeError(Object iterable) {
+        throw LSException.typeError(this, iterable);
+    }
+
+    private void iterate(VirtualFrame frame, Object iterated) {
+        frame.setObject(iterableSlot, iterated);
+        frame.setLong(indexSlot, 0);
+        loopNode.execute(frame);
+    }
+
+    protected static Object[] getPropertyNames(Shape shape) {
+        return LSObject.getPropertyNames(shape);
+    }
+
+    protected static boolean isArray(LSObject object) {
+        return object instanceof LSArray || object instanceof LSTypedArray;
+    }
+
+    protected static boolean isLSObject(Object object) {
+        return object instanceof LSObject;
+    }
+
+}
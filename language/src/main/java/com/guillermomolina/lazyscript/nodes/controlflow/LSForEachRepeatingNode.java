@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteVariableNode;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.BranchProfile;
+
+/**
+ * The loop body of a {@link LSForEachNode for-each loop}. As for the
+ * {@link LSForRepeatingNode}, the Truffle framework {@link LoopNode} between
+ * the {@link LSForEachNode} and this node counts the iterations and enables
+ * on-stack replacement of long running loops.
+ * <p>
+ * The iterated value and the index of the next element live in frame slots
+ * owned by the loop. Each iteration fetches one element with a
+ * {@link LSForEachNextNode}, that specializes on the kind of the iterated value
+ * and on the storage of arrays. A body that generalizes the storage of the array
+ * it iterates therefore only makes the next fetch respecialize.
+ */
+public final class LSForEachRepeatingNode extends Node implements RepeatingNode {
+
+    private final FrameSlot iterableSlot;
+    private final FrameSlot indexSlot;
+
+    @Child private LSForEachNextNode nextNode;
+
+    /** Assigns each element to the loop variable. */
+    @Child private LSWriteVariableNode variableNode;
+
+    /** Statement (or {@link LSBlockNode block}) executed for every element. */
+    @Child private LSStatementNode bodyNode;
+
+    private final BranchProfile continueTaken = BranchProfile.create();
+    private final BranchProfile breakTaken = BranchProfile.create();
+
+    public LSForEachRepeatingNode(FrameSlot iterableSlot, FrameSlot indexSlot, LSWriteVariableNode variableNode,
+                    LSStatementNode bodyNode) {
+        this.iterableSlot = iterableSlot;
+        this.indexSlot = indexSlot;
+        this.nextNode = LSForEachNextNodeGen.create();
+        this.variableNode = variableNode;
+        this.bodyNode = bodyNode;
+    }
+
+    @Override
+    public boolean executeRepeating(VirtualFrame frame) {
+        final long index = FrameUtil.getLongSafe(frame, indexSlot);
+        final Object element = nextNode.execute(FrameUtil.getObjectSafe(frame, iterableSlot), index);
+        if (element == LSForEachNextNode.END) {
+            return false;
+        }
+        frame.setLong(indexSlot, index + 1);
+        variableNode.executeWrite(frame, element);
+        try {
+            bodyNode.executeVoid(frame);
+        } catch (LSContinueException ex) {
+            continueTaken.enter();
+        } catch (LSBreakException ex) {
+            breakTaken.enter();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return LSStatementNode.formatSourceSection(this);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.util.LSUnboxNodeGen;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.NodeInfo;
+import com.oracle.truffle.api.nodes.UnexpectedResultException;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+
+/**
+ * The node implementing a counted loop: {@code for (i in start..end) body}. The
+ * range is half open, so the body is executed for every {@code long} value from
+ * {@code start} up to, but not including, {@code end}. Both bounds are evaluated
+ * exactly once, before the first iteration.
+ * <p>
+ * The induction variable lives in a hidden {@code long} frame slot that is
+ * owned by the loop, and it is copied to the program variable at the start of
+ * each iteration. Assignments to the program variable inside the body therefore
+ * do not change the number of iterations, and the counter never leaves its
+ * primitive representation.
+ */
+@NodeInfo(shortName = "for", description = "The node implementing a counted for loop")
+public final class LSForNode extends LSStatementNode {
+
+    @Child private LSExpressionNode startNode;
+    @Child private LSExpressionNode endNode;
+    @Child private LoopNode loopNode;
+
+    private final FrameSlot indexSlot;
+    private final FrameSlot endSlot;
+
+    /** Profiles empty ranges, so that loops that always run do not pay for the check. */
+    private final ConditionProfile emptyRange = ConditionProfile.createCountingProfile();
+
+    public LSForNode(LSExpressionNode startNode, LSExpressionNode endNode, FrameSlot indexSlot, FrameSlot endSlot,
+                    LSStatementNode variableNode, LSStatementNode bodyNode) {
+        this.startNode = LSUnboxNodeGen.create(startNode);
+        this.endNode = LSUnboxNodeGen.create(endNode);
+        this.indexSlot = indexSlot;
+        this.endSlot = endSlot;
+        this.loopNode = Truffle.getRuntime().createLoopNode(new LSForRepeatingNode(indexSlot, endSlot, variableNode, bodyNode));
+    }
+
+    @Override
+    public void executeVoid(VirtualFrame frame) {
+        final long start = evaluateBound(frame, startNode);
+        final long end = evaluateBound(frame, endNode);
+        if (emptyRange.profile(start >= end)) {
+            return;
+        }
+        frame.setLong(indexSlot, start);
+        frame.setLong(endSlot, end);
+        loopNode.execute(frame);
+    }
+
+    private long evaluateBound(VirtualFrame frame, LSExpressionNode boundNode) {
+        try {
+            return boundNode.executeLong(frame);
+        } catch (UnexpectedResultException ex) {
+            /* Ranges are only defined for integer bounds that fit into a long. */
+            throw LSException.typeError(this, ex.getResult());
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.BranchProfile;
+
+/**
+ * The loop body of a {@link LSForNode counted for loop}. As for the
+ * {@link LSWhileRepeatingNode}, the Truffle framework {@link LoopNode} between
+ * the {@link LSForNode} and this node counts the iterations and enables
+ * on-stack replacement of long running loops.
+ * <p>
+ * The counter is a primitive {@code long} stored in a frame slot of kind
+ * {@code Long}. It is only incremented while it is strictly lower than the end
+ * of the range, so the increment can never overflow and needs no
+ * {@link Math#addExact overflow check}. This leaves the compiler with a plain
+ * counted loop.
+ */
+public final class LSForRepeatingNode extends Node implements RepeatingNode {
+
+    private final FrameSlot indexSlot;
+    private final FrameSlot endSlot;
+
+    /** Copies the counter to the program visible loop variable. */
+    @Child private LSStatementNode variableNode;
+
+    /** Statement (or {@link LSBlockNode block}) executed for every value of the range. */
+    @Child private LSStatementNode bodyNode;
+
+    private final BranchProfile continueTaken = BranchProfile.create();
+    private final BranchProfile breakTaken = BranchProfile.create();
+
+    public LSForRepeatingNode(FrameSlot indexSlot, FrameSlot endSlot, LSStatementNode variableNode,
+                    LSStatementNode bodyNode) {
+        this.indexSlot = indexSlot;
+        this.endSlot = endSlot;
+        this.variableNode = variableNode;
+        this.bodyNode = bodyNode;
+    }
+
+    @Override
+    public boolean executeRepeating(VirtualFrame frame) {
+        final long index = FrameUtil.getLongSafe(frame, indexSlot);
+        variableNode.executeVoid(frame);
+        try {
+            bodyNode.executeVoid(frame);
+        } catch (LSContinueException ex) {
+            continueTaken.enter();
+        } catch (LSBreakException ex) {
+            breakTaken.enter();
+            return false;
+        }
+        final long next = index + 1;
+        if (next < FrameUtil.getLongSafe(frame, endSlot)) {
+            frame.setLong(indexSlot, next);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return LSStatementNode.formatSourceSection(this);
+    }
+
+}
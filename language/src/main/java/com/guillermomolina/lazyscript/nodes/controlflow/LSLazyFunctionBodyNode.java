@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.NodeInfo;
+
+/**
+ * Placeholder for the body of a function or block that was not parsed yet.
+ * When a source is parsed, the parser only creates the root node of each
+ * function and block literal, with its frame descriptor and source section.
+ * The nodes of the body are built by the first call, that replaces this node
+ * with the resulting {@link LSFunctionBodyNode}. Functions that are never
+ * called never get an AST.
+ */
+@NodeInfo(shortName = "body", description = "The body of a function that was not parsed yet")
+public final class LSLazyFunctionBodyNode extends LSExpressionNode {
+
+    private Supplier<LSFunctionBodyNode> parser;
+    private volatile LSFunctionBodyNode body;
+
+    public LSLazyFunctionBodyNode(Supplier<LSFunctionBodyNode> parser) {
+        this.parser = parser;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        return materialize().executeGeneric(frame);
+    }
+
+    /**
+     * Parses the body, if it was not parsed yet, and replaces this node with it.
+     * Another thread may have parsed the body while waiting for the lock, then
+     * this node is not part of the AST anymore and the body is returned.
+     */
+    public LSFunctionBodyNode materialize() {
+        LSFunctionBodyNode result = body;
+        if (result == null) {
+            Lock lock = getLock();
+            lock.lock();
+            try {
+                result = body;
+                if (result == null) {
+                    result = parser.get();
+                    parser = null;
+                    replace(result, "Lazily parsed function body");
+                    notifyInserted(result);
+                    body = result;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+}
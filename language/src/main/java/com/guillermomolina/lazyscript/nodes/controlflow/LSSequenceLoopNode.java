@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
+import com.guillermomolina.lazyscript.runtime.objects.LSLineReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSSequence;
+import com.guillermomolina.lazyscript.runtime.objects.LSSequence.Stage;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameSlotKind;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.DirectCallNode;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.NodeInfo;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+
+/**
+ * The fused loop of a {@link LSSequence lazy sequence}. A terminal operation
+ * runs every element of the source through all the stages of the pipeline
+ * before producing the next one, so no intermediate array is ever created.
+ * <p>
+ * A loop node is created for one pipeline layout: the kind of source, the kind
+ * of each stage and the call target of each block. The cached version calls
+ * the blocks through {@link DirectCallNode}s and unrolls the stages, so once
+ * compiled, a pipeline like
+ * {@code range(0, n).map(...).filter(...).reduce(0, ...)} becomes a single loop
+ * with the blocks inlined, like the equivalent {@code while} loop.
+ * <p>
+ * The cached version runs one element per iteration of a Truffle
+ * {@link LoopNode}, so the iterations are counted and long running pipelines
+ * are compiled with on-stack replacement. The state of a run is a
+ * {@link Cursor}, kept in a hidden slot of the frame of the built-in that owns
+ * the loop.
+ */
+@NodeInfo(shortName = "sequence")
+public abstract class LSSequenceLoopNode extends Node {
+
+    /** Result of the stages for an element dropped by a filter or a take. */
+    private static final Object SKIP = new Object();
+
+    private static final int RANGE = 0;
+    private static final int ARRAY = 1;
+    private static final int LINES = 2;
+
+    private final int source;
+    @CompilationFinal(dimensions = 1) private final int[] kinds;
+    @CompilationFinal(dimensions = 1) private final RootCallTarget[] callTargets;
+    private final RootCallTarget reducerTarget;
+
+    protected LSSequenceLoopNode(LSSequence sequence, LSBlock reducer) {
+        final Stage[] stages = sequence.getStages();
+        this.source = getSource(sequence);
+        this.kinds = new int[stages.length];
+        this.callTargets = new RootCallTarget[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            kinds[i] = stages[i].getKind();
+            callTargets[i] = stages[i].getCallTarget();
+        }
+        this.reducerTarget = reducer == null ? null : reducer.getCallTarget();
+    }
+
+    /**
+     * Creates a loop node that is specialized for the layout of the sequence and
+     * the reducer block, {@code null} if the terminal operation collects the
+     * elements.
+     */
+    public static LSSequenceLoopNode create(LSSequence sequence, LSBlock reducer) {
+        return new Cached(sequence, reducer);
+    }
+
+    /**
+     * Creates a loop node for a terminal operation that collects the elements.
+     */
+    public static LSSequenceLoopNode create(LSSequence sequence) {
+        return new Cached(sequence, null);
+    }
+
+    /**
+     * Runs the pipeline without caching, used once a terminal operation has seen
+     * too many different pipelines.
+     */
+    @TruffleBoundary
+    public static Object reduceUncached(LSSequence sequence, Object initial, LSBlock reducer) {
+        final Uncached loop = new Uncached(sequence, reducer);
+        return loop.iterate(loop.createCursor(sequence, initial, reducer));
+    }
+
+    @TruffleBoundary
+    @SuppressWarnings("unchecked")
+    public static List<Object> collectUncached(LSSequence sequence) {
+        final Uncached loop = new Uncached(sequence, null);
+        return (List<Object>) loop.iterate(loop.createCursor(sequence, newList(), null));
+    }
+
+    private static int getSource(LSSequence sequence) {
+        if (sequence.getArray() != null) {
+            return ARRAY;
+        } else if (sequence.getLines() != null) {
+            return LINES;
+        }
+        return RANGE;
+    }
+
+    /**
+     * Calls the block of the given stage, {@code stage == number of stages}
+     * stands for the reducer.
+     */
+    protected abstract Object call(int stage, RootCallTarget callTarget, Object... arguments);
+
+    @ExplodeLoop
+    public boolean accepts(LSSequence sequence, LSBlock reducer) {
+        final Stage[] stages = sequence.getStages();
+        if (source != getSource(sequence) || stages.length != kinds.length) {
+            return false;
+        }
+        if ((reducer == null ? null : reducer.getCallTarget()) != reducerTarget) {
+            return false;
+        }
+        for (int i = 0; i < kinds.length; i++) {
+            if (stages[i].getKind() != kinds[i] || stages[i].getCallTarget() != callTargets[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean accepts(LSSequence sequence) {
+        return accepts(sequence, null);
+    }
+
+    public Object reduce(VirtualFrame frame, LSSequence sequence, Object initial, LSBlock reducer) {
+        return execute(frame, createCursor(sequence, initial, reducer));
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Object> collect(VirtualFrame frame, LSSequence sequence) {
+        return (List<Object>) execute(frame, createCursor(sequence, newList(), null));
+    }
+
+    /**
+     * Runs the loop until the cursor is exhausted and returns the accumulated
+     * value.
+     */
+    protected abstract Object execute(VirtualFrame frame, Cursor cursor);
+
+    protected final Cursor createCursor(LSSequence sequence, Object initial, LSBlock reducer) {
+        return new Cursor(sequence, reducer, initial, source == RANGE ? sequence.getStart() : 0);
+    }
+
+    /**
+     * Pulls the next element from the source and runs it through the pipeline.
+     * Returns false once the source or a take stage is exhausted.
+     */
+    protected final boolean step(Cursor cursor) {
+        if (isExhausted(cursor.stages, cursor.taken)) {
+            return false;
+        }
+        final Object element;
+        if (source == ARRAY) {
+            final LSArray array = cursor.sequence.getArray();
+            if (cursor.next >= array.getSize()) {
+                return false;
+            }
+            element = array.get((int) cursor.next++);
+        } else if (source == LINES) {
+            /* The take stages were checked first, so no line is read that is not used. */
+            element = cursor.sequence.getLines().next(this);
+            if (element == null) {
+                return false;
+            }
+        } else {
+            if (cursor.next >= cursor.sequence.getEnd()) {
+                return false;
+            }
+            element = cursor.next++;
+        }
+        cursor.accumulator = push(cursor.stages, cursor.taken, cursor.accumulator, cursor.reducer, element);
+        return true;
+    }
+
+    /**
+     * Runs one element through the stages and, if it was not dropped, through
+     * the terminal operation.
+     */
+    @ExplodeLoop
+    private Object push(Stage[] stages, long[] taken, Object accumulator, LSBlock reducer, Object element) {
+        Object value = element;
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case LSSequence.MAP:
+                    value = call(i, callTargets[i], stages[i].getBlock(), value);
+                    break;
+                case LSSequence.FILTER:
+                    if (!isTrue(call(i, callTargets[i], stages[i].getBlock(), value))) {
+                        return accumulator;
+                    }
+                    break;
+                case LSSequence.TAKE:
+                    if (taken[i] >= stages[i].getLimit()) {
+                        return accumulator;
+                    }
+                    taken[i]++;
+                    break;
+                default:
+                    throw CompilerDirectives.shouldNotReachHere();
+            }
+        }
+        if (reducer == null) {
+            add(accumulator, value);
+            return accumulator;
+        }
+        return call(kinds.length, reducerTarget, reducer, accumulator, value);
+    }
+
+    /**
+     * Once a take stage let its last element through, no other element can
+     * reach the end of the pipeline and the loop stops.
+     */
+    @ExplodeLoop
+    private boolean isExhausted(Stage[] stages, long[] taken) {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == LSSequence.TAKE && taken[i] >= stages[i].getLimit()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isTrue(Object condition) {
+        if (condition instanceof Boolean) {
+            return (boolean) condition;
+        }
+        throw LSException.typeError(this, condition);
+    }
+
+    @TruffleBoundary
+    private static Object newList() {
+        return new ArrayList<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    @TruffleBoundary
+    private static void add(Object list, Object value) {
+        ((List<Object>) list).add(value);
+    }
+
+    /**
+     * The state of one run of a loop: the position in the source, the number of
+     * elements let through by each take stage and the accumulated value.
+     */
+    protected static final class Cursor {
+        final LSSequence sequence;
+        final Stage[] stages;
+        final long[] taken;
+        final LSBlock reducer;
+        Object accumulator;
+        /** The index of the next array element, or the next value of a range. */
+        long next;
+
+        Cursor(LSSequence sequence, LSBlock reducer, Object initial, long next) {
+            this.sequence = sequence;
+            this.stages = sequence.getStages();
+            this.taken = new long[stages.length];
+            this.reducer = reducer;
+            this.accumulator = initial;
+            this.next = next;
+        }
+    }
+
+    private static final class Cached extends LSSequenceLoopNode {
+
+        /**
+         * The cursor is kept in the frame of the built-in, a built-in runs at most
+         * one loop at a time so every loop node of the built-in can share the slot.
+         */
+        private static final String CURSOR_SLOT = "(sequence)";
+
+        @Children private final DirectCallNode[] callNodes;
+        @Child private LoopNode loopNode;
+        @CompilationFinal private FrameSlot cursorSlot;
+
+        Cached(LSSequence sequence, LSBlock reducer) {
+            super(sequence, reducer);
+            final Stage[] stages = sequence.getStages();
+            this.callNodes = new DirectCallNode[stages.length + 1];
+            for (int i = 0; i < stages.length; i++) {
+                if (stages[i].getCallTarget() != null) {
+                    callNodes[i] = Truffle.getRuntime().createDirectCallNode(stages[i].getCallTarget());
+                }
+            }
+            if (reducer != null) {
+                callNodes[stages.length] = Truffle.getRuntime().createDirectCallNode(reducer.getCallTarget());
+            }
+            this.loopNode = Truffle.getRuntime().createLoopNode(new StepNode());
+        }
+
+        @Override
+        protected Object call(int stage, RootCallTarget callTarget, Object... arguments) {
+            return callNodes[stage].call(arguments);
+        }
+
+        @Override
+        protected Object execute(VirtualFrame frame, Cursor cursor) {
+            final FrameSlot slot = getCursorSlot();
+            frame.setObject(slot, cursor);
+            try {
+                loopNode.execute(frame);
+            } finally {
+                frame.setObject(slot, null);
+            }
+            return cursor.accumulator;
+        }
+
+        private FrameSlot getCursorSlot() {
+            if (cursorSlot == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                cursorSlot = getRootNode().getFrameDescriptor().findOrAddFrameSlot(CURSOR_SLOT, FrameSlotKind.Object);
+            }
+            return cursorSlot;
+        }
+
+        private final class StepNode extends Node implements RepeatingNode {
+
+            @Override
+            public boolean executeRepeating(VirtualFrame frame) {
+                return step((Cursor) FrameUtil.getObjectSafe(frame, cursorSlot));
+            }
+        }
+    }
+
+    private static final class Uncached extends LSSequenceLoopNode {
+
+        Uncached(LSSequence sequence, LSBlock reducer) {
+            super(sequence, reducer);
+        }
+
+        @Override
+        protected Object call(int stage, RootCallTarget callTarget, Object... arguments) {
+            return IndirectCallNode.getUncached().call(callTarget, arguments);
+        }
+
+        @Override
+        protected Object execute(VirtualFrame frame, Cursor cursor) {
+            return iterate(cursor);
+        }
+
+        Object iterate(Cursor cursor) {
+            while (step(cursor)) {
+                /* The pipeline runs in step. */
+            }
+            return cursor.accumulator;
+        }
+
+        @Override
+        public boolean isAdoptable() {
+            return false;
+        }
+    }
+}
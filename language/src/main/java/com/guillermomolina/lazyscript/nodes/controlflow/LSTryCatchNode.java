@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.controlflow;
+
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteVariableNode;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ControlFlowException;
+import com.oracle.truffle.api.nodes.NodeInfo;
+import com.oracle.truffle.api.profiles.BranchProfile;
+
+/**
+ * Implementation of the LazyScript {@code try/catch/finally} statement. The
+ * catch clause handles all guest exceptions, i.e. {@link AbstractTruffleException
+ * Truffle exceptions} raised by LazyScript or by other languages. The value bound
+ * to the catch variable is the {@link LSException#getExceptionValue() thrown
+ * value} for LazyScript exceptions and the exception object otherwise.
+ * <p>
+ * The finally block is executed on every exit of the try block, including the
+ * {@link ControlFlowException control flow exceptions} used by {@code return},
+ * {@code break} and {@code continue}.
+ */
+@NodeInfo(shortName = "try", description = "The node implementing a try/catch/finally statement")
+public final class LSTryCatchNode extends LSStatementNode {
+
+    @Child private LSStatementNode tryBlockNode;
+    @Child private LSWriteVariableNode catchVariableNode;
+    @Child private LSStatementNode catchBlockNode;
+    @Child private LSStatementNode finallyBlockNode;
+
+    private final BranchProfile exceptionTaken = BranchProfile.create();
+
+    public LSTryCatchNode(LSStatementNode tryBlockNode, LSWriteVariableNode catchVariableNode,
+                    LSStatementNode catchBlockNode, LSStatementNode finallyBlockNode) {
+        this.tryBlockNode = tryBlockNode;
+        this.catchVariableNode = catchVariableNode;
+        this.catchBlockNode = catchBlockNode;
+        this.finallyBlockNode = finallyBlockNode;
+    }
+
+    @Override
+    public void executeVoid(VirtualFrame frame) {
+        try {
+            tryBlockNode.executeVoid(frame);
+        } catch (AbstractTruffleException ex) {
+            exceptionTaken.enter();
+            if (catchBlockNode == null) {
+                throw ex;
+            }
+            catchVariableNode.executeWrite(frame, getExceptionValue(ex));
+            catchBlockNode.executeVoid(frame);
+        } finally {
+            if (finallyBlockNode != null) {
+                finallyBlockNode.executeVoid(frame);
+            }
+        }
+    }
+
+    private static Object getExceptionValue(AbstractTruffleException ex) {
+        if (ex instanceof LSException) {
+            return ((LSException) ex).getExceptionValue();
+        }
+        return ex;
+    }
+}
@@ -42,17 +42,12 @@ package com.guillermomolina.lazyscript.nodes.literals;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
-import com.oracle.truffle.api.CompilerDirectives;
-import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.NodeInfo;
 
 @NodeInfo(shortName = "() => {}")
 public final class LSBlockLiteralNode extends LSExpressionNode {
 
-    @CompilationFinal
-    private boolean scopeSet = false;
-
     @Child
     private LSFunctionLiteralNode functionLiteralNode;
 
@@ -60,19 +55,15 @@ public final class LSBlockLiteralNode extends LSExpressionNode {
         this.functionLiteralNode = functionLiteralNode;
     }
 
+    public LSFunctionLiteralNode getFunctionLiteralNode() {
+        return functionLiteralNode;
+    }
+
     @Override
     public Object executeGeneric(VirtualFrame frame) {
         Object function = functionLiteralNode.executeGeneric(frame);
         LSBlock block = getContext().createBlock(function);
-        if (!isScopeSet()) {
-            CompilerDirectives.transferToInterpreterAndInvalidate();
-            block.setEnclosingFrame(frame.materialize());
-            this.scopeSet = true;
-        }
+        block.setEnclosingFrame(frame.materialize());
         return block;
     }
-
-    protected boolean isScopeSet() {
-        return this.scopeSet;
-    }
 }
@@ -40,6 +40,8 @@
  */
 package com.guillermomolina.lazyscript.nodes.literals;
 
+import java.lang.ref.WeakReference;
+
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.runtime.LSContext;
@@ -48,6 +50,7 @@ import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.TruffleLanguage.ContextPolicy;
 import com.oracle.truffle.api.TruffleLanguage.ContextReference;
@@ -69,6 +72,12 @@ public final class LSFunctionLiteralNode extends LSExpressionNode {
 
     private final RootCallTarget callTarget;
 
+    /**
+     * The name under which a top-level function of a script is defined, see
+     * {@link LSContext#defineFunction}, {@code null} for the other literals.
+     */
+    private final String definedName;
+
     /**
      * The resolved function. During parsing (in the constructor of this node), we do not have the
      * {@link LSContext} available yet, so the lookup can only be done at {@link #executeGeneric
@@ -77,6 +86,23 @@ public final class LSFunctionLiteralNode extends LSExpressionNode {
      */
     @CompilationFinal private LSFunction cachedFunction;
 
+    /**
+     * The function of the last context that evaluated the literal, in the
+     * multi-context case. The references are weak, so the AST keeps neither
+     * the context nor its objects alive.
+     */
+    private static final class ContextFunction {
+        private final WeakReference<LSContext> context;
+        private final WeakReference<LSFunction> function;
+
+        ContextFunction(LSContext context, LSFunction function) {
+            this.context = new WeakReference<>(context);
+            this.function = new WeakReference<>(function);
+        }
+    }
+
+    private volatile ContextFunction contextFunction;
+
     /**
      * The stored context reference. Caching the context reference in a field like this always
      * ensures the most efficient context lookup. The {@link LSContext} must not be stored in the
@@ -91,8 +117,17 @@ public final class LSFunctionLiteralNode extends LSExpressionNode {
     @CompilationFinal private LSLanguage language;
 
     public LSFunctionLiteralNode(String functionName, final RootCallTarget callTarget) {
+        this(functionName, callTarget, null);
+    }
+
+    public LSFunctionLiteralNode(String functionName, final RootCallTarget callTarget, String definedName) {
         this.functionName = functionName;
         this.callTarget = callTarget;
+        this.definedName = definedName;
+    }
+
+    public RootCallTarget getCallTarget() {
+        return callTarget;
     }
 
     @Override
@@ -116,7 +151,7 @@ public final class LSFunctionLiteralNode extends LSExpressionNode {
                 /* We are about to change a @CompilationFinal field. */
                 CompilerDirectives.transferToInterpreterAndInvalidate();
                 /* First execution of the node: lookup the function in the function registry. */
-                this.cachedFunction = function = getContext().createFunction(functionName, callTarget);
+                this.cachedFunction = function = createFunction();
             }
         } else {
             /*
@@ -127,9 +162,42 @@ public final class LSFunctionLiteralNode extends LSExpressionNode {
                 this.cachedFunction = null;
             }
             // in the multi-context case we are not allowed to store
-            // LSFunction objects in the AST. Instead we always perform the lookup in the hash map.
-            function = getContext().createFunction(functionName, callTarget);
+            // LSFunction objects in the AST. Instead we only remember the function of the last context weakly.
+            if (definedName != null) {
+                function = createFunction();
+            } else {
+                function = getLiteralFunction(contextReference.get());
+            }
+        }
+        return function;
+    }
+
+    /**
+     * Returns the function of the literal in the multi-context case, without
+     * leaving compiled code while the same context evaluates the literal.
+     */
+    private LSFunction getLiteralFunction(LSContext context) {
+        final ContextFunction entry = contextFunction;
+        if (entry != null && entry.context.get() == context) {
+            final LSFunction function = entry.function.get();
+            if (function != null) {
+                return function;
+            }
         }
+        return lookupLiteralFunction(context);
+    }
+
+    @TruffleBoundary
+    private LSFunction lookupLiteralFunction(LSContext context) {
+        final LSFunction function = context.getLiteralFunction(functionName, callTarget);
+        contextFunction = new ContextFunction(context, function);
         return function;
     }
+
+    private LSFunction createFunction() {
+        if (definedName != null) {
+            return getContext().defineFunction(getSourceSection().getSource(), definedName, callTarget);
+        }
+        return getContext().createFunction(functionName, callTarget);
+    }
 }
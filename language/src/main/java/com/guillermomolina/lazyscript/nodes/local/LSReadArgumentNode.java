@@ -41,7 +41,7 @@
 package com.guillermomolina.lazyscript.nodes.local;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
-import com.guillermomolina.lazyscript.parser.LSParserVisitor;
+import com.guillermomolina.lazyscript.parser.LSNodeFactory;
 import com.guillermomolina.lazyscript.runtime.objects.LSNull;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.profiles.BranchProfile;
@@ -51,7 +51,7 @@ import com.oracle.truffle.api.profiles.BranchProfile;
  * <p>
  * Arguments are not type-specialized. To ensure that repeated accesses within a method are
  * specialized and can, e.g., be accessed without unboxing, all arguments are loaded into local
- * variables {@link LSParserVisitor#addFormalParameter in the method prologue}.
+ * variables in the method prologue (see {@link LSNodeFactory}).
  */
 public class LSReadArgumentNode extends LSExpressionNode {
 
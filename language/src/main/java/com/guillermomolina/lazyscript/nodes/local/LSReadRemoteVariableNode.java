@@ -42,7 +42,7 @@ package com.guillermomolina.lazyscript.nodes.local;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.nodes.interop.NodeObjectDescriptor;
-import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
+import com.guillermomolina.lazyscript.runtime.objects.LSClosure;
 import com.oracle.truffle.api.dsl.NodeField;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.frame.Frame;
@@ -78,8 +78,8 @@ public abstract class LSReadRemoteVariableNode extends LSExpressionNode {
         Frame lookupFrame = frame;
         for (int i = 0; i < this.getDepth(); i++) {
             Object block = lookupFrame.getArguments()[0];
-            assert block instanceof LSBlock;
-            lookupFrame = ((LSBlock)block).getEnclosingFrame();
+            assert block instanceof LSClosure;
+            lookupFrame = ((LSClosure) block).getEnclosingFrame();
         }
         if(lookupFrame == null) {
             throw new UnsupportedOperationException();
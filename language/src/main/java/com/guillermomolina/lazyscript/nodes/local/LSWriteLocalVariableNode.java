@@ -62,7 +62,7 @@ import com.oracle.truffle.api.source.SourceSection;
 @NodeField(name = "slot", type = FrameSlot.class)
 @NodeField(name = "nameNode", type = LSExpressionNode.class)
 @NodeField(name = "declaration", type = boolean.class)
-public abstract class LSWriteLocalVariableNode extends LSExpressionNode {
+public abstract class LSWriteLocalVariableNode extends LSExpressionNode implements LSWriteVariableNode {
 
     /**
      * Returns the descriptor of the accessed local variable. The implementation of this method is
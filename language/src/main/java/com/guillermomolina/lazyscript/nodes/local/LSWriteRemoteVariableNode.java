@@ -42,7 +42,7 @@ package com.guillermomolina.lazyscript.nodes.local;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.nodes.interop.NodeObjectDescriptor;
-import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
+import com.guillermomolina.lazyscript.runtime.objects.LSClosure;
 import com.oracle.truffle.api.dsl.Fallback;
 import com.oracle.truffle.api.dsl.NodeChild;
 import com.oracle.truffle.api.dsl.NodeField;
@@ -65,7 +65,7 @@ import com.oracle.truffle.api.source.SourceSection;
 @NodeField(name = "slot", type = FrameSlot.class)
 @NodeField(name = "nameNode", type = LSExpressionNode.class)
 @NodeField(name = "depth", type = int.class)
-public abstract class LSWriteRemoteVariableNode extends LSExpressionNode {
+public abstract class LSWriteRemoteVariableNode extends LSExpressionNode implements LSWriteVariableNode {
 
     protected abstract FrameSlot getSlot();
     
@@ -88,8 +88,8 @@ public abstract class LSWriteRemoteVariableNode extends LSExpressionNode {
         Frame lookupFrame = frame;
         for (int i = 0; i < this.getDepth(); i++) {
             Object block = lookupFrame.getArguments()[0];
-            assert block instanceof LSBlock;
-            lookupFrame = ((LSBlock)block).getEnclosingFrame();
+            assert block instanceof LSClosure;
+            lookupFrame = ((LSClosure) block).getEnclosingFrame();
         }
 
         final FrameSlot slot = this.getSlot();
@@ -58,8 +58,8 @@ import com.oracle.truffle.api.nodes.NodeInfo;
  * {@link #equal(Object, Object) implementation} that can handle all possible types including
  * interop types.
  * <p>
- * Note that we do not need the analogous {@code !=} operator, because we can just
- * {@link LSLogicalNotNode negate} the {@code ==} operator.
+ * The {@code !=} operator is the {@link LSNotEqualNode}, that shares the
+ * {@link #isEqual generic case} with this node.
  */
 @NodeInfo(shortName = "==")
 public abstract class LSEqualNode extends LSBinaryNode {
@@ -75,8 +75,12 @@ public abstract class LSEqualNode extends LSBinaryNode {
     }
 
     @Specialization
-    @TruffleBoundary
     protected boolean doBigInteger(LSBigInteger left, LSBigInteger right) {
+        return equalBigIntegers(left, right);
+    }
+
+    @TruffleBoundary
+    static boolean equalBigIntegers(LSBigInteger left, LSBigInteger right) {
         return left.equals(right);
     }
 
@@ -123,6 +127,10 @@ public abstract class LSEqualNode extends LSBinaryNode {
     public boolean doGeneric(Object left, Object right,
                     @CachedLibrary("left") InteropLibrary leftInterop,
                     @CachedLibrary("right") InteropLibrary rightInterop) {
+        return isEqual(left, right, leftInterop, rightInterop);
+    }
+
+    static boolean isEqual(Object left, Object right, InteropLibrary leftInterop, InteropLibrary rightInterop) {
         /*
          * This method looks very inefficient. In practice most of these branches fold as the
          * interop type checks typically return a constant when using a cached library.
@@ -133,15 +141,15 @@ public abstract class LSEqualNode extends LSBinaryNode {
          */
         try {
             if (leftInterop.isBoolean(left) && rightInterop.isBoolean(right)) {
-                return doBoolean(leftInterop.asBoolean(left), rightInterop.asBoolean(right));
+                return leftInterop.asBoolean(left) == rightInterop.asBoolean(right);
             } else if (leftInterop.isString(left) && rightInterop.isString(right)) {
-                return doString(leftInterop.asString(left), (rightInterop.asString(right)));
+                return leftInterop.asString(left).equals(rightInterop.asString(right));
             } else if (leftInterop.isNull(left) && rightInterop.isNull(right)) {
                 return true;
             } else if (leftInterop.fitsInLong(left) && rightInterop.fitsInLong(right)) {
-                return doLong(leftInterop.asLong(left), (rightInterop.asLong(right)));
+                return leftInterop.asLong(left) == rightInterop.asLong(right);
             } else if (left instanceof LSBigInteger && right instanceof LSBigInteger) {
-                return doBigInteger((LSBigInteger) left, (LSBigInteger) right);
+                return equalBigIntegers((LSBigInteger) left, (LSBigInteger) right);
             } else if (leftInterop.hasIdentity(left) && rightInterop.hasIdentity(right)) {
                 return leftInterop.isIdentical(left, right, rightInterop);
             } else {
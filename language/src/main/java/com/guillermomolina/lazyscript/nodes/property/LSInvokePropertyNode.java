@@ -41,8 +41,10 @@
 package com.guillermomolina.lazyscript.nodes.property;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.util.LSForceNode;
 import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
 import com.guillermomolina.lazyscript.runtime.objects.LSFunction;
+import com.guillermomolina.lazyscript.runtime.objects.LSGlobalObject;
 import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.StandardTags;
@@ -75,6 +77,11 @@ public final class LSInvokePropertyNode extends LSExpressionNode {
     private final LSExpressionNode[] argumentNodes;
     @Child
     private InteropLibrary library;
+    @Child
+    private LSForceNode forceNode;
+    /** Reads the functions defined in the global object, see {@link LSReadGlobalNode}. */
+    @Child
+    private LSReadGlobalNode readGlobalNode;
 
     public LSInvokePropertyNode(final LSExpressionNode receiverNode, final LSExpressionNode nameNode,
             final LSExpressionNode[] argumentNodes) {
@@ -82,6 +89,8 @@ public final class LSInvokePropertyNode extends LSExpressionNode {
         this.nameNode = nameNode;
         this.argumentNodes = argumentNodes;
         this.library = InteropLibrary.getFactory().createDispatched(3);
+        this.forceNode = LSForceNode.create();
+        this.readGlobalNode = LSReadGlobalNodeGen.create();
         LSReadPropertyNodeGen.create(receiverNode, nameNode);
     }
 
@@ -96,13 +105,21 @@ public final class LSInvokePropertyNode extends LSExpressionNode {
          */
         CompilerAsserts.compilationConstant(argumentNodes.length);
 
-        Object receiver = receiverNode.executeGeneric(frame);
+        Object receiver = forceNode.execute(receiverNode.executeGeneric(frame));
         String methodName = (String) nameNode.executeGeneric(frame);
-        LSFunction function;
-        try {
-            function = getContext().getFunction(receiver, methodName);
-        } catch (UnknownIdentifierException e) {
-            throw LSUndefinedNameException.undefinedFunction(this, methodName);
+        LSFunction function = null;
+        if (receiver instanceof LSGlobalObject) {
+            Object global = readGlobalNode.executeRead((LSGlobalObject) receiver, methodName);
+            if (global instanceof LSFunction) {
+                function = (LSFunction) global;
+            }
+        }
+        if (function == null) {
+            try {
+                function = getContext().getFunction(receiver, methodName);
+            } catch (UnknownIdentifierException e) {
+                throw LSUndefinedNameException.undefinedFunction(this, methodName);
+            }
         }
 
         Object[] argumentValues = new Object[argumentNodes.length + 1];
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.property;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.runtime.objects.LSGlobalObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSPropertyCell;
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.CachedLanguage;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+import com.oracle.truffle.api.object.Shape;
+import com.oracle.truffle.api.utilities.NeverValidAssumption;
+
+/**
+ * Reads an own property of the {@link LSGlobalObject}, returns {@code null}
+ * if the global object does not have it (the caller then looks the name up in
+ * the prototypes). The {@link LSPropertyCell cell} of the name is cached, and
+ * while the global is not redefined its value is a constant.
+ *
+ * The global object and its cells belong to a context, so they are only
+ * cached while the language runs a single context. When the contexts share
+ * the code the cache is keyed on the shape of the global object instead, the
+ * global objects of the contexts share their shapes while they define the
+ * same names in the same order. A name that the shape does not have is read
+ * as missing without a lookup.
+ */
+public abstract class LSReadGlobalNode extends Node {
+
+    static final int CACHE_LIMIT = 3;
+
+    public abstract Object executeRead(LSGlobalObject global, String name);
+
+    @Specialization(guards = {"global == cachedGlobal", "cachedName.equals(name)"}, limit = "CACHE_LIMIT", //
+                    assumptions = {"singleContext", "attached(cell)", "constant(cell)"})
+    protected static Object readConstant(LSGlobalObject global, String name,
+                    @CachedLanguage LSLanguage language,
+                    @Cached("language.getSingleContextAssumption()") Assumption singleContext,
+                    @Cached("global") LSGlobalObject cachedGlobal,
+                    @Cached("name") String cachedName,
+                    @Cached("global.getCell(name)") LSPropertyCell cell,
+                    @Cached("valueOf(cell)") Object value) {
+        return value;
+    }
+
+    @Specialization(guards = {"global == cachedGlobal", "cachedName.equals(name)"}, limit = "CACHE_LIMIT", //
+                    assumptions = {"singleContext", "attached(cell)"})
+    protected static Object readCell(LSGlobalObject global, String name,
+                    @CachedLanguage LSLanguage language,
+                    @Cached("language.getSingleContextAssumption()") Assumption singleContext,
+                    @Cached("global") LSGlobalObject cachedGlobal,
+                    @Cached("name") String cachedName,
+                    @Cached("global.getCell(name)") LSPropertyCell cell) {
+        return cell.getValue();
+    }
+
+    @Specialization(guards = {"global.getShape() == cachedShape", "cachedName.equals(name)", "!cachedShape.hasProperty(cachedName)"}, //
+                    limit = "CACHE_LIMIT", assumptions = "cachedShape.getValidAssumption()")
+    protected static Object readMissing(LSGlobalObject global, String name,
+                    @Cached("global.getShape()") Shape cachedShape,
+                    @Cached("name") String cachedName) {
+        return null;
+    }
+
+    @Specialization(guards = {"global.getShape() == cachedShape", "cachedName.equals(name)"}, limit = "CACHE_LIMIT", //
+                    assumptions = "cachedShape.getValidAssumption()")
+    protected static Object readShared(LSGlobalObject global, String name,
+                    @Cached("global.getShape()") Shape cachedShape,
+                    @Cached("name") String cachedName,
+                    @CachedLibrary("global") DynamicObjectLibrary objects) {
+        return ((LSPropertyCell) objects.getOrDefault(global, cachedName, null)).getValue();
+    }
+
+    @Specialization(replaces = {"readConstant", "readCell", "readMissing", "readShared"})
+    @TruffleBoundary
+    protected static Object readGeneric(LSGlobalObject global, String name) {
+        LSPropertyCell cell = global.getCell(name);
+        return cell == null ? null : cell.getValue();
+    }
+
+    /*
+     * A name that the global object does not have has no cell, the never valid
+     * assumption keeps the single context specializations from being used for
+     * it, it is read by readMissing instead.
+     */
+
+    static Assumption attached(LSPropertyCell cell) {
+        return cell == null ? NeverValidAssumption.INSTANCE : cell.getAttachedAssumption();
+    }
+
+    static Assumption constant(LSPropertyCell cell) {
+        return cell == null ? NeverValidAssumption.INSTANCE : cell.getConstantAssumption();
+    }
+
+    static Object valueOf(LSPropertyCell cell) {
+        return cell == null ? null : cell.getValue();
+    }
+}
@@ -41,9 +41,14 @@
 package com.guillermomolina.lazyscript.nodes.property;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.util.LSForceNode;
 import com.guillermomolina.lazyscript.nodes.util.LSToMemberNode;
 import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
+import com.guillermomolina.lazyscript.runtime.objects.LSGlobalObject;
 import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray.ElementType;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.NodeChild;
 import com.oracle.truffle.api.dsl.Specialization;
@@ -70,6 +75,32 @@ public abstract class LSReadPropertyNode extends LSExpressionNode {
 
     static final int LIBRARY_LIMIT = 3;
 
+    public abstract Object executeRead(Object receiver, Object name);
+
+    /**
+     * A {@link LSThunk lazy value} does not have properties of its own, reading
+     * a property forces it and reads the property of the result.
+     */
+    @Specialization
+    protected Object readThunk(LSThunk receiver, Object name,
+            @Cached LSForceNode force,
+            @Cached("createUninitialized()") LSReadPropertyNode read) {
+        return read.executeRead(force.execute(receiver), name);
+    }
+
+    /**
+     * The elements of a {@link LSTypedArray typed array} are read straight from
+     * its memory, for the cached element type.
+     */
+    @Specialization(guards = "receiver.getElementType() == elementType", limit = "LIBRARY_LIMIT")
+    protected Object readTypedArray(LSTypedArray receiver, long index,
+            @Cached("receiver.getElementType()") ElementType elementType) {
+        if (!receiver.isInBounds(index)) {
+            throw LSUndefinedNameException.undefinedProperty(this, index);
+        }
+        return receiver.read(elementType, (int) index);
+    }
+
     @Specialization(guards = "arrays.hasArrayElements(receiver)", limit = "LIBRARY_LIMIT")
     protected Object readArray(Object receiver, Object index, @CachedLibrary("receiver") InteropLibrary arrays,
             @CachedLibrary("index") InteropLibrary numbers) {
@@ -81,6 +112,26 @@ public abstract class LSReadPropertyNode extends LSExpressionNode {
         }
     }
 
+    /**
+     * The own properties of the global object are read through their cells, see
+     * {@link LSReadGlobalNode}.
+     */
+    @Specialization
+    protected Object readGlobal(LSGlobalObject receiver, String name,
+            @Cached LSReadGlobalNode readGlobal,
+            @CachedLibrary(limit = "LIBRARY_LIMIT") InteropLibrary objects) {
+        Object result = readGlobal.executeRead(receiver, name);
+        if (result != null) {
+            return result;
+        }
+        try {
+            return objects.readMember(receiver, name);
+        } catch (UnsupportedMessageException | UnknownIdentifierException e) {
+            // read was not successful. In LazyScript we only have basic support for errors.
+            throw LSUndefinedNameException.undefinedProperty(this, name);
+        }
+    }
+
     @Specialization(guards = "objects.hasMembers(receiver)", limit = "LIBRARY_LIMIT")
     protected Object readObject(Object receiver, Object name, @CachedLibrary("receiver") InteropLibrary objects,
             @Cached LSToMemberNode asMember) {
@@ -92,7 +143,7 @@ public abstract class LSReadPropertyNode extends LSExpressionNode {
         }
     }
 
-    @Specialization(limit = "LIBRARY_LIMIT")
+    @Specialization(guards = "!isThunk(receiver)", limit = "LIBRARY_LIMIT")
     protected Object readNonObject(Object receiver, Object name, @CachedLibrary("receiver") InteropLibrary objects,
             @Cached LSToMemberNode asMember) {
         try {
@@ -107,4 +158,11 @@ public abstract class LSReadPropertyNode extends LSExpressionNode {
         }
     }
 
+    protected static boolean isThunk(Object value) {
+        return value instanceof LSThunk;
+    }
+
+    protected static LSReadPropertyNode createUninitialized() {
+        return LSReadPropertyNodeGen.create(null, null);
+    }
 }
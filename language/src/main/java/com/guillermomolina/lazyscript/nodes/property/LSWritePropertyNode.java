@@ -42,7 +42,10 @@ package com.guillermomolina.lazyscript.nodes.property;
 
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.nodes.util.LSToMemberNode;
+import com.guillermomolina.lazyscript.runtime.LSException;
 import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray.ElementType;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.NodeChild;
 import com.oracle.truffle.api.dsl.Specialization;
@@ -72,6 +75,22 @@ public abstract class LSWritePropertyNode extends LSExpressionNode {
 
     static final int LIBRARY_LIMIT = 3;
 
+    /**
+     * The elements of a {@link LSTypedArray typed array} are written straight to
+     * its memory, for the cached element type.
+     */
+    @Specialization(guards = "receiver.getElementType() == elementType", limit = "LIBRARY_LIMIT")
+    protected Object writeTypedArray(LSTypedArray receiver, long index, Object value,
+                    @Cached("receiver.getElementType()") ElementType elementType) {
+        if (!receiver.isInBounds(index)) {
+            throw LSUndefinedNameException.undefinedProperty(this, index);
+        }
+        if (!receiver.write(elementType, (int) index, value)) {
+            throw LSException.typeError(this, receiver, index, value);
+        }
+        return value;
+    }
+
     @Specialization(guards = "arrays.hasArrayElements(receiver)", limit = "LIBRARY_LIMIT")
     protected Object writeArray(Object receiver, Object index, Object value,
                     @CachedLibrary("receiver") InteropLibrary arrays,
@@ -43,10 +43,12 @@ package com.guillermomolina.lazyscript.nodes.root;
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.runtime.LSContext;
-import com.guillermomolina.lazyscript.runtime.LSObjectUtil;
+import com.guillermomolina.lazyscript.runtime.LSEventLoop;
 import com.guillermomolina.lazyscript.runtime.LSUndefinedNameException;
 import com.guillermomolina.lazyscript.runtime.objects.LSFunction;
-import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSGlobalObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSPropertyCell;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.interop.ArityException;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -55,7 +57,7 @@ import com.oracle.truffle.api.interop.UnsupportedTypeException;
 import com.oracle.truffle.api.nodes.RootNode;
 
 /**
- * This class performs two additional tasks:
+ * This class performs three additional tasks:
  *
  * <ul>
  * <li>Lazily registration of functions on first execution. This fulfills the
@@ -64,6 +66,9 @@ import com.oracle.truffle.api.nodes.RootNode;
  * source code can be evaluated from a different language, i.e., the caller can
  * be a node from a different language that uses types not understood by
  * LazyScript.</li>
+ * <li>Running the tasks left in the {@link LSEventLoop event loop} once the
+ * outermost evaluation is done, so the reactions of the promises run before
+ * the result is returned, and writing the buffered output.</li>
  * </ul>
  */
 public final class LSEvalRootNode extends RootNode {
@@ -101,7 +106,7 @@ public final class LSEvalRootNode extends RootNode {
     @Override
     public Object execute(VirtualFrame frame) {
         final LSContext context = lookupContextReference(LSLanguage.class).get();
-        LSObject global = context.getGlobalObject();
+        LSGlobalObject global = context.getGlobalObject();
 
         Object[] frameArguments = frame.getArguments();
         Object[] argumentValues = new Object[frameArguments.length + 1];
@@ -111,14 +116,38 @@ public final class LSEvalRootNode extends RootNode {
         }
 
         LSFunction function = (LSFunction)functionNode.executeGeneric(frame);
-        LSObjectUtil.putProperty(global, "main", function);
+        defineMain(global, function);
 
+        final LSEventLoop eventLoop = context.getEventLoop();
+        final boolean outermost = eventLoop.enterEval();
         try {
-            return library.execute(function, argumentValues);
+            final Object result = library.execute(function, argumentValues);
+            if (outermost) {
+                eventLoop.run();
+            }
+            return result;
         } catch (ArityException | UnsupportedTypeException | UnsupportedMessageException e) {
             /* Execute was not successful. */
             throw LSUndefinedNameException.undefinedFunction(this, "main");
+        } finally {
+            eventLoop.exitEval();
+            if (outermost) {
+                context.flushOutput();
+            }
         }
+    }
 
+    /**
+     * Evaluating the same source again does not redefine {@code main}, which
+     * would invalidate the constant assumption of its global cell.
+     */
+    @TruffleBoundary
+    private static void defineMain(LSGlobalObject global, LSFunction function) {
+        final LSPropertyCell cell = global.getCell("main");
+        if (cell != null && cell.getValue() instanceof LSFunction
+                        && ((LSFunction) cell.getValue()).getCallTarget() == function.getCallTarget()) {
+            return;
+        }
+        global.putGlobal("main", function);
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.nodes.util;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.profiles.BranchProfile;
+
+/**
+ * Replaces a {@link LSThunk lazy value} with the result of its expression, and
+ * returns any other value unchanged.
+ * <p>
+ * The specializations act as a state profile of the site: a site that never
+ * sees a thunk only pays for a type check, and a site that only sees thunks
+ * that were already forced compiles to a load of the memoized value, because the
+ * evaluation path is behind a {@link BranchProfile} that is never entered.
+ */
+public abstract class LSForceNode extends Node {
+
+    public abstract Object execute(Object value);
+
+    @Specialization
+    protected Object doThunk(LSThunk thunk,
+                    @Cached BranchProfile unevaluated,
+                    @Cached IndirectCallNode callNode) {
+        if (thunk.isEvaluated()) {
+            return thunk.getValue();
+        }
+        unevaluated.enter();
+        return thunk.force(callNode, this);
+    }
+
+    @Specialization(guards = "!isThunk(value)")
+    protected static Object doValue(Object value) {
+        return value;
+    }
+
+    protected static boolean isThunk(Object value) {
+        return value instanceof LSThunk;
+    }
+
+    public static LSForceNode create() {
+        return LSForceNodeGen.create();
+    }
+}
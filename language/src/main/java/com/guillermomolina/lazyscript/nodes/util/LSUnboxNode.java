@@ -47,6 +47,8 @@ import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
 import com.guillermomolina.lazyscript.runtime.objects.LSBigInteger;
 import com.guillermomolina.lazyscript.runtime.objects.LSFunction;
 import com.guillermomolina.lazyscript.runtime.objects.LSNull;
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.NodeChild;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.dsl.TypeSystemReference;
@@ -64,6 +66,12 @@ public abstract class LSUnboxNode extends LSExpressionNode {
 
     static final int LIMIT = 5;
 
+    /**
+     * Unboxes a value that was already evaluated, used to unbox the result of
+     * forcing a {@link LSThunk lazy value}.
+     */
+    public abstract Object executeUnbox(Object value);
+
     @Specialization
     protected static String fromString(String value) {
         return value;
@@ -99,7 +107,14 @@ public abstract class LSUnboxNode extends LSExpressionNode {
         return value;
     }
 
-    @Specialization(limit = "LIMIT")
+    @Specialization
+    protected static Object fromThunk(LSThunk value,
+                    @Cached LSForceNode force,
+                    @Cached("create()") LSUnboxNode unbox) {
+        return unbox.executeUnbox(force.execute(value));
+    }
+
+    @Specialization(guards = "!isThunk(value)", limit = "LIMIT")
     public static Object fromForeign(Object value, @CachedLibrary("value") InteropLibrary interop) {
         try {
             if (interop.fitsInLong(value)) {
@@ -118,4 +133,12 @@ public abstract class LSUnboxNode extends LSExpressionNode {
         }
     }
 
+    protected static boolean isThunk(Object value) {
+        return value instanceof LSThunk;
+    }
+
+    public static LSUnboxNode create() {
+        return LSUnboxNodeGen.create(null);
+    }
+
 }
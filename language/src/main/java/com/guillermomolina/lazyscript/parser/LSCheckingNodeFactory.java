@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.NotImplementedException;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSBlockNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSNullLiteralNode;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * A {@link LSNodeFactory} that builds no AST, used by the {@link LSParser} to
+ * check the syntax of the function and block bodies it skips. Every call
+ * returns a new placeholder node, so the parser still tells the nodes apart,
+ * and only the errors that the factory reports while parsing, as a
+ * {@code break} outside of a loop, are kept.
+ */
+final class LSCheckingNodeFactory extends LSNodeFactory {
+
+    private static final LSStatementNode[] NO_STATEMENTS = new LSStatementNode[0];
+
+    /**
+     * Whether each enclosing scope is in a loop, the innermost first.
+     */
+    private final Deque<Boolean> scopes = new ArrayDeque<>();
+
+    LSCheckingNodeFactory(LSLanguage language, Source source) {
+        super(language, source);
+    }
+
+    private static LSExpressionNode placeholder() {
+        return new LSNullLiteralNode();
+    }
+
+    @Override
+    public void pushScope(boolean inLoop) {
+        scopes.push(inLoop);
+    }
+
+    @Override
+    public void popScope() {
+        scopes.pop();
+    }
+
+    @Override
+    public boolean isInLoop() {
+        return !scopes.isEmpty() && scopes.peek();
+    }
+
+    @Override
+    public List<LSStatementNode> startModule() {
+        throw new UnsupportedOperationException("Only bodies are checked");
+    }
+
+    @Override
+    public LSExpressionNode createModule(List<LSStatementNode> argumentInitializationNodes,
+            List<LSStatementNode> statementNodes, int start, int length) {
+        throw new UnsupportedOperationException("Only bodies are checked");
+    }
+
+    @Override
+    public LSExpressionNode createFunctionLiteral(LSExpressionNode nameNode, List<String> parameterNames,
+            BodyParser bodyParser, int blockStart, int blockLength, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createBlockLiteral(List<String> parameterNames, BodyParser bodyParser,
+            int blockStart, int blockLength, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSBlockNode createBlock(List<LSStatementNode> statementNodes, int start, int length) {
+        return new LSBlockNode(NO_STATEMENTS);
+    }
+
+    @Override
+    public List<LSStatementNode> startLazy() {
+        pushScope(false);
+        return new ArrayList<>();
+    }
+
+    @Override
+    public LSExpressionNode createLazy(List<LSStatementNode> bodyNodeList, LSExpressionNode valueNode,
+            int expressionStart, int expressionLength, int start, int length) {
+        popScope();
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createUnary(String operator, LSExpressionNode valueNode, int start, int length) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public LSExpressionNode createBinary(String operator, LSExpressionNode leftNode, LSExpressionNode rightNode,
+            int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createReadProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode, int start,
+            int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createReadVariable(LSExpressionNode nameNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createCall(LSExpressionNode receiverNode, LSExpressionNode functionNameNode,
+            List<LSExpressionNode> argumentNodeList, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createWriteVariable(LSExpressionNode nameNode, LSExpressionNode valueNode) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createWriteProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode,
+            LSExpressionNode valueNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createThisLiteral(int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createReadThis() {
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createBreak(int start, int length) {
+        if (!isInLoop()) {
+            throw parseError(start, length, "break used outside of loop");
+        }
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createContinue(int start, int length) {
+        if (!isInLoop()) {
+            throw parseError(start, length, "continue used outside of loop");
+        }
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createWhile(LSExpressionNode conditionNode, LSStatementNode blockNode, int start,
+            int length) {
+        return placeholder();
+    }
+
+    @Override
+    public ForHeader startFor(LSExpressionNode nameNode) {
+        pushScope(true);
+        return null;
+    }
+
+    @Override
+    public LSStatementNode createFor(LSExpressionNode startNode, LSExpressionNode endNode, ForHeader header,
+            LSStatementNode blockNode, int start, int length) {
+        popScope();
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode startForOf(LSExpressionNode nameNode) {
+        pushScope(true);
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createForOf(LSExpressionNode iterableNode, LSExpressionNode variableNode,
+            LSStatementNode blockNode, int start, int length) {
+        popScope();
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createIf(LSExpressionNode conditionNode, LSStatementNode thenPartNode,
+            LSStatementNode elsePartNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createReturn(LSExpressionNode valueNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createThrow(LSExpressionNode valueNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createCatchVariable(LSExpressionNode nameNode) {
+        return placeholder();
+    }
+
+    @Override
+    public LSStatementNode createTry(LSStatementNode tryBlockNode, LSExpressionNode catchVariableNode,
+            LSStatementNode catchBlockNode, LSStatementNode finallyBlockNode, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createImport(String path, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createIdentifier(String identifier, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createNullLiteral(int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createBooleanLiteral(boolean value, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createStringLiteral(String literal, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createIntegerLiteral(String literal, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createDecimalLiteral(String literal, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createArrayLiteral(List<LSExpressionNode> elementNodes, int start, int length) {
+        return placeholder();
+    }
+
+    @Override
+    public LSExpressionNode createObjectLiteral(List<LSExpressionNode> nameNodes, List<LSExpressionNode> valueNodes,
+            int start, int length) {
+        return placeholder();
+    }
+}
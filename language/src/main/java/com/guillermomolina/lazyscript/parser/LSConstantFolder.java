@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import com.guillermomolina.lazyscript.nodes.arithmetic.LSAddNode;
+
+/**
+ * Computes at parse time the result of binary operators whose operands are
+ * both literals. The results are the same as the ones of the operator nodes
+ * (see {@link LSAddNode}), and the operations that would not give a
+ * primitive value (a {@code long} overflow that gives a big integer) or would
+ * throw (a division by zero, a type error) are left to run time.
+ */
+final class LSConstantFolder {
+
+    private LSConstantFolder() {
+    }
+
+    /**
+     * Returns the value of the operation, or {@code null} if it cannot be
+     * computed at parse time.
+     */
+    static Object fold(String operator, Object left, Object right) {
+        if (left == null || right == null) {
+            return null;
+        }
+        if (operator.equals("+") && (left instanceof String || right instanceof String)) {
+            return left.toString() + right.toString();
+        }
+        if (left instanceof Long && right instanceof Long) {
+            return foldLong(operator, (Long) left, (Long) right);
+        }
+        if (isNumber(left) && isNumber(right)) {
+            return foldDouble(operator, ((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        if (left instanceof Boolean && right instanceof Boolean) {
+            return foldBoolean(operator, (Boolean) left, (Boolean) right);
+        }
+        if (left instanceof String && right instanceof String) {
+            switch (operator) {
+                case "==":
+                    return left.equals(right);
+                case "!=":
+                    return !left.equals(right);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    private static Object foldLong(String operator, long left, long right) {
+        try {
+            switch (operator) {
+                case "+":
+                    return Math.addExact(left, right);
+                case "-":
+                    return Math.subtractExact(left, right);
+                case "*":
+                    return Math.multiplyExact(left, right);
+                case "/":
+                    /* See LSDivNode for the overflow check */
+                    if (right == 0 || (left == Long.MIN_VALUE && right == -1)) {
+                        return null;
+                    }
+                    return left / right;
+                case "<":
+                    return left < right;
+                case "<=":
+                    return left <= right;
+                case ">":
+                    return left > right;
+                case ">=":
+                    return left >= right;
+                case "==":
+                    return left == right;
+                case "!=":
+                    return left != right;
+                default:
+                    return null;
+            }
+        } catch (ArithmeticException e) {
+            /* Overflows to a big integer at run time */
+            return null;
+        }
+    }
+
+    private static Object foldDouble(String operator, double left, double right) {
+        switch (operator) {
+            case "+":
+                return left + right;
+            case "-":
+                return left - right;
+            case "*":
+                return left * right;
+            case "/":
+                return left / right;
+            case "<":
+                return left < right;
+            case "<=":
+                return left <= right;
+            case ">":
+                return left > right;
+            case ">=":
+                return left >= right;
+            case "==":
+                return left == right;
+            case "!=":
+                return left != right;
+            default:
+                return null;
+        }
+    }
+
+    private static Object foldBoolean(String operator, boolean left, boolean right) {
+        switch (operator) {
+            case "&&":
+                return left && right;
+            case "||":
+                return left || right;
+            case "==":
+                return left == right;
+            case "!=":
+                return left != right;
+            default:
+                return null;
+        }
+    }
+}
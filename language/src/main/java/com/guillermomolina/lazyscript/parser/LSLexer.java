@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * The lexer of the hand written {@link LSParser}. It reads the characters of
+ * the {@link Source} directly and splits a range of them into tokens, that are
+ * kept in arrays of offsets: no token objects and no strings are created, the
+ * parser only extracts the text of the identifiers and literals it uses.
+ *
+ * The tokens are the ones of the LazyScript lexer grammar. White space and
+ * comments are skipped, but the lexer remembers whether a line terminator was
+ * found before each token, as the parser needs it to end statements.
+ */
+final class LSLexer {
+    static final int EOF = 0;
+    static final int LPAREN = 1;
+    static final int RPAREN = 2;
+    static final int LBRACK = 3;
+    static final int RBRACK = 4;
+    static final int LCURLY = 5;
+    static final int RCURLY = 6;
+    static final int COMMA = 7;
+    static final int RANGE = 8;
+    static final int DOT = 9;
+    static final int COLON = 10;
+    static final int SEMI = 11;
+    static final int OR = 12;
+    static final int AND = 13;
+    static final int LT = 14;
+    static final int LE = 15;
+    static final int GT = 16;
+    static final int GE = 17;
+    static final int EQUAL = 18;
+    static final int NOT_EQUAL = 19;
+    static final int ADD = 20;
+    static final int SUB = 21;
+    static final int MUL = 22;
+    static final int DIV = 23;
+    static final int BITAND = 24;
+    static final int BITOR = 25;
+    static final int ASSIGN = 26;
+    static final int ARROW = 27;
+    static final int NULL = 28;
+    static final int TRUE = 29;
+    static final int FALSE = 30;
+    static final int THIS = 31;
+    static final int DECIMAL_INTEGER_LITERAL = 32;
+    static final int HEX_INTEGER_LITERAL = 33;
+    static final int OCTAL_INTEGER_LITERAL = 34;
+    static final int BINARY_INTEGER_LITERAL = 35;
+    static final int DECIMAL_LITERAL = 36;
+    static final int BREAK = 37;
+    static final int CATCH = 38;
+    static final int CONTINUE = 39;
+    static final int DEBUGGER = 40;
+    static final int ELSE = 41;
+    static final int FINALLY = 42;
+    static final int FOR = 43;
+    static final int FUNCTION = 44;
+    static final int IF = 45;
+    static final int IMPORT = 46;
+    static final int IN = 47;
+    static final int LAZY = 48;
+    static final int OF = 49;
+    static final int RETURN = 50;
+    static final int THROW = 51;
+    static final int TRY = 52;
+    static final int WHILE = 53;
+    static final int IDENTIFIER = 54;
+    static final int STRING_LITERAL = 55;
+
+    private static final String[] DISPLAY_NAMES = { "<EOF>", "'('", "')'", "'['", "']'", "'{'", "'}'", "','",
+            "'..'", "'.'", "':'", "';'", "'||'", "'&&'", "'<'", "'<='", "'>'", "'>='", "'=='", "'!='", "'+'", "'-'",
+            "'*'", "'/'", "'&'", "'|'", "'='", "'=>'", "'null'", "'true'", "'false'", "'this'", "integer",
+            "hexadecimal integer", "octal integer", "binary integer", "decimal", "'break'", "'catch'", "'continue'",
+            "'debugger'", "'else'", "'finally'", "'for'", "'function'", "'if'", "'import'", "'in'", "'lazy'", "'of'",
+            "'return'", "'throw'", "'try'", "'while'", "identifier", "string" };
+
+    private static final Map<String, Integer> KEYWORDS = new HashMap<>();
+
+    static {
+        KEYWORDS.put("null", NULL);
+        KEYWORDS.put("true", TRUE);
+        KEYWORDS.put("false", FALSE);
+        KEYWORDS.put("this", THIS);
+        KEYWORDS.put("break", BREAK);
+        KEYWORDS.put("catch", CATCH);
+        KEYWORDS.put("continue", CONTINUE);
+        KEYWORDS.put("debugger", DEBUGGER);
+        KEYWORDS.put("else", ELSE);
+        KEYWORDS.put("finally", FINALLY);
+        KEYWORDS.put("for", FOR);
+        KEYWORDS.put("function", FUNCTION);
+        KEYWORDS.put("if", IF);
+        KEYWORDS.put("import", IMPORT);
+        KEYWORDS.put("in", IN);
+        KEYWORDS.put("lazy", LAZY);
+        KEYWORDS.put("of", OF);
+        KEYWORDS.put("return", RETURN);
+        KEYWORDS.put("throw", THROW);
+        KEYWORDS.put("try", TRY);
+        KEYWORDS.put("while", WHILE);
+    }
+
+    private final Source source;
+    private final CharSequence characters;
+    private final int end;
+
+    private int count;
+    private int[] types;
+    private int[] starts;
+    private int[] ends;
+    private boolean[] lineTerminatorBefore;
+    /** The type of the last number scanned by {@link #scanNumber}. */
+    private int numberType;
+
+    /**
+     * Splits the characters from {@code start} (inclusive) to {@code end}
+     * (exclusive) of the source into tokens. The last token is always an
+     * {@link #EOF} at {@code end}.
+     */
+    LSLexer(Source source, int start, int end) {
+        this.source = source;
+        this.characters = source.getCharacters();
+        this.end = end;
+        final int capacity = (end - start) / 4 + 16;
+        this.types = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.lineTerminatorBefore = new boolean[capacity];
+        tokenize(start);
+    }
+
+    static String displayName(int type) {
+        return DISPLAY_NAMES[type];
+    }
+
+    int getType(int token) {
+        return types[token];
+    }
+
+    int getStart(int token) {
+        return starts[token];
+    }
+
+    int getEnd(int token) {
+        return ends[token];
+    }
+
+    /**
+     * Returns whether there is a line terminator between the previous token
+     * and the given one, either in the white space or in a comment.
+     */
+    boolean isLineTerminatorBefore(int token) {
+        return lineTerminatorBefore[token];
+    }
+
+    String getText(int token) {
+        if (types[token] == EOF) {
+            return "<EOF>";
+        }
+        return characters.subSequence(starts[token], ends[token]).toString();
+    }
+
+    private char charAt(int index) {
+        return index < end ? characters.charAt(index) : '\0';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\u000C' || c == '\u00A0';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private void add(int type, int start, int stop, boolean afterLineTerminator) {
+        if (count == types.length) {
+            final int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            lineTerminatorBefore = Arrays.copyOf(lineTerminatorBefore, capacity);
+        }
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = stop;
+        lineTerminatorBefore[count] = afterLineTerminator;
+        count++;
+    }
+
+    private void tokenize(int start) {
+        int index = start;
+        boolean afterLineTerminator = false;
+        while (true) {
+            /* Skip white space and comments */
+            while (index < end) {
+                final char c = characters.charAt(index);
+                if (isWhiteSpace(c)) {
+                    index++;
+                } else if (isLineTerminator(c)) {
+                    afterLineTerminator = true;
+                    index++;
+                } else if (c == '/' && charAt(index + 1) == '*') {
+                    final int commentStart = index;
+                    index += 2;
+                    while (index < end && !(characters.charAt(index) == '*' && charAt(index + 1) == '/')) {
+                        afterLineTerminator |= isLineTerminator(characters.charAt(index));
+                        index++;
+                    }
+                    if (index >= end) {
+                        throw LSParseError.at(source, commentStart, 2, "unterminated comment");
+                    }
+                    index += 2;
+                } else if (c == '/' && charAt(index + 1) == '/') {
+                    index += 2;
+                    while (index < end && !isLineTerminator(characters.charAt(index))) {
+                        index++;
+                    }
+                } else {
+                    break;
+                }
+            }
+            if (index >= end) {
+                add(EOF, end, end, afterLineTerminator);
+                return;
+            }
+            final int tokenStart = index;
+            final int type;
+            final char c = characters.charAt(index++);
+            switch (c) {
+                case '(':
+                    type = LPAREN;
+                    break;
+                case ')':
+                    type = RPAREN;
+                    break;
+                case '[':
+                    type = LBRACK;
+                    break;
+                case ']':
+                    type = RBRACK;
+                    break;
+                case '{':
+                    type = LCURLY;
+                    break;
+                case '}':
+                    type = RCURLY;
+                    break;
+                case ',':
+                    type = COMMA;
+                    break;
+                case ':':
+                    type = COLON;
+                    break;
+                case ';':
+                    type = SEMI;
+                    break;
+                case '+':
+                    type = ADD;
+                    break;
+                case '-':
+                    type = SUB;
+                    break;
+                case '*':
+                    type = MUL;
+                    break;
+                case '/':
+                    type = DIV;
+                    break;
+                case '.':
+                    if (charAt(index) == '.') {
+                        index++;
+                        type = RANGE;
+                    } else {
+                        type = DOT;
+                    }
+                    break;
+                case '|':
+                    if (charAt(index) == '|') {
+                        index++;
+                        type = OR;
+                    } else {
+                        type = BITOR;
+                    }
+                    break;
+                case '&':
+                    if (charAt(index) == '&') {
+                        index++;
+                        type = AND;
+                    } else {
+                        type = BITAND;
+                    }
+                    break;
+                case '<':
+                    if (charAt(index) == '=') {
+                        index++;
+                        type = LE;
+                    } else {
+                        type = LT;
+                    }
+                    break;
+                case '>':
+                    if (charAt(index) == '=') {
+                        index++;
+                        type = GE;
+                    } else {
+                        type = GT;
+                    }
+                    break;
+                case '=':
+                    if (charAt(index) == '=') {
+                        index++;
+                        type = EQUAL;
+                    } else if (charAt(index) == '>') {
+                        index++;
+                        type = ARROW;
+                    } else {
+                        type = ASSIGN;
+                    }
+                    break;
+                case '!':
+                    if (charAt(index) != '=') {
+                        throw tokenRecognitionError(tokenStart, index);
+                    }
+                    index++;
+                    type = NOT_EQUAL;
+                    break;
+                case '"':
+                    index = scanString(tokenStart, index);
+                    type = STRING_LITERAL;
+                    break;
+                default:
+                    if (isLetter(c)) {
+                        while (isLetter(charAt(index)) || isDigit(charAt(index))) {
+                            index++;
+                        }
+                        final Integer keyword = KEYWORDS.get(characters.subSequence(tokenStart, index).toString());
+                        type = keyword == null ? IDENTIFIER : keyword;
+                    } else if (isDigit(c)) {
+                        index = scanNumber(tokenStart, index);
+                        type = numberType;
+                    } else {
+                        throw tokenRecognitionError(tokenStart, index);
+                    }
+                    break;
+            }
+            add(type, tokenStart, index, afterLineTerminator);
+            afterLineTerminator = false;
+        }
+    }
+
+    private LSParseError tokenRecognitionError(int start, int stop) {
+        return LSParseError.at(source, start, stop - start,
+                "token recognition error at: '" + characters.subSequence(start, stop) + "'");
+    }
+
+    /**
+     * Strings have no escape sequences and end in the same line.
+     */
+    private int scanString(int start, int index) {
+        int current = index;
+        while (current < end) {
+            final char c = characters.charAt(current);
+            if (c == '"') {
+                return current + 1;
+            }
+            if (c == '\\' || c == '\r' || c == '\n') {
+                break;
+            }
+            current++;
+        }
+        throw tokenRecognitionError(start, Math.min(current + 1, end));
+    }
+
+    private int scanDigits(int index, boolean hexadecimal, char maxDigit) {
+        int current = index;
+        while (true) {
+            final char c = charAt(current);
+            if (c == '_' || (hexadecimal ? isHexDigit(c) : (c >= '0' && c <= maxDigit))) {
+                current++;
+            } else {
+                return current;
+            }
+        }
+    }
+
+    private int scanNumber(int start, int index) {
+        final char first = characters.charAt(start);
+        final char radix = charAt(index);
+        if (first == '0') {
+            if ((radix == 'x' || radix == 'X') && isHexDigit(charAt(index + 1))) {
+                numberType = HEX_INTEGER_LITERAL;
+                return scanDigits(index + 2, true, '9');
+            }
+            if ((radix == 'o' || radix == 'O') && charAt(index + 1) >= '0' && charAt(index + 1) <= '7') {
+                numberType = OCTAL_INTEGER_LITERAL;
+                return scanDigits(index + 2, false, '7');
+            }
+            if ((radix == 'b' || radix == 'B') && (charAt(index + 1) == '0' || charAt(index + 1) == '1')) {
+                numberType = BINARY_INTEGER_LITERAL;
+                return scanDigits(index + 2, false, '1');
+            }
+        }
+        int current = first == '0' ? index : scanDigits(index, false, '9');
+        if (charAt(current) == '.' && isDigit(charAt(current + 1))) {
+            current = scanDigits(current + 2, false, '9');
+            final char exponent = charAt(current);
+            if (exponent == 'e' || exponent == 'E') {
+                int digits = current + 1;
+                if (charAt(digits) == '+' || charAt(digits) == '-') {
+                    digits++;
+                }
+                if (isDigit(charAt(digits)) || charAt(digits) == '_') {
+                    current = scanDigits(digits, false, '9');
+                }
+            }
+            numberType = DECIMAL_LITERAL;
+        } else {
+            numberType = DECIMAL_INTEGER_LITERAL;
+        }
+        return current;
+    }
+}
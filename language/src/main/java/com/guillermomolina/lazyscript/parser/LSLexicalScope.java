@@ -40,6 +40,8 @@
  */
 package com.guillermomolina.lazyscript.parser;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Level;
 
 import com.guillermomolina.lazyscript.LSLanguage;
@@ -48,9 +50,31 @@ import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.FrameSlot;
 import com.oracle.truffle.api.frame.FrameSlotKind;
 
-import org.antlr.v4.runtime.misc.Pair;
-
 public class LSLexicalScope {
+
+    /**
+     * A variable found by {@link #getVariable}: its frame slot, or {@code null}
+     * if it is not defined, and the number of frames between the scope and the
+     * frame of the slot.
+     */
+    public static final class Variable {
+        private final int depth;
+        private final FrameSlot frameSlot;
+
+        Variable(int depth, FrameSlot frameSlot) {
+            this.depth = depth;
+            this.frameSlot = frameSlot;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public FrameSlot getFrameSlot() {
+            return frameSlot;
+        }
+    }
+
     private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSLexicalScope.class);
 
     public static final String THIS = "this";
@@ -60,18 +84,74 @@ public class LSLexicalScope {
 
     private final LSLexicalScope outer;
     private final FrameDescriptor frameDescriptor;
+    /**
+     * The names of the slots that are visible from this scope, {@code null} if
+     * all the slots of the frame descriptor are. See {@link #snapshot()}.
+     */
+    private final Set<Object> visibleSlots;
     private int parameterCount;
     private final boolean inLoop;
 
-    LSLexicalScope(LSLexicalScope outer, boolean inLoop) {
+    /**
+     * Creates a new scope. Function and block literals get a fresh
+     * {@link FrameDescriptor}, while statement blocks (the bodies of
+     * {@code if}, {@code while} and {@code for}) share the frame of the enclosing
+     * scope.
+     */
+    LSLexicalScope(LSLexicalScope outer, boolean inLoop, boolean newFrame) {
         this.outer = outer;
         this.inLoop = inLoop;
         this.parameterCount = 0;
-        if (inLoop) {
-            this.frameDescriptor = outer.frameDescriptor;
-        } else {
+        if (newFrame) {
             this.frameDescriptor = new FrameDescriptor();
+        } else {
+            this.frameDescriptor = outer.frameDescriptor;
         }
+        this.visibleSlots = null;
+    }
+
+    /**
+     * Creates the scope of a function or block whose body is parsed lazily, the
+     * frame descriptor was already given to its root node.
+     */
+    LSLexicalScope(LSLexicalScope outer, FrameDescriptor frameDescriptor) {
+        this(outer, frameDescriptor, null);
+    }
+
+    private LSLexicalScope(LSLexicalScope outer, FrameDescriptor frameDescriptor, Set<Object> visibleSlots) {
+        this.outer = outer;
+        this.inLoop = false;
+        this.parameterCount = 0;
+        this.frameDescriptor = frameDescriptor;
+        this.visibleSlots = visibleSlots;
+    }
+
+    /**
+     * Returns a copy of the chain of enclosing frames, as seen from this point
+     * of the source. Variables are resolved in parse order, so a body that is
+     * parsed later must not see the variables that the enclosing scopes define
+     * after it. Statement scopes are folded into the scope of their frame, and
+     * the chain ends at the first function scope, because variable lookups do
+     * not go beyond it.
+     */
+    LSLexicalScope snapshot() {
+        LSLexicalScope current = this;
+        while (current.outer != null && current.outer.frameDescriptor == current.frameDescriptor) {
+            current = current.outer;
+        }
+        final LSLexicalScope snapshotOuter = current.hasLocalVariable(THIS) || current.outer == null ? null
+                        : current.outer.snapshot();
+        final Set<Object> visible = new HashSet<>();
+        for (Object identifier : frameDescriptor.getIdentifiers()) {
+            if (current.isVisible(identifier)) {
+                visible.add(identifier);
+            }
+        }
+        return new LSLexicalScope(snapshotOuter, frameDescriptor, visible);
+    }
+
+    private boolean isVisible(Object identifier) {
+        return visibleSlots == null || visibleSlots.contains(identifier);
     }
 
     public LSLexicalScope getOuter() {
@@ -83,6 +163,9 @@ public class LSLexicalScope {
     }
 
     private FrameSlot getLocalVariable(final String name) {
+        if (!isVisible(name)) {
+            return null;
+        }
         return frameDescriptor.findFrameSlot(name);
     }
 
@@ -109,6 +192,17 @@ public class LSLexicalScope {
         return frameSlot;
     }
 
+    /**
+     * Adds a slot that is not visible to the program, used by nodes that need
+     * to keep state in the frame (for example the counter of a {@code for}
+     * loop).
+     */
+    public FrameSlot addTemporary(final String name, final FrameSlotKind kind) {
+        final String identifier = "(" + name + "#" + frameDescriptor.getSize() + ")";
+        LOG.log(Level.FINE, "Adding temporary named: {0}", identifier);
+        return frameDescriptor.addFrameSlot(identifier, kind);
+    }
+
     public FrameSlot addParameter(final String name) {
         if (parameterCount != 0 && (name.equals(THIS)||name.equals(PARENT_SCOPE))) {
             throw new UnsupportedOperationException("The first parameter should be \"this\" or \"parentScope\"");
@@ -120,23 +214,27 @@ public class LSLexicalScope {
         return frameDescriptor.addFrameSlot(name, parameterCount++, FrameSlotKind.Illegal);
     }
 
-    public Pair<Integer, FrameSlot> getVariable(String name) {
+    public Variable getVariable(String name) {
         int depth = 0;
         LSLexicalScope current = this;
-        FrameSlot frameSlot = current.frameDescriptor.findFrameSlot(name);
+        FrameSlot frameSlot = current.getLocalVariable(name);
         while (frameSlot == null) {
-            depth++;
             // For now, detecting MethodScope this way
             if(current.hasLocalVariable(THIS)) {
-                return new Pair<>(LEVEL_UNDEFINED, null);
+                return new Variable(LEVEL_UNDEFINED, null);
             }
-            current = current.outer;
-            if (current == null) {
-                return new Pair<>(LEVEL_UNDEFINED, null);
+            final LSLexicalScope next = current.outer;
+            if (next == null) {
+                return new Variable(LEVEL_UNDEFINED, null);
+            }
+            // Statement blocks share the frame of their enclosing scope
+            if (next.frameDescriptor != current.frameDescriptor) {
+                depth++;
             }
-            frameSlot = current.frameDescriptor.findFrameSlot(name);
+            current = next;
+            frameSlot = current.getLocalVariable(name);
         }
-        return new Pair<>(depth, frameSlot);
+        return new Variable(depth, frameSlot);
     }
 
     public boolean isInLoop() {
@@ -0,0 +1,984 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.NotImplementedException;
+import com.guillermomolina.lazyscript.nodes.arithmetic.LSAddNodeGen;
+import com.guillermomolina.lazyscript.nodes.arithmetic.LSDivNodeGen;
+import com.guillermomolina.lazyscript.nodes.arithmetic.LSMulNodeGen;
+import com.guillermomolina.lazyscript.nodes.arithmetic.LSSubNodeGen;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSBlockNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSBreakNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSContinueNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSForEachNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSForEachNodeGen;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSForNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSFunctionBodyNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSIfNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSLazyFunctionBodyNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSReturnNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSThrowNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSTryCatchNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSWhileNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSBinaryNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSImportNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSInvokeFunctionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSArrayLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSBigIntegerLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSBlockLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSBooleanLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSDecimalLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSFunctionLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSIntegerLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSLazyLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSNullLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSObjectLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSStringLiteralNode;
+import com.guillermomolina.lazyscript.nodes.local.LSReadArgumentNode;
+import com.guillermomolina.lazyscript.nodes.local.LSReadLocalVariableNodeGen;
+import com.guillermomolina.lazyscript.nodes.local.LSReadRemoteVariableNodeGen;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteLocalVariableNodeGen;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteRemoteVariableNodeGen;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteVariableNode;
+import com.guillermomolina.lazyscript.nodes.logic.LSEqualNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSGreaterOrEqualNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSGreaterThanNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSLessOrEqualNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSLessThanNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSLogicalAndNode;
+import com.guillermomolina.lazyscript.nodes.logic.LSLogicalOrNode;
+import com.guillermomolina.lazyscript.nodes.logic.LSNotEqualNodeGen;
+import com.guillermomolina.lazyscript.nodes.logic.LSShortCircuitNode;
+import com.guillermomolina.lazyscript.nodes.property.LSInvokePropertyNode;
+import com.guillermomolina.lazyscript.nodes.property.LSReadPropertyNodeGen;
+import com.guillermomolina.lazyscript.nodes.property.LSWritePropertyNodeGen;
+import com.guillermomolina.lazyscript.nodes.root.LSRootNode;
+import com.guillermomolina.lazyscript.nodes.util.LSUnboxNode;
+import com.guillermomolina.lazyscript.nodes.util.LSUnboxNodeGen;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleLogger;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameSlotKind;
+import com.oracle.truffle.api.nodes.NodeUtil;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/**
+ * Helper class used by the LazyScript parsers to create nodes. It keeps the
+ * lexical scopes and knows how to build the AST, while the parsers only
+ * recognize the syntax and report the source positions: the index of the first
+ * character and the length of each construct.
+ *
+ * Both the hand written {@link LSParser} and the ANTLR based parser of the
+ * tests use it, so they create the same trees.
+ */
+public class LSNodeFactory {
+
+    /**
+     * Parses the statements of a function or block body. The body is parsed
+     * lazily, on the first call, with a new factory whose scope is the scope
+     * of the body.
+     */
+    @FunctionalInterface
+    public interface BodyParser {
+        List<LSStatementNode> parse(LSNodeFactory factory);
+    }
+
+    /**
+     * The slots and the variable assignment of a {@code for} loop, created when
+     * the loop scope is entered, before its body is parsed.
+     */
+    public static final class ForHeader {
+        private final FrameSlot indexSlot;
+        private final FrameSlot endSlot;
+        private final LSExpressionNode variableNode;
+
+        private ForHeader(FrameSlot indexSlot, FrameSlot endSlot, LSExpressionNode variableNode) {
+            this.indexSlot = indexSlot;
+            this.endSlot = endSlot;
+            this.variableNode = variableNode;
+        }
+    }
+
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSNodeFactory.class);
+
+    private LSLexicalScope lexicalScope;
+    /**
+     * Number of nodes that the optimizations of {@link #createBinary} saved in
+     * the module or body being built.
+     */
+    private int removedNodes;
+    /**
+     * The call targets of the top-level functions of the module being built,
+     * by the position and text of their literal, {@code null} in the factories
+     * of bodies and for the sources that are never reloaded.
+     */
+    private Map<String, RootCallTarget> definedFunctions;
+    /** The key of the module being built, see {@link LSLanguage#getScriptKey}. */
+    private String scriptKey;
+    private final LSLanguage language;
+    private final Source source;
+
+    public LSNodeFactory(LSLanguage language, Source source) {
+        this.language = language;
+        this.source = source;
+    }
+
+    public LSLanguage getLanguage() {
+        return language;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public LSParseError parseError(int start, int length, String message) {
+        return LSParseError.at(source, start, length, message);
+    }
+
+    /**
+     * Checks whether a list contains a null.
+     */
+    private static boolean containsNull(List<?> list) {
+        for (Object e : list) {
+            if (e == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * The public methods of this class are the ones called by the parsers, the
+     * factory itself uses the private ones, so a subclass can observe the calls
+     * of the parsers by overriding the public methods (see
+     * LSRecordingNodeFactory).
+     */
+
+    public void pushScope(boolean inLoop) {
+        enterScope(inLoop);
+    }
+
+    public void popScope() {
+        exitScope();
+    }
+
+    private void enterScope(boolean inLoop) {
+        lexicalScope = new LSLexicalScope(lexicalScope, inLoop, false);
+    }
+
+    private void enterFrameScope() {
+        lexicalScope = new LSLexicalScope(lexicalScope, false, true);
+    }
+
+    private void exitScope() {
+        lexicalScope = lexicalScope.getOuter();
+    }
+
+    public boolean isInLoop() {
+        return lexicalScope.isInLoop();
+    }
+
+    /**
+     * Enters the scope of the module, the returned list holds the initialization
+     * of its arguments and must be given back to {@link #createModule}.
+     */
+    public List<LSStatementNode> startModule() {
+        assert lexicalScope == null;
+        enterFrameScope();
+        scriptKey = language == null ? null : LSLanguage.getScriptKey(source);
+        definedFunctions = scriptKey == null ? null : new HashMap<>();
+
+        final List<LSStatementNode> argumentInitializationNodes = new ArrayList<>();
+        argumentInitializationNodes.add(createArgumentInitialization(LSLexicalScope.THIS));
+        return argumentInitializationNodes;
+    }
+
+    public LSExpressionNode createModule(List<LSStatementNode> argumentInitializationNodes,
+            List<LSStatementNode> statementNodes, int start, int length) {
+        final LSStatementNode blockNode = createBlock(argumentInitializationNodes, statementNodes);
+        blockNode.setSourceSection(start, length);
+
+        FrameDescriptor frameDescriptor = lexicalScope.getFrameDescriptor();
+        exitScope();
+        assert lexicalScope == null : "Wrong scoping of blocks in parser";
+
+        final LSFunctionBodyNode functionBodyNode = new LSFunctionBodyNode(blockNode);
+        final int functionStartPos = blockNode.getSourceCharIndex();
+        final int bodyEndPos = blockNode.getSourceEndIndex();
+        SourceSection functionSrc = source.createSection(functionStartPos, bodyEndPos - functionStartPos);
+        functionBodyNode.setSourceSection(functionSrc.getCharIndex(), functionSrc.getCharLength());
+
+        if (definedFunctions != null) {
+            language.setDefinedFunctions(scriptKey, definedFunctions);
+            definedFunctions = null;
+        }
+
+        final String name = "main";
+        logNodeCount(name, functionBodyNode);
+        LSRootNode rootNode = new LSRootNode(language, frameDescriptor, functionBodyNode, functionSrc, name);
+        RootCallTarget mainCallTarget = Truffle.getRuntime().createCallTarget(rootNode);
+        LSExpressionNode result = new LSFunctionLiteralNode(name, mainCallTarget);
+        result.addExpressionTag();
+        return result;
+    }
+
+    private LSExpressionNode createArgumentInitialization(String name) {
+        final FrameSlot frameSlot = lexicalScope.addParameter(name);
+        int index = (int) frameSlot.getInfo();
+        LSReadArgumentNode readArgNode = new LSReadArgumentNode(index);
+        LSExpressionNode nameNode = new LSStringLiteralNode(name);
+        return LSWriteLocalVariableNodeGen.create(readArgNode, frameSlot, nameNode, true);
+    }
+
+    @SuppressWarnings("java:S125")
+    public LSExpressionNode createFunctionLiteral(LSExpressionNode nameNode, List<String> parameterNames,
+            BodyParser bodyParser, int blockStart, int blockLength, int start, int length) {
+        final String functionName = "function";
+        final LSExpressionNode functionNode;
+        if (definedFunctions != null) {
+            functionNode = createDefinedFunction(functionName, nameNode, parameterNames, bodyParser, blockStart, blockLength,
+                    start, length);
+        } else {
+            LSRootNode rootNode = createRootNode(functionName, LSLexicalScope.THIS, parameterNames, bodyParser,
+                    blockStart, blockLength);
+            functionNode = new LSFunctionLiteralNode(functionName, Truffle.getRuntime().createCallTarget(rootNode));
+        }
+        functionNode.setSourceSection(start, length);
+        functionNode.addExpressionTag();
+
+        // This is the code to add the function as a variable
+        LSExpressionNode result = writeVariable(nameNode, functionNode);
+
+        /* 
+        @formatter:off
+        // This is the code to add the function as a property
+        final LSExpressionNode thisNode = readThis();
+        final LSExpressionNode result = LSWritePropertyNodeGen.create(thisNode, nameNode, functionNode);
+        result.setSourceSection(start, length);
+        @formatter:on 
+        */
+
+        result.addStatementTag();
+        return result;
+    }
+
+    /**
+     * Creates the literal of a top-level function. If the previous version of
+     * the script (see {@link LSLanguage#findDefinedFunction}) has a literal with
+     * the same text at the same position, its call target is kept, together
+     * with the code compiled for it, and the body is not parsed again.
+     * Functions do not see the variables of the enclosing scopes, so the same
+     * text always means the same code. The source sections of the kept call
+     * target point into the previous version of the source, which is why the
+     * position must not change either: the lines and columns that they report
+     * are still those of the new version.
+     */
+    private LSExpressionNode createDefinedFunction(String functionName, LSExpressionNode nameNode, List<String> parameterNames,
+            BodyParser bodyParser, int blockStart, int blockLength, int start, int length) {
+        final String name = ((LSStringLiteralNode) nameNode).executeGeneric(null);
+        final String key = source.getLineNumber(start) + ":" + source.getColumnNumber(start) + ":" + start + ":"
+                + source.getCharacters().subSequence(start, start + length);
+        RootCallTarget callTarget = findDefinedFunction(key);
+        if (callTarget != null) {
+            LOG.log(Level.FINE, "Kept call target for: {0}", name);
+        } else {
+            LSRootNode rootNode = createRootNode(functionName, LSLexicalScope.THIS, parameterNames, bodyParser,
+                    blockStart, blockLength);
+            callTarget = Truffle.getRuntime().createCallTarget(rootNode);
+        }
+        definedFunctions.put(key, callTarget);
+        return new LSFunctionLiteralNode(functionName, callTarget, name);
+    }
+
+    /**
+     * Returns the call target of a top-level function with the given position
+     * and text in the previous version of the script, or {@code null}.
+     */
+    protected RootCallTarget findDefinedFunction(String key) {
+        return language.findDefinedFunction(scriptKey, key);
+    }
+
+    public LSExpressionNode createBlockLiteral(List<String> parameterNames, BodyParser bodyParser,
+            int blockStart, int blockLength, int start, int length) {
+        final String name = "anonymous";
+        LSRootNode rootNode = createRootNode(name, LSLexicalScope.PARENT_SCOPE, parameterNames, bodyParser,
+                blockStart, blockLength);
+        LSFunctionLiteralNode functionNode = new LSFunctionLiteralNode(name,
+                Truffle.getRuntime().createCallTarget(rootNode));
+        LSExpressionNode result = new LSBlockLiteralNode(functionNode);
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    /**
+     * Creates the root node of a function or block literal. The body is only
+     * parsed on the first call (see {@link LSLazyFunctionBodyNode}), here we
+     * only create its frame descriptor and keep a snapshot of the enclosing
+     * scopes, so the variables are resolved as if the body was parsed now.
+     * Functions do not see the variables of the enclosing scopes.
+     */
+    private LSRootNode createRootNode(final String functionName, final String parameter0Name,
+            List<String> parameterNames, BodyParser bodyParser, int blockStart, int blockLength) {
+        final LSLexicalScope outerScope = LSLexicalScope.THIS.equals(parameter0Name) ? null : lexicalScope.snapshot();
+        final FrameDescriptor frameDescriptor = new FrameDescriptor();
+        final LSLazyFunctionBodyNode bodyNode = new LSLazyFunctionBodyNode(
+                () -> createBodyFactory().createFunctionBody(functionName, outerScope, frameDescriptor,
+                        parameter0Name, parameterNames, bodyParser, blockStart, blockLength));
+        SourceSection functionSrc = source.createSection(blockStart, blockLength);
+        return new LSRootNode(language, frameDescriptor, bodyNode, functionSrc, functionName);
+    }
+
+    /**
+     * Returns the factory that builds the body of a function or block literal
+     * created by this one.
+     */
+    protected LSNodeFactory createBodyFactory() {
+        return new LSNodeFactory(language, source);
+    }
+
+    private LSFunctionBodyNode createFunctionBody(String functionName, LSLexicalScope outerScope,
+            FrameDescriptor frameDescriptor, final String parameter0Name, List<String> parameterNames,
+            BodyParser bodyParser, int blockStart, int blockLength) {
+        assert lexicalScope == null;
+        lexicalScope = new LSLexicalScope(outerScope, frameDescriptor);
+
+        final List<LSStatementNode> argumentInitializationNodes = new ArrayList<>();
+        argumentInitializationNodes.add(createArgumentInitialization(parameter0Name));
+        for (String parameterName : parameterNames) {
+            argumentInitializationNodes.add(createArgumentInitialization(parameterName));
+        }
+
+        final LSStatementNode blockNode = createBlock(argumentInitializationNodes, bodyParser.parse(this));
+        blockNode.setSourceSection(blockStart, blockLength);
+
+        exitScope();
+
+        final LSFunctionBodyNode functionBodyNode = new LSFunctionBodyNode(blockNode);
+        functionBodyNode.setSourceSection(blockNode.getSourceCharIndex(), blockNode.getSourceLength());
+        logNodeCount(functionName, functionBodyNode);
+        return functionBodyNode;
+    }
+
+    private void logNodeCount(String name, LSFunctionBodyNode bodyNode) {
+        if (LOG.isLoggable(Level.FINE)) {
+            final int nodeCount = NodeUtil.countNodes(bodyNode);
+            LOG.log(Level.FINE, "Built {0}: {1} nodes, {2} without optimizations",
+                    new Object[]{name, nodeCount, nodeCount + removedNodes});
+        }
+    }
+
+    public LSBlockNode createBlock(List<LSStatementNode> statementNodes, int start, int length) {
+        LSBlockNode result = createBlock(null, statementNodes);
+        result.setSourceSection(start, length);
+        return result;
+    }
+
+    private LSBlockNode createBlock(List<LSStatementNode> initializationNodeList,
+            List<LSStatementNode> statementNodes) {
+        List<LSStatementNode> bodyNodeList = new ArrayList<>();
+
+        if (initializationNodeList != null) {
+            bodyNodeList.addAll(initializationNodeList);
+        }
+
+        if (statementNodes.isEmpty()) {
+            bodyNodeList.add(readThis());
+        } else {
+            bodyNodeList.addAll(statementNodes);
+        }
+
+        if (containsNull(bodyNodeList)) {
+            throw new NotImplementedException();
+        }
+
+        List<LSStatementNode> flattenedNodeList = new ArrayList<>(bodyNodeList.size());
+        flattenBlocks(bodyNodeList, flattenedNodeList);
+        for (LSStatementNode statement : flattenedNodeList) {
+            if (statement.hasSource() && !isHaltInCondition(statement)) {
+                statement.addStatementTag();
+            }
+        }
+        return new LSBlockNode(flattenedNodeList.toArray(new LSStatementNode[flattenedNodeList.size()]));
+    }
+
+    private static boolean isHaltInCondition(LSStatementNode statement) {
+        return (statement instanceof LSIfNode) || (statement instanceof LSWhileNode)
+                || (statement instanceof LSForNode) || (statement instanceof LSForEachNode)
+                || (statement instanceof LSTryCatchNode);
+    }
+
+    private void flattenBlocks(Iterable<? extends LSStatementNode> bodyNodeList,
+            List<LSStatementNode> flattenedNodeList) {
+        for (LSStatementNode n : bodyNodeList) {
+            if (n instanceof LSBlockNode) {
+                flattenBlocks(((LSBlockNode) n).getStatements(), flattenedNodeList);
+            } else {
+                flattenedNodeList.add(n);
+            }
+        }
+    }
+
+    /**
+     * Enters the frame of a {@code lazy <expression>}, the expression must be
+     * parsed after this call and given to {@link #createLazy}.
+     */
+    public List<LSStatementNode> startLazy() {
+        enterFrameScope();
+
+        final List<LSStatementNode> bodyNodeList = new ArrayList<>();
+        bodyNodeList.add(createArgumentInitialization(LSLexicalScope.PARENT_SCOPE));
+        return bodyNodeList;
+    }
+
+    /**
+     * The expression of {@code lazy <expression>} is compiled into its own root,
+     * as a block without parameters that returns the value of the expression.
+     * The thunk created at runtime provides the enclosing frame.
+     */
+    public LSExpressionNode createLazy(List<LSStatementNode> bodyNodeList, LSExpressionNode valueNode,
+            int expressionStart, int expressionLength, int start, int length) {
+        final LSReturnNode returnNode = new LSReturnNode(valueNode);
+        returnNode.setSourceSection(expressionStart, expressionLength);
+        bodyNodeList.add(returnNode);
+        final LSBlockNode blockNode = new LSBlockNode(bodyNodeList.toArray(new LSStatementNode[bodyNodeList.size()]));
+        blockNode.setSourceSection(expressionStart, expressionLength);
+
+        FrameDescriptor frameDescriptor = lexicalScope.getFrameDescriptor();
+        exitScope();
+
+        final LSFunctionBodyNode functionBodyNode = new LSFunctionBodyNode(blockNode);
+        SourceSection expressionSrc = source.createSection(blockNode.getSourceCharIndex(),
+                blockNode.getSourceLength());
+        functionBodyNode.setSourceSection(expressionSrc.getCharIndex(), expressionSrc.getCharLength());
+        LSRootNode rootNode = new LSRootNode(language, frameDescriptor, functionBodyNode, expressionSrc, "lazy");
+
+        final LSExpressionNode result = new LSLazyLiteralNode(Truffle.getRuntime().createCallTarget(rootNode));
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createUnary(String operator, LSExpressionNode valueNode, int start, int length) {
+        throw new NotImplementedException();
+    }
+
+    /**
+     * Creates the node of a binary operator. This is also where the AST is
+     * optimized: operations on literals are folded into a literal, {@code >},
+     * {@code >=} and {@code !=} get their own nodes instead of negating the
+     * opposite comparison, and the operands that are known to give a
+     * LazyScript primitive are not wrapped in a {@link LSUnboxNode}.
+     */
+    public LSExpressionNode createBinary(String operator, LSExpressionNode leftNode, LSExpressionNode rightNode,
+            int start, int length) {
+        final int negatedNodes = operator.equals(">") || operator.equals(">=") || operator.equals("!=") ? 1 : 0;
+        final Object constant = LSConstantFolder.fold(operator, constantValue(leftNode), constantValue(rightNode));
+        if (constant != null) {
+            /* The operator, its unbox nodes and the two literals become one literal */
+            removedNodes += negatedNodes + 4;
+            return createConstant(constant, start, length);
+        }
+        final LSExpressionNode leftUnboxed = unbox(leftNode);
+        final LSExpressionNode rightUnboxed = unbox(rightNode);
+        removedNodes += negatedNodes;
+        final LSExpressionNode result;
+        switch (operator) {
+            case "+":
+                result = LSAddNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "-":
+                result = LSSubNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "*":
+                result = LSMulNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "/":
+                result = LSDivNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "&&":
+                result = new LSLogicalAndNode(leftUnboxed, rightUnboxed);
+                break;
+            case "||":
+                result = new LSLogicalOrNode(leftUnboxed, rightUnboxed);
+                break;
+            case "<":
+                result = LSLessThanNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "<=":
+                result = LSLessOrEqualNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case ">":
+                result = LSGreaterThanNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case ">=":
+                result = LSGreaterOrEqualNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "==":
+                result = LSEqualNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            case "!=":
+                result = LSNotEqualNodeGen.create(leftUnboxed, rightUnboxed);
+                break;
+            default:
+                throw parseError(start, length, "Invalid binary operator: " + operator);
+        }
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    /**
+     * Wraps the operand of an operator in a {@link LSUnboxNode}, unless it is a
+     * literal or another operator, that already give LazyScript primitives.
+     */
+    private LSExpressionNode unbox(LSExpressionNode node) {
+        if (isPrimitive(node)) {
+            removedNodes++;
+            return node;
+        }
+        return LSUnboxNodeGen.create(node);
+    }
+
+    private static boolean isPrimitive(LSExpressionNode node) {
+        return constantValue(node) != null || node instanceof LSBigIntegerLiteralNode || node instanceof LSBinaryNode
+                || node instanceof LSShortCircuitNode;
+    }
+
+    /**
+     * Returns the value of a literal node, {@code null} if the node is not a
+     * literal of a primitive type.
+     */
+    private static Object constantValue(LSExpressionNode node) {
+        if (node instanceof LSIntegerLiteralNode || node instanceof LSDecimalLiteralNode
+                || node instanceof LSBooleanLiteralNode || node instanceof LSStringLiteralNode) {
+            return node.executeGeneric(null);
+        }
+        return null;
+    }
+
+    private LSExpressionNode createConstant(Object value, int start, int length) {
+        final LSExpressionNode result;
+        if (value instanceof Long) {
+            result = new LSIntegerLiteralNode((Long) value);
+        } else if (value instanceof Double) {
+            result = new LSDecimalLiteralNode((Double) value);
+        } else if (value instanceof Boolean) {
+            result = new LSBooleanLiteralNode((Boolean) value);
+        } else {
+            result = new LSStringLiteralNode((String) value);
+        }
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createReadProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode, int start,
+            int length) {
+        if (receiverNode == null || nameNode == null) {
+            throw parseError(start, length, "One of receiverNode or nameNode is null");
+        }
+
+        final LSExpressionNode result = LSReadPropertyNodeGen.create(receiverNode, nameNode);
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+
+        return result;
+    }
+
+    public LSExpressionNode createReadVariable(LSExpressionNode nameNode, int start, int length) {
+        if (nameNode == null) {
+            throw new UnsupportedOperationException("nameNode is null");
+        }
+
+        String name = ((LSStringLiteralNode) nameNode).executeGeneric(null);
+        LSLexicalScope.Variable variable = lexicalScope.getVariable(name);
+        int scopeDepth = variable.getDepth();
+        FrameSlot frameSlot = variable.getFrameSlot();
+        final LSExpressionNode result;
+        if (frameSlot != null) {
+            if (scopeDepth == 0) {
+                result = LSReadLocalVariableNodeGen.create(frameSlot);
+            } else {
+                result = LSReadRemoteVariableNodeGen.create(frameSlot, scopeDepth);
+            }
+        } else {
+            if (name.equals(LSLexicalScope.THIS)) {
+                throw new UnsupportedOperationException("There is no this variable");
+            }
+            // There is no variable with that name, try the property "this.name"
+            result = LSReadPropertyNodeGen.create(readThis(), nameNode);
+        }
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createCall(LSExpressionNode r, LSExpressionNode functionNameNode,
+            List<LSExpressionNode> argumentNodeList, int start, int length) {
+        if (functionNameNode == null) {
+            throw parseError(start, length, "invalid function target");
+        }
+        LSExpressionNode[] argumentNodes = argumentNodeList.toArray(new LSExpressionNode[argumentNodeList.size()]);
+        LSExpressionNode receiverNode = r;
+        if (receiverNode == null) {
+            String name = ((LSStringLiteralNode) functionNameNode).executeGeneric(null);
+            LSLexicalScope.Variable variable = lexicalScope.getVariable(name);
+            int scopeDepth = variable.getDepth();
+            FrameSlot frameSlot = variable.getFrameSlot();
+            if (frameSlot != null) {
+                final LSExpressionNode functionNode;
+                if (scopeDepth == 0) {
+                    functionNode = LSReadLocalVariableNodeGen.create(frameSlot);
+                } else {
+                    functionNode = LSReadRemoteVariableNodeGen.create(frameSlot, scopeDepth);
+                }
+                receiverNode = new LSNullLiteralNode();
+                LSExpressionNode result = new LSInvokeFunctionNode(receiverNode, functionNode, argumentNodes);
+                result.addExpressionTag();
+                result.setSourceSection(start, length);
+                return result;
+            }
+            receiverNode = readThis();
+        }
+        LSExpressionNode result = new LSInvokePropertyNode(receiverNode, functionNameNode, argumentNodes);
+        result.addExpressionTag();
+        result.setSourceSection(start, length);
+        return result;
+    }
+
+    public LSExpressionNode createWriteVariable(LSExpressionNode nameNode, LSExpressionNode valueNode) {
+        return writeVariable(nameNode, valueNode);
+    }
+
+    private LSExpressionNode writeVariable(LSExpressionNode nameNode, LSExpressionNode valueNode) {
+        if (nameNode == null || valueNode == null) {
+            throw new UnsupportedOperationException("nameNode and valueNode must not be null");
+        }
+
+        String name = ((LSStringLiteralNode) nameNode).executeGeneric(null);
+        LSLexicalScope.Variable variable = lexicalScope.getVariable(name);
+        int scopeDepth = variable.getDepth();
+        FrameSlot frameSlot = variable.getFrameSlot();
+        final LSExpressionNode result;
+        boolean newVariable = false;
+        if (frameSlot == null) {
+            frameSlot = lexicalScope.addVariable(name);
+            newVariable = true;
+            scopeDepth = 0;
+        }
+        if (scopeDepth == 0) {
+            result = LSWriteLocalVariableNodeGen.create(valueNode, frameSlot, nameNode, newVariable);
+        } else {
+            result = LSWriteRemoteVariableNodeGen.create(valueNode, frameSlot, nameNode, scopeDepth);
+        }
+        if (!nameNode.hasSource() || !valueNode.hasSource()) {
+            throw new UnsupportedOperationException("nameNode and valueNode must have source defined");
+        }
+        final int start = nameNode.getSourceCharIndex();
+        final int length = valueNode.getSourceEndIndex() - start;
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+
+        return result;
+    }
+
+    public LSExpressionNode createWriteProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode,
+            LSExpressionNode valueNode, int start, int length) {
+        if (receiverNode == null || nameNode == null || valueNode == null) {
+            throw parseError(start, length, "One of receiverNode, nameNode or valueNode is null");
+        }
+
+        final LSExpressionNode result = LSWritePropertyNodeGen.create(receiverNode, nameNode, valueNode);
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+
+        return result;
+    }
+
+    public LSExpressionNode createThisLiteral(int start, int length) {
+        final LSExpressionNode result = readThis();
+        result.setSourceSection(start, length);
+        return result;
+    }
+
+    public LSExpressionNode createReadThis() {
+        return readThis();
+    }
+
+    private LSExpressionNode readThis() {
+        String name = LSLexicalScope.THIS;
+        LSLexicalScope.Variable variable = lexicalScope.getVariable(name);
+        int scopeDepth = variable.getDepth();
+        FrameSlot frameSlot = variable.getFrameSlot();
+        final LSExpressionNode result;
+        if (frameSlot == null) {
+            throw new UnsupportedOperationException("There is no this variable");
+        }
+        if (scopeDepth == 0) {
+            result = LSReadLocalVariableNodeGen.create(frameSlot);
+        } else {
+            result = LSReadRemoteVariableNodeGen.create(frameSlot, scopeDepth);
+        }
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSStatementNode createBreak(int start, int length) {
+        if (lexicalScope.isInLoop()) {
+            final LSBreakNode breakNode = new LSBreakNode();
+            breakNode.setSourceSection(start, length);
+            return breakNode;
+        }
+        throw parseError(start, length, "break used outside of loop");
+    }
+
+    public LSStatementNode createContinue(int start, int length) {
+        if (lexicalScope.isInLoop()) {
+            final LSContinueNode continueNode = new LSContinueNode();
+            continueNode.setSourceSection(start, length);
+            return continueNode;
+        }
+        throw parseError(start, length, "continue used outside of loop");
+    }
+
+    public LSStatementNode createWhile(LSExpressionNode conditionNode, LSStatementNode blockNode, int start,
+            int length) {
+        if (conditionNode == null || blockNode == null) {
+            throw parseError(start, length, "One of conditionNode or blockNode is null");
+        }
+
+        conditionNode.addStatementTag();
+        final LSWhileNode whileNode = new LSWhileNode(conditionNode, blockNode);
+        whileNode.setSourceSection(start, length);
+        return whileNode;
+    }
+
+    /**
+     * Enters the scope of a {@code for} loop and defines its variable, the body
+     * must be parsed after this call and given to {@link #createFor}.
+     */
+    public ForHeader startFor(LSExpressionNode nameNode) {
+        enterScope(true);
+        final FrameSlot indexSlot = lexicalScope.addTemporary("index", FrameSlotKind.Long);
+        final FrameSlot endSlot = lexicalScope.addTemporary("end", FrameSlotKind.Long);
+        final LSExpressionNode indexNode = LSReadLocalVariableNodeGen.create(indexSlot);
+        indexNode.setSourceSection(nameNode.getSourceCharIndex(), nameNode.getSourceLength());
+        final LSExpressionNode variableNode = writeVariable(nameNode, indexNode);
+        return new ForHeader(indexSlot, endSlot, variableNode);
+    }
+
+    public LSStatementNode createFor(LSExpressionNode startNode, LSExpressionNode endNode, ForHeader header,
+            LSStatementNode blockNode, int start, int length) {
+        exitScope();
+
+        if (startNode == null || endNode == null || blockNode == null) {
+            throw parseError(start, length, "One of startNode, endNode or blockNode is null");
+        }
+
+        startNode.addStatementTag();
+        final LSForNode forNode = new LSForNode(startNode, endNode, header.indexSlot, header.endSlot,
+                header.variableNode, blockNode);
+        forNode.setSourceSection(start, length);
+        return forNode;
+    }
+
+    /**
+     * Enters the scope of a {@code for ... of} loop and defines its variable, the
+     * body must be parsed after this call and given to {@link #createForOf}.
+     */
+    public LSExpressionNode startForOf(LSExpressionNode nameNode) {
+        enterScope(true);
+        /* The loop assigns the elements itself, the value node is never executed */
+        final LSExpressionNode elementNode = new LSNullLiteralNode();
+        elementNode.setSourceSection(nameNode.getSourceCharIndex(), nameNode.getSourceLength());
+        return writeVariable(nameNode, elementNode);
+    }
+
+    public LSStatementNode createForOf(LSExpressionNode iterableNode, LSExpressionNode variableNode,
+            LSStatementNode blockNode, int start, int length) {
+        exitScope();
+
+        if (iterableNode == null || blockNode == null) {
+            throw parseError(start, length, "One of iterableNode or blockNode is null");
+        }
+
+        iterableNode.addStatementTag();
+        final FrameSlot iterableSlot = lexicalScope.addTemporary("iterable", FrameSlotKind.Object);
+        final FrameSlot indexSlot = lexicalScope.addTemporary("index", FrameSlotKind.Long);
+        final LSForEachNode forEachNode = LSForEachNodeGen.create(iterableSlot, indexSlot,
+                (LSWriteVariableNode) variableNode, blockNode, iterableNode);
+        forEachNode.setSourceSection(start, length);
+        return forEachNode;
+    }
+
+    public LSStatementNode createIf(LSExpressionNode conditionNode, LSStatementNode thenPartNode,
+            LSStatementNode elsePartNode, int start, int length) {
+        if (conditionNode == null || thenPartNode == null) {
+            throw parseError(start, length, "One of conditionNode or thenNode is null");
+        }
+
+        conditionNode.addStatementTag();
+        final LSIfNode ifNode = new LSIfNode(conditionNode, thenPartNode, elsePartNode);
+        ifNode.setSourceSection(start, length);
+        return ifNode;
+    }
+
+    public LSStatementNode createReturn(LSExpressionNode valueNode, int start, int length) {
+        final LSReturnNode returnNode = new LSReturnNode(valueNode);
+        returnNode.setSourceSection(start, length);
+        return returnNode;
+    }
+
+    public LSStatementNode createThrow(LSExpressionNode valueNode, int start, int length) {
+        final LSThrowNode throwNode = new LSThrowNode(valueNode);
+        throwNode.setSourceSection(start, length);
+        return throwNode;
+    }
+
+    /**
+     * Defines the variable of a {@code catch} clause, in the scope of the clause.
+     */
+    public LSExpressionNode createCatchVariable(LSExpressionNode nameNode) {
+        /* The try node assigns the exception value itself, the value node is never executed */
+        final LSExpressionNode exceptionNode = new LSNullLiteralNode();
+        exceptionNode.setSourceSection(nameNode.getSourceCharIndex(), nameNode.getSourceLength());
+        return writeVariable(nameNode, exceptionNode);
+    }
+
+    public LSStatementNode createTry(LSStatementNode tryBlockNode, LSExpressionNode catchVariableNode,
+            LSStatementNode catchBlockNode, LSStatementNode finallyBlockNode, int start, int length) {
+        final LSTryCatchNode tryNode = new LSTryCatchNode(tryBlockNode, (LSWriteVariableNode) catchVariableNode,
+                catchBlockNode, finallyBlockNode);
+        tryNode.setSourceSection(start, length);
+        return tryNode;
+    }
+
+    public LSExpressionNode createImport(String path, int start, int length) {
+        final LSImportNode result = new LSImportNode(path);
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createIdentifier(String identifier, int start, int length) {
+        final LSStringLiteralNode result = new LSStringLiteralNode(identifier.intern());
+        result.addExpressionTag();
+        result.setSourceSection(start, length);
+        return result;
+    }
+
+    public LSExpressionNode createNullLiteral(int start, int length) {
+        final LSNullLiteralNode result = new LSNullLiteralNode();
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createBooleanLiteral(boolean value, int start, int length) {
+        final LSBooleanLiteralNode result = new LSBooleanLiteralNode(value);
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    /**
+     * Creates a string literal, the given literal does not include the quotes.
+     */
+    public LSExpressionNode createStringLiteral(String literal, int start, int length) {
+        final LSStringLiteralNode result = new LSStringLiteralNode(literal.intern());
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createIntegerLiteral(String literal, int start, int length) {
+        LSExpressionNode result;
+        try {
+            /* Try if the literal is small enough to fit into a long value. */
+            result = new LSIntegerLiteralNode(Long.parseLong(literal));
+        } catch (NumberFormatException ex) {
+            /* Overflow of long value, so fall back to BigInteger. */
+            result = new LSBigIntegerLiteralNode(new BigInteger(literal));
+        }
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createDecimalLiteral(String literal, int start, int length) {
+        final LSExpressionNode result = new LSDecimalLiteralNode(Double.parseDouble(literal));
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createArrayLiteral(List<LSExpressionNode> elementNodes, int start, int length) {
+        final LSArrayLiteralNode result = new LSArrayLiteralNode(
+                elementNodes.toArray(new LSExpressionNode[elementNodes.size()]));
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+
+    public LSExpressionNode createObjectLiteral(List<LSExpressionNode> nameNodes, List<LSExpressionNode> valueNodes,
+            int start, int length) {
+        final LSObjectLiteralNode result = new LSObjectLiteralNode(
+                nameNodes.toArray(new LSExpressionNode[nameNodes.size()]),
+                valueNodes.toArray(new LSExpressionNode[valueNodes.size()]));
+        result.setSourceSection(start, length);
+        result.addExpressionTag();
+        return result;
+    }
+}
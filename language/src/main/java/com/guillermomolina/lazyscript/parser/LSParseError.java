@@ -51,9 +51,6 @@ import com.oracle.truffle.api.library.ExportMessage;
 import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
 
-import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.Token;
-
 @ExportLibrary(InteropLibrary.class)
 public class LSParseError extends AbstractTruffleException {
 
@@ -72,14 +69,13 @@ public class LSParseError extends AbstractTruffleException {
         this.length = length;
     }
 
-    public LSParseError(Source source, ParserRuleContext ctx, String message) {
-        this(source, ctx.start.getLine(), ctx.start.getCharPositionInLine() + 1,
-                ctx.stop.getStopIndex() - ctx.start.getStartIndex(), message);
-    }
-
-    public LSParseError(Source source, Token token, String message) {
-        this(source, token.getLine(), token.getCharPositionInLine() + 1,
-                token == null ? 1 : Math.max(token.getStopIndex() - token.getStartIndex(), 0), message);
+    /**
+     * Creates the error for the characters of the source that start at the given
+     * index.
+     */
+    public static LSParseError at(Source source, int charIndex, int length, String message) {
+        final SourceSection section = source.createSection(charIndex, length);
+        return new LSParseError(source, section.getStartLine(), section.getStartColumn(), length, message);
     }
 
     /**
@@ -0,0 +1,803 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import static com.guillermomolina.lazyscript.parser.LSLexer.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.NotImplementedException;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * The LazyScript parser. It is a hand written recursive descent parser, with
+ * precedence climbing for the binary operators, that recognizes the language
+ * of the LazyScript grammar and creates the nodes with the
+ * {@link LSNodeFactory} while it reads the tokens of the {@link LSLexer}: there
+ * is no parse tree.
+ *
+ * The nodes of the bodies of function and block literals are built from
+ * their source offsets on the first call. The parser of the module still
+ * checks the syntax of every body, with a parser that shares its tokens and
+ * creates no AST (see {@link LSCheckingNodeFactory}), so the syntax errors are
+ * reported when the source is parsed. The parsers of the bodies skip the
+ * nested bodies by matching their curly braces, they were already checked.
+ */
+public final class LSParser {
+    private final LSLanguage language;
+    private final Source source;
+    private final LSNodeFactory factory;
+    private final LSLexer lexer;
+    private int token;
+    /*
+     * Checks the syntax of the skipped bodies, null in the parsers of bodies
+     * and in the checker itself, that parses the nested bodies in place.
+     */
+    private final LSParser checker;
+    private final boolean syntaxOnly;
+
+    /*
+     * The identifier, member or index expression that was parsed last, with its
+     * receiver and name. It is the target of an assignment that follows it.
+     */
+    private LSExpressionNode referenceNode;
+    private LSExpressionNode referenceReceiver;
+    private LSExpressionNode referenceName;
+
+    public LSParser(LSLanguage language, Source source) {
+        this(language, source, new LSNodeFactory(language, source));
+    }
+
+    public LSParser(LSLanguage language, Source source, LSNodeFactory factory) {
+        this.language = language;
+        this.source = source;
+        this.factory = factory;
+        this.lexer = new LSLexer(source, 0, source.getLength());
+        this.token = 0;
+        this.checker = new LSParser(language, source, lexer);
+        this.syntaxOnly = false;
+    }
+
+    private LSParser(LSLanguage language, Source source, LSNodeFactory factory, int start, int end) {
+        this.language = language;
+        this.source = source;
+        this.factory = factory;
+        this.lexer = new LSLexer(source, start, end);
+        this.token = 0;
+        this.checker = null;
+        this.syntaxOnly = false;
+    }
+
+    private LSParser(LSLanguage language, Source source, LSLexer lexer) {
+        this.language = language;
+        this.source = source;
+        this.factory = new LSCheckingNodeFactory(language, source);
+        this.lexer = lexer;
+        this.token = 0;
+        this.checker = null;
+        this.syntaxOnly = true;
+    }
+
+    public LSExpressionNode parse() {
+        final List<LSStatementNode> argumentInitializationNodes = factory.startModule();
+        final int start = lexer.getStart(token);
+        final List<LSStatementNode> statementNodes = parseStatements(EOF);
+        return factory.createModule(argumentInitializationNodes, statementNodes, start,
+                source.getLength() - start);
+    }
+
+    /**
+     * Returns the paths of the modules imported by the source, in order, found
+     * by scanning its tokens without parsing it. Used to load the modules a
+     * program depends on before running it.
+     */
+    public static List<String> findImports(Source source) {
+        final LSLexer lexer = new LSLexer(source, 0, source.getLength());
+        final List<String> result = new ArrayList<>();
+        for (int i = 0; lexer.getType(i) != EOF; i++) {
+            if (lexer.getType(i) == IMPORT && lexer.getType(i + 1) == STRING_LITERAL) {
+                final String text = lexer.getText(i + 1);
+                result.add(text.substring(1, text.length() - 1));
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Token helpers
+     */
+
+    private int type() {
+        return lexer.getType(token);
+    }
+
+    private boolean at(int type) {
+        return lexer.getType(token) == type;
+    }
+
+    private int start() {
+        return lexer.getStart(token);
+    }
+
+    /**
+     * The end of the last token that was consumed.
+     */
+    private int previousEnd() {
+        return lexer.getEnd(token - 1);
+    }
+
+    private int consume() {
+        return token++;
+    }
+
+    private int expect(int type) {
+        if (!at(type)) {
+            throw error("mismatched input '" + lexer.getText(token) + "' expecting " + LSLexer.displayName(type));
+        }
+        return token++;
+    }
+
+    private LSParseError error(String message) {
+        return factory.parseError(start(), lexer.getEnd(token) - start(), message);
+    }
+
+    private LSParseError noViableAlternative() {
+        return error("no viable alternative at input '" + lexer.getText(token) + "'");
+    }
+
+    /*
+     * Statements
+     */
+
+    private List<LSStatementNode> parseStatements(int endType) {
+        final List<LSStatementNode> statementNodes = new ArrayList<>();
+        while (!at(endType)) {
+            if (at(EOF)) {
+                throw error("missing " + LSLexer.displayName(endType) + " at '<EOF>'");
+            }
+            statementNodes.add(parseStatement());
+        }
+        return statementNodes;
+    }
+
+    private LSStatementNode parseStatement() {
+        switch (type()) {
+            case WHILE:
+                return parseWhile();
+            case FOR:
+                return parseFor();
+            case IF:
+                return parseIf();
+            case BREAK:
+                return parseBreak();
+            case CONTINUE:
+                return parseContinue();
+            case RETURN:
+                return parseReturn();
+            case THROW:
+                return parseThrow();
+            case TRY:
+                return parseTry();
+            case LCURLY:
+            case FUNCTION:
+                /* Reserved for blocks and function declarations */
+                throw noViableAlternative();
+            default:
+                final LSExpressionNode expressionNode = parseExpression();
+                parseEndOfStatement();
+                return expressionNode;
+        }
+    }
+
+    /**
+     * A statement ends with a semicolon, a line terminator, a closing curly
+     * brace or the end of the source.
+     */
+    private void parseEndOfStatement() {
+        if (at(SEMI)) {
+            consume();
+        } else if (!at(EOF) && !at(RCURLY) && !lexer.isLineTerminatorBefore(token)) {
+            throw error("extraneous input '" + lexer.getText(token) + "' expecting ';'");
+        }
+    }
+
+    private LSStatementNode parseBlock() {
+        final int start = start();
+        expect(LCURLY);
+        final List<LSStatementNode> statementNodes = parseStatements(RCURLY);
+        consume();
+        return factory.createBlock(statementNodes, start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseScopedBlock(boolean inLoop) {
+        factory.pushScope(inLoop);
+        final LSStatementNode blockNode = parseBlock();
+        factory.popScope();
+        return blockNode;
+    }
+
+    private LSStatementNode parseWhile() {
+        final int start = start();
+        consume();
+        expect(LPAREN);
+        final LSExpressionNode conditionNode = parseExpression();
+        expect(RPAREN);
+        final LSStatementNode blockNode = parseScopedBlock(true);
+        return factory.createWhile(conditionNode, blockNode, start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseFor() {
+        final int start = start();
+        consume();
+        expect(LPAREN);
+        final LSExpressionNode nameNode = parseIdentifier();
+        if (at(IN)) {
+            consume();
+            final LSExpressionNode startNode = parseExpression();
+            expect(RANGE);
+            final LSExpressionNode endNode = parseExpression();
+            expect(RPAREN);
+            final LSNodeFactory.ForHeader header = factory.startFor(nameNode);
+            final LSStatementNode blockNode = parseBlock();
+            return factory.createFor(startNode, endNode, header, blockNode, start, previousEnd() - start);
+        }
+        if (at(OF)) {
+            consume();
+            final LSExpressionNode iterableNode = parseExpression();
+            expect(RPAREN);
+            final LSExpressionNode variableNode = factory.startForOf(nameNode);
+            final LSStatementNode blockNode = parseBlock();
+            return factory.createForOf(iterableNode, variableNode, blockNode, start, previousEnd() - start);
+        }
+        throw noViableAlternative();
+    }
+
+    private LSStatementNode parseIf() {
+        final int start = start();
+        consume();
+        expect(LPAREN);
+        final LSExpressionNode conditionNode = parseExpression();
+        expect(RPAREN);
+        final LSStatementNode thenPartNode = parseScopedBlock(factory.isInLoop());
+        LSStatementNode elsePartNode = null;
+        if (at(ELSE)) {
+            consume();
+            elsePartNode = parseScopedBlock(factory.isInLoop());
+        }
+        return factory.createIf(conditionNode, thenPartNode, elsePartNode, start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseBreak() {
+        final int start = start();
+        consume();
+        parseEndOfStatement();
+        return factory.createBreak(start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseContinue() {
+        final int start = start();
+        consume();
+        parseEndOfStatement();
+        return factory.createContinue(start, previousEnd() - start);
+    }
+
+    private boolean isEndOfStatement() {
+        return at(SEMI) || at(RCURLY) || at(EOF) || lexer.isLineTerminatorBefore(token);
+    }
+
+    private LSStatementNode parseReturn() {
+        final int start = start();
+        consume();
+        LSExpressionNode valueNode = null;
+        if (!isEndOfStatement()) {
+            valueNode = parseExpression();
+        }
+        parseEndOfStatement();
+        return factory.createReturn(valueNode, start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseThrow() {
+        final int start = start();
+        consume();
+        if (lexer.isLineTerminatorBefore(token)) {
+            throw error("no line terminator allowed after 'throw'");
+        }
+        final LSExpressionNode valueNode = parseExpression();
+        parseEndOfStatement();
+        return factory.createThrow(valueNode, start, previousEnd() - start);
+    }
+
+    private LSStatementNode parseTry() {
+        final int start = start();
+        consume();
+        final LSStatementNode tryBlockNode = parseScopedBlock(factory.isInLoop());
+
+        LSExpressionNode catchVariableNode = null;
+        LSStatementNode catchBlockNode = null;
+        if (at(CATCH)) {
+            consume();
+            factory.pushScope(factory.isInLoop());
+            expect(LPAREN);
+            final LSExpressionNode nameNode = parseIdentifier();
+            expect(RPAREN);
+            catchVariableNode = factory.createCatchVariable(nameNode);
+            catchBlockNode = parseBlock();
+            factory.popScope();
+        } else if (!at(FINALLY)) {
+            throw error("mismatched input '" + lexer.getText(token) + "' expecting {'catch', 'finally'}");
+        }
+
+        LSStatementNode finallyBlockNode = null;
+        if (at(FINALLY)) {
+            consume();
+            finallyBlockNode = parseScopedBlock(factory.isInLoop());
+        }
+
+        return factory.createTry(tryBlockNode, catchVariableNode, catchBlockNode, finallyBlockNode, start,
+                previousEnd() - start);
+    }
+
+    /*
+     * Expressions
+     */
+
+    private LSExpressionNode parseExpression() {
+        final int start = start();
+        final LSExpressionNode targetNode = parseBinary(1);
+        if (!at(ASSIGN)) {
+            return targetNode;
+        }
+        final boolean isReference = targetNode == referenceNode;
+        final LSExpressionNode receiverNode = referenceReceiver;
+        final LSExpressionNode nameNode = referenceName;
+        consume();
+        final LSExpressionNode valueNode = parseExpression();
+        if (!isReference) {
+            throw new NotImplementedException();
+        }
+        if (receiverNode == null) {
+            return factory.createWriteVariable(nameNode, valueNode);
+        }
+        return factory.createWriteProperty(receiverNode, nameNode, valueNode, start, previousEnd() - start);
+    }
+
+    /**
+     * Returns the precedence of a binary operator, higher binds tighter, or 0 if
+     * the token is not a binary operator.
+     */
+    private static int precedence(int type) {
+        switch (type) {
+            case OR:
+                return 1;
+            case AND:
+                return 2;
+            case BITOR:
+                return 3;
+            case BITAND:
+                return 4;
+            case EQUAL:
+            case NOT_EQUAL:
+                return 5;
+            case LT:
+            case GT:
+            case LE:
+            case GE:
+                return 6;
+            case ADD:
+            case SUB:
+                return 7;
+            case MUL:
+            case DIV:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private LSExpressionNode parseBinary(int minPrecedence) {
+        final int start = start();
+        LSExpressionNode leftNode = parseUnary();
+        int precedence = precedence(type());
+        while (precedence >= minPrecedence) {
+            final String operator = lexer.getText(consume());
+            final LSExpressionNode rightNode = parseBinary(precedence + 1);
+            leftNode = factory.createBinary(operator, leftNode, rightNode, start, previousEnd() - start);
+            precedence = precedence(type());
+        }
+        return leftNode;
+    }
+
+    private LSExpressionNode parseUnary() {
+        final int start = start();
+        if (at(SUB)) {
+            final String operator = lexer.getText(consume());
+            final LSExpressionNode valueNode = parseUnary();
+            return factory.createUnary(operator, valueNode, start, previousEnd() - start);
+        }
+        if (at(LAZY)) {
+            consume();
+            final List<LSStatementNode> bodyNodeList = factory.startLazy();
+            final int expressionStart = start();
+            final LSExpressionNode valueNode = parseBinary(1);
+            final int expressionLength = previousEnd() - expressionStart;
+            return factory.createLazy(bodyNodeList, valueNode, expressionStart, expressionLength, start,
+                    previousEnd() - start);
+        }
+        return parsePostfix();
+    }
+
+    /**
+     * Parses a primary expression followed by any number of member, index and
+     * call suffixes. The reads of identifiers, members and indexes are created
+     * when the next suffix is known, so the calls are created directly on the
+     * receiver and the name.
+     */
+    private LSExpressionNode parsePostfix() {
+        final int start = start();
+        LSExpressionNode receiverNode = null;
+        LSExpressionNode nameNode = null;
+        LSExpressionNode node = null;
+        if (at(IDENTIFIER)) {
+            nameNode = parseIdentifier();
+        } else {
+            node = parsePrimary();
+        }
+        while (true) {
+            if (at(DOT)) {
+                receiverNode = node == null ? createRead(receiverNode, nameNode, start) : node;
+                consume();
+                nameNode = parseIdentifier();
+                node = null;
+            } else if (at(LBRACK)) {
+                receiverNode = node == null ? createRead(receiverNode, nameNode, start) : node;
+                consume();
+                nameNode = parseExpression();
+                expect(RBRACK);
+                node = null;
+            } else if (at(LPAREN)) {
+                if (node != null) {
+                    /* Only members, indexes and identifiers can be called */
+                    throw new NotImplementedException();
+                }
+                if (receiverNode == null) {
+                    receiverNode = factory.createReadThis();
+                }
+                final List<LSExpressionNode> argumentNodes = parseArguments();
+                node = factory.createCall(receiverNode, nameNode, argumentNodes, start, previousEnd() - start);
+            } else {
+                break;
+            }
+        }
+        if (node == null) {
+            node = createRead(receiverNode, nameNode, start);
+            referenceNode = node;
+            referenceReceiver = receiverNode;
+            referenceName = nameNode;
+        }
+        return node;
+    }
+
+    private LSExpressionNode createRead(LSExpressionNode receiverNode, LSExpressionNode nameNode, int start) {
+        if (receiverNode == null) {
+            return factory.createReadVariable(nameNode, start, previousEnd() - start);
+        }
+        return factory.createReadProperty(receiverNode, nameNode, start, previousEnd() - start);
+    }
+
+    private List<LSExpressionNode> parseArguments() {
+        expect(LPAREN);
+        if (at(RPAREN)) {
+            consume();
+            return Collections.emptyList();
+        }
+        final List<LSExpressionNode> argumentNodes = new ArrayList<>();
+        argumentNodes.add(parseExpression());
+        while (at(COMMA)) {
+            consume();
+            argumentNodes.add(parseExpression());
+        }
+        expect(RPAREN);
+        return argumentNodes;
+    }
+
+    private LSExpressionNode parseIdentifier() {
+        final int identifier = expect(IDENTIFIER);
+        final int start = lexer.getStart(identifier);
+        return factory.createIdentifier(lexer.getText(identifier), start, lexer.getEnd(identifier) - start);
+    }
+
+    private LSExpressionNode parsePrimary() {
+        final int start = start();
+        final int length = lexer.getEnd(token) - start;
+        switch (type()) {
+            case THIS:
+                consume();
+                return factory.createThisLiteral(start, length);
+            case NULL:
+                consume();
+                return factory.createNullLiteral(start, length);
+            case TRUE:
+            case FALSE:
+                return factory.createBooleanLiteral(at(TRUE), start, lexer.getEnd(consume()) - start);
+            case STRING_LITERAL:
+            case DECIMAL_INTEGER_LITERAL:
+            case DECIMAL_LITERAL:
+            case HEX_INTEGER_LITERAL:
+            case OCTAL_INTEGER_LITERAL:
+            case BINARY_INTEGER_LITERAL:
+                return parseLiteral();
+            case IMPORT:
+                return parseImport();
+            case LBRACK:
+                return parseArrayLiteral();
+            case LCURLY:
+                return parseObjectLiteral();
+            case FUNCTION:
+                return parseFunctionLiteral();
+            case LPAREN:
+                if (isBlockLiteral()) {
+                    return parseBlockLiteral();
+                }
+                consume();
+                final LSExpressionNode expressionNode = parseExpression();
+                expect(RPAREN);
+                /* A parenthesized expression is not the target of an assignment */
+                referenceNode = null;
+                return expressionNode;
+            default:
+                throw noViableAlternative();
+        }
+    }
+
+    private LSExpressionNode parseLiteral() {
+        final int literal = consume();
+        final int start = lexer.getStart(literal);
+        final int length = lexer.getEnd(literal) - start;
+        switch (lexer.getType(literal)) {
+            case STRING_LITERAL:
+                final String text = lexer.getText(literal);
+                return factory.createStringLiteral(text.substring(1, text.length() - 1), start, length);
+            case DECIMAL_INTEGER_LITERAL:
+                return factory.createIntegerLiteral(lexer.getText(literal), start, length);
+            case DECIMAL_LITERAL:
+                return factory.createDecimalLiteral(lexer.getText(literal), start, length);
+            default:
+                throw new NotImplementedException();
+        }
+    }
+
+    private LSExpressionNode parseImport() {
+        final int start = lexer.getStart(consume());
+        final int literal = expect(STRING_LITERAL);
+        final String text = lexer.getText(literal);
+        return factory.createImport(text.substring(1, text.length() - 1), start, lexer.getEnd(literal) - start);
+    }
+
+    private LSExpressionNode parseArrayLiteral() {
+        final int start = start();
+        consume();
+        final List<LSExpressionNode> elementNodes = new ArrayList<>();
+        while (true) {
+            while (at(COMMA)) {
+                consume();
+            }
+            if (at(RBRACK)) {
+                break;
+            }
+            elementNodes.add(parseExpression());
+            if (!at(COMMA) && !at(RBRACK)) {
+                throw error("mismatched input '" + lexer.getText(token) + "' expecting {',', ']'}");
+            }
+        }
+        consume();
+        return factory.createArrayLiteral(elementNodes, start, previousEnd() - start);
+    }
+
+    private LSExpressionNode parseObjectLiteral() {
+        final int start = start();
+        consume();
+        final List<LSExpressionNode> nameNodes = new ArrayList<>();
+        final List<LSExpressionNode> valueNodes = new ArrayList<>();
+        while (!at(RCURLY)) {
+            if (at(COMMA) && lexer.getType(token + 1) == RCURLY) {
+                consume();
+                break;
+            }
+            if (!nameNodes.isEmpty()) {
+                expect(COMMA);
+                if (at(RCURLY)) {
+                    break;
+                }
+            }
+            nameNodes.add(parsePropertyName());
+            expect(COLON);
+            valueNodes.add(parseExpression());
+        }
+        expect(RCURLY);
+        return factory.createObjectLiteral(nameNodes, valueNodes, start, previousEnd() - start);
+    }
+
+    private LSExpressionNode parsePropertyName() {
+        switch (type()) {
+            case IDENTIFIER:
+                return parseIdentifier();
+            case STRING_LITERAL:
+            case DECIMAL_INTEGER_LITERAL:
+            case DECIMAL_LITERAL:
+            case HEX_INTEGER_LITERAL:
+            case OCTAL_INTEGER_LITERAL:
+            case BINARY_INTEGER_LITERAL:
+                return parseLiteral();
+            default:
+                throw noViableAlternative();
+        }
+    }
+
+    /**
+     * Looks ahead for {@code (parameters) =>}, the start of a block literal.
+     */
+    private boolean isBlockLiteral() {
+        int current = token + 1;
+        if (lexer.getType(current) != RPAREN) {
+            while (true) {
+                if (lexer.getType(current++) != IDENTIFIER) {
+                    return false;
+                }
+                final int type = lexer.getType(current++);
+                if (type == RPAREN) {
+                    break;
+                }
+                if (type != COMMA) {
+                    return false;
+                }
+            }
+        } else {
+            current++;
+        }
+        return lexer.getType(current) == ARROW;
+    }
+
+    private List<String> parseParameters() {
+        expect(LPAREN);
+        final List<String> parameterNames = new ArrayList<>();
+        if (!at(RPAREN)) {
+            parameterNames.add(lexer.getText(expect(IDENTIFIER)));
+            while (at(COMMA)) {
+                consume();
+                parameterNames.add(lexer.getText(expect(IDENTIFIER)));
+            }
+        }
+        expect(RPAREN);
+        return parameterNames;
+    }
+
+    private LSExpressionNode parseFunctionLiteral() {
+        final int start = start();
+        consume();
+        final LSExpressionNode nameNode = parseIdentifier();
+        final List<String> parameterNames = parseParameters();
+        final int blockStart = start();
+        final int blockEnd = skipBody();
+        return factory.createFunctionLiteral(nameNode, parameterNames, bodyParser(blockStart, blockEnd), blockStart,
+                blockEnd - blockStart, start, previousEnd() - start);
+    }
+
+    private LSExpressionNode parseBlockLiteral() {
+        final int start = start();
+        final List<String> parameterNames = parseParameters();
+        expect(ARROW);
+        final int blockStart = start();
+        final int blockEnd = skipBody();
+        return factory.createBlockLiteral(parameterNames, bodyParser(blockStart, blockEnd), blockStart,
+                blockEnd - blockStart, start, previousEnd() - start);
+    }
+
+
+    /**
+     * Skips the body of a function or block literal, from its opening to its
+     * matching closing curly brace, and returns the end of the body. The
+     * parser of the module checks the syntax of the body on the way.
+     */
+    private int skipBody() {
+        if (syntaxOnly) {
+            checkBody();
+            return previousEnd();
+        }
+        if (checker != null) {
+            checker.token = token;
+            checker.checkBody();
+            token = checker.token;
+            return previousEnd();
+        }
+        expect(LCURLY);
+        int depth = 1;
+        while (depth > 0) {
+            switch (type()) {
+                case LCURLY:
+                    depth++;
+                    break;
+                case RCURLY:
+                    depth--;
+                    break;
+                case EOF:
+                    throw error("missing '}' at '<EOF>'");
+                default:
+                    break;
+            }
+            consume();
+        }
+        return previousEnd();
+    }
+
+    /**
+     * Parses a body, with its nested bodies, without building it. A body is
+     * the scope of a new frame, so it is not in a loop.
+     */
+    private void checkBody() {
+        expect(LCURLY);
+        factory.pushScope(false);
+        parseStatements(RCURLY);
+        factory.popScope();
+        consume();
+    }
+
+    /**
+     * The statements of a body are parsed on its first call, by a parser of
+     * the characters between its curly braces.
+     */
+    private LSNodeFactory.BodyParser bodyParser(int blockStart, int blockEnd) {
+        return bodyParser(language, source, blockStart, blockEnd);
+    }
+
+    /**
+     * Returns the parser of the body of a function or block literal, from
+     * its opening to its closing curly brace.
+     */
+    static LSNodeFactory.BodyParser bodyParser(LSLanguage language, Source source, int blockStart, int blockEnd) {
+        return bodyFactory -> new LSParser(language, source, bodyFactory, blockStart + 1, blockEnd - 1)
+                .parseStatements(EOF);
+    }
+}
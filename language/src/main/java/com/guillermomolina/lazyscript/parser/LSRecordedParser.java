@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import static com.guillermomolina.lazyscript.parser.LSRecordingNodeFactory.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Builds the AST of a source by replaying into a {@link LSNodeFactory} the
+ * calls recorded by {@link LSRecordingNodeFactory}. The bodies of function and
+ * block literals are replayed on their first call, as the parser does.
+ */
+public final class LSRecordedParser {
+
+    private final LSLanguage language;
+    private final Source source;
+    private final byte[] data;
+    private final int[] segmentStarts;
+    private final int[] segmentEnds;
+
+    /**
+     * Reads the table of segments written by
+     * {@link LSRecordingNodeFactory.Recording#write}, starting at offset.
+     */
+    public LSRecordedParser(LSLanguage language, Source source, byte[] data, int offset) {
+        this.language = language;
+        this.source = source;
+        this.data = data;
+        final Reader reader = new Reader(offset, data.length);
+        final int segmentCount = reader.integer();
+        this.segmentStarts = new int[segmentCount];
+        this.segmentEnds = new int[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final int length = reader.integer();
+            segmentStarts[i] = reader.position;
+            segmentEnds[i] = reader.position + length;
+            reader.position += length;
+        }
+        if (segmentCount == 0 || reader.position != data.length) {
+            throw new IllegalArgumentException("Malformed recording");
+        }
+    }
+
+    public LSExpressionNode parse() {
+        return (LSExpressionNode) replay(0, new LSNodeFactory(language, source));
+    }
+
+    private final class Reader {
+        private int position;
+        private final int end;
+
+        Reader(int position, int end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        int next() {
+            if (position >= end) {
+                throw new IllegalArgumentException("Malformed recording");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int integer() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = next();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        boolean bool() {
+            return next() != 0;
+        }
+
+        String string() {
+            final int length = integer();
+            if (length > end - position) {
+                throw new IllegalArgumentException("Malformed recording");
+            }
+            final String result = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+
+        List<String> strings() {
+            final int count = integer();
+            final List<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(string());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Replays the segment of a body, or parses the body from the source if it
+     * was not recorded.
+     */
+    private LSNodeFactory.BodyParser bodyParser(int segment, int blockStart, int blockLength) {
+        if (segmentStarts[segment] == segmentEnds[segment]) {
+            return LSParser.bodyParser(language, source, blockStart, blockStart + blockLength);
+        }
+        return bodyFactory -> {
+            @SuppressWarnings("unchecked")
+            final List<LSStatementNode> result = (List<LSStatementNode>) replay(segment, bodyFactory);
+            return result;
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object replay(int segment, LSNodeFactory factory) {
+        final Reader in = new Reader(segmentStarts[segment], segmentEnds[segment]);
+        final List<Object> values = new ArrayList<>();
+        while (true) {
+            final int op = in.next();
+            switch (op) {
+                case PUSH_SCOPE:
+                    factory.pushScope(in.bool());
+                    continue;
+                case POP_SCOPE:
+                    factory.popScope();
+                    continue;
+                case MODULE: {
+                    final List<LSStatementNode> initNodes = (List<LSStatementNode>) ref(in, values);
+                    final List<LSStatementNode> statementNodes = refs(in, values);
+                    return factory.createModule(initNodes, statementNodes, in.integer(), in.integer());
+                }
+                case BODY:
+                    return refs(in, values);
+                default:
+                    values.add(replayValue(op, in, values, factory));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object replayValue(int op, Reader in, List<Object> values, LSNodeFactory factory) {
+        switch (op) {
+            case START_MODULE:
+                return factory.startModule();
+            case FUNCTION_LITERAL: {
+                final LSExpressionNode nameNode = ref(in, values);
+                final List<String> parameterNames = in.strings();
+                final int segment = in.integer();
+                final int blockStart = in.integer();
+                final int blockLength = in.integer();
+                return factory.createFunctionLiteral(nameNode, parameterNames,
+                        bodyParser(segment, blockStart, blockLength), blockStart, blockLength, in.integer(),
+                        in.integer());
+            }
+            case BLOCK_LITERAL: {
+                final List<String> parameterNames = in.strings();
+                final int segment = in.integer();
+                final int blockStart = in.integer();
+                final int blockLength = in.integer();
+                return factory.createBlockLiteral(parameterNames, bodyParser(segment, blockStart, blockLength),
+                        blockStart, blockLength, in.integer(), in.integer());
+            }
+            case BLOCK:
+                return factory.createBlock(refs(in, values), in.integer(), in.integer());
+            case START_LAZY:
+                return factory.startLazy();
+            case LAZY: {
+                final List<LSStatementNode> bodyNodeList = (List<LSStatementNode>) ref(in, values);
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createLazy(bodyNodeList, valueNode, in.integer(), in.integer(), in.integer(),
+                        in.integer());
+            }
+            case UNARY: {
+                final String operator = in.string();
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createUnary(operator, valueNode, in.integer(), in.integer());
+            }
+            case BINARY: {
+                final String operator = in.string();
+                final LSExpressionNode leftNode = ref(in, values);
+                final LSExpressionNode rightNode = ref(in, values);
+                return factory.createBinary(operator, leftNode, rightNode, in.integer(), in.integer());
+            }
+            case READ_PROPERTY: {
+                final LSExpressionNode receiverNode = ref(in, values);
+                final LSExpressionNode nameNode = ref(in, values);
+                return factory.createReadProperty(receiverNode, nameNode, in.integer(), in.integer());
+            }
+            case READ_VARIABLE: {
+                final LSExpressionNode nameNode = ref(in, values);
+                return factory.createReadVariable(nameNode, in.integer(), in.integer());
+            }
+            case CALL: {
+                final LSExpressionNode receiverNode = ref(in, values);
+                final LSExpressionNode nameNode = ref(in, values);
+                final List<LSExpressionNode> argumentNodes = refs(in, values);
+                return factory.createCall(receiverNode, nameNode, argumentNodes, in.integer(), in.integer());
+            }
+            case WRITE_VARIABLE: {
+                final LSExpressionNode nameNode = ref(in, values);
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createWriteVariable(nameNode, valueNode);
+            }
+            case WRITE_PROPERTY: {
+                final LSExpressionNode receiverNode = ref(in, values);
+                final LSExpressionNode nameNode = ref(in, values);
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createWriteProperty(receiverNode, nameNode, valueNode, in.integer(), in.integer());
+            }
+            case THIS_LITERAL:
+                return factory.createThisLiteral(in.integer(), in.integer());
+            case READ_THIS:
+                return factory.createReadThis();
+            case BREAK:
+                return factory.createBreak(in.integer(), in.integer());
+            case CONTINUE:
+                return factory.createContinue(in.integer(), in.integer());
+            case WHILE: {
+                final LSExpressionNode conditionNode = ref(in, values);
+                final LSStatementNode blockNode = ref(in, values);
+                return factory.createWhile(conditionNode, blockNode, in.integer(), in.integer());
+            }
+            case START_FOR:
+                return factory.startFor(ref(in, values));
+            case FOR: {
+                final LSExpressionNode startNode = ref(in, values);
+                final LSExpressionNode endNode = ref(in, values);
+                final LSNodeFactory.ForHeader header = ref(in, values);
+                final LSStatementNode blockNode = ref(in, values);
+                return factory.createFor(startNode, endNode, header, blockNode, in.integer(), in.integer());
+            }
+            case START_FOR_OF:
+                return factory.startForOf(ref(in, values));
+            case FOR_OF: {
+                final LSExpressionNode iterableNode = ref(in, values);
+                final LSExpressionNode variableNode = ref(in, values);
+                final LSStatementNode blockNode = ref(in, values);
+                return factory.createForOf(iterableNode, variableNode, blockNode, in.integer(), in.integer());
+            }
+            case IF: {
+                final LSExpressionNode conditionNode = ref(in, values);
+                final LSStatementNode thenPartNode = ref(in, values);
+                final LSStatementNode elsePartNode = ref(in, values);
+                return factory.createIf(conditionNode, thenPartNode, elsePartNode, in.integer(), in.integer());
+            }
+            case RETURN: {
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createReturn(valueNode, in.integer(), in.integer());
+            }
+            case THROW: {
+                final LSExpressionNode valueNode = ref(in, values);
+                return factory.createThrow(valueNode, in.integer(), in.integer());
+            }
+            case CATCH_VARIABLE:
+                return factory.createCatchVariable(ref(in, values));
+            case TRY: {
+                final LSStatementNode tryBlockNode = ref(in, values);
+                final LSExpressionNode catchVariableNode = ref(in, values);
+                final LSStatementNode catchBlockNode = ref(in, values);
+                final LSStatementNode finallyBlockNode = ref(in, values);
+                return factory.createTry(tryBlockNode, catchVariableNode, catchBlockNode, finallyBlockNode,
+                        in.integer(), in.integer());
+            }
+            case IMPORT: {
+                final String path = in.string();
+                return factory.createImport(path, in.integer(), in.integer());
+            }
+            case IDENTIFIER: {
+                final String identifier = in.string();
+                return factory.createIdentifier(identifier, in.integer(), in.integer());
+            }
+            case NULL_LITERAL:
+                return factory.createNullLiteral(in.integer(), in.integer());
+            case BOOLEAN_LITERAL: {
+                final boolean value = in.bool();
+                return factory.createBooleanLiteral(value, in.integer(), in.integer());
+            }
+            case STRING_LITERAL: {
+                final String literal = in.string();
+                return factory.createStringLiteral(literal, in.integer(), in.integer());
+            }
+            case INTEGER_LITERAL: {
+                final String literal = in.string();
+                return factory.createIntegerLiteral(literal, in.integer(), in.integer());
+            }
+            case DECIMAL_LITERAL: {
+                final String literal = in.string();
+                return factory.createDecimalLiteral(literal, in.integer(), in.integer());
+            }
+            case ARRAY_LITERAL: {
+                final List<LSExpressionNode> elementNodes = refs(in, values);
+                return factory.createArrayLiteral(elementNodes, in.integer(), in.integer());
+            }
+            case OBJECT_LITERAL: {
+                final List<LSExpressionNode> nameNodes = refs(in, values);
+                final List<LSExpressionNode> valueNodes = refs(in, values);
+                return factory.createObjectLiteral(nameNodes, valueNodes, in.integer(), in.integer());
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation in recording: " + op);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T ref(Reader in, List<Object> values) {
+        final int id = in.integer();
+        if (id == 0) {
+            return null;
+        }
+        if (id > values.size()) {
+            throw new IllegalArgumentException("Malformed recording");
+        }
+        return (T) values.get(id - 1);
+    }
+
+    private static <T> List<T> refs(Reader in, List<Object> values) {
+        final int count = in.integer();
+        final List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(ref(in, values));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSBlockNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * A {@link LSNodeFactory} that records the calls of the parser, so the AST
+ * can be built again later by replaying them with {@link LSRecordedParser},
+ * without lexing and parsing the source. The recording is the compact form of
+ * the analyzed source: the arguments of each call are the literals and source
+ * offsets of the parser, and the nodes it got from previous calls, written as
+ * the index of the call that created them. The scopes and frame slots are
+ * created again by the factory during the replay.
+ *
+ * The module and the body of each function and block literal are recorded in
+ * their own segment, bodies are recorded when they are built and replayed on
+ * their first call. A body that was not built yet when the recording is
+ * written has an empty segment, it is parsed from the source on its first
+ * call.
+ */
+public final class LSRecordingNodeFactory extends LSNodeFactory {
+
+    /**
+     * The version of the recording: of its encoding, and of the calls that
+     * are recorded and their arguments. It changes with any of them.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    static final int PUSH_SCOPE = 1;
+    static final int POP_SCOPE = 2;
+    static final int START_MODULE = 3;
+    static final int MODULE = 4;
+    static final int FUNCTION_LITERAL = 5;
+    static final int BLOCK_LITERAL = 6;
+    static final int BLOCK = 7;
+    static final int BODY = 8;
+    static final int START_LAZY = 9;
+    static final int LAZY = 10;
+    static final int UNARY = 11;
+    static final int BINARY = 12;
+    static final int READ_PROPERTY = 13;
+    static final int READ_VARIABLE = 14;
+    static final int CALL = 15;
+    static final int WRITE_VARIABLE = 16;
+    static final int WRITE_PROPERTY = 17;
+    static final int THIS_LITERAL = 18;
+    static final int READ_THIS = 19;
+    static final int BREAK = 20;
+    static final int CONTINUE = 21;
+    static final int WHILE = 22;
+    static final int START_FOR = 23;
+    static final int FOR = 24;
+    static final int START_FOR_OF = 25;
+    static final int FOR_OF = 26;
+    static final int IF = 27;
+    static final int RETURN = 28;
+    static final int THROW = 29;
+    static final int CATCH_VARIABLE = 30;
+    static final int TRY = 31;
+    static final int IDENTIFIER = 32;
+    static final int NULL_LITERAL = 33;
+    static final int BOOLEAN_LITERAL = 34;
+    static final int STRING_LITERAL = 35;
+    static final int INTEGER_LITERAL = 36;
+    static final int DECIMAL_LITERAL = 37;
+    static final int ARRAY_LITERAL = 38;
+    static final int OBJECT_LITERAL = 39;
+    static final int IMPORT = 40;
+
+    /**
+     * The segments recorded for a source, the first one is the module.
+     */
+    public static final class Recording {
+        private final List<byte[]> segments = new ArrayList<>();
+
+        private synchronized int reserve() {
+            segments.add(null);
+            return segments.size() - 1;
+        }
+
+        private synchronized void set(int segment, byte[] data) {
+            segments.set(segment, data);
+        }
+
+        public synchronized void write(DataOutputStream out) throws IOException {
+            writeInt(out, segments.size());
+            for (byte[] segment : segments) {
+                if (segment == null) {
+                    writeInt(out, 0);
+                } else {
+                    writeInt(out, segment.length);
+                    out.write(segment);
+                }
+            }
+        }
+    }
+
+    private final Recording recording;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private int resultCount = 0;
+
+    public LSRecordingNodeFactory(LSLanguage language, Source source) {
+        this(language, source, new Recording());
+        recording.reserve();
+    }
+
+    private LSRecordingNodeFactory(LSLanguage language, Source source, Recording recording) {
+        super(language, source);
+        this.recording = recording;
+    }
+
+    public Recording getRecording() {
+        return recording;
+    }
+
+    /**
+     * The bodies of all the functions are recorded, so no call target is kept
+     * from a previous version of the script.
+     */
+    @Override
+    protected RootCallTarget findDefinedFunction(String key) {
+        return null;
+    }
+
+    @Override
+    protected LSNodeFactory createBodyFactory() {
+        return new LSRecordingNodeFactory(getLanguage(), getSource(), recording);
+    }
+
+    /*
+     * Encoding: unsigned integers in 7 bit groups, the references to values as
+     * the index of the call that returned them plus one, 0 for null.
+     */
+
+    static void writeInt(ByteArrayOutputStream stream, int value) {
+        assert value >= 0;
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            stream.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        stream.write(remaining);
+    }
+
+    private static void writeInt(DataOutputStream stream, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            stream.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        stream.write(remaining);
+    }
+
+    private void op(int op) {
+        out.write(op);
+    }
+
+    private void integer(int value) {
+        writeInt(out, value);
+    }
+
+    private void bool(boolean value) {
+        out.write(value ? 1 : 0);
+    }
+
+    private void string(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private void strings(List<String> values) {
+        writeInt(out, values.size());
+        for (String value : values) {
+            string(value);
+        }
+    }
+
+    private void ref(Object value) {
+        if (value == null) {
+            writeInt(out, 0);
+            return;
+        }
+        final Integer id = ids.get(value);
+        if (id == null) {
+            throw new IllegalStateException("Value not created by this factory: " + value);
+        }
+        writeInt(out, id + 1);
+    }
+
+    private void refs(List<?> values) {
+        writeInt(out, values.size());
+        for (Object value : values) {
+            ref(value);
+        }
+    }
+
+    private void section(int start, int length) {
+        writeInt(out, start);
+        writeInt(out, length);
+    }
+
+    private <T> T result(T value) {
+        ids.put(value, resultCount++);
+        return value;
+    }
+
+    /**
+     * Wraps the parser of a body, so its factory stores the recorded calls in
+     * the segment of the body.
+     */
+    private BodyParser recordBody(int bodySegment, BodyParser bodyParser) {
+        return bodyFactory -> {
+            final List<LSStatementNode> statementNodes = bodyParser.parse(bodyFactory);
+            final LSRecordingNodeFactory recorder = (LSRecordingNodeFactory) bodyFactory;
+            recorder.op(BODY);
+            recorder.refs(statementNodes);
+            recording.set(bodySegment, recorder.out.toByteArray());
+            return statementNodes;
+        };
+    }
+
+    @Override
+    public void pushScope(boolean inLoop) {
+        super.pushScope(inLoop);
+        op(PUSH_SCOPE);
+        bool(inLoop);
+    }
+
+    @Override
+    public void popScope() {
+        super.popScope();
+        op(POP_SCOPE);
+    }
+
+    @Override
+    public List<LSStatementNode> startModule() {
+        final List<LSStatementNode> result = super.startModule();
+        op(START_MODULE);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createModule(List<LSStatementNode> argumentInitializationNodes,
+            List<LSStatementNode> statementNodes, int start, int length) {
+        final LSExpressionNode result = super.createModule(argumentInitializationNodes, statementNodes, start,
+                length);
+        op(MODULE);
+        ref(argumentInitializationNodes);
+        refs(statementNodes);
+        section(start, length);
+        recording.set(0, out.toByteArray());
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createFunctionLiteral(LSExpressionNode nameNode, List<String> parameterNames,
+            BodyParser bodyParser, int blockStart, int blockLength, int start, int length) {
+        final int bodySegment = recording.reserve();
+        final LSExpressionNode result = super.createFunctionLiteral(nameNode, parameterNames,
+                recordBody(bodySegment, bodyParser), blockStart, blockLength, start, length);
+        op(FUNCTION_LITERAL);
+        ref(nameNode);
+        strings(parameterNames);
+        integer(bodySegment);
+        section(blockStart, blockLength);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createBlockLiteral(List<String> parameterNames, BodyParser bodyParser, int blockStart,
+            int blockLength, int start, int length) {
+        final int bodySegment = recording.reserve();
+        final LSExpressionNode result = super.createBlockLiteral(parameterNames, recordBody(bodySegment, bodyParser),
+                blockStart, blockLength, start, length);
+        op(BLOCK_LITERAL);
+        strings(parameterNames);
+        integer(bodySegment);
+        section(blockStart, blockLength);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSBlockNode createBlock(List<LSStatementNode> statementNodes, int start, int length) {
+        final LSBlockNode result = super.createBlock(statementNodes, start, length);
+        op(BLOCK);
+        refs(statementNodes);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public List<LSStatementNode> startLazy() {
+        final List<LSStatementNode> result = super.startLazy();
+        op(START_LAZY);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createLazy(List<LSStatementNode> bodyNodeList, LSExpressionNode valueNode,
+            int expressionStart, int expressionLength, int start, int length) {
+        final LSExpressionNode result = super.createLazy(bodyNodeList, valueNode, expressionStart,
+                expressionLength, start, length);
+        op(LAZY);
+        ref(bodyNodeList);
+        ref(valueNode);
+        section(expressionStart, expressionLength);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createUnary(String operator, LSExpressionNode valueNode, int start, int length) {
+        final LSExpressionNode result = super.createUnary(operator, valueNode, start, length);
+        op(UNARY);
+        string(operator);
+        ref(valueNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createBinary(String operator, LSExpressionNode leftNode, LSExpressionNode rightNode,
+            int start, int length) {
+        final LSExpressionNode result = super.createBinary(operator, leftNode, rightNode, start, length);
+        op(BINARY);
+        string(operator);
+        ref(leftNode);
+        ref(rightNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createReadProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode, int start,
+            int length) {
+        final LSExpressionNode result = super.createReadProperty(receiverNode, nameNode, start, length);
+        op(READ_PROPERTY);
+        ref(receiverNode);
+        ref(nameNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createReadVariable(LSExpressionNode nameNode, int start, int length) {
+        final LSExpressionNode result = super.createReadVariable(nameNode, start, length);
+        op(READ_VARIABLE);
+        ref(nameNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createCall(LSExpressionNode r, LSExpressionNode functionNameNode,
+            List<LSExpressionNode> argumentNodeList, int start, int length) {
+        final LSExpressionNode result = super.createCall(r, functionNameNode, argumentNodeList, start, length);
+        op(CALL);
+        ref(r);
+        ref(functionNameNode);
+        refs(argumentNodeList);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createWriteVariable(LSExpressionNode nameNode, LSExpressionNode valueNode) {
+        final LSExpressionNode result = super.createWriteVariable(nameNode, valueNode);
+        op(WRITE_VARIABLE);
+        ref(nameNode);
+        ref(valueNode);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createWriteProperty(LSExpressionNode receiverNode, LSExpressionNode nameNode,
+            LSExpressionNode valueNode, int start, int length) {
+        final LSExpressionNode result = super.createWriteProperty(receiverNode, nameNode, valueNode, start, length);
+        op(WRITE_PROPERTY);
+        ref(receiverNode);
+        ref(nameNode);
+        ref(valueNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createThisLiteral(int start, int length) {
+        final LSExpressionNode result = super.createThisLiteral(start, length);
+        op(THIS_LITERAL);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createReadThis() {
+        final LSExpressionNode result = super.createReadThis();
+        op(READ_THIS);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createBreak(int start, int length) {
+        final LSStatementNode result = super.createBreak(start, length);
+        op(BREAK);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createContinue(int start, int length) {
+        final LSStatementNode result = super.createContinue(start, length);
+        op(CONTINUE);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createWhile(LSExpressionNode conditionNode, LSStatementNode blockNode, int start,
+            int length) {
+        final LSStatementNode result = super.createWhile(conditionNode, blockNode, start, length);
+        op(WHILE);
+        ref(conditionNode);
+        ref(blockNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public ForHeader startFor(LSExpressionNode nameNode) {
+        final ForHeader result = super.startFor(nameNode);
+        op(START_FOR);
+        ref(nameNode);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createFor(LSExpressionNode startNode, LSExpressionNode endNode, ForHeader header,
+            LSStatementNode blockNode, int start, int length) {
+        final LSStatementNode result = super.createFor(startNode, endNode, header, blockNode, start, length);
+        op(FOR);
+        ref(startNode);
+        ref(endNode);
+        ref(header);
+        ref(blockNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode startForOf(LSExpressionNode nameNode) {
+        final LSExpressionNode result = super.startForOf(nameNode);
+        op(START_FOR_OF);
+        ref(nameNode);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createForOf(LSExpressionNode iterableNode, LSExpressionNode variableNode,
+            LSStatementNode blockNode, int start, int length) {
+        final LSStatementNode result = super.createForOf(iterableNode, variableNode, blockNode, start, length);
+        op(FOR_OF);
+        ref(iterableNode);
+        ref(variableNode);
+        ref(blockNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createIf(LSExpressionNode conditionNode, LSStatementNode thenPartNode,
+            LSStatementNode elsePartNode, int start, int length) {
+        final LSStatementNode result = super.createIf(conditionNode, thenPartNode, elsePartNode, start, length);
+        op(IF);
+        ref(conditionNode);
+        ref(thenPartNode);
+        ref(elsePartNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createReturn(LSExpressionNode valueNode, int start, int length) {
+        final LSStatementNode result = super.createReturn(valueNode, start, length);
+        op(RETURN);
+        ref(valueNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createThrow(LSExpressionNode valueNode, int start, int length) {
+        final LSStatementNode result = super.createThrow(valueNode, start, length);
+        op(THROW);
+        ref(valueNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createCatchVariable(LSExpressionNode nameNode) {
+        final LSExpressionNode result = super.createCatchVariable(nameNode);
+        op(CATCH_VARIABLE);
+        ref(nameNode);
+        return result(result);
+    }
+
+    @Override
+    public LSStatementNode createTry(LSStatementNode tryBlockNode, LSExpressionNode catchVariableNode,
+            LSStatementNode catchBlockNode, LSStatementNode finallyBlockNode, int start, int length) {
+        final LSStatementNode result = super.createTry(tryBlockNode, catchVariableNode, catchBlockNode,
+                finallyBlockNode, start, length);
+        op(TRY);
+        ref(tryBlockNode);
+        ref(catchVariableNode);
+        ref(catchBlockNode);
+        ref(finallyBlockNode);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createImport(String path, int start, int length) {
+        final LSExpressionNode result = super.createImport(path, start, length);
+        op(IMPORT);
+        string(path);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createIdentifier(String identifier, int start, int length) {
+        final LSExpressionNode result = super.createIdentifier(identifier, start, length);
+        op(IDENTIFIER);
+        string(identifier);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createNullLiteral(int start, int length) {
+        final LSExpressionNode result = super.createNullLiteral(start, length);
+        op(NULL_LITERAL);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createBooleanLiteral(boolean value, int start, int length) {
+        final LSExpressionNode result = super.createBooleanLiteral(value, start, length);
+        op(BOOLEAN_LITERAL);
+        bool(value);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createStringLiteral(String literal, int start, int length) {
+        final LSExpressionNode result = super.createStringLiteral(literal, start, length);
+        op(STRING_LITERAL);
+        string(literal);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createIntegerLiteral(String literal, int start, int length) {
+        final LSExpressionNode result = super.createIntegerLiteral(literal, start, length);
+        op(INTEGER_LITERAL);
+        string(literal);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createDecimalLiteral(String literal, int start, int length) {
+        final LSExpressionNode result = super.createDecimalLiteral(literal, start, length);
+        op(DECIMAL_LITERAL);
+        string(literal);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createArrayLiteral(List<LSExpressionNode> elementNodes, int start, int length) {
+        final LSExpressionNode result = super.createArrayLiteral(elementNodes, start, length);
+        op(ARRAY_LITERAL);
+        refs(elementNodes);
+        section(start, length);
+        return result(result);
+    }
+
+    @Override
+    public LSExpressionNode createObjectLiteral(List<LSExpressionNode> nameNodes, List<LSExpressionNode> valueNodes,
+            int start, int length) {
+        final LSExpressionNode result = super.createObjectLiteral(nameNodes, valueNodes, start, length);
+        op(OBJECT_LITERAL);
+        refs(nameNodes);
+        refs(valueNodes);
+        section(start, length);
+        return result(result);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.parser.LSParser;
+import com.guillermomolina.lazyscript.parser.LSRecordedParser;
+import com.guillermomolina.lazyscript.parser.LSRecordingNodeFactory;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleFile;
+import com.oracle.truffle.api.TruffleLogger;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * On-disk cache of parsed scripts, enabled with the {@link LSLanguage#CodeCache}
+ * option. Truffle nodes cannot be serialized, so the cache stores the calls
+ * the parser made to the node factory (see {@link LSRecordingNodeFactory}),
+ * and a hit builds the AST again by replaying them, without lexing or parsing.
+ *
+ * The file is written when the script is parsed, before its functions run, so
+ * it only has the module: the bodies of the function and block literals are
+ * still built on their first call, from the source.
+ *
+ * There is one file per script, named after the SHA-256 of its characters. A
+ * file starts with a magic number, the format {@link #VERSION}, the hash and
+ * the CRC32 of the recording. Files that do not match, or cannot be read, are
+ * ignored and written again. Files are written to a temporary file first and
+ * then moved, so a concurrent reader never sees a partial file.
+ */
+public final class LSCodeCache {
+
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSCodeCache.class);
+
+    private static final byte[] MAGIC = "LSCC".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The version of the recordings, files of other versions are ignored.
+     */
+    public static final int VERSION = LSRecordingNodeFactory.FORMAT_VERSION;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + HASH_LENGTH + 8;
+    public static final String EXTENSION = ".lsc";
+
+    private final LSLanguage language;
+    private final TruffleFile directory;
+
+    public LSCodeCache(LSLanguage language, TruffleFile directory) {
+        this.language = language;
+        this.directory = directory;
+    }
+
+    public TruffleFile getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the module node of the source, from the cache if possible.
+     */
+    @TruffleBoundary
+    public LSExpressionNode parse(Source source) {
+        final byte[] hash = hash(source);
+        final TruffleFile file = directory.resolve(toHex(hash) + EXTENSION);
+        final LSExpressionNode cached = load(source, hash, file);
+        if (cached != null) {
+            LOG.log(Level.FINE, "Code cache hit for: {0}", source.getName());
+            return cached;
+        }
+        LOG.log(Level.FINE, "Code cache miss for: {0}", source.getName());
+        final LSRecordingNodeFactory factory = new LSRecordingNodeFactory(language, source);
+        final LSExpressionNode result = new LSParser(language, source, factory).parse();
+        store(hash, file, factory.getRecording());
+        return result;
+    }
+
+    private LSExpressionNode load(Source source, byte[] hash, TruffleFile file) {
+        try {
+            if (!file.isRegularFile()) {
+                return null;
+            }
+            final byte[] data = file.readAllBytes();
+            if (data.length < HEADER_LENGTH) {
+                return null;
+            }
+            final ByteBuffer header = ByteBuffer.wrap(data);
+            final byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            final int version = header.getInt();
+            final byte[] fileHash = new byte[HASH_LENGTH];
+            header.get(fileHash);
+            final long checksum = header.getLong();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION || !Arrays.equals(hash, fileHash)) {
+                return null;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return new LSRecordedParser(language, source, data, HEADER_LENGTH).parse();
+        } catch (IOException | SecurityException | IllegalArgumentException e) {
+            LOG.log(Level.FINE, "Cannot read code cache file: {0}, {1}", new Object[]{file, e.getMessage()});
+            return null;
+        }
+    }
+
+    private void store(byte[] hash, TruffleFile file, LSRecordingNodeFactory.Recording recording) {
+        TruffleFile temporary = null;
+        try {
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            recording.write(new DataOutputStream(payload));
+            final CRC32 crc = new CRC32();
+            crc.update(payload.toByteArray());
+
+            directory.createDirectories();
+            temporary = directory.resolve(file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            try (OutputStream stream = temporary.newOutputStream(StandardOpenOption.CREATE_NEW);
+                            DataOutputStream out = new DataOutputStream(stream)) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                out.writeLong(crc.getValue());
+                payload.writeTo(out);
+            }
+            temporary.move(file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOG.log(Level.FINE, "Wrote code cache file: {0}", file);
+        } catch (IOException | SecurityException | UnsupportedOperationException e) {
+            LOG.log(Level.FINE, "Cannot write code cache file: {0}, {1}", new Object[]{file, e.getMessage()});
+            if (temporary != null) {
+                try {
+                    if (temporary.exists()) {
+                        temporary.delete();
+                    }
+                } catch (IOException | SecurityException ignored) {
+                }
+            }
+        }
+    }
+
+    private static byte[] hash(Source source) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return digest.digest(source.getCharacters().toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+}
@@ -43,54 +43,132 @@ package com.guillermomolina.lazyscript.runtime;
 import static com.oracle.truffle.api.CompilerDirectives.shouldNotReachHere;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.NotImplementedException;
+import com.guillermomolina.lazyscript.builtins.LSAsyncBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSAwaitBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSBuiltinNode;
+import com.guillermomolina.lazyscript.builtins.LSByteArrayBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSCloseBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSCompareAndSetBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSCopyBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSDefineFunctionBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSEvalBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSFileLinesBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSFillBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSFilterBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSFloat64ArrayBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSFlushBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSGetAndAddBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSGetSizeBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSHasSizeBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSHelloEqualsWorldBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSImportBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSInt64ArrayBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSIsExecutableBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSIsInstanceBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSIsNullBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJoinBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJsonFileRecordsBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJsonParseBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJsonRecordsBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJsonStringifyBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSJsonWriteBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSLinesBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSMapFileBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSMapBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSNanoTimeBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSNewObjectBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSNextBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSNextLineOffsetBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSNextLinesBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSOnErrorBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSParallelFilterBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSParallelMapBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSParallelReduceBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSPostBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSPrintBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSPrintlnBuiltin;
 import com.guillermomolina.lazyscript.builtins.LSPrintlnBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSRangeBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadByteBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadDoubleBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadFileAsyncBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadIntBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadLineBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadLongBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReadlnAsyncBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSReadlnBuiltin;
 import com.guillermomolina.lazyscript.builtins.LSReadlnBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReceiveBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSReduceBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSSequenceBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSSpawnBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSStackTraceBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSSynchronizedBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSTakeBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSThenBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSToArrayBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSTransferBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSTypeBuiltinFactory;
+import com.guillermomolina.lazyscript.builtins.LSWorkerBuiltinFactory;
 import com.guillermomolina.lazyscript.builtins.LSWrapPrimitiveBuiltinFactory;
-import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
-import com.guillermomolina.lazyscript.nodes.local.LSReadArgumentNode;
-import com.guillermomolina.lazyscript.nodes.root.LSRootNode;
 import com.guillermomolina.lazyscript.runtime.objects.LSArray;
 import com.guillermomolina.lazyscript.runtime.objects.LSBigInteger;
 import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
 import com.guillermomolina.lazyscript.runtime.objects.LSFunction;
+import com.guillermomolina.lazyscript.runtime.objects.LSGlobalObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSJsonReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSLineReader;
+import com.guillermomolina.lazyscript.runtime.objects.LSMappedFile;
 import com.guillermomolina.lazyscript.runtime.objects.LSNull;
 import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSPromise;
+import com.guillermomolina.lazyscript.runtime.objects.LSSequence;
+import com.guillermomolina.lazyscript.runtime.objects.LSThread;
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSWorker;
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleFile;
 import com.oracle.truffle.api.TruffleLanguage;
 import com.oracle.truffle.api.TruffleLanguage.Env;
 import com.oracle.truffle.api.dsl.NodeFactory;
-import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.instrumentation.AllocationReporter;
 import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.TruffleObject;
 import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.nodes.NodeInfo;
 import com.oracle.truffle.api.source.Source;
 
@@ -107,18 +185,47 @@ import com.oracle.truffle.api.source.Source;
 public final class LSContext {
 
     private final LSLanguage language;
-    private final Env env;
-    private final BufferedReader input;
-    private final PrintWriter output;
+    /*
+     * The state that depends on the environment is replaced when a
+     * pre-initialized context is patched, see patchContext.
+     */
+    private Env env;
+    private BufferedReader input;
+    private PrintWriter output;
+    private int stackTraceLimit;
+    private LSCodeCache codeCache;
+    private LSModuleLoader moduleLoader;
+    private LSWorkerPool workerPool;
+    private LSParallelArrays parallelArrays;
+    private LSEventLoop eventLoop;
+    /**
+     * The functions of the other literals, by call target, see
+     * getLiteralFunction. Both are weak, so the code that is no longer used and
+     * its functions can be collected.
+     */
+    private final Map<RootCallTarget, WeakReference<LSFunction>> literalFunctions = Collections
+                    .synchronizedMap(new WeakHashMap<>());
+    /** The top-level functions of the scripts, by script key and function name. */
+    private final Map<String, LSFunction> definedFunctions = new ConcurrentHashMap<>();
     @CompilationFinal private AllocationReporter allocationReporter;
 
-    private static final Source BUILTIN_SOURCE = Source.newBuilder(LSLanguage.ID, "", "LS builtin").build();
-
     private final LSObject objectPrototype;
     private final LSObject nullPrototype;
     private final LSObject booleanPrototype;
     private final LSObject functionPrototype;
     private final LSObject blockPrototype;
+    private final LSObject sequencePrototype;
+    private final LSObject threadPrototype;
+    private final LSObject workerPrototype;
+    private final LSObject promisePrototype;
+    private final LSObject lineReaderPrototype;
+    private final LSObject mappedFilePrototype;
+    private final LSObject typedArrayPrototype;
+    private final LSObject int64ArrayPrototype;
+    private final LSObject float64ArrayPrototype;
+    private final LSObject byteArrayPrototype;
+    private final LSObject jsonObject;
+    private final LSObject jsonReaderPrototype;
     private final LSObject stringPrototype;
     private final LSObject arrayPrototype;
     private final LSObject numberPrototype;
@@ -127,17 +234,24 @@ public final class LSContext {
     private final LSObject decimalPrototype;
     private final LSObject truePrototype;
     private final LSObject falsePrototype;
-    private final LSObject globalObject;
+    private final LSGlobalObject globalObject;
+    /**
+     * The builtins that were not installed yet, with the prototype they are
+     * installed in, see {@link #installPendingBuiltins()}.
+     */
+    private final List<Map.Entry<NodeFactory<? extends LSBuiltinNode>, LSObject>> pendingBuiltins = new ArrayList<>();
+    private volatile boolean hasPendingBuiltins;
+    /** The shapes predicted for the objects parsed from JSON. */
+    private final LSJsonParser.ShapeCache jsonShapes = new LSJsonParser.ShapeCache();
+    /** The threads created by spawn, joined when the context is finalized. */
+    private final List<Thread> threads = new ArrayList<>();
 
     public LSContext(LSLanguage language, TruffleLanguage.Env env) {
         if (env != null) { // env could still be null
             setAllocationReporter(env);
         }
         this.language = language;
-        this.env = env;
-
-        this.input = new BufferedReader(new InputStreamReader(env.in()));
-        this.output = new PrintWriter(env.out(), true);
+        initializeEnv(env);
 
         this.objectPrototype = createObject(LSNull.INSTANCE);
         this.nullPrototype = createObject(objectPrototype);
@@ -153,10 +267,52 @@ public final class LSContext {
         this.stringPrototype = createObject(objectPrototype);
         this.functionPrototype = createObject(objectPrototype);
         this.blockPrototype = createObject(objectPrototype);
-        this.globalObject = createObject(objectPrototype);
+        this.sequencePrototype = createObject(objectPrototype);
+        this.threadPrototype = createObject(objectPrototype);
+        this.workerPrototype = createObject(objectPrototype);
+        this.promisePrototype = createObject(objectPrototype);
+        this.lineReaderPrototype = createObject(objectPrototype);
+        this.mappedFilePrototype = createObject(objectPrototype);
+        this.typedArrayPrototype = createObject(objectPrototype);
+        this.int64ArrayPrototype = createObject(typedArrayPrototype);
+        this.float64ArrayPrototype = createObject(typedArrayPrototype);
+        this.byteArrayPrototype = createObject(typedArrayPrototype);
+        this.jsonObject = createObject(objectPrototype);
+        this.jsonReaderPrototype = createObject(objectPrototype);
+        this.globalObject = new LSGlobalObject(objectPrototype);
         installBuiltins();
     }
 
+    private void initializeEnv(Env newEnv) {
+        this.env = newEnv;
+        this.input = new BufferedReader(new InputStreamReader(newEnv.in()), LSLineReader.BUFFER_SIZE);
+        final int outputBufferSize = newEnv.getOptions().get(LSLanguage.OutputBufferSize);
+        if (outputBufferSize > 0) {
+            this.output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(newEnv.out()), outputBufferSize));
+        } else {
+            this.output = new PrintWriter(newEnv.out(), true);
+        }
+        this.stackTraceLimit = newEnv.getOptions().get(LSLanguage.StackTraceLimit);
+        final String codeCacheDirectory = newEnv.getOptions().get(LSLanguage.CodeCache);
+        this.codeCache = codeCacheDirectory.isEmpty() ? null
+                        : new LSCodeCache(language, newEnv.getPublicTruffleFile(codeCacheDirectory));
+        this.moduleLoader = new LSModuleLoader(language, this, newEnv);
+        this.workerPool = new LSWorkerPool(newEnv);
+        this.parallelArrays = new LSParallelArrays(newEnv);
+        this.eventLoop = new LSEventLoop(input, output);
+    }
+
+    /**
+     * Prepares a context that was pre-initialized, while building a native
+     * image, to run with a new environment. The prototypes and the installed
+     * builtins are kept, only the state that comes from the environment (the
+     * streams, the options and the file system) is replaced.
+     */
+    public void patchContext(Env newEnv) {
+        setAllocationReporter(newEnv);
+        initializeEnv(newEnv);
+    }
+
     void setAllocationReporter(Env env) {
         CompilerAsserts.neverPartOfCompilation();
         this.allocationReporter = env.lookup(AllocationReporter.class);
@@ -187,15 +343,334 @@ public final class LSContext {
         return function;
     }
 
+    /**
+     * Returns the function that a function literal evaluates to when the
+     * language runs multiple contexts, and the literal does not remember the
+     * function of this context (see
+     * {@link com.guillermomolina.lazyscript.nodes.literals.LSFunctionLiteralNode}).
+     * Every evaluation of the literal yields the same function, as in the
+     * single context case, while the function is in use.
+     */
+    @TruffleBoundary
+    public LSFunction getLiteralFunction(String name, RootCallTarget callTarget) {
+        synchronized (literalFunctions) {
+            final WeakReference<LSFunction> cached = literalFunctions.get(callTarget);
+            LSFunction function = cached == null ? null : cached.get();
+            if (function == null) {
+                function = createFunction(name, callTarget);
+                literalFunctions.put(callTarget, new WeakReference<>(function));
+            }
+            return function;
+        }
+    }
+
+    /**
+     * Returns the function that a top-level function literal of a script
+     * evaluates to. When a new version of the script (a source with the same
+     * {@link LSLanguage#getScriptKey key}) defines a function with the same
+     * name, the function defined by the previous version gets the new call
+     * target, so the code that holds it runs the new version. Evaluating the literal again returns the same
+     * function, and a second literal with the same name in one version defines
+     * a new function.
+     */
+    @TruffleBoundary
+    public LSFunction defineFunction(Source source, String name, RootCallTarget callTarget) {
+        final String key = LSLanguage.getScriptKey(source) + ":" + name;
+        final LSFunction defined = definedFunctions.get(key);
+        if (defined != null) {
+            final RootCallTarget definedTarget = defined.getCallTarget();
+            if (definedTarget == callTarget) {
+                return defined;
+            }
+            if (definedTarget.getRootNode().getSourceSection().getSource() != source) {
+                defined.setCallTarget(callTarget);
+                return defined;
+            }
+        }
+        final LSFunction function = createFunction(name, callTarget);
+        definedFunctions.put(key, function);
+        return function;
+    }
+
     public LSBlock createBlock(Object function) {
         allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
-        LSBlock block = new LSBlock();
+        LSBlock block = new LSBlock((LSFunction) function);
         block.setPrototype(blockPrototype);
         LSObjectUtil.putProperty(block, "invoke", function);
         allocationReporter.onReturnValue(block, 0, AllocationReporter.SIZE_UNKNOWN);
         return block;
     }
 
+    /**
+     * Whether the context may run code on several threads at the same time,
+     * see {@link LSLanguage#Threads}.
+     */
+    static boolean isThreadsAllowed(Env env) {
+        return env.isCreateThreadAllowed() && env.getOptions().get(LSLanguage.Threads);
+    }
+
+    private void checkThreadsAllowed(Node location) {
+        if (!env.isCreateThreadAllowed()) {
+            throw new LSException("Creating threads is not allowed", location);
+        }
+        if (!env.getOptions().get(LSLanguage.Threads)) {
+            throw new LSException("Threads are not enabled, see the option ls.Threads", location);
+        }
+    }
+
+    /**
+     * Runs the block in a new thread. Everything the block can reach, and the
+     * global object, becomes shared with the new thread, see
+     * {@link LSSharedObjects}.
+     */
+    @TruffleBoundary
+    public LSThread spawn(LSBlock block, Node location) {
+        checkThreadsAllowed(location);
+        LSSharedObjects.share(globalObject);
+        LSSharedObjects.share(block);
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSThread thread = new LSThread(block);
+        thread.setPrototype(threadPrototype);
+        allocationReporter.onReturnValue(thread, 0, AllocationReporter.SIZE_UNKNOWN);
+        final Thread newThread = env.createThread(thread::run);
+        synchronized (threads) {
+            threads.add(newThread);
+        }
+        thread.start(newThread);
+        return thread;
+    }
+
+    /**
+     * Waits for the spawned threads, called when the context is finalized,
+     * because a context can only be closed once its threads are done.
+     */
+    public void joinThreads() {
+        while (true) {
+            final Thread[] pending;
+            synchronized (threads) {
+                if (threads.isEmpty()) {
+                    return;
+                }
+                pending = threads.toArray(new Thread[0]);
+                threads.clear();
+            }
+            try {
+                for (Thread thread : pending) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates a worker that runs the code in a new inner context, see
+     * {@link LSWorker}.
+     */
+    @TruffleBoundary
+    public LSWorker createWorker(String code, Node location) {
+        checkThreadsAllowed(location);
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSWorker worker = new LSWorker(env.newContextBuilder().build(), workerPool.getExecutor());
+        worker.setPrototype(workerPrototype);
+        allocationReporter.onReturnValue(worker, 0, AllocationReporter.SIZE_UNKNOWN);
+        workerPool.register(worker);
+        worker.start(Source.newBuilder(LSLanguage.ID, code, "worker").build());
+        return worker;
+    }
+
+    public LSPromise createPromise() {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSPromise promise = new LSPromise(eventLoop);
+        promise.setPrototype(promisePrototype);
+        allocationReporter.onReturnValue(promise, 0, AllocationReporter.SIZE_UNKNOWN);
+        return promise;
+    }
+
+    /**
+     * Runs the block as a task of the {@link LSEventLoop event loop}, the
+     * promise is settled with its result or with the error it throws.
+     */
+    @TruffleBoundary
+    public LSPromise async(LSBlock block) {
+        final LSPromise promise = createPromise();
+        eventLoop.schedule(() -> {
+            try {
+                promise.resolve(IndirectCallNode.getUncached().call(block.getCallTarget(), block));
+            } catch (AbstractTruffleException e) {
+                promise.reject(e);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Starts reading a file of the file system of the context. Only the files
+     * of the default file system can be read asynchronously.
+     */
+    @TruffleBoundary
+    public LSPromise readFileAsync(String path, Node location) {
+        final LSPromise promise = createPromise();
+        final Path file;
+        try {
+            final TruffleFile truffleFile = env.getPublicTruffleFile(path);
+            if (!truffleFile.isReadable()) {
+                promise.reject(new LSException("Cannot read " + path, location));
+                return promise;
+            }
+            file = Paths.get(truffleFile.getAbsoluteFile().toUri());
+        } catch (SecurityException e) {
+            throw new LSException("No file access allowed.", location);
+        } catch (IllegalArgumentException | UnsupportedOperationException | FileSystemNotFoundException e) {
+            promise.reject(new LSException("Cannot read " + path + ": " + e.getMessage(), location));
+            return promise;
+        }
+        eventLoop.readFile(file, promise, location);
+        return promise;
+    }
+
+    @TruffleBoundary
+    public LSPromise readlnAsync(Node location) {
+        final LSPromise promise = createPromise();
+        output.flush();
+        eventLoop.readLine(promise, location);
+        return promise;
+    }
+
+    public LSThunk createThunk(RootCallTarget callTarget, MaterializedFrame enclosingFrame) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSThunk thunk = new LSThunk(callTarget, enclosingFrame);
+        allocationReporter.onReturnValue(thunk, 0, AllocationReporter.SIZE_UNKNOWN);
+        return thunk;
+    }
+
+    public LSSequence createSequence(long start, long end) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSSequence sequence = LSSequence.range(start, end);
+        sequence.setPrototype(sequencePrototype);
+        allocationReporter.onReturnValue(sequence, 0, AllocationReporter.SIZE_UNKNOWN);
+        return sequence;
+    }
+
+    public LSSequence createSequence(LSArray array) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSSequence sequence = LSSequence.of(array);
+        sequence.setPrototype(sequencePrototype);
+        allocationReporter.onReturnValue(sequence, 0, AllocationReporter.SIZE_UNKNOWN);
+        return sequence;
+    }
+
+    public LSSequence createSequence(LSLineReader lines) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSSequence sequence = LSSequence.of(lines);
+        sequence.setPrototype(sequencePrototype);
+        allocationReporter.onReturnValue(sequence, 0, AllocationReporter.SIZE_UNKNOWN);
+        return sequence;
+    }
+
+    /**
+     * Returns the lines of the standard input, that shares its reader with
+     * {@code readln}.
+     */
+    public LSLineReader createLineReader() {
+        return createLineReader(input, false);
+    }
+
+    /**
+     * Opens a file of the file system of the context to read its lines.
+     */
+    @TruffleBoundary
+    public LSLineReader createLineReader(String path, Node location) {
+        return createLineReader(openFile(path, location), true);
+    }
+
+    private BufferedReader openFile(String path, Node location) {
+        try {
+            final TruffleFile file = env.getPublicTruffleFile(path);
+            return new BufferedReader(new InputStreamReader(file.newInputStream(), StandardCharsets.UTF_8),
+                            LSLineReader.BUFFER_SIZE);
+        } catch (SecurityException e) {
+            throw new LSException("No file access allowed.", location);
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            throw new LSException("Cannot read " + path + ": " + e.getMessage(), location);
+        }
+    }
+
+    /**
+     * Parses a JSON document.
+     */
+    @TruffleBoundary
+    public Object parseJson(String text, Node location) {
+        return new LSJsonParser(this, text).parseDocument(location);
+    }
+
+    /**
+     * Returns the JSON records of the standard input, that shares its reader
+     * with {@code readln}.
+     */
+    public LSJsonReader createJsonReader() {
+        return createJsonReader(new LSJsonParser(this, input, true), false);
+    }
+
+    /**
+     * Opens a file of the file system of the context to read its JSON
+     * records.
+     */
+    @TruffleBoundary
+    public LSJsonReader createJsonReader(String path, Node location) {
+        return createJsonReader(new LSJsonParser(this, openFile(path, location), false), true);
+    }
+
+    private LSJsonReader createJsonReader(LSJsonParser parser, boolean closeable) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSJsonReader records = new LSJsonReader(parser, closeable);
+        records.setPrototype(jsonReaderPrototype);
+        allocationReporter.onReturnValue(records, 0, AllocationReporter.SIZE_UNKNOWN);
+        return records;
+    }
+
+    public LSJsonParser.ShapeCache getJsonShapes() {
+        return jsonShapes;
+    }
+
+    /**
+     * Maps a file of the file system of the context in memory. The channels of
+     * a {@link TruffleFile} cannot map files, so the access is checked through
+     * the file system of the context, and the file is mapped with a
+     * {@link FileChannel} of the default file system.
+     */
+    @TruffleBoundary
+    public LSMappedFile mapFile(String path, Node location) {
+        final LSMappedFile file;
+        try {
+            final TruffleFile truffleFile = env.getPublicTruffleFile(path);
+            if (!truffleFile.isReadable()) {
+                throw new LSException("Cannot map " + path + ": the file is not readable", location);
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(truffleFile.getAbsoluteFile().toUri()), StandardOpenOption.READ)) {
+                file = LSMappedFile.map(path, channel);
+            }
+        } catch (SecurityException e) {
+            throw new LSException("No file access allowed.", location);
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException | FileSystemNotFoundException e) {
+            throw new LSException("Cannot map " + path + ": " + e.getMessage(), location);
+        }
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        file.setPrototype(mappedFilePrototype);
+        allocationReporter.onReturnValue(file, 0, AllocationReporter.SIZE_UNKNOWN);
+        return file;
+    }
+
+    private LSLineReader createLineReader(BufferedReader reader, boolean closeable) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSLineReader lines = new LSLineReader(reader, closeable);
+        lines.setPrototype(lineReaderPrototype);
+        allocationReporter.onReturnValue(lines, 0, AllocationReporter.SIZE_UNKNOWN);
+        return lines;
+    }
+
     public LSArray createArray(final Object[] data) {
         allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
         LSArray array = new LSArray(data);
@@ -204,6 +679,61 @@ public final class LSContext {
         return array;
     }
 
+    public LSArray createArray(final long[] data) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSArray array = new LSArray(data);
+        array.setPrototype(arrayPrototype);
+        allocationReporter.onReturnValue(array, 0, AllocationReporter.SIZE_UNKNOWN);
+        return array;
+    }
+
+    public LSArray createArray(final double[] data) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSArray array = new LSArray(data);
+        array.setPrototype(arrayPrototype);
+        allocationReporter.onReturnValue(array, 0, AllocationReporter.SIZE_UNKNOWN);
+        return array;
+    }
+
+    /**
+     * Creates a typed array of {@code size} elements, all zero.
+     */
+    public LSTypedArray createTypedArray(LSTypedArray.ElementType elementType, long size, Node location) {
+        return createTypedArray(elementType, LSTypedArray.allocate(elementType, size, location));
+    }
+
+    /**
+     * Creates a typed array with the elements of an array, that must be
+     * numbers of the element type.
+     */
+    public LSTypedArray createTypedArray(LSTypedArray.ElementType elementType, LSArray values, Node location) {
+        final LSTypedArray array = createTypedArray(elementType, values.getSize(), location);
+        array.copy(values, 0, 0, values.getSize(), location);
+        return array;
+    }
+
+    /**
+     * Creates a typed array over the memory of the buffer, without copying
+     * it.
+     */
+    public LSTypedArray createTypedArray(LSTypedArray.ElementType elementType, ByteBuffer buffer) {
+        allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
+        LSTypedArray array = new LSTypedArray(elementType, buffer);
+        switch (elementType) {
+            case INT64:
+                array.setPrototype(int64ArrayPrototype);
+                break;
+            case FLOAT64:
+                array.setPrototype(float64ArrayPrototype);
+                break;
+            default:
+                array.setPrototype(byteArrayPrototype);
+                break;
+        }
+        allocationReporter.onReturnValue(array, 0, AllocationReporter.SIZE_UNKNOWN);
+        return array;
+    }
+
     public LSBigInteger createBigInteger(final BigInteger data) {
         allocationReporter.onEnter(null, 0, AllocationReporter.SIZE_UNKNOWN);
         LSBigInteger result = new LSBigInteger(data);
@@ -235,13 +765,56 @@ public final class LSContext {
         return output;
     }
 
-    public LSObject getGlobalObject() {
+    /**
+     * Writes the buffered output, see {@link LSLanguage#OutputBufferSize}. The
+     * output is flushed when the outermost evaluation ends, before reading the
+     * standard input, and by the {@code flush} builtin.
+     */
+    @TruffleBoundary
+    public void flushOutput() {
+        output.flush();
+    }
+
+    /**
+     * Returns the maximum number of guest frames captured by an {@link LSException}.
+     */
+    public int getStackTraceLimit() {
+        return stackTraceLimit;
+    }
+
+    /**
+     * Returns the on-disk cache of parsed scripts, {@code null} if the
+     * {@link LSLanguage#CodeCache} option is not set.
+     */
+    public LSCodeCache getCodeCache() {
+        return codeCache;
+    }
+
+    public LSModuleLoader getModuleLoader() {
+        return moduleLoader;
+    }
+
+    public LSWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    public LSParallelArrays getParallelArrays() {
+        return parallelArrays;
+    }
+
+    public LSEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    public LSGlobalObject getGlobalObject() {
         return globalObject;
     }
 
     /**
-     * Adds all builtin functions to the {@link LSFunctionRegistry}. This method
-     * lists all {@link LSBuiltinNode builtin implementation classes}.
+     * Adds all builtin functions to the prototypes. This method lists all
+     * {@link LSBuiltinNode builtin implementation classes}. The builtins are
+     * only installed on the first lookup that does not find a property, see
+     * {@link #installPendingBuiltins()}.
      */
     private void installBuiltins() {
         LSObjectUtil.putProperty(objectPrototype, "Object", objectPrototype);
@@ -255,63 +828,156 @@ public final class LSContext {
         LSObjectUtil.putProperty(objectPrototype, "Decimal", decimalPrototype);
         LSObjectUtil.putProperty(objectPrototype, "String", stringPrototype);
         LSObjectUtil.putProperty(objectPrototype, "Array", arrayPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Sequence", sequencePrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Thread", threadPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Worker", workerPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Promise", promisePrototype);
+        LSObjectUtil.putProperty(objectPrototype, "LineReader", lineReaderPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "MappedFile", mappedFilePrototype);
+        LSObjectUtil.putProperty(objectPrototype, "TypedArray", typedArrayPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Int64Array", int64ArrayPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "Float64Array", float64ArrayPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "ByteArray", byteArrayPrototype);
+        LSObjectUtil.putProperty(objectPrototype, "JSON", jsonObject);
+        LSObjectUtil.putProperty(objectPrototype, "JsonReader", jsonReaderPrototype);
         LSObjectUtil.putProperty(objectPrototype, "Number", numberPrototype);
 
-        installBuiltin(LSReadlnBuiltinFactory.getInstance());
-        installBuiltin(LSPrintlnBuiltinFactory.getInstance());
-        installBuiltin(LSNanoTimeBuiltinFactory.getInstance());
-        installBuiltin(LSDefineFunctionBuiltinFactory.getInstance());
-        installBuiltin(LSStackTraceBuiltinFactory.getInstance());
-        installBuiltin(LSHelloEqualsWorldBuiltinFactory.getInstance());
-        installBuiltin(LSNewObjectBuiltinFactory.getInstance());
-        installBuiltin(LSEvalBuiltinFactory.getInstance());
-        installBuiltin(LSImportBuiltinFactory.getInstance());
-        installBuiltin(LSGetSizeBuiltinFactory.getInstance());
-        installBuiltin(LSHasSizeBuiltinFactory.getInstance());
-        installBuiltin(LSIsExecutableBuiltinFactory.getInstance());
-        installBuiltin(LSIsNullBuiltinFactory.getInstance());
-        installBuiltin(LSWrapPrimitiveBuiltinFactory.getInstance());
-        installBuiltin(LSTypeBuiltinFactory.getInstance());
-        installBuiltin(LSIsInstanceBuiltinFactory.getInstance());
+        addBuiltin(LSReadlnBuiltinFactory.getInstance());
+        addBuiltin(LSPrintlnBuiltinFactory.getInstance());
+        addBuiltin(LSPrintBuiltinFactory.getInstance());
+        addBuiltin(LSFlushBuiltinFactory.getInstance());
+        addBuiltin(LSNanoTimeBuiltinFactory.getInstance());
+        addBuiltin(LSDefineFunctionBuiltinFactory.getInstance());
+        addBuiltin(LSStackTraceBuiltinFactory.getInstance());
+        addBuiltin(LSHelloEqualsWorldBuiltinFactory.getInstance());
+        addBuiltin(LSNewObjectBuiltinFactory.getInstance());
+        addBuiltin(LSEvalBuiltinFactory.getInstance());
+        addBuiltin(LSImportBuiltinFactory.getInstance());
+        addBuiltin(LSGetSizeBuiltinFactory.getInstance());
+        addBuiltin(LSHasSizeBuiltinFactory.getInstance());
+        addBuiltin(LSIsExecutableBuiltinFactory.getInstance());
+        addBuiltin(LSIsNullBuiltinFactory.getInstance());
+        addBuiltin(LSWrapPrimitiveBuiltinFactory.getInstance());
+        addBuiltin(LSTypeBuiltinFactory.getInstance());
+        addBuiltin(LSIsInstanceBuiltinFactory.getInstance());
+        addBuiltin(LSRangeBuiltinFactory.getInstance());
+        addBuiltin(LSSequenceBuiltinFactory.getInstance(), arrayPrototype);
+        addBuiltin(LSParallelMapBuiltinFactory.getInstance(), arrayPrototype);
+        addBuiltin(LSParallelFilterBuiltinFactory.getInstance(), arrayPrototype);
+        addBuiltin(LSParallelReduceBuiltinFactory.getInstance(), arrayPrototype);
+        addBuiltin(LSMapBuiltinFactory.getInstance(), sequencePrototype);
+        addBuiltin(LSFilterBuiltinFactory.getInstance(), sequencePrototype);
+        addBuiltin(LSTakeBuiltinFactory.getInstance(), sequencePrototype);
+        addBuiltin(LSReduceBuiltinFactory.getInstance(), sequencePrototype);
+        addBuiltin(LSToArrayBuiltinFactory.getInstance(), sequencePrototype);
+        addBuiltin(LSSpawnBuiltinFactory.getInstance());
+        addBuiltin(LSJoinBuiltinFactory.getInstance(), threadPrototype);
+        addBuiltin(LSSynchronizedBuiltinFactory.getInstance());
+        addBuiltin(LSCompareAndSetBuiltinFactory.getInstance());
+        addBuiltin(LSGetAndAddBuiltinFactory.getInstance());
+        addBuiltin(LSWorkerBuiltinFactory.getInstance());
+        addBuiltin(LSPostBuiltinFactory.getInstance(), workerPrototype);
+        addBuiltin(LSTransferBuiltinFactory.getInstance(), workerPrototype);
+        addBuiltin(LSReceiveBuiltinFactory.getInstance(), workerPrototype);
+        addBuiltin(LSCloseBuiltinFactory.getInstance(), workerPrototype);
+        addBuiltin(LSAsyncBuiltinFactory.getInstance());
+        addBuiltin(LSThenBuiltinFactory.getInstance(), promisePrototype);
+        addBuiltin(LSOnErrorBuiltinFactory.getInstance(), promisePrototype);
+        addBuiltin(LSAwaitBuiltinFactory.getInstance(), promisePrototype);
+        addBuiltin(LSReadFileAsyncBuiltinFactory.getInstance());
+        addBuiltin(LSReadlnAsyncBuiltinFactory.getInstance());
+        addBuiltin(LSLinesBuiltinFactory.getInstance());
+        addBuiltin(LSFileLinesBuiltinFactory.getInstance());
+        addBuiltin(LSNextBuiltinFactory.getInstance(), lineReaderPrototype);
+        addBuiltin(LSNextLinesBuiltinFactory.getInstance(), lineReaderPrototype);
+        addBuiltin(LSSequenceBuiltinFactory.getInstance(), lineReaderPrototype);
+        addBuiltin(LSCloseBuiltinFactory.getInstance(), lineReaderPrototype);
+        addBuiltin(LSMapFileBuiltinFactory.getInstance());
+        addBuiltin(LSReadByteBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSReadIntBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSReadLongBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSReadDoubleBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSReadLineBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSNextLineOffsetBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSCloseBuiltinFactory.getInstance(), mappedFilePrototype);
+        addBuiltin(LSInt64ArrayBuiltinFactory.getInstance());
+        addBuiltin(LSFloat64ArrayBuiltinFactory.getInstance());
+        addBuiltin(LSByteArrayBuiltinFactory.getInstance());
+        addBuiltin(LSFillBuiltinFactory.getInstance(), typedArrayPrototype);
+        addBuiltin(LSCopyBuiltinFactory.getInstance(), typedArrayPrototype);
+        addBuiltin(LSToArrayBuiltinFactory.getInstance(), typedArrayPrototype);
+        addBuiltin(LSJsonParseBuiltinFactory.getInstance(), jsonObject);
+        addBuiltin(LSJsonStringifyBuiltinFactory.getInstance(), jsonObject);
+        addBuiltin(LSJsonWriteBuiltinFactory.getInstance(), jsonObject);
+        addBuiltin(LSJsonRecordsBuiltinFactory.getInstance(), jsonObject);
+        addBuiltin(LSJsonFileRecordsBuiltinFactory.getInstance(), jsonObject);
+        addBuiltin(LSNextBuiltinFactory.getInstance(), jsonReaderPrototype);
+        addBuiltin(LSCloseBuiltinFactory.getInstance(), jsonReaderPrototype);
+        hasPendingBuiltins = true;
     }
 
-    public void installBuiltin(NodeFactory<? extends LSBuiltinNode> factory) {
-        /*
-         * The builtin node factory is a class that is automatically generated by the
-         * Truffle DLL. The signature returned by the factory reflects the signature of
-         * the @Specialization
-         *
-         * methods in the builtin classes.
-         */
-        int argumentCount = factory.getExecutionSignature().size();
-        LSExpressionNode[] argumentNodes = new LSExpressionNode[argumentCount];
-        /*
-         * Builtin functions are like normal functions, i.e., the arguments are passed
-         * in as an Object[] array encapsulated in LSArguments. A LSReadArgumentNode
-         * extracts a parameter from this array.
-         */
-        for (int i = 0; i < argumentCount; i++) {
-            argumentNodes[i] = new LSReadArgumentNode(i);
+    private void addBuiltin(NodeFactory<? extends LSBuiltinNode> factory) {
+        addBuiltin(factory, objectPrototype);
+    }
+
+    private void addBuiltin(NodeFactory<? extends LSBuiltinNode> factory, LSObject prototype) {
+        pendingBuiltins.add(new AbstractMap.SimpleImmutableEntry<>(factory, prototype));
+    }
+
+    /**
+     * Installs the builtins that were not installed yet. Creating the functions
+     * of all the builtins is a large part of the creation of a context, and
+     * many scripts only use a few of them, so they are installed by the first
+     * lookup of a property that fails, and the lookup is retried, or before
+     * the members of an object are listed. A property that the program
+     * already defined in the prototype of a builtin is kept, as if the builtin
+     * had been installed first and then redefined. A program can only tell
+     * the difference if it defines a property named as a builtin in a
+     * prototype above the one of the builtin, as in {@code Object} for the
+     * builtins of {@code Sequence}.
+     *
+     * @return {@code true} if builtins were installed
+     */
+    @TruffleBoundary
+    public boolean installPendingBuiltins() {
+        if (!hasPendingBuiltins) {
+            return false;
+        }
+        synchronized (pendingBuiltins) {
+            if (!hasPendingBuiltins) {
+                return false;
+            }
+            for (Map.Entry<NodeFactory<? extends LSBuiltinNode>, LSObject> entry : pendingBuiltins) {
+                RootCallTarget rootCallTarget = language.getBuiltinCallTarget(entry.getKey());
+                String name = rootCallTarget.getRootNode().getName();
+                if (!LSObjectUtil.hasProperty(entry.getValue(), name)) {
+                    LSObjectUtil.putProperty(entry.getValue(), name, createFunction(name, rootCallTarget));
+                }
+            }
+            pendingBuiltins.clear();
+            hasPendingBuiltins = false;
+            return true;
         }
-        /* Instantiate the builtin node. This node performs the actual functionality. */
-        LSBuiltinNode builtinBodyNode = factory.createNode((Object) argumentNodes);
-        builtinBodyNode.addRootTag();
-        /*
-         * The name of the builtin function is specified via an annotation on the node
-         * class.
-         */
-        String name = lookupNodeInfo(builtinBodyNode.getClass()).shortName();
-        builtinBodyNode.setUnavailableSourceSection();
-
-        /*
-         * Wrap the builtin in a RootNode. Truffle requires all AST to start with a
-         * RootNode.
-         */
-        LSRootNode rootNode = new LSRootNode(language, new FrameDescriptor(), builtinBodyNode,
-                BUILTIN_SOURCE.createUnavailableSection(), name);
-        RootCallTarget rootCallTarget = Truffle.getRuntime().createCallTarget(rootNode);
+    }
+
+    public boolean hasPendingBuiltins() {
+        return hasPendingBuiltins;
+    }
+
+    public void installBuiltin(NodeFactory<? extends LSBuiltinNode> factory) {
+        installBuiltin(factory, objectPrototype);
+    }
+
+    /**
+     * Installs a builtin as a method of the given prototype, only the values that
+     * inherit from it can invoke the builtin. The call target of the builtin is
+     * shared by all the contexts, see {@link LSLanguage#getBuiltinCallTarget}.
+     */
+    public void installBuiltin(NodeFactory<? extends LSBuiltinNode> factory, LSObject prototype) {
+        RootCallTarget rootCallTarget = language.getBuiltinCallTarget(factory);
+        String name = rootCallTarget.getRootNode().getName();
         LSFunction rootFunction = createFunction(name, rootCallTarget);
-        LSObjectUtil.putProperty(objectPrototype, name, rootFunction);
+        LSObjectUtil.putProperty(prototype, name, rootFunction);
     }
 
     public static NodeInfo lookupNodeInfo(Class<?> clazz) {
@@ -334,6 +1000,8 @@ public final class LSContext {
             return stringPrototype;
         } else if (obj instanceof LSBigInteger) {
             return bigIntegerPrototype;
+        } else if (obj instanceof LSException) {
+            return objectPrototype;
         } else if (interop.fitsInLong(obj)) {
             return integerPrototype;
         } else if (interop.fitsInDouble(obj)) {
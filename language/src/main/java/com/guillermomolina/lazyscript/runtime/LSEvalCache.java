@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleLogger;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Least recently used cache of the call targets of the sources evaluated with
+ * {@code eval}, once an eval site has seen too many different sources to cache
+ * them in the AST. The cache is shared by all the contexts of the language and
+ * holds at most {@link LSLanguage#EvalCacheSize} entries, the least recently
+ * evaluated source is dropped first.
+ */
+public final class LSEvalCache {
+
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSEvalCache.class);
+
+    private final int capacity;
+    private final Map<Source, CallTarget> entries;
+    private long hits;
+    private long misses;
+
+    public LSEvalCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Source, CallTarget>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Source, CallTarget> eldest) {
+                return size() > LSEvalCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached call target of the source, or parses it and caches the
+     * result. Parsing happens outside of the lock, a source parsed twice at the
+     * same time is cached once.
+     */
+    @TruffleBoundary
+    public CallTarget get(Source source, Function<Source, CallTarget> parser) {
+        synchronized (this) {
+            CallTarget callTarget = entries.get(source);
+            if (callTarget != null) {
+                hits++;
+                return callTarget;
+            }
+            misses++;
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("eval cache miss for " + source.getName() + " (hits: " + hits + ", misses: " + misses + ")");
+            }
+        }
+        CallTarget callTarget = parser.apply(source);
+        if (capacity > 0) {
+            synchronized (this) {
+                CallTarget existing = entries.putIfAbsent(source, callTarget);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+        }
+        return callTarget;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
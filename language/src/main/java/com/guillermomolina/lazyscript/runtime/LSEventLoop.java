@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSPromise;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * The event loop of a context. The reactions of the {@link LSPromise promises}
+ * and the blocks given to {@code async} are tasks of the loop, and they run one
+ * at a time on the thread of the context, either when the script is done or
+ * while a promise is {@link LSPromise#await awaited}.
+ * <p>
+ * Files are read with an {@link AsynchronousFileChannel}, and the standard
+ * input by a thread of its own, so the script keeps running while the data is
+ * read. The I/O threads never run LazyScript code, they add a task to the loop
+ * that settles the promise of the operation.
+ * <p>
+ * A promise that is still rejected without a handler when there are no more
+ * tasks throws its error, as an uncaught exception.
+ */
+public final class LSEventLoop {
+
+    private static final int MINIMUM_BUFFER_SIZE = 8192;
+
+    private final BufferedReader input;
+    private final PrintWriter output;
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    /** The I/O operations that did not add their completion to the loop yet. */
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    private ExecutorService inputReader;
+    /** The rejected promises that no reaction or await handles yet. */
+    private final Set<LSPromise> unhandledRejections = new LinkedHashSet<>();
+    /** The evaluations that are running, the loop runs when the outermost ends. */
+    private int evalDepth;
+
+    LSEventLoop(BufferedReader input, PrintWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Adds a task to run on the loop, called from the thread of the context.
+     */
+    @TruffleBoundary
+    public void schedule(Runnable task) {
+        tasks.add(task);
+    }
+
+    private void begin() {
+        pendingOperations.incrementAndGet();
+    }
+
+    /**
+     * Adds the completion of an I/O operation to the loop, called from the
+     * thread that performed the operation.
+     */
+    private void complete(Runnable completion) {
+        tasks.add(() -> {
+            pendingOperations.decrementAndGet();
+            completion.run();
+        });
+    }
+
+    /**
+     * Returns {@code true} for the outermost evaluation, that runs the tasks
+     * that are left when it ends.
+     */
+    public boolean enterEval() {
+        return evalDepth++ == 0;
+    }
+
+    public void exitEval() {
+        evalDepth--;
+    }
+
+    public void rejectedWithoutHandler(LSPromise promise) {
+        unhandledRejections.add(promise);
+    }
+
+    public void handled(LSPromise promise) {
+        unhandledRejections.remove(promise);
+    }
+
+    /**
+     * Runs the tasks until there are no more tasks and no pending operations,
+     * then throws the error of the first rejection that was not handled.
+     */
+    @TruffleBoundary
+    public void run() {
+        runUntil(null, null);
+        final Iterator<LSPromise> rejections = unhandledRejections.iterator();
+        if (rejections.hasNext()) {
+            final LSPromise rejected = rejections.next();
+            unhandledRejections.clear();
+            rejected.await(null);
+        }
+    }
+
+    /**
+     * Runs the tasks until the promise is settled. If there are no more tasks
+     * and no pending operations, nothing can settle the promise.
+     */
+    @TruffleBoundary
+    public void runUntil(LSPromise promise, Node location) {
+        while (promise == null || promise.isPending()) {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                if (pendingOperations.get() == 0) {
+                    if (promise == null) {
+                        return;
+                    }
+                    throw new LSException("The awaited promise is never settled", location);
+                }
+                /* Show the output while waiting, the loop may wait for a long time. */
+                output.flush();
+                try {
+                    task = tasks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LSException("Interrupted while waiting for a promise", location);
+                }
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * Reads the whole file as UTF-8 text and fulfills the promise with it.
+     */
+    @TruffleBoundary
+    public void readFile(Path path, LSPromise promise, Node location) {
+        final AsynchronousFileChannel channel;
+        final long size;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+        } catch (IOException | UnsupportedOperationException e) {
+            promise.reject(new LSException("Cannot read " + path + ": " + e.getMessage(), location));
+            return;
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            close(channel);
+            promise.reject(new LSException("Cannot read " + path + ": the file is too large", location));
+            return;
+        }
+        begin();
+        new FileRead(channel, path, (int) size, promise, location).next();
+    }
+
+    private final class FileRead implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final Path path;
+        private final LSPromise promise;
+        private final Node location;
+        private ByteBuffer buffer;
+
+        FileRead(AsynchronousFileChannel channel, Path path, int size, LSPromise promise, Node location) {
+            this.channel = channel;
+            this.path = path;
+            this.promise = promise;
+            this.location = location;
+            /* One more byte to find the end of the file without growing the buffer. */
+            this.buffer = ByteBuffer.allocate(Math.max(size + 1, MINIMUM_BUFFER_SIZE));
+        }
+
+        void next() {
+            if (!buffer.hasRemaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            channel.read(buffer, buffer.position(), null, this);
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            if (count >= 0) {
+                next();
+                return;
+            }
+            close(channel);
+            final String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+            complete(() -> promise.resolve(text));
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            close(channel);
+            complete(() -> promise.reject(new LSException("Cannot read " + path + ": " + error.getMessage(), location)));
+        }
+    }
+
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing was written, the data read is complete
+        }
+    }
+
+    /**
+     * Reads a line of the standard input and fulfills the promise with it, or
+     * with an empty string at the end of the input, as {@code readln} does.
+     * The lines are read in the order of the requests.
+     */
+    @TruffleBoundary
+    public void readLine(LSPromise promise, Node location) {
+        begin();
+        getInputReader().execute(() -> {
+            try {
+                final String line = input.readLine();
+                complete(() -> promise.resolve(line == null ? "" : line));
+            } catch (IOException e) {
+                complete(() -> promise.reject(new LSException(e.getMessage(), location)));
+            }
+        });
+    }
+
+    /*
+     * The standard input is a stream, not a channel that can be polled, so it
+     * is read by a daemon thread that never enters the context.
+     */
+    private synchronized ExecutorService getInputReader() {
+        if (inputReader == null) {
+            inputReader = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "LazyScript input");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return inputReader;
+    }
+
+    /**
+     * Stops the thread that reads the standard input, called when the context
+     * is finalized.
+     */
+    public synchronized void shutdown() {
+        if (inputReader != null) {
+            inputReader.shutdownNow();
+            inputReader = null;
+        }
+        tasks.clear();
+        unhandledRejections.clear();
+    }
+}
@@ -45,18 +45,29 @@ import static com.oracle.truffle.api.CompilerDirectives.shouldNotReachHere;
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.runtime.interop.LSLanguageView;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleLanguage;
 import com.oracle.truffle.api.exception.AbstractTruffleException;
 import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
 import com.oracle.truffle.api.interop.UnsupportedMessageException;
 import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.nodes.NodeInfo;
 import com.oracle.truffle.api.source.SourceSection;
 
 /**
  * LS does not need a sophisticated error checking and reporting mechanism, so all unexpected
- * conditions just abort execution. This exception class is used when we abort from within the LS
- * implementation.
+ * conditions just abort execution, unless they are caught by a {@code try/catch} statement. This
+ * exception class is used when we abort from within the LS implementation, and for the values
+ * thrown by the {@code throw} statement.
+ * <p>
+ * Building a readable message requires interop calls for every operand, which is wasted work
+ * when the exception is caught. The exception therefore only records the operation and the
+ * operands, and the message is formatted the first time it is {@link #getMessage() read}. The
+ * number of guest stack frames captured is limited by the {@code ls.StackTraceLimit} option.
  */
 @ExportLibrary(InteropLibrary.class)
 public class LSException extends AbstractTruffleException {
@@ -64,26 +75,98 @@ public class LSException extends AbstractTruffleException {
     private static final long serialVersionUID = -6799734410727348507L;
     private static final InteropLibrary UNCACHED_LIB = InteropLibrary.getFactory().getUncached();
 
+    public static final String MESSAGE = "message";
+    public static final String VALUE = "value";
+
+    private String message;
+    private final Node operation;
+    private final Object[] operands;
+    private final Object value;
+
     @TruffleBoundary
     public LSException(String message, Node location) {
-        super(message, location);
+        super(null, null, getStackTraceLimit(), location);
+        this.message = message;
+        this.operation = null;
+        this.operands = null;
+        this.value = null;
+    }
+
+    @TruffleBoundary
+    private LSException(Node operation, Object[] operands, Object value) {
+        super(null, null, getStackTraceLimit(), operation);
+        this.operation = operation;
+        this.operands = operands;
+        this.value = value;
+    }
+
+    /**
+     * Returns the stack trace limit of the current context. Exceptions can also be created while
+     * no context is entered, for example by the parser or the launcher, these use the default of
+     * the option.
+     */
+    private static int getStackTraceLimit() {
+        final LSContext context;
+        try {
+            context = LSLanguage.getCurrentContext();
+        } catch (IllegalStateException e) {
+            return LSLanguage.StackTraceLimit.getDefaultValue();
+        }
+        return context == null ? LSLanguage.StackTraceLimit.getDefaultValue() : context.getStackTraceLimit();
     }
 
     /**
-     * Provides a user-readable message for run-time type errors. LS is strongly typed, i.e., there
-     * are no automatic type conversions of values.
+     * Creates a run-time type error. LS is strongly typed, i.e., there are no automatic type
+     * conversions of values. The user-readable message is only built when requested.
      */
     @TruffleBoundary
     public static LSException typeError(Node operation, Object... values) {
-        StringBuilder result = new StringBuilder();
-        result.append("Type error");
+        return new LSException(operation, values, null);
+    }
 
-        if (operation != null) {
-            SourceSection ss = operation.getEncapsulatingSourceSection();
-            if (ss != null && ss.isAvailable()) {
-                result.append(" at ").append(ss.getSource().getName()).append(" line ").append(ss.getStartLine()).append(" col ").append(ss.getStartColumn());
+    /**
+     * Creates the exception raised by the {@code throw} statement, carrying an arbitrary value.
+     */
+    @TruffleBoundary
+    public static LSException thrown(Node location, Object value) {
+        return new LSException(location, null, value);
+    }
+
+    /**
+     * Returns the value bound to the variable of a {@code catch} clause: the thrown value for
+     * the {@code throw} statement, the exception itself otherwise.
+     */
+    public Object getExceptionValue() {
+        return value != null ? value : this;
+    }
+
+    @Override
+    @TruffleBoundary
+    public String getMessage() {
+        if (message == null) {
+            if (value != null) {
+                message = formatThrownValue();
+            } else {
+                message = formatTypeError();
             }
         }
+        return message;
+    }
+
+    private String formatThrownValue() {
+        StringBuilder result = new StringBuilder();
+        result.append("Uncaught exception");
+        appendLocation(result, operation);
+        result.append(": ");
+        Object view = LSLanguageView.forValue(value);
+        result.append(InteropLibrary.getFactory().getUncached(view).toDisplayString(view));
+        return result.toString();
+    }
+
+    private String formatTypeError() {
+        StringBuilder result = new StringBuilder();
+        result.append("Type error");
+        appendLocation(result, operation);
 
         result.append(": operation");
         if (operation != null) {
@@ -96,7 +179,7 @@ public class LSException extends AbstractTruffleException {
         result.append(" not defined for");
 
         String sep = " ";
-        for (int i = 0; i < values.length; i++) {
+        for (int i = 0; i < operands.length; i++) {
             /*
              * For primitive or foreign values we request a language view so the values are printed
              * from the perspective of simple language and not another language. Since this is a
@@ -105,33 +188,117 @@ public class LSException extends AbstractTruffleException {
              * Using the language view for core builtins like the type builtin might not be a good
              * idea for performance reasons.
              */
-            Object value = LSLanguageView.forValue(values[i]);
+            Object operand = LSLanguageView.forValue(operands[i]);
             result.append(sep);
             sep = ", ";
-            if (value == null) {
+            if (operand == null) {
                 result.append("ANY");
             } else {
-                InteropLibrary valueLib = InteropLibrary.getFactory().getUncached(value);
-                if (valueLib.hasMetaObject(value) && !valueLib.isNull(value)) {
+                InteropLibrary valueLib = InteropLibrary.getFactory().getUncached(operand);
+                if (valueLib.hasMetaObject(operand) && !valueLib.isNull(operand)) {
                     String qualifiedName;
                     try {
-                        qualifiedName = UNCACHED_LIB.asString(UNCACHED_LIB.getMetaQualifiedName(valueLib.getMetaObject(value)));
+                        qualifiedName = UNCACHED_LIB.asString(UNCACHED_LIB.getMetaQualifiedName(valueLib.getMetaObject(operand)));
                     } catch (UnsupportedMessageException e) {
                         throw shouldNotReachHere(e);
                     }
                     result.append(qualifiedName);
                     result.append(" ");
                 }
-                if (valueLib.isString(value)) {
+                if (valueLib.isString(operand)) {
                     result.append("\"");
                 }
-                result.append(valueLib.toDisplayString(value));
-                if (valueLib.isString(value)) {
+                result.append(valueLib.toDisplayString(operand));
+                if (valueLib.isString(operand)) {
                     result.append("\"");
                 }
             }
         }
-        return new LSException(result.toString(), operation);
+        return result.toString();
+    }
+
+    private static void appendLocation(StringBuilder result, Node operation) {
+        if (operation != null) {
+            SourceSection ss = operation.getEncapsulatingSourceSection();
+            if (ss != null && ss.isAvailable()) {
+                result.append(" at ").append(ss.getSource().getName()).append(" line ").append(ss.getStartLine()).append(" col ").append(ss.getStartColumn());
+            }
+        }
+    }
+
+    @ExportMessage
+    boolean hasLanguage() {
+        return true;
+    }
+
+    @ExportMessage
+    Class<? extends TruffleLanguage<?>> getLanguage() {
+        return LSLanguage.class;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    Object toDisplayString(boolean allowSideEffects) {
+        return getMessage();
+    }
+
+    @ExportMessage
+    boolean hasMembers() {
+        return true;
+    }
+
+    @ExportMessage
+    Object getMembers(boolean includeInternal) {
+        return new Members();
+    }
+
+    @ExportMessage
+    boolean isMemberReadable(String member) {
+        return MESSAGE.equals(member) || VALUE.equals(member);
+    }
+
+    /**
+     * Exposes the lazily formatted {@code message} and the thrown {@code value} to the
+     * {@code catch} clause.
+     */
+    @ExportMessage
+    @TruffleBoundary
+    Object readMember(String member) throws UnknownIdentifierException {
+        if (MESSAGE.equals(member)) {
+            return getMessage();
+        } else if (VALUE.equals(member)) {
+            return getExceptionValue();
+        }
+        throw UnknownIdentifierException.create(member);
+    }
+
+    @ExportLibrary(InteropLibrary.class)
+    static final class Members implements TruffleObject {
+
+        @ExportMessage
+        boolean hasArrayElements() {
+            return true;
+        }
+
+        @ExportMessage
+        long getArraySize() {
+            return 2;
+        }
+
+        @ExportMessage
+        boolean isArrayElementReadable(long index) {
+            return index == 0 || index == 1;
+        }
+
+        @ExportMessage
+        Object readArrayElement(long index) throws InvalidArrayIndexException {
+            if (index == 0) {
+                return MESSAGE;
+            } else if (index == 1) {
+                return VALUE;
+            }
+            throw InvalidArrayIndexException.create(index);
+        }
     }
 
 }
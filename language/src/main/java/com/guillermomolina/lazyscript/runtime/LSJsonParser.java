@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSNull;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+import com.oracle.truffle.api.object.IncompatibleLocationException;
+import com.oracle.truffle.api.object.Location;
+import com.oracle.truffle.api.object.Property;
+import com.oracle.truffle.api.object.Shape;
+
+/**
+ * Parses JSON straight into LazyScript values: objects, arrays, strings,
+ * integers (big integers when they do not fit in a long), decimals, booleans
+ * and {@code null}. Arrays of integers or of decimals get a primitive
+ * storage, without boxing their elements.
+ * <p>
+ * Objects are built through a {@link ShapeCache}, shared by all the parsers
+ * of a context, that predicts their shapes: it follows the sequence of keys
+ * of each object, and every step of a sequence remembers the shape that
+ * adding its key led to, and the location of the property. The objects of a
+ * repeated schema take the predicted shape and store the value in its
+ * location, instead of looking the transition up, and share the same key
+ * strings. A value that does not fit the location, or a shape that is not
+ * the predicted one, is put through the uncached {@link DynamicObjectLibrary}.
+ * <p>
+ * A parser either reads a whole document, or streams the values of an input,
+ * separated by whitespace, as in JSON Lines.
+ */
+public final class LSJsonParser {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The sequences of object keys seen by the parsers of a context. The
+     * number of steps is bounded, the keys of objects used as maps would grow
+     * it forever, and past the bound objects are built without predictions.
+     */
+    public static final class ShapeCache {
+        private static final int MAX_STEPS = 1 << 12;
+
+        private final Step root = new Step(null);
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Step next(Step step, String key) {
+            final Step existing = step.next.get(key);
+            if (existing != null || size.get() >= MAX_STEPS) {
+                return existing;
+            }
+            return step.next.computeIfAbsent(key, k -> {
+                size.incrementAndGet();
+                return new Step(k);
+            });
+        }
+    }
+
+    /** A step of a sequence of keys, with the shape that adding its key leads to. */
+    private static final class Step {
+        private final String key;
+        private final ConcurrentHashMap<String, Step> next = new ConcurrentHashMap<>();
+        private volatile Transition transition;
+
+        private Step(String key) {
+            this.key = key;
+        }
+    }
+
+    /** The shape of an object before and after adding the key of a step. */
+    private static final class Transition {
+        private final Shape before;
+        private final Shape after;
+        private final Location location;
+
+        private Transition(Shape before, Shape after, Location location) {
+            this.before = before;
+            this.after = after;
+            this.location = location;
+        }
+    }
+
+    /** Collects the elements of an array in the most specific storage. */
+    private static final class ArrayBuilder {
+        private Object storage;
+        private int size;
+
+        private void add(Object value) {
+            if (storage == null) {
+                storage = value instanceof Long ? new long[8] : value instanceof Double ? new double[8] : new Object[8];
+            }
+            if (storage instanceof long[] && !(value instanceof Long) || storage instanceof double[] && !(value instanceof Double)) {
+                final Object[] objects = new Object[Math.max(size * 2, 8)];
+                for (int i = 0; i < size; i++) {
+                    objects[i] = storage instanceof long[] ? (Object) ((long[]) storage)[i] : (Object) ((double[]) storage)[i];
+                }
+                storage = objects;
+            }
+            if (storage instanceof long[]) {
+                long[] longs = (long[]) storage;
+                if (size == longs.length) {
+                    storage = longs = Arrays.copyOf(longs, size * 2);
+                }
+                longs[size++] = (long) value;
+            } else if (storage instanceof double[]) {
+                double[] doubles = (double[]) storage;
+                if (size == doubles.length) {
+                    storage = doubles = Arrays.copyOf(doubles, size * 2);
+                }
+                doubles[size++] = (double) value;
+            } else {
+                Object[] objects = (Object[]) storage;
+                if (size == objects.length) {
+                    storage = objects = Arrays.copyOf(objects, size * 2);
+                }
+                objects[size++] = value;
+            }
+        }
+
+        private Object build(LSContext context) {
+            if (storage instanceof long[]) {
+                return context.createArray(Arrays.copyOf((long[]) storage, size));
+            } else if (storage instanceof double[]) {
+                return context.createArray(Arrays.copyOf((double[]) storage, size));
+            } else if (storage == null) {
+                return context.createArray(new Object[0]);
+            }
+            return context.createArray(Arrays.copyOf((Object[]) storage, size));
+        }
+    }
+
+    private final LSContext context;
+    private final ShapeCache shapes;
+    /** The input, {@code null} when the whole text is in the buffer. */
+    private final BufferedReader reader;
+    /**
+     * Whether the input is read line by line, so the reader can still be
+     * used by others between the values, as the standard input by
+     * {@code readln}.
+     */
+    private final boolean byLine;
+    private final StringBuilder text = new StringBuilder();
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private int line = 1;
+    private int column = 1;
+
+    /** Creates a parser of a whole text. */
+    public LSJsonParser(LSContext context, String input) {
+        this.context = context;
+        this.shapes = context.getJsonShapes();
+        this.reader = null;
+        this.byLine = false;
+        this.buffer = input.toCharArray();
+        this.limit = buffer.length;
+    }
+
+    /** Creates a parser that streams an input. */
+    public LSJsonParser(LSContext context, BufferedReader reader, boolean byLine) {
+        this.context = context;
+        this.shapes = context.getJsonShapes();
+        this.reader = reader;
+        this.byLine = byLine;
+        this.buffer = byLine ? null : new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Parses the input as one value, only followed by whitespace.
+     */
+    @TruffleBoundary
+    public Object parseDocument(Node location) {
+        final Object value = parseValue(location);
+        skipWhitespace(location);
+        if (peek(location) != -1) {
+            throw error("Unexpected character after the value", location);
+        }
+        return value;
+    }
+
+    /**
+     * Parses the next value of the input, {@code null} at the end of the
+     * input.
+     */
+    @TruffleBoundary
+    public Object next(Node location) {
+        skipWhitespace(location);
+        if (peek(location) == -1) {
+            return null;
+        }
+        return parseValue(location);
+    }
+
+    private Object parseValue(Node location) {
+        skipWhitespace(location);
+        final int c = peek(location);
+        switch (c) {
+            case '{':
+                return parseObject(location);
+            case '[':
+                return parseArray(location);
+            case '"':
+                return parseString(location);
+            case 't':
+                expectWord("true", location);
+                return true;
+            case 'f':
+                expectWord("false", location);
+                return false;
+            case 'n':
+                expectWord("null", location);
+                return LSNull.INSTANCE;
+            default:
+                if (c == '-' || isDigit(c)) {
+                    return parseNumber(location);
+                }
+                throw unexpected(c, location);
+        }
+    }
+
+    private LSObject parseObject(Node location) {
+        read(location);
+        final LSObject object = context.createObject();
+        skipWhitespace(location);
+        if (peek(location) == '}') {
+            read(location);
+            return object;
+        }
+        Step step = shapes.root;
+        while (true) {
+            skipWhitespace(location);
+            if (peek(location) != '"') {
+                throw unexpected(peek(location), location);
+            }
+            final String key = parseString(location);
+            skipWhitespace(location);
+            expect(':', location);
+            final Object value = parseValue(location);
+            step = put(object, step, key, value);
+            skipWhitespace(location);
+            final int c = peek(location);
+            if (c != ',' && c != '}') {
+                throw unexpected(c, location);
+            }
+            read(location);
+            if (c == '}') {
+                return object;
+            }
+        }
+    }
+
+    /**
+     * Adds the property with the shape predicted by the next step of the
+     * sequence of keys, and returns that step, {@code null} once the sequence
+     * is not predicted anymore.
+     */
+    private Step put(LSObject object, Step step, String key, Object value) {
+        final Step next = step == null ? null : shapes.next(step, key);
+        if (next == null) {
+            DynamicObjectLibrary.getUncached().put(object, key, value);
+            return null;
+        }
+        final Shape shape = object.getShape();
+        final Transition transition = next.transition;
+        if (transition != null && transition.before == shape && transition.after.isValid()) {
+            try {
+                transition.location.set(object, value, shape, transition.after);
+                return next;
+            } catch (IncompatibleLocationException e) {
+                /* The value does not fit the location, it is put below. */
+            }
+        }
+        DynamicObjectLibrary.getUncached().put(object, next.key, value);
+        final Shape after = object.getShape();
+        final Property property = after.getProperty(next.key);
+        if (after != shape && property != null) {
+            next.transition = new Transition(shape, after, property.getLocation());
+        }
+        return next;
+    }
+
+    private Object parseArray(Node location) {
+        read(location);
+        final ArrayBuilder elements = new ArrayBuilder();
+        skipWhitespace(location);
+        if (peek(location) == ']') {
+            read(location);
+            return elements.build(context);
+        }
+        while (true) {
+            elements.add(parseValue(location));
+            skipWhitespace(location);
+            final int c = peek(location);
+            if (c != ',' && c != ']') {
+                throw unexpected(c, location);
+            }
+            read(location);
+            if (c == ']') {
+                return elements.build(context);
+            }
+        }
+    }
+
+    private String parseString(Node location) {
+        read(location);
+        text.setLength(0);
+        while (true) {
+            final int c = peek(location);
+            if (c < 0x20) {
+                throw unexpected(c, location);
+            }
+            read(location);
+            if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                text.append(parseEscape(location));
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private char parseEscape(Node location) {
+        final int c = read(location);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(read(location), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape", location);
+                    }
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape", location);
+        }
+    }
+
+    private Object parseNumber(Node location) {
+        text.setLength(0);
+        if (peek(location) == '-') {
+            text.append((char) read(location));
+        }
+        if (peek(location) == '0') {
+            text.append((char) read(location));
+        } else {
+            readDigits(location);
+        }
+        boolean integral = true;
+        if (peek(location) == '.') {
+            integral = false;
+            text.append((char) read(location));
+            readDigits(location);
+        }
+        if (peek(location) == 'e' || peek(location) == 'E') {
+            integral = false;
+            text.append((char) read(location));
+            if (peek(location) == '+' || peek(location) == '-') {
+                text.append((char) read(location));
+            }
+            readDigits(location);
+        }
+        final String number = text.toString();
+        if (!integral) {
+            return Double.parseDouble(number);
+        }
+        if (number.length() <= 18) {
+            return Long.parseLong(number);
+        }
+        final BigInteger value = new BigInteger(number);
+        if (value.bitLength() < Long.SIZE) {
+            return value.longValue();
+        }
+        return context.createBigInteger(value);
+    }
+
+    private void readDigits(Node location) {
+        if (!isDigit(peek(location))) {
+            throw unexpected(peek(location), location);
+        }
+        while (isDigit(peek(location))) {
+            text.append((char) read(location));
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void expectWord(String word, Node location) {
+        for (int i = 0; i < word.length(); i++) {
+            expect(word.charAt(i), location);
+        }
+    }
+
+    private void expect(char expected, Node location) {
+        final int c = peek(location);
+        if (c != expected) {
+            throw unexpected(c, location);
+        }
+        read(location);
+    }
+
+    private void skipWhitespace(Node location) {
+        while (true) {
+            final int c = peek(location);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            read(location);
+        }
+    }
+
+    private int peek(Node location) {
+        if (position == limit && !fill(location)) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int read(Node location) {
+        final int c = peek(location);
+        if (c == -1) {
+            throw error("Unexpected end of input", location);
+        }
+        position++;
+        if (c == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        return c;
+    }
+
+    private boolean fill(Node location) {
+        if (reader == null) {
+            return false;
+        }
+        try {
+            if (byLine) {
+                final String next = reader.readLine();
+                if (next == null) {
+                    return false;
+                }
+                buffer = (next + '\n').toCharArray();
+                limit = buffer.length;
+            } else {
+                final int count = reader.read(buffer);
+                if (count == -1) {
+                    return false;
+                }
+                limit = count;
+            }
+            position = 0;
+            return true;
+        } catch (IOException e) {
+            throw new LSException(e.getMessage(), location);
+        }
+    }
+
+    /**
+     * Closes the reader of the input.
+     */
+    @TruffleBoundary
+    public void close(Node location) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new LSException(e.getMessage(), location);
+            }
+        }
+    }
+
+    private LSException unexpected(int c, Node location) {
+        if (c == -1) {
+            return error("Unexpected end of input", location);
+        }
+        return error("Unexpected character '" + (char) c + "'", location);
+    }
+
+    private LSException error(String message, Node location) {
+        return new LSException("Invalid JSON at line " + line + " column " + column + ": " + message, location);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSBigInteger;
+import com.guillermomolina.lazyscript.runtime.objects.LSNull;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+
+/**
+ * Writes LazyScript values as JSON, straight to a {@link Writer}, so values
+ * written to the output of the context are not built as a string first.
+ * Arrays, typed arrays and plain objects are written with their elements and
+ * properties, lazy values are forced, and decimals that are not finite are
+ * written as {@code null}. Functions, blocks and the other objects that hold
+ * code or state can not be written, nor can cyclic structures.
+ */
+public final class LSJsonWriter {
+
+    private final Writer out;
+    private final Node location;
+    /** The arrays and objects being written, to detect cycles. */
+    private final Set<Object> writing = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private LSJsonWriter(Writer out, Node location) {
+        this.out = out;
+        this.location = location;
+    }
+
+    @TruffleBoundary
+    public static String stringify(Object value, Node location) {
+        final StringWriter out = new StringWriter();
+        write(value, out, location);
+        return out.toString();
+    }
+
+    @TruffleBoundary
+    public static void write(Object value, Writer out, Node location) {
+        try {
+            new LSJsonWriter(out, location).writeValue(value);
+        } catch (IOException e) {
+            throw new LSException(e.getMessage(), location);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Long || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Double) {
+            writeDouble((double) value);
+        } else if (value == LSNull.INSTANCE) {
+            out.write("null");
+        } else if (value instanceof LSBigInteger) {
+            out.write(((LSBigInteger) value).getValue().toString());
+        } else if (value instanceof LSThunk) {
+            writeValue(((LSThunk) value).force(IndirectCallNode.getUncached(), location));
+        } else if (value instanceof LSArray || value instanceof LSTypedArray || value != null && value.getClass() == LSObject.class) {
+            if (!writing.add(value)) {
+                throw new LSException("Cannot convert a cyclic structure to JSON", location);
+            }
+            if (value instanceof LSArray) {
+                writeArray((LSArray) value);
+            } else if (value instanceof LSTypedArray) {
+                writeTypedArray((LSTypedArray) value);
+            } else {
+                writeObject((LSObject) value);
+            }
+            writing.remove(value);
+        } else {
+            throw new LSException("Cannot convert to JSON: " + value, location);
+        }
+    }
+
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write("null");
+        } else {
+            out.write(Double.toString(value));
+        }
+    }
+
+    private void writeArray(LSArray array) throws IOException {
+        out.write('[');
+        final Object storage = array.getStorage();
+        if (storage instanceof long[]) {
+            final long[] longs = (long[]) storage;
+            for (int i = 0; i < longs.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(Long.toString(longs[i]));
+            }
+        } else if (storage instanceof double[]) {
+            final double[] doubles = (double[]) storage;
+            for (int i = 0; i < doubles.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeDouble(doubles[i]);
+            }
+        } else {
+            final Object[] elements = (Object[]) storage;
+            for (int i = 0; i < elements.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeValue(elements[i]);
+            }
+        }
+        out.write(']');
+    }
+
+    private void writeTypedArray(LSTypedArray array) throws IOException {
+        out.write('[');
+        for (int i = 0; i < array.getSize(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeValue(array.read(array.getElementType(), i));
+        }
+        out.write(']');
+    }
+
+    private void writeObject(LSObject object) throws IOException {
+        final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+        out.write('{');
+        boolean first = true;
+        for (Object key : LSObject.getPropertyNames(object.getShape())) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString((String) key);
+            out.write(':');
+            writeValue(objectLibrary.getOrDefault(object, key, LSNull.INSTANCE));
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes a string with its quotes, escaping the quotes, the backslashes
+     * and the control characters. The runs of characters that need no
+     * escaping are written at once.
+     */
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSBigInteger;
+import com.guillermomolina.lazyscript.runtime.objects.LSNull;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSTypedArray;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+
+/**
+ * Moves values between the contexts of the
+ * {@link com.guillermomolina.lazyscript.runtime.objects.LSWorker workers}.
+ * The objects of a context inherit from the prototypes of the context, so a
+ * value is first detached from the context that sends it, into a graph of
+ * plain Java values, and it is attached to the receiving context later, on
+ * the thread of the receiver. Numbers, booleans, strings and {@code null}
+ * are sent as they are, arrays and plain objects are copied, keeping cycles
+ * and the objects referenced more than once. Functions, blocks and the other
+ * objects that hold code can not be sent.
+ * <p>
+ * When the value is transferred instead of copied, the arrays of numbers give
+ * their storage away, without copying it, and they are left empty in the
+ * sender.
+ * <p>
+ * Typed arrays are neither copied nor transferred: the receiver gets a typed
+ * array over the same memory, and both workers see the writes of the other.
+ */
+public final class LSMessages {
+    private LSMessages() {
+    }
+
+    /** A detached array, with a primitive storage or detached elements. */
+    private static final class ArrayMessage {
+        private Object storage;
+    }
+
+    /** A detached typed array, with the memory it shares. */
+    private static final class TypedArrayMessage {
+        private final LSTypedArray.ElementType elementType;
+        private final ByteBuffer buffer;
+
+        private TypedArrayMessage(LSTypedArray.ElementType elementType, ByteBuffer buffer) {
+            this.elementType = elementType;
+            this.buffer = buffer;
+        }
+    }
+
+    /** A detached plain object, with its detached properties. */
+    private static final class ObjectMessage {
+        private final Map<String, Object> properties = new LinkedHashMap<>();
+    }
+
+    @TruffleBoundary
+    public static Object detach(Object value, boolean transfer, Node location) {
+        return detach(value, transfer, location, new IdentityHashMap<>());
+    }
+
+    private static Object detach(Object value, boolean transfer, Node location, Map<Object, Object> detached) {
+        if (value == null || value instanceof Long || value instanceof Double || value instanceof Boolean || value instanceof String
+                        || value == LSNull.INSTANCE) {
+            return value;
+        }
+        if (value instanceof LSBigInteger) {
+            return ((LSBigInteger) value).getValue();
+        }
+        final Object existing = detached.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (value instanceof LSArray) {
+            final LSArray array = (LSArray) value;
+            final ArrayMessage message = new ArrayMessage();
+            detached.put(value, message);
+            final Object storage = array.getStorage();
+            if (storage instanceof long[]) {
+                message.storage = transfer ? array.transferStorage() : ((long[]) storage).clone();
+            } else if (storage instanceof double[]) {
+                message.storage = transfer ? array.transferStorage() : ((double[]) storage).clone();
+            } else {
+                final Object[] elements = new Object[array.getSize()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = detach(array.get(i), transfer, location, detached);
+                }
+                message.storage = elements;
+            }
+            return message;
+        }
+        if (value instanceof LSTypedArray) {
+            final LSTypedArray array = (LSTypedArray) value;
+            final TypedArrayMessage message = new TypedArrayMessage(array.getElementType(), array.getBuffer());
+            detached.put(value, message);
+            return message;
+        }
+        if (value.getClass() == LSObject.class) {
+            final LSObject object = (LSObject) value;
+            final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+            final ObjectMessage message = new ObjectMessage();
+            detached.put(value, message);
+            for (Object key : LSObject.getPropertyNames(object.getShape())) {
+                message.properties.put((String) key,
+                                detach(objectLibrary.getOrDefault(object, key, null), transfer, location, detached));
+            }
+            return message;
+        }
+        throw new LSException("Cannot send to a worker: " + value, location);
+    }
+
+    @TruffleBoundary
+    public static Object attach(Object message, LSContext context) {
+        return attach(message, context, new IdentityHashMap<>());
+    }
+
+    private static Object attach(Object message, LSContext context, Map<Object, Object> attached) {
+        if (message instanceof BigInteger) {
+            return context.createBigInteger((BigInteger) message);
+        }
+        if (!(message instanceof ArrayMessage || message instanceof TypedArrayMessage || message instanceof ObjectMessage)) {
+            return message;
+        }
+        final Object existing = attached.get(message);
+        if (existing != null) {
+            return existing;
+        }
+        if (message instanceof ArrayMessage) {
+            final Object storage = ((ArrayMessage) message).storage;
+            if (storage instanceof long[]) {
+                final LSArray array = context.createArray((long[]) storage);
+                attached.put(message, array);
+                return array;
+            } else if (storage instanceof double[]) {
+                final LSArray array = context.createArray((double[]) storage);
+                attached.put(message, array);
+                return array;
+            }
+            final Object[] elements = (Object[]) storage;
+            final LSArray array = context.createArray(new Object[elements.length]);
+            attached.put(message, array);
+            for (int i = 0; i < elements.length; i++) {
+                array.set(i, attach(elements[i], context, attached));
+            }
+            return array;
+        }
+        if (message instanceof TypedArrayMessage) {
+            final TypedArrayMessage typed = (TypedArrayMessage) message;
+            final LSTypedArray array = context.createTypedArray(typed.elementType, typed.buffer);
+            attached.put(message, array);
+            return array;
+        }
+        final LSObject object = context.createObject();
+        attached.put(message, object);
+        for (Map.Entry<String, Object> entry : ((ObjectMessage) message).properties.entrySet()) {
+            LSObjectUtil.putProperty(object, entry.getKey(), attach(entry.getValue(), context, attached));
+        }
+        return object;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.parser.LSParser;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.TruffleFile;
+import com.oracle.truffle.api.TruffleLanguage.Env;
+import com.oracle.truffle.api.TruffleLogger;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Loads the modules of a context, the files imported with
+ * {@code import "path.ls"}. A path is relative to the directory of the
+ * importing source, or to the current working directory if the source is not
+ * a file.
+ *
+ * A module runs once per context, with a new object as {@code this}, and that
+ * object is the result of every import of the module. A module that is
+ * imported again while it runs, by a cycle of imports, gets the exports as
+ * they are at that point.
+ *
+ * Before a program runs, the whole graph of modules it imports is parsed in
+ * parallel, when the context allows creating threads: each file is read and
+ * parsed on a pool of polyglot threads, and the imports found in it
+ * (see {@link LSParser#findImports}) are loaded in turn. The threads of the
+ * pool are started when there are modules to parse, and stop after they are
+ * idle for {@link #IDLE_SECONDS}. The call targets are
+ * kept by the language ({@link LSLanguage#parseModule}), so the import only
+ * runs them.
+ */
+public final class LSModuleLoader {
+
+    private static final TruffleLogger LOG = TruffleLogger.getLogger(LSLanguage.ID, LSModuleLoader.class);
+
+    private static final long IDLE_SECONDS = 1;
+
+    private final LSLanguage language;
+    private final LSContext context;
+    private final Env env;
+    /** The exports of the modules, by canonical path. */
+    private final Map<String, LSObject> exports = new ConcurrentHashMap<>();
+    /** The canonical paths of the modules that were already parsed. */
+    private final Set<String> parsed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private ThreadPoolExecutor executor;
+    private final List<Thread> threads = new ArrayList<>();
+
+    LSModuleLoader(LSLanguage language, LSContext context, Env env) {
+        this.language = language;
+        this.context = context;
+        this.env = env;
+    }
+
+    /**
+     * The parser logs, so it can only run on threads that entered the context.
+     * If the context does not allow creating threads the modules are parsed on
+     * the calling thread.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (!env.isCreateThreadAllowed()) {
+            return null;
+        }
+        if (executor == null) {
+            final int size = Runtime.getRuntime().availableProcessors();
+            executor = new ThreadPoolExecutor(size, size, IDLE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), this::createThread);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Creates a thread of the pool, that is forgotten when it stops. The
+     * language allows it to enter the context with the importing thread (see
+     * {@link LSLanguage#createModuleThread}).
+     */
+    private Thread createThread(Runnable runnable) {
+        final Thread thread = language.createModuleThread(env, () -> {
+            try {
+                runnable.run();
+            } finally {
+                language.removeModuleThread(Thread.currentThread());
+                synchronized (threads) {
+                    threads.remove(Thread.currentThread());
+                }
+            }
+        });
+        synchronized (threads) {
+            threads.add(thread);
+        }
+        return thread;
+    }
+
+    /**
+     * Stops the threads of the pool, called when the context is finalized. The
+     * threads are joined because they leave the context after the pool
+     * considers them terminated.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            /* The threads remove themselves from the list when they stop */
+            final Thread[] running;
+            synchronized (threads) {
+                running = threads.toArray(new Thread[0]);
+            }
+            try {
+                for (Thread thread : running) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @TruffleBoundary
+    public Object importModule(String path, Source importer, Node location) {
+        final TruffleFile file;
+        final Source source;
+        try {
+            file = resolve(path, importer);
+            final LSObject cached = exports.get(file.getPath());
+            if (cached != null) {
+                return cached;
+            }
+            source = Source.newBuilder(LSLanguage.ID, file).build();
+        } catch (IOException | SecurityException | UnsupportedOperationException | IllegalArgumentException e) {
+            throw new LSException("Cannot import module: " + path + " (" + e.getMessage() + ")", location);
+        }
+        preParseImports(source);
+        final RootCallTarget callTarget = language.parseModule(source, context.getCodeCache());
+        final LSObject moduleExports = context.createObject();
+        exports.put(file.getPath(), moduleExports);
+        LOG.log(Level.FINE, "Running module: {0}", file.getPath());
+        callTarget.call(moduleExports);
+        return moduleExports;
+    }
+
+    private TruffleFile resolve(String path, Source importer) throws IOException {
+        TruffleFile file;
+        if (importer != null && importer.getPath() != null) {
+            file = env.getPublicTruffleFile(importer.getPath()).resolveSibling(path);
+        } else {
+            file = env.getPublicTruffleFile(path);
+        }
+        return file.getCanonicalFile();
+    }
+
+    /**
+     * Parses the modules imported by the source, and the ones they import, in
+     * parallel, and waits until all of them are parsed. Errors are ignored
+     * here, they are reported when the module is imported.
+     */
+    @TruffleBoundary
+    public void preParseImports(Source source) {
+        if (getExecutor() != null) {
+            language.addModuleThread(Thread.currentThread());
+        }
+        preParseImports(source, context.getCodeCache()).join();
+    }
+
+    private CompletableFuture<Void> preParseImports(Source source, LSCodeCache codeCache) {
+        final List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (String path : LSParser.findImports(source)) {
+            final TruffleFile file;
+            try {
+                file = resolve(path, source);
+            } catch (IOException | SecurityException | UnsupportedOperationException | IllegalArgumentException e) {
+                continue;
+            }
+            if (!parsed.add(file.getPath())) {
+                continue;
+            }
+            final ExecutorService pool = getExecutor();
+            final CompletableFuture<Source> load = pool == null
+                    ? CompletableFuture.completedFuture(preParse(file, codeCache))
+                    : CompletableFuture.supplyAsync(() -> preParse(file, codeCache), pool);
+            loads.add(load.thenCompose(imported -> imported == null ? CompletableFuture.completedFuture(null)
+                    : preParseImports(imported, codeCache)));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private Source preParse(TruffleFile file, LSCodeCache codeCache) {
+        try {
+            final Source source = Source.newBuilder(LSLanguage.ID, file).build();
+            language.parseModule(source, codeCache);
+            LOG.log(Level.FINE, "Parsed module: {0}", file.getPath());
+            return source;
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Cannot parse module: {0}, {1}", new Object[]{file.getPath(), e.getMessage()});
+            return null;
+        }
+    }
+}
@@ -16,7 +16,12 @@ public final class LSObjectUtil {
     }
 
     public static void putProperty(DynamicObject obj, Object key, Object value) {
-        DynamicObjectLibrary.getUncached().put(obj, key, value);
+        final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+        if (objectLibrary.isShared(obj)) {
+            LSSharedObjects.put(obj, key, value);
+        } else {
+            objectLibrary.put(obj, key, value);
+        }
     }
 
     public static Object getProperty(DynamicObject obj, Object key) {
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.guillermomolina.lazyscript.nodes.controlflow.LSLazyFunctionBodyNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSBlockLiteralNode;
+import com.guillermomolina.lazyscript.nodes.local.LSReadRemoteVariableNode;
+import com.guillermomolina.lazyscript.nodes.local.LSWriteRemoteVariableNode;
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSBlock;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.TruffleLanguage.Env;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.NodeUtil;
+import com.oracle.truffle.api.nodes.NodeVisitor;
+
+/**
+ * The data-parallel operations of arrays ({@code parallelMap},
+ * {@code parallelFilter} and {@code parallelReduce}). The array is split in
+ * chunks, that run on a {@link ForkJoinPool} of the context, and the results
+ * of the chunks are assembled in order. The threads of the pool enter the
+ * context to run a chunk. If the context does not allow running threads
+ * (see {@link com.guillermomolina.lazyscript.LSLanguage#Threads}), the chunks
+ * run on the calling thread.
+ * <p>
+ * The block must only use its arguments: it can not read or write the
+ * variables of the enclosing scopes, including {@code this}, so the chunks
+ * can not race on shared state. This is checked before running the block,
+ * see {@link #checkIsolated}. Each element is only passed to one chunk, and
+ * the calling thread waits for all of them, so the elements need no
+ * synchronization.
+ * <p>
+ * The results of a chunk are kept like the storage of an {@link LSArray}: in
+ * a {@code long[]} or a {@code double[]} while they are all integers or all
+ * decimals, so the results of numeric blocks are not boxed when they are
+ * assembled.
+ */
+public final class LSParallelArrays {
+
+    /** The minimum number of elements of a chunk. */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final Env env;
+    private ForkJoinPool pool;
+    /** The call targets of the blocks that were checked, see checkIsolated. */
+    private final Map<RootCallTarget, Boolean> isolated = new ConcurrentHashMap<>();
+
+    LSParallelArrays(Env env) {
+        this.env = env;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (!LSContext.isThreadsAllowed(env)) {
+            return null;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Stops the threads of the pool, called when the context is finalized.
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Checks that the block, and the blocks it creates, do not use the
+     * variables of the scopes that enclose it.
+     */
+    @TruffleBoundary
+    public void checkIsolated(LSBlock block, Node location) {
+        final RootCallTarget callTarget = block.getCallTarget();
+        if (isolated.containsKey(callTarget)) {
+            return;
+        }
+        final Node escaping = findEscapingAccess(callTarget.getRootNode(), 0);
+        if (escaping != null) {
+            final String name = escaping.getSourceSection() == null ? "a variable"
+                            : escaping.getSourceSection().getCharacters().toString();
+            throw new LSException("The block of a parallel operation uses " + name
+                            + " of an enclosing scope, it can only use its arguments", location);
+        }
+        isolated.put(callTarget, Boolean.TRUE);
+    }
+
+    /**
+     * Returns the first node of the body that reads or writes a variable more
+     * than {@code depth} scopes up, the blocks created by the body are one
+     * scope deeper.
+     */
+    private static Node findEscapingAccess(Node root, int depth) {
+        final Node[] result = new Node[1];
+        NodeUtil.forEachChild(root, new NodeVisitor() {
+            @Override
+            public boolean visit(Node node) {
+                Node current = node;
+                if (current instanceof LSLazyFunctionBodyNode) {
+                    current = ((LSLazyFunctionBodyNode) current).materialize();
+                }
+                if ((current instanceof LSReadRemoteVariableNode && ((LSReadRemoteVariableNode) current).getDepth() > depth)
+                                || (current instanceof LSWriteRemoteVariableNode && ((LSWriteRemoteVariableNode) current).getDepth() > depth)) {
+                    result[0] = current;
+                    return false;
+                }
+                if (current instanceof LSBlockLiteralNode) {
+                    final Node nested = findEscapingAccess(
+                                    ((LSBlockLiteralNode) current).getFunctionLiteralNode().getCallTarget().getRootNode(), depth + 1);
+                    if (nested != null) {
+                        result[0] = nested;
+                        return false;
+                    }
+                }
+                return NodeUtil.forEachChild(current, this);
+            }
+        });
+        return result[0];
+    }
+
+    @TruffleBoundary
+    public LSArray map(LSContext context, LSArray array, LSBlock block, Node location) {
+        checkIsolated(block, location);
+        final Chunk[] chunks = split(array, (chunk, element) -> chunk.add(call(block, element)));
+        run(chunks);
+        return assemble(context, chunks);
+    }
+
+    @TruffleBoundary
+    public LSArray filter(LSContext context, LSArray array, LSBlock block, Node location) {
+        checkIsolated(block, location);
+        final Chunk[] chunks = split(array, (chunk, element) -> {
+            final Object condition = call(block, element);
+            if (!(condition instanceof Boolean)) {
+                throw LSException.typeError(location, condition);
+            }
+            if ((boolean) condition) {
+                chunk.add(element);
+            }
+        });
+        run(chunks);
+        return assemble(context, chunks);
+    }
+
+    /**
+     * Each chunk combines its own elements, and the results of the chunks are
+     * combined in order, starting with the initial value, so the block must
+     * be associative.
+     */
+    @TruffleBoundary
+    public Object reduce(LSArray array, Object initial, LSBlock block, Node location) {
+        checkIsolated(block, location);
+        final Chunk[] chunks = split(array, (chunk, element) -> {
+            if (chunk.accumulator == null) {
+                chunk.accumulator = element;
+            } else {
+                chunk.accumulator = call(block, chunk.accumulator, element);
+            }
+        });
+        run(chunks);
+        Object result = initial;
+        for (Chunk chunk : chunks) {
+            if (chunk.accumulator != null) {
+                result = call(block, result, chunk.accumulator);
+            }
+        }
+        return result;
+    }
+
+    private static Object call(LSBlock block, Object... arguments) {
+        final Object[] blockArguments = new Object[arguments.length + 1];
+        blockArguments[0] = block;
+        System.arraycopy(arguments, 0, blockArguments, 1, arguments.length);
+        return block.getCallTarget().call(blockArguments);
+    }
+
+    private interface ElementAction {
+        void apply(Chunk chunk, Object element);
+    }
+
+    private Chunk[] split(LSArray array, ElementAction action) {
+        final int size = array.getSize();
+        final ForkJoinPool forkJoinPool = getPool();
+        final int parallelism = forkJoinPool == null ? 1 : forkJoinPool.getParallelism() * 4;
+        final int count = Math.max(1, Math.min(parallelism, size / MIN_CHUNK_SIZE));
+        final Chunk[] chunks = new Chunk[count];
+        final TruffleContext truffleContext = env.getContext();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Object storage = array.getStorage();
+        for (int i = 0; i < count; i++) {
+            final int start = (int) ((long) size * i / count);
+            final int end = (int) ((long) size * (i + 1) / count);
+            chunks[i] = new Chunk(truffleContext, storage, start, end, action, failure);
+        }
+        return chunks;
+    }
+
+    private void run(Chunk[] chunks) {
+        final ForkJoinPool forkJoinPool = chunks.length > 1 ? getPool() : null;
+        if (forkJoinPool == null) {
+            for (Chunk chunk : chunks) {
+                chunk.compute();
+            }
+        } else {
+            forkJoinPool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(chunks);
+                }
+            });
+        }
+        final RuntimeException failure = chunks[0].failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static LSArray assemble(LSContext context, Chunk[] chunks) {
+        int size = 0;
+        boolean allLong = true;
+        boolean allDouble = true;
+        for (Chunk chunk : chunks) {
+            size += chunk.size;
+            if (chunk.size > 0) {
+                allLong &= chunk.results instanceof long[];
+                allDouble &= chunk.results instanceof double[];
+            }
+        }
+        int offset = 0;
+        if (allLong) {
+            final long[] result = new long[size];
+            for (Chunk chunk : chunks) {
+                if (chunk.size > 0) {
+                    System.arraycopy(chunk.results, 0, result, offset, chunk.size);
+                    offset += chunk.size;
+                }
+            }
+            return context.createArray(result);
+        }
+        if (allDouble) {
+            final double[] result = new double[size];
+            for (Chunk chunk : chunks) {
+                if (chunk.size > 0) {
+                    System.arraycopy(chunk.results, 0, result, offset, chunk.size);
+                    offset += chunk.size;
+                }
+            }
+            return context.createArray(result);
+        }
+        final Object[] result = new Object[size];
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.size; i++) {
+                result[offset++] = chunk.get(i);
+            }
+        }
+        return context.createArray(result);
+    }
+
+    /**
+     * A range of the elements of the array, with its results.
+     */
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient TruffleContext truffleContext;
+        private final transient Object storage;
+        private final int start;
+        private final int end;
+        private final transient ElementAction action;
+        private final AtomicReference<RuntimeException> failure;
+        private transient Object results;
+        private int size;
+        private transient Object accumulator;
+
+        Chunk(TruffleContext truffleContext, Object storage, int start, int end, ElementAction action,
+                        AtomicReference<RuntimeException> failure) {
+            this.truffleContext = truffleContext;
+            this.storage = storage;
+            this.start = start;
+            this.end = end;
+            this.action = action;
+            this.failure = failure;
+            this.results = new long[end - start];
+        }
+
+        @Override
+        protected void compute() {
+            /* The pool threads run no node of the language, there is no location. */
+            final boolean enter = !truffleContext.isEntered();
+            final Object previous = enter ? truffleContext.enter(null) : null;
+            try {
+                for (int i = start; i < end && failure.get() == null; i++) {
+                    action.apply(this, element(i));
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (enter) {
+                    truffleContext.leave(null, previous);
+                }
+            }
+        }
+
+        private Object element(int index) {
+            if (storage instanceof long[]) {
+                return ((long[]) storage)[index];
+            } else if (storage instanceof double[]) {
+                return ((double[]) storage)[index];
+            } else {
+                return ((Object[]) storage)[index];
+            }
+        }
+
+        /**
+         * Adds a result, generalizing the results to an {@code Object[]} when
+         * it does not fit, like {@link LSArray#set}.
+         */
+        void add(Object value) {
+            if (results instanceof long[]) {
+                if (value instanceof Long) {
+                    ((long[]) results)[size++] = (long) value;
+                    return;
+                }
+                if (size == 0 && value instanceof Double) {
+                    results = new double[end - start];
+                }
+            }
+            if (results instanceof double[]) {
+                if (value instanceof Double) {
+                    ((double[]) results)[size++] = (double) value;
+                    return;
+                }
+            }
+            if (!(results instanceof Object[])) {
+                final Object[] generalized = new Object[end - start];
+                for (int i = 0; i < size; i++) {
+                    generalized[i] = get(i);
+                }
+                results = generalized;
+            }
+            ((Object[]) results)[size++] = value;
+        }
+
+        Object get(int index) {
+            if (results instanceof long[]) {
+                return ((long[]) results)[index];
+            } else if (results instanceof double[]) {
+                return ((double[]) results)[index];
+            } else {
+                return ((Object[]) results)[index];
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.guillermomolina.lazyscript.runtime.objects.LSArray;
+import com.guillermomolina.lazyscript.runtime.objects.LSClosure;
+import com.guillermomolina.lazyscript.runtime.objects.LSObject;
+import com.guillermomolina.lazyscript.runtime.objects.LSPropertyCell;
+import com.guillermomolina.lazyscript.runtime.objects.LSSequence;
+import com.guillermomolina.lazyscript.runtime.objects.LSThunk;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.MaterializedFrame;
+import com.oracle.truffle.api.object.DynamicObject;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+
+/**
+ * Tracks the objects that more than one thread can reach. When a block is
+ * {@link LSContext#spawn spawned}, the objects reachable from the block and
+ * from the global object are shared, and from then on every value written
+ * into a shared object is shared by the write. Shared objects use the shared
+ * variant of their shape ({@link DynamicObjectLibrary#markShared}), that
+ * never reuses the storage location of a property, and their writes are
+ * synchronized on the object, so concurrent writes can not lose properties.
+ * Objects that only one thread can reach keep the unsynchronized paths.
+ * <p>
+ * The local variables captured by a spawned block are shared as they are,
+ * without synchronization, like the fields of a Java object.
+ */
+public final class LSSharedObjects {
+    private LSSharedObjects() {
+    }
+
+    public static boolean isShared(DynamicObject object) {
+        return object.getShape().isShared();
+    }
+
+    /**
+     * Shares the value and all the values reachable from it.
+     */
+    @TruffleBoundary
+    public static void share(Object value) {
+        final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+        final Set<MaterializedFrame> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Object> pending = new ArrayDeque<>();
+        push(pending, value);
+        while (!pending.isEmpty()) {
+            final Object current = pending.pop();
+            if (current instanceof LSPropertyCell) {
+                push(pending, ((LSPropertyCell) current).getValue());
+            } else if (current instanceof LSThunk) {
+                final LSThunk thunk = (LSThunk) current;
+                thunk.markShared();
+                push(pending, thunk.getValue());
+                pushFrame(pending, frames, thunk.getEnclosingFrame());
+            } else if (current instanceof LSObject) {
+                final LSObject object = (LSObject) current;
+                if (objectLibrary.isShared(object)) {
+                    // everything reachable from a shared object is already shared
+                    continue;
+                }
+                objectLibrary.markShared(object);
+                for (Object key : objectLibrary.getKeyArray(object)) {
+                    push(pending, objectLibrary.getOrDefault(object, key, null));
+                }
+                if (object instanceof LSArray) {
+                    final LSArray array = (LSArray) object;
+                    for (int i = 0; i < array.getSize(); i++) {
+                        push(pending, array.get(i));
+                    }
+                } else if (object instanceof LSSequence) {
+                    final LSSequence sequence = (LSSequence) object;
+                    push(pending, sequence.getArray());
+                    for (LSSequence.Stage stage : sequence.getStages()) {
+                        push(pending, stage.getBlock());
+                    }
+                }
+                if (object instanceof LSClosure) {
+                    pushFrame(pending, frames, ((LSClosure) object).getEnclosingFrame());
+                }
+            }
+        }
+    }
+
+    private static void push(Deque<Object> pending, Object value) {
+        if (value instanceof DynamicObject || value instanceof LSPropertyCell || value instanceof LSThunk) {
+            pending.push(value);
+        }
+    }
+
+    private static void pushFrame(Deque<Object> pending, Set<MaterializedFrame> frames, MaterializedFrame frame) {
+        if (frame == null || !frames.add(frame)) {
+            return;
+        }
+        for (Object argument : frame.getArguments()) {
+            push(pending, argument);
+        }
+        for (FrameSlot slot : frame.getFrameDescriptor().getSlots()) {
+            push(pending, frame.getValue(slot));
+        }
+    }
+
+    /**
+     * Writes a property of a shared object, the value is shared too.
+     */
+    @TruffleBoundary
+    public static void put(DynamicObject object, Object key, Object value) {
+        share(value);
+        synchronized (object) {
+            DynamicObjectLibrary.getUncached().put(object, key, value);
+        }
+    }
+
+    /**
+     * Removes a property of a shared object.
+     */
+    @TruffleBoundary
+    public static boolean removeKey(DynamicObject object, Object key) {
+        synchronized (object) {
+            return DynamicObjectLibrary.getUncached().removeKey(object, key);
+        }
+    }
+}
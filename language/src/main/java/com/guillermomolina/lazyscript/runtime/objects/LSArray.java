@@ -40,8 +40,10 @@
  */
 package com.guillermomolina.lazyscript.runtime.objects;
 
+import java.util.Arrays;
 import java.util.List;
 
+import com.guillermomolina.lazyscript.runtime.LSSharedObjects;
 import com.guillermomolina.lazyscript.runtime.interop.LSMetaType;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -49,16 +51,41 @@ import com.oracle.truffle.api.interop.InvalidArrayIndexException;
 import com.oracle.truffle.api.library.ExportLibrary;
 import com.oracle.truffle.api.library.ExportMessage;
 
+/**
+ * A fixed size LazyScript array. The elements are kept in one of three storage
+ * strategies: a {@code long[]} when all elements are integers that fit in a
+ * long, a {@code double[]} when all elements are decimals, and an
+ * {@code Object[]} otherwise. Writing an element that does not fit the current
+ * strategy generalizes the storage to {@code Object[]}; the storage is never
+ * specialized again.
+ * <p>
+ * Nodes that want to avoid boxing, like the
+ * {@link com.guillermomolina.lazyscript.nodes.controlflow.LSForEachNextNode for-each
+ * loop}, can specialize on the class of {@link #getStorage()}.
+ * <p>
+ * The reads and writes of an array that other threads can reach (see
+ * {@link LSSharedObjects}) are synchronized on the array, so the readers never
+ * see a partially generalized storage. The arrays of one thread are read and
+ * written without synchronization.
+ */
 @ExportLibrary(InteropLibrary.class)
 public class LSArray extends LSObject {
-    private Object[] array;
+    private Object storage;
 
     public LSArray(int size) {
-        this.array = new Object[size];
+        this.storage = new Object[size];
     }
 
     public LSArray(Object[] array) {
-        this.array = array;
+        this.storage = createStorage(array);
+    }
+
+    public LSArray(long[] array) {
+        this.storage = array;
+    }
+
+    public LSArray(double[] array) {
+        this.storage = array;
     }
 
     public static LSArray create(Object[] array) {
@@ -70,6 +97,156 @@ public class LSArray extends LSObject {
         return new LSArray(list.toArray(new Object[0]));
     }
 
+    /**
+     * Selects the most specific storage strategy able to hold all the values.
+     */
+    private static Object createStorage(Object[] values) {
+        if (values.length == 0) {
+            return values;
+        }
+        boolean allLong = true;
+        boolean allDouble = true;
+        for (Object value : values) {
+            allLong &= value instanceof Long;
+            allDouble &= value instanceof Double;
+        }
+        if (allLong) {
+            long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = (long) values[i];
+            }
+            return result;
+        }
+        if (allDouble) {
+            double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = (double) values[i];
+            }
+            return result;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the backing store, either a {@code long[]}, a {@code double[]} or an
+     * {@code Object[]}. The storage is replaced when the array is generalized, so
+     * callers must not cache it across writes.
+     */
+    public Object getStorage() {
+        if (LSSharedObjects.isShared(this)) {
+            return getSharedStorage();
+        }
+        return storage;
+    }
+
+    @TruffleBoundary
+    private synchronized Object getSharedStorage() {
+        return storage;
+    }
+
+    public int getSize() {
+        final Object store = getStorage();
+        if (store instanceof long[]) {
+            return ((long[]) store).length;
+        } else if (store instanceof double[]) {
+            return ((double[]) store).length;
+        } else {
+            return ((Object[]) store).length;
+        }
+    }
+
+    public Object get(int index) {
+        if (LSSharedObjects.isShared(this)) {
+            return getShared(index);
+        }
+        return getUnshared(index);
+    }
+
+    @TruffleBoundary
+    private synchronized Object getShared(int index) {
+        return getUnshared(index);
+    }
+
+    private Object getUnshared(int index) {
+        final Object store = storage;
+        if (store instanceof long[]) {
+            return ((long[]) store)[index];
+        } else if (store instanceof double[]) {
+            return ((double[]) store)[index];
+        } else {
+            return ((Object[]) store)[index];
+        }
+    }
+
+    public void set(int index, Object value) {
+        if (LSSharedObjects.isShared(this)) {
+            setShared(index, value);
+            return;
+        }
+        setUnshared(index, value);
+    }
+
+    @TruffleBoundary
+    private void setShared(int index, Object value) {
+        LSSharedObjects.share(value);
+        synchronized (this) {
+            setUnshared(index, value);
+        }
+    }
+
+    private void setUnshared(int index, Object value) {
+        final Object store = storage;
+        if (store instanceof long[]) {
+            if (value instanceof Long) {
+                ((long[]) store)[index] = (long) value;
+                return;
+            }
+        } else if (store instanceof double[]) {
+            if (value instanceof Double) {
+                ((double[]) store)[index] = (double) value;
+                return;
+            }
+        } else {
+            ((Object[]) store)[index] = value;
+            return;
+        }
+        generalize()[index] = value;
+    }
+
+    @TruffleBoundary
+    private Object[] generalize() {
+        final Object store = storage;
+        final Object[] result;
+        if (store instanceof long[]) {
+            long[] longs = (long[]) store;
+            result = new Object[longs.length];
+            for (int i = 0; i < longs.length; i++) {
+                result[i] = longs[i];
+            }
+        } else if (store instanceof double[]) {
+            double[] doubles = (double[]) store;
+            result = new Object[doubles.length];
+            for (int i = 0; i < doubles.length; i++) {
+                result[i] = doubles[i];
+            }
+        } else {
+            result = Arrays.copyOf((Object[]) store, ((Object[]) store).length);
+        }
+        storage = result;
+        return result;
+    }
+
+    /**
+     * Gives the storage away, so that another context can use it without
+     * copying it, see {@link com.guillermomolina.lazyscript.runtime.LSMessages}.
+     * The array is left empty.
+     */
+    public synchronized Object transferStorage() {
+        final Object store = storage;
+        storage = new long[0];
+        return store;
+    }
+
     @ExportMessage
     @TruffleBoundary
     Object toDisplayString(boolean allowSideEffects) {
@@ -86,17 +263,17 @@ public class LSArray extends LSObject {
         if (!isArrayElementReadable(index)) {
             throw InvalidArrayIndexException.create(index);
         }
-        return array[(int) index];
+        return get((int) index);
     }
 
     @ExportMessage
     boolean isArrayElementReadable(long index) {
-        return index >= 0 && index < array.length;
+        return index >= 0 && index < getSize();
     }
 
     @ExportMessage
     boolean isArrayElementModifiable(long index) {
-        return index >= 0 && index < array.length;
+        return index >= 0 && index < getSize();
     }
 
     @ExportMessage
@@ -106,7 +283,7 @@ public class LSArray extends LSObject {
 
     @ExportMessage
     long getArraySize() {
-        return array.length;
+        return getSize();
     }
 
     @ExportMessage
@@ -114,7 +291,7 @@ public class LSArray extends LSObject {
         if (!isArrayElementReadable(index)) {
             throw InvalidArrayIndexException.create(index);
         }
-        array[(int) index] = value;
+        set((int) index, value);
     }
 
     @ExportMessage
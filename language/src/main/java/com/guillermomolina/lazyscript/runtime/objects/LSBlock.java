@@ -40,15 +40,30 @@
  */
 package com.guillermomolina.lazyscript.runtime.objects;
 
+import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.library.ExportLibrary;
 import com.oracle.truffle.api.library.ExportMessage;
 
 @ExportLibrary(InteropLibrary.class)
-public final class LSBlock extends LSObject {
+public final class LSBlock extends LSObject implements LSClosure {
+    private final LSFunction function;
     private MaterializedFrame enclosingFrame;
 
+    public LSBlock(LSFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * Returns the call target of the function the block was created with, so
+     * that nodes calling blocks can cache it without a property lookup.
+     */
+    public RootCallTarget getCallTarget() {
+        return function.getCallTarget();
+    }
+
+    @Override
     public MaterializedFrame getEnclosingFrame() {
         return enclosingFrame;
     }
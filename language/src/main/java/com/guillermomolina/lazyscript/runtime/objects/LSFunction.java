@@ -43,6 +43,7 @@ package com.guillermomolina.lazyscript.runtime.objects;
 import java.util.logging.Level;
 
 import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.runtime.LSContext;
 import com.guillermomolina.lazyscript.runtime.interop.LSMetaType;
 import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CallTarget;
@@ -71,8 +72,11 @@ public final class LSFunction extends LSObject {
     /** The name of the function. */
     private final String name;
 
-    /** The current implementation of this function. */
-    private final RootCallTarget callTarget;
+    /**
+     * The current implementation of this function. Volatile, because another
+     * thread may replace it while the script is reloaded.
+     */
+    private volatile RootCallTarget callTarget;
     
     /**
      * Manages the assumption that the {@link #callTarget} is stable. We use the utility class
@@ -96,6 +100,19 @@ public final class LSFunction extends LSObject {
         return callTarget;
     }
 
+    /**
+     * Replaces the implementation of this function, when a new version of the
+     * script that defines it is parsed (see {@link LSContext#defineFunction}).
+     * The call sites that cached the old call target are notified through the
+     * {@link #callTargetStable} assumption.
+     */
+    public void setCallTarget(RootCallTarget callTarget) {
+        this.callTarget = callTarget;
+        LOG.log(Level.FINE, "Installed call target for: {0}", getName());
+        /* We have a new call target. Invalidate all code that speculated that the old call target was stable. */
+        callTargetStable.invalidate();
+    }
+
     public Assumption getCallTargetStable() {
         return callTargetStable.getAssumption();
     }
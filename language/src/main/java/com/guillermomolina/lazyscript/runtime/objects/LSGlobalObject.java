@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import com.guillermomolina.lazyscript.runtime.LSSharedObjects;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+
+/**
+ * The global object of a context, the {@code this} of the scripts. Its
+ * properties are stored in {@link LSPropertyCell cells}, one per name, so the
+ * reads of the globals can be cached by the
+ * {@link com.guillermomolina.lazyscript.nodes.property.LSReadGlobalNode} and
+ * folded to constants in compiled code. The writes go through the cells, and
+ * only invalidate the code that depends on the redefined global.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSGlobalObject extends LSObject {
+
+    public LSGlobalObject(Object prototype) {
+        super(prototype);
+    }
+
+    /**
+     * Returns the cell of a property of the global object, or {@code null} if
+     * the global object does not have the property.
+     */
+    @TruffleBoundary
+    public LSPropertyCell getCell(String name) {
+        Object cell = DynamicObjectLibrary.getUncached().getOrDefault(this, name, null);
+        return cell instanceof LSPropertyCell ? (LSPropertyCell) cell : null;
+    }
+
+    /**
+     * Defines or redefines a global.
+     */
+    @TruffleBoundary
+    public void putGlobal(String name, Object value) {
+        writeMember(name, value, DynamicObjectLibrary.getUncached());
+    }
+
+    @Override
+    @TruffleBoundary
+    public Object getFunction(String name, DynamicObjectLibrary objectLibrary) throws UnknownIdentifierException {
+        LSPropertyCell cell = getCell(name);
+        if (cell != null && cell.getValue() instanceof LSFunction) {
+            return cell.getValue();
+        }
+        return super.getFunction(name, objectLibrary);
+    }
+
+    @Override
+    @ExportMessage
+    Object readMember(String name, @CachedLibrary("this") DynamicObjectLibrary objectLibrary,
+            @Cached LookupPrototypeMemberNode lookupPrototype) throws UnknownIdentifierException {
+        Object cell = objectLibrary.getOrDefault(this, name, null);
+        if (cell instanceof LSPropertyCell) {
+            return ((LSPropertyCell) cell).getValue();
+        }
+        return super.readMember(name, objectLibrary, lookupPrototype);
+    }
+
+    @Override
+    @ExportMessage
+    void writeMember(String name, Object value, @CachedLibrary("this") DynamicObjectLibrary objectLibrary) {
+        if (objectLibrary.isShared(this)) {
+            writeShared(name, value);
+            return;
+        }
+        Object cell = objectLibrary.getOrDefault(this, name, null);
+        if (cell instanceof LSPropertyCell) {
+            ((LSPropertyCell) cell).setValue(value);
+        } else {
+            objectLibrary.put(this, name, new LSPropertyCell(name, value));
+        }
+    }
+
+    /**
+     * Two threads that define the same global at the same time must end up
+     * with one cell, see {@link LSSharedObjects}.
+     */
+    @TruffleBoundary
+    private void writeShared(String name, Object value) {
+        LSSharedObjects.share(value);
+        synchronized (this) {
+            final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+            Object cell = objectLibrary.getOrDefault(this, name, null);
+            if (cell instanceof LSPropertyCell) {
+                ((LSPropertyCell) cell).setValue(value);
+            } else {
+                objectLibrary.put(this, name, new LSPropertyCell(name, value));
+            }
+        }
+    }
+
+    @Override
+    @ExportMessage
+    void removeMember(String member, @CachedLibrary("this") DynamicObjectLibrary objectLibrary)
+            throws UnknownIdentifierException {
+        Object cell = objectLibrary.getOrDefault(this, member, null);
+        super.removeMember(member, objectLibrary);
+        if (cell instanceof LSPropertyCell) {
+            ((LSPropertyCell) cell).detach();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import com.guillermomolina.lazyscript.runtime.LSJsonParser;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * The JSON records of the standard input or of a file, created by the
+ * {@code JSON.records()} and {@code JSON.fileRecords(path)} builtins. The
+ * records are values separated by whitespace, as in JSON Lines, and they are
+ * parsed on demand, one by one with {@link #next}, so the input is streamed
+ * and never held in memory. The end of the input is signaled with
+ * {@code null}.
+ * <p>
+ * The reader of a file is closed at the end of the file, or by
+ * {@link #close}. The standard input is never closed, and it is read line by
+ * line, so {@code readln} can still read the lines after a record.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSJsonReader extends LSObject {
+
+    private final LSJsonParser parser;
+    private final boolean closeable;
+    private boolean done;
+
+    public LSJsonReader(LSJsonParser parser, boolean closeable) {
+        this.parser = parser;
+        this.closeable = closeable;
+    }
+
+    /**
+     * Returns the next record, {@code null} at the end of the input.
+     */
+    @TruffleBoundary
+    public synchronized Object next(Node location) {
+        if (done) {
+            return null;
+        }
+        final Object record = parser.next(location);
+        if (record == null) {
+            finish(location);
+        }
+        return record;
+    }
+
+    private void finish(Node location) {
+        done = true;
+        if (closeable) {
+            parser.close(location);
+        }
+    }
+
+    /**
+     * Stops reading, the next records are {@code null}.
+     */
+    @TruffleBoundary
+    public synchronized void close(Node location) {
+        if (!done) {
+            finish(location);
+        }
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return "aJsonReader";
+    }
+}
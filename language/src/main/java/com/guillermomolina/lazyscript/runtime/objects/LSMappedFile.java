@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A file mapped in memory, created by the {@code mapFile(path)} builtin. The
+ * contents are read in place, with bounds-checked reads of big-endian numbers
+ * and of lines at a byte offset, and are never copied to the heap as a whole.
+ * Through interop, the file is a read-only array of its bytes.
+ * <p>
+ * A buffer can map at most 2GB, so larger files are mapped in segments. The
+ * segments overlap by the size of the widest read, so every read of a number
+ * falls in the segment of its offset.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSMappedFile extends LSObject {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int OVERLAP = Long.BYTES - 1;
+
+    private final String path;
+    private final long size;
+    /** The mapped segments, {@code null} once the file is closed. */
+    private volatile MappedByteBuffer[] segments;
+
+    private LSMappedFile(String path, long size, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.size = size;
+        this.segments = segments;
+    }
+
+    /**
+     * Maps the whole file that the channel reads. The mapping stays valid
+     * after the channel is closed.
+     */
+    @TruffleBoundary
+    public static LSMappedFile map(String path, FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_SIZE + OVERLAP));
+        }
+        return new LSMappedFile(path, size, segments);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Checks that the file is open and that a read of {@code width} bytes at
+     * the offset is within the file.
+     */
+    private MappedByteBuffer[] check(long offset, int width, Node location) {
+        final MappedByteBuffer[] current = segments;
+        if (current == null) {
+            throw new LSException("The file " + path + " is closed", location);
+        }
+        if (offset < 0 || offset > size - width) {
+            throw new LSException("Offset " + offset + " is out of bounds for a file of " + size + " bytes", location);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the segment where a read of {@code width} bytes at the offset
+     * starts.
+     */
+    private MappedByteBuffer segment(long offset, int width, Node location) {
+        return check(offset, width, location)[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    private static int index(long offset) {
+        return (int) (offset % SEGMENT_SIZE);
+    }
+
+    @TruffleBoundary
+    public byte readByte(long offset, Node location) {
+        return segment(offset, Byte.BYTES, location).get(index(offset));
+    }
+
+    @TruffleBoundary
+    public int readInt(long offset, Node location) {
+        return segment(offset, Integer.BYTES, location).getInt(index(offset));
+    }
+
+    @TruffleBoundary
+    public long readLong(long offset, Node location) {
+        return segment(offset, Long.BYTES, location).getLong(index(offset));
+    }
+
+    @TruffleBoundary
+    public double readDouble(long offset, Node location) {
+        return segment(offset, Double.BYTES, location).getDouble(index(offset));
+    }
+
+    /**
+     * Returns the offset of the end of the line that starts at the offset,
+     * either the offset of its line feed or the size of the file.
+     */
+    private long lineEnd(long offset, Node location) {
+        long end = offset;
+        while (end < size && readByte(end, location) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the line, decoded as UTF-8, that starts at the offset, without
+     * the line terminator, or {@code null} at the end of the file.
+     */
+    @TruffleBoundary
+    public String readLine(long offset, Node location) {
+        check(offset, 0, location);
+        if (offset == size) {
+            return null;
+        }
+        long end = lineEnd(offset, location);
+        if (end > offset && readByte(end - 1, location) == '\r') {
+            end--;
+        }
+        final byte[] bytes = new byte[(int) Math.min(end - offset, Integer.MAX_VALUE - 8)];
+        long position = offset;
+        int copied = 0;
+        while (copied < bytes.length) {
+            final ByteBuffer source = segment(position, 1, location).duplicate();
+            source.position(index(position));
+            final int count = (int) Math.min(bytes.length - copied, SEGMENT_SIZE - index(position));
+            source.get(bytes, copied, count);
+            copied += count;
+            position += count;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the offset of the line that follows the line that starts at the
+     * offset, the size of the file after the last line.
+     */
+    @TruffleBoundary
+    public long nextLineOffset(long offset, Node location) {
+        check(offset, 0, location);
+        return Math.min(lineEnd(offset, location) + 1, size);
+    }
+
+    /**
+     * Releases the mapping, the next reads fail. The memory is unmapped once
+     * the buffers are collected.
+     */
+    public void close() {
+        segments = null;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return "aMappedFile";
+    }
+
+    @ExportMessage
+    boolean hasArrayElements() {
+        return true;
+    }
+
+    @ExportMessage
+    Object readArrayElement(long index) throws InvalidArrayIndexException {
+        if (!isArrayElementReadable(index)) {
+            throw InvalidArrayIndexException.create(index);
+        }
+        return (long) readByte(index, null);
+    }
+
+    @ExportMessage
+    boolean isArrayElementReadable(long index) {
+        return index >= 0 && index < size;
+    }
+
+    @ExportMessage
+    long getArraySize() {
+        return size;
+    }
+}
@@ -48,10 +48,13 @@ import java.util.List;
 import com.guillermomolina.lazyscript.LSLanguage;
 import com.guillermomolina.lazyscript.runtime.LSContext;
 import com.guillermomolina.lazyscript.runtime.LSObjectUtil;
+import com.guillermomolina.lazyscript.runtime.LSSharedObjects;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.CachedLanguage;
 import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GenerateUncached;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.InvalidArrayIndexException;
@@ -60,6 +63,7 @@ import com.oracle.truffle.api.interop.UnknownIdentifierException;
 import com.oracle.truffle.api.library.CachedLibrary;
 import com.oracle.truffle.api.library.ExportLibrary;
 import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.object.DynamicObject;
 import com.oracle.truffle.api.object.DynamicObjectLibrary;
 import com.oracle.truffle.api.object.Shape;
@@ -121,6 +125,17 @@ public class LSObject extends DynamicObject {
     @TruffleBoundary
     public Object getFunction(String name, @CachedLibrary("this") DynamicObjectLibrary objectLibrary)
             throws UnknownIdentifierException {
+        Object result = lookupFunction(name, objectLibrary);
+        if (result == null && installBuiltins()) {
+            result = lookupFunction(name, objectLibrary);
+        }
+        if (result == null) {
+            throw UnknownIdentifierException.create(name);
+        }
+        return result;
+    }
+
+    private Object lookupFunction(String name, DynamicObjectLibrary objectLibrary) {
         LSObject object = this;
         while (object != null) {
             Object result = objectLibrary.getOrDefault(object, name, null);
@@ -129,7 +144,22 @@ public class LSObject extends DynamicObject {
             }
             object = (LSObject) object.getPrototype();
         }
-        throw UnknownIdentifierException.create(name);
+        return null;
+    }
+
+    /**
+     * The builtins of a context are installed by the first lookup that fails,
+     * see {@link LSContext#installPendingBuiltins()}.
+     *
+     * @return {@code true} if the lookup has to be retried
+     */
+    @TruffleBoundary
+    private static boolean installBuiltins() {
+        return LSLanguage.getCurrentContext().installPendingBuiltins();
+    }
+
+    static boolean hasPendingBuiltins() {
+        return LSLanguage.getCurrentContext().hasPendingBuiltins();
     }
 
     /**
@@ -206,16 +236,59 @@ public class LSObject extends DynamicObject {
     @ExportMessage
     void removeMember(String member, @CachedLibrary("this") DynamicObjectLibrary objectLibrary)
             throws UnknownIdentifierException {
-        if (objectLibrary.containsKey(this, member)) {
+        if (objectLibrary.isShared(this)) {
+            if (!LSSharedObjects.removeKey(this, member)) {
+                throw UnknownIdentifierException.create(member);
+            }
+        } else if (objectLibrary.containsKey(this, member)) {
             objectLibrary.removeKey(this, member);
         } else {
             throw UnknownIdentifierException.create(member);
         }
     }
 
+    /**
+     * The member names only depend on the shape of the object, so the
+     * {@link Keys} are cached per shape instead of being copied on every call.
+     * The pending builtins are installed first, so that the prototypes list
+     * them, see {@link LSContext#installPendingBuiltins()}.
+     */
     @ExportMessage
-    Object getMembers(boolean includeInternal, @CachedLibrary("this") DynamicObjectLibrary objectLibrary) {
-        return new Keys(objectLibrary.getKeyArray(this));
+    static final class GetMembers {
+
+        @Specialization(guards = "hasPendingBuiltins()")
+        static Object doPending(LSObject receiver, boolean includeInternal) {
+            installBuiltins();
+            return createKeys(receiver.getShape());
+        }
+
+        @Specialization(guards = "receiver.getShape() == cachedShape", limit = "CACHE_LIMIT", assumptions = "cachedShape.getValidAssumption()")
+        static Object doCached(LSObject receiver, boolean includeInternal,
+                        @Cached("receiver.getShape()") Shape cachedShape,
+                        @Cached("createKeys(cachedShape)") Keys cachedKeys) {
+            return cachedKeys;
+        }
+
+        @Specialization(replaces = "doCached")
+        static Object doUncached(LSObject receiver, boolean includeInternal) {
+            return createKeys(receiver.getShape());
+        }
+
+        @TruffleBoundary
+        static Keys createKeys(Shape shape) {
+            return new Keys(shape.getKeyList().toArray());
+        }
+    }
+
+    /**
+     * Returns the names of the properties defined by the shape, in insertion
+     * order, without the internal {@link #PROTOTYPE} property.
+     */
+    @TruffleBoundary
+    public static Object[] getPropertyNames(Shape shape) {
+        List<Object> keys = new ArrayList<>(shape.getKeyList());
+        keys.remove(PROTOTYPE);
+        return keys.toArray();
     }
 
     @ExportMessage(name = "isMemberReadable")
@@ -279,26 +352,99 @@ public class LSObject extends DynamicObject {
     }
 
     @ExportMessage
-    Object readMember(String name, @CachedLibrary("this") DynamicObjectLibrary objectLibrary)
-            throws UnknownIdentifierException {
-        LSObject object = this;
-        while (object != null) {
-            Object result = objectLibrary.getOrDefault(object, name, null);
+    Object readMember(String name, @CachedLibrary("this") DynamicObjectLibrary objectLibrary,
+            @Cached LookupPrototypeMemberNode lookupPrototype) throws UnknownIdentifierException {
+        Object result = lookupMember(name, objectLibrary, lookupPrototype);
+        if (result == null && installBuiltins()) {
+            result = lookupMember(name, objectLibrary, lookupPrototype);
+        }
+        if (result == null) {
+            throw UnknownIdentifierException.create(name);
+        }
+        return result;
+    }
+
+    private Object lookupMember(String name, DynamicObjectLibrary objectLibrary,
+            LookupPrototypeMemberNode lookupPrototype) {
+        Object result = objectLibrary.getOrDefault(this, name, null);
+        if (result != null) {
+            return result;
+        }
+        return lookupPrototype.execute(asPrototype(objectLibrary.getOrDefault(this, PROTOTYPE, null)), name);
+    }
+
+    static Object asPrototype(Object prototype) {
+        return prototype == LSNull.INSTANCE ? null : prototype;
+    }
+
+    /**
+     * Looks a member up in a prototype and the prototypes above it. The
+     * library of a member read is cached for the receiver, and the prototypes
+     * have other shapes, so each prototype is read with a library cached for
+     * its own shape, and the next prototype by the node of the next level.
+     */
+    @GenerateUncached
+    abstract static class LookupPrototypeMemberNode extends Node {
+
+        static final int CACHE_LIMIT = 3;
+
+        abstract Object execute(Object prototype, String name);
+
+        @Specialization(guards = "prototype == null")
+        static Object doNone(Object prototype, String name) {
+            return null;
+        }
+
+        @Specialization(guards = {"prototype.getShape() == cachedShape", "cachedName.equals(name)"}, limit = "CACHE_LIMIT", //
+                        assumptions = "cachedShape.getValidAssumption()")
+        static Object doCached(LSObject prototype, String name,
+                        @Cached("prototype.getShape()") Shape cachedShape,
+                        @Cached("name") String cachedName,
+                        @CachedLibrary("prototype") DynamicObjectLibrary objectLibrary,
+                        @Cached LookupPrototypeMemberNode lookupParent) {
+            Object result = objectLibrary.getOrDefault(prototype, cachedName, null);
             if (result != null) {
                 return result;
             }
-            object = (LSObject) object.getPrototype();
+            return lookupParent.execute(asPrototype(objectLibrary.getOrDefault(prototype, PROTOTYPE, null)), cachedName);
+        }
+
+        @Specialization(replaces = "doCached")
+        @TruffleBoundary
+        static Object doUncached(LSObject prototype, String name) {
+            final DynamicObjectLibrary objectLibrary = DynamicObjectLibrary.getUncached();
+            Object object = prototype;
+            while (object instanceof LSObject) {
+                Object result = objectLibrary.getOrDefault((LSObject) object, name, null);
+                if (result != null) {
+                    return result;
+                }
+                object = ((LSObject) object).getPrototype();
+            }
+            return null;
+        }
+
+        static LookupPrototypeMemberNode create() {
+            return LSObjectFactory.LookupPrototypeMemberNodeGen.create();
+        }
+
+        static LookupPrototypeMemberNode getUncached() {
+            return LSObjectFactory.LookupPrototypeMemberNodeGen.getUncached();
         }
-        throw UnknownIdentifierException.create(name);
     }
 
     /**
      * {@link DynamicObjectLibrary} provides the polymorphic inline cache for
-     * writing properties.
+     * writing properties. The writes of objects reachable by other threads are
+     * synchronized, see {@link LSSharedObjects}.
      */
     @ExportMessage
     void writeMember(String name, Object value, @CachedLibrary("this") DynamicObjectLibrary objectLibrary) {
-        objectLibrary.put(this, name, value);
+        if (objectLibrary.isShared(this)) {
+            LSSharedObjects.put(this, name, value);
+        } else {
+            objectLibrary.put(this, name, value);
+        }
     }
 
     @ExportMessage
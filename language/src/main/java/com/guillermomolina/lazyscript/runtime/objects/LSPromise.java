@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.runtime.LSEventLoop;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * The eventual result of an asynchronous operation. A promise is fulfilled
+ * with a value or rejected with an error, once. The blocks given to
+ * {@link #then} run as tasks of the {@link LSEventLoop event loop} after the
+ * promise is settled, and {@link #await} runs the loop until it is.
+ * <p>
+ * Resolving a promise with another promise settles it as the other one. A
+ * rejection that is never handled, by a reaction or an await, is thrown when
+ * the event loop has no more tasks.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSPromise extends LSObject {
+
+    private enum State {
+        PENDING,
+        FULFILLED,
+        REJECTED
+    }
+
+    private final LSEventLoop eventLoop;
+    private State state = State.PENDING;
+    /** The value, or the {@link AbstractTruffleException error} if rejected. */
+    private Object value;
+    private List<Runnable> reactions = new ArrayList<>();
+
+    public LSPromise(LSEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    public boolean isPending() {
+        return state == State.PENDING;
+    }
+
+    @TruffleBoundary
+    public void resolve(Object result) {
+        if (result instanceof LSPromise) {
+            final LSPromise other = (LSPromise) result;
+            other.whenSettled(() -> settle(other.state, other.value));
+        } else {
+            settle(State.FULFILLED, result);
+        }
+    }
+
+    @TruffleBoundary
+    public void reject(AbstractTruffleException error) {
+        settle(State.REJECTED, error);
+    }
+
+    private void settle(State newState, Object newValue) {
+        if (state != State.PENDING) {
+            return;
+        }
+        state = newState;
+        value = newValue;
+        if (newState == State.REJECTED && reactions.isEmpty()) {
+            eventLoop.rejectedWithoutHandler(this);
+        }
+        for (Runnable reaction : reactions) {
+            eventLoop.schedule(reaction);
+        }
+        reactions = null;
+    }
+
+    private void whenSettled(Runnable reaction) {
+        if (state == State.PENDING) {
+            reactions.add(reaction);
+        } else {
+            eventLoop.handled(this);
+            eventLoop.schedule(reaction);
+        }
+    }
+
+    /**
+     * Runs the block with the value of this promise, or with the thrown value
+     * if this promise is rejected and the block handles errors, and settles
+     * the derived promise with the result of the block. A block that is
+     * {@code null} passes the value or the error on to the derived promise.
+     */
+    @TruffleBoundary
+    public LSPromise then(LSBlock onFulfilled, LSBlock onRejected, LSPromise derived) {
+        whenSettled(() -> {
+            final boolean fulfilled = state == State.FULFILLED;
+            final LSBlock handler = fulfilled ? onFulfilled : onRejected;
+            if (handler == null) {
+                derived.settle(state, value);
+                return;
+            }
+            final Object argument = fulfilled ? value : getExceptionValue((AbstractTruffleException) value);
+            try {
+                derived.resolve(IndirectCallNode.getUncached().call(handler.getCallTarget(), handler, argument));
+            } catch (AbstractTruffleException e) {
+                derived.reject(e);
+            }
+        });
+        return derived;
+    }
+
+    private static Object getExceptionValue(AbstractTruffleException error) {
+        if (error instanceof LSException) {
+            return ((LSException) error).getExceptionValue();
+        }
+        return error;
+    }
+
+    /**
+     * Runs the event loop until this promise is settled, and returns its value
+     * or throws its error.
+     */
+    @TruffleBoundary
+    public Object await(Node location) {
+        eventLoop.runUntil(this, location);
+        if (state == State.REJECTED) {
+            eventLoop.handled(this);
+            throw (AbstractTruffleException) value;
+        }
+        return value;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return "aPromise";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
+
+/**
+ * The cell that holds the value of a property of the {@link LSGlobalObject}.
+ * The cell of a name stays the same while the property exists, so the nodes
+ * that read a global can cache the cell instead of looking the name up.
+ *
+ * Globals are mostly functions and constants that are defined once, so the
+ * nodes also speculate that the value does not change, with the
+ * {@link #getConstantAssumption() constant assumption}, and read it as a
+ * constant in compiled code. The first redefinition invalidates the
+ * assumption for good: a global that changed once is likely to change again,
+ * and is read from the cell from then on.
+ */
+public final class LSPropertyCell {
+
+    private final String name;
+    private volatile Object value;
+    private final Assumption constant;
+    private final Assumption attached;
+
+    LSPropertyCell(String name, Object value) {
+        this.name = name;
+        this.value = value;
+        this.constant = Truffle.getRuntime().createAssumption("Global " + name + " not redefined");
+        this.attached = Truffle.getRuntime().createAssumption("Global " + name + " not removed");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Writing a value that is the same as the current one, or an equal
+     * primitive, keeps the cell constant. After the first real change the
+     * cell is mutable, and the value is just written.
+     */
+    void setValue(Object newValue) {
+        if (constant.isValid()) {
+            if (isSameValue(value, newValue)) {
+                return;
+            }
+            invalidate(constant);
+        }
+        value = newValue;
+    }
+
+    /**
+     * Primitives are boxed again by every write, so they are compared by
+     * value. {@link Double#equals} compares the bits, as the compiled code
+     * that folded the constant would.
+     */
+    private static boolean isSameValue(Object value, Object newValue) {
+        if (value == newValue) {
+            return true;
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof Boolean) {
+            return value.equals(newValue);
+        }
+        return false;
+    }
+
+    /**
+     * Called when the property is removed, a new definition of the name gets a
+     * new cell.
+     */
+    void detach() {
+        invalidate(constant);
+        invalidate(attached);
+    }
+
+    @TruffleBoundary
+    private static void invalidate(Assumption assumption) {
+        assumption.invalidate();
+    }
+
+    /**
+     * Valid while the value of the cell was never redefined.
+     */
+    public Assumption getConstantAssumption() {
+        return constant;
+    }
+
+    /**
+     * Valid while the cell holds the value of the property.
+     */
+    public Assumption getAttachedAssumption() {
+        return attached;
+    }
+}
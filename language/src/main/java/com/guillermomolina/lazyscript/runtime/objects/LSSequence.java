@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import java.util.Arrays;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+
+/**
+ * A lazy sequence, created by {@code range(start, end)}, {@code array.sequence()}
+ * or {@code lines.sequence()}. A sequence does not hold any element: it
+ * describes a source (a half-open range of integers, an array or the lines of a
+ * {@link LSLineReader line reader}) followed by a pipeline
+ * of {@link Stage stages} added by {@code map}, {@code filter} and
+ * {@code take}. Adding a stage creates a new sequence and does not evaluate
+ * anything, the elements are only produced by a terminal operation
+ * ({@code reduce} or {@code toArray}), that runs the whole pipeline in a single
+ * loop, see {@link com.guillermomolina.lazyscript.nodes.controlflow.LSSequenceLoopNode}.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSSequence extends LSObject {
+
+    public static final int MAP = 0;
+    public static final int FILTER = 1;
+    public static final int TAKE = 2;
+
+    /**
+     * One step of the pipeline. {@link #MAP} and {@link #FILTER} stages call a
+     * block with the element, {@link #TAKE} stages let at most {@link #limit}
+     * elements through.
+     */
+    public static final class Stage {
+        private final int kind;
+        private final LSBlock block;
+        private final RootCallTarget callTarget;
+        private final long limit;
+
+        Stage(int kind, LSBlock block, long limit) {
+            this.kind = kind;
+            this.block = block;
+            this.callTarget = block == null ? null : block.getCallTarget();
+            this.limit = limit;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public LSBlock getBlock() {
+            return block;
+        }
+
+        public RootCallTarget getCallTarget() {
+            return callTarget;
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+    }
+
+    private static final Stage[] NO_STAGES = new Stage[0];
+
+    private final LSArray array;
+    private final LSLineReader lines;
+    private final long start;
+    private final long end;
+    private final Stage[] stages;
+
+    private LSSequence(LSArray array, LSLineReader lines, long start, long end, Stage[] stages) {
+        this.array = array;
+        this.lines = lines;
+        this.start = start;
+        this.end = end;
+        this.stages = stages;
+    }
+
+    public static LSSequence range(long start, long end) {
+        return new LSSequence(null, null, start, end, NO_STAGES);
+    }
+
+    public static LSSequence of(LSArray array) {
+        return new LSSequence(array, null, 0, 0, NO_STAGES);
+    }
+
+    /**
+     * Returns a sequence of the lines that the reader did not read yet. The
+     * lines are consumed, so the sequence can only be traversed once.
+     */
+    public static LSSequence of(LSLineReader lines) {
+        return new LSSequence(null, lines, 0, 0, NO_STAGES);
+    }
+
+    public LSSequence map(LSBlock block) {
+        return append(new Stage(MAP, block, 0));
+    }
+
+    public LSSequence filter(LSBlock block) {
+        return append(new Stage(FILTER, block, 0));
+    }
+
+    public LSSequence take(long limit) {
+        return append(new Stage(TAKE, null, limit));
+    }
+
+    @TruffleBoundary
+    private LSSequence append(Stage stage) {
+        Stage[] newStages = Arrays.copyOf(stages, stages.length + 1);
+        newStages[stages.length] = stage;
+        LSSequence result = new LSSequence(array, lines, start, end, newStages);
+        result.setPrototype(getPrototype());
+        return result;
+    }
+
+    /**
+     * Returns the source array, or {@code null} if the source is not an array.
+     */
+    public LSArray getArray() {
+        return array;
+    }
+
+    /**
+     * Returns the source line reader, or {@code null} if the source is not a
+     * line reader.
+     */
+    public LSLineReader getLines() {
+        return lines;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public Stage[] getStages() {
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return "aSequence";
+    }
+
+    @ExportMessage
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return toString();
+    }
+}
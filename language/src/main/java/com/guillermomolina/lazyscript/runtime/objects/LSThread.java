@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A block running in its own thread, created by the {@code spawn(block)}
+ * builtin. {@link #join} waits for the block to finish and returns its
+ * result, or throws the error the block threw.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSThread extends LSObject {
+    private final LSBlock block;
+    private Thread thread;
+    private volatile Object result;
+    private volatile Throwable error;
+
+    public LSThread(LSBlock block) {
+        this.block = block;
+    }
+
+    /**
+     * Starts the thread, that must have been created to run {@link #run()}.
+     */
+    @TruffleBoundary
+    public void start(Thread newThread) {
+        this.thread = newThread;
+        newThread.start();
+    }
+
+    public void run() {
+        try {
+            result = IndirectCallNode.getUncached().call(block.getCallTarget(), block);
+        } catch (AbstractTruffleException e) {
+            error = e;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        }
+    }
+
+    @TruffleBoundary
+    public Object join(Node location) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        final Throwable failure = error;
+        if (failure instanceof AbstractTruffleException) {
+            throw (AbstractTruffleException) failure;
+        } else if (failure != null) {
+            throw new LSException("Thread failed: " + failure, location);
+        }
+        return result;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return "aThread";
+    }
+}
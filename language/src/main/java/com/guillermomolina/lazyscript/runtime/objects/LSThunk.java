@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.runtime.LSContext;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.LSSharedObjects;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.MaterializedFrame;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A memoized lazy value, created by the {@code lazy <expression>} form. The
+ * expression is compiled into its own call target that runs in the frame
+ * captured at creation time, and it is evaluated at most once, the first time
+ * the value is needed: by arithmetic, comparisons, conditions, property reads or
+ * method invocations (see
+ * {@link com.guillermomolina.lazyscript.nodes.util.LSForceNode}). Assigning the
+ * thunk to variables or passing it as an argument does not force it.
+ * <p>
+ * If the evaluation throws, nothing is memoized and the next use evaluates the
+ * expression again.
+ * <p>
+ * A thunk that other threads can reach (see {@link LSSharedObjects}) is
+ * forced while holding its lock, so it is evaluated once and only the thread
+ * that evaluates it can find it in evaluation. The thunks of one thread are
+ * forced without synchronization.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSThunk implements TruffleObject, LSClosure {
+
+    private final RootCallTarget callTarget;
+    private final MaterializedFrame enclosingFrame;
+    private Object value;
+    private boolean evaluating;
+    private boolean shared;
+
+    public LSThunk(RootCallTarget callTarget, MaterializedFrame enclosingFrame) {
+        this.callTarget = callTarget;
+        this.enclosingFrame = enclosingFrame;
+    }
+
+    @Override
+    public MaterializedFrame getEnclosingFrame() {
+        return enclosingFrame;
+    }
+
+    public boolean isEvaluated() {
+        return value != null;
+    }
+
+    /**
+     * Returns the memoized value, only valid once {@link #isEvaluated()}.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Evaluates the expression if it was not evaluated yet. If the expression
+     * produces another thunk, that one is forced too, so the memoized value is
+     * never a thunk.
+     */
+    public Object force(IndirectCallNode callNode, Node location) {
+        if (shared) {
+            return forceShared(callNode, location);
+        }
+        return forceUnshared(callNode, location);
+    }
+
+    @TruffleBoundary
+    private synchronized Object forceShared(IndirectCallNode callNode, Node location) {
+        if (value == null) {
+            LSSharedObjects.share(forceUnshared(callNode, location));
+        }
+        return value;
+    }
+
+    private Object forceUnshared(IndirectCallNode callNode, Node location) {
+        if (value == null) {
+            if (evaluating) {
+                throw new LSException("Lazy value depends on itself", location);
+            }
+            evaluating = true;
+            try {
+                Object result = callNode.call(callTarget, this);
+                if (result instanceof LSThunk) {
+                    result = ((LSThunk) result).force(callNode, location);
+                }
+                value = result;
+            } finally {
+                evaluating = false;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Called by {@link LSSharedObjects#share} when other threads can reach
+     * the thunk.
+     */
+    public void markShared() {
+        shared = true;
+    }
+
+    @ExportMessage
+    boolean hasLanguage() {
+        return true;
+    }
+
+    @ExportMessage
+    Class<? extends TruffleLanguage<LSContext>> getLanguage() {
+        return LSLanguage.class;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    Object toDisplayString(boolean allowSideEffects) {
+        if (isEvaluated()) {
+            return InteropLibrary.getFactory().getUncached(value).toDisplayString(value, allowSideEffects);
+        }
+        return "aLazyValue";
+    }
+
+    @Override
+    public String toString() {
+        return "aLazyValue";
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.interop.LSMetaType;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.interop.UnsupportedTypeException;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A fixed size array of numbers of one {@link ElementType element type},
+ * created by the {@code int64Array}, {@code float64Array} and
+ * {@code byteArray} builtins. The elements are kept off the heap, in a direct
+ * {@link ByteBuffer} in the native byte order, so large numeric working sets
+ * do not put pressure on the garbage collector, and the memory can be handed
+ * to native or host code as it is. Byte arrays hold unsigned bytes, the
+ * integers written to them are truncated to their lowest 8 bits.
+ * <p>
+ * The {@link com.guillermomolina.lazyscript.nodes.property.LSReadPropertyNode
+ * read} and {@link com.guillermomolina.lazyscript.nodes.property.LSWritePropertyNode
+ * write} nodes cache the element type, so an element access is a single
+ * unboxed load or store. Like the fields of a Java object, concurrent accesses
+ * are not synchronized.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSTypedArray extends LSObject {
+
+    public enum ElementType {
+        INT64("Int64Array", Long.BYTES),
+        FLOAT64("Float64Array", Double.BYTES),
+        BYTE("ByteArray", Byte.BYTES);
+
+        private final String name;
+        private final int width;
+
+        ElementType(String name, int width) {
+            this.name = name;
+            this.width = width;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    private final ElementType elementType;
+    private final int size;
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates an array over the memory of the buffer, that is shared and not
+     * copied.
+     */
+    public LSTypedArray(ElementType elementType, ByteBuffer buffer) {
+        this.elementType = elementType;
+        this.size = buffer.capacity() / elementType.getWidth();
+        this.buffer = buffer;
+    }
+
+    /**
+     * Allocates the memory of an array of {@code size} elements, initialized to
+     * zero.
+     */
+    @TruffleBoundary
+    public static ByteBuffer allocate(ElementType elementType, long size, Node location) {
+        if (size < 0 || size > Integer.MAX_VALUE / elementType.getWidth()) {
+            throw new LSException("Invalid size " + size + " for an array of type " + elementType.getName(), location);
+        }
+        return ByteBuffer.allocateDirect((int) size * elementType.getWidth()).order(ByteOrder.nativeOrder());
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the memory of the array, in the native byte order. Writing the
+     * buffer writes the elements of the array.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public boolean isInBounds(long index) {
+        return index >= 0 && index < size;
+    }
+
+    /**
+     * Reads the element at an index that is in bounds. The element type is
+     * passed by the callers that cache it, so that the switch folds when
+     * compiled.
+     */
+    public Object read(ElementType type, int index) {
+        assert type == elementType && isInBounds(index);
+        switch (type) {
+            case INT64:
+                return buffer.getLong(index * Long.BYTES);
+            case FLOAT64:
+                return buffer.getDouble(index * Double.BYTES);
+            default:
+                return (long) (buffer.get(index) & 0xFF);
+        }
+    }
+
+    /**
+     * Writes the element at an index that is in bounds. Returns {@code false},
+     * without writing, if the value is not a number of the element type.
+     * Float arrays also accept integers.
+     */
+    public boolean write(ElementType type, int index, Object value) {
+        assert type == elementType && isInBounds(index);
+        switch (type) {
+            case INT64:
+                if (value instanceof Long) {
+                    buffer.putLong(index * Long.BYTES, (long) value);
+                    return true;
+                }
+                return false;
+            case FLOAT64:
+                if (value instanceof Double) {
+                    buffer.putDouble(index * Double.BYTES, (double) value);
+                    return true;
+                } else if (value instanceof Long) {
+                    buffer.putDouble(index * Double.BYTES, (long) value);
+                    return true;
+                }
+                return false;
+            default:
+                if (value instanceof Long) {
+                    buffer.put(index, (byte) (long) value);
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Sets all the elements to the value. Returns {@code false}, without
+     * writing, if the value is not a number of the element type.
+     */
+    @TruffleBoundary
+    public boolean fill(Object value) {
+        if (size == 0) {
+            return true;
+        }
+        if (!write(elementType, 0, value)) {
+            return false;
+        }
+        for (int i = 1; i < size; i++) {
+            write(elementType, i, value);
+        }
+        return true;
+    }
+
+    /**
+     * Copies {@code count} elements of the source, starting at
+     * {@code sourceIndex}, to this array, starting at {@code index}. Arrays of
+     * the same element type are copied as memory, the ranges may overlap.
+     * Otherwise the elements are converted one by one, and the copy fails at
+     * the first element that is not a number of the element type.
+     */
+    @TruffleBoundary
+    public void copy(LSTypedArray source, long sourceIndex, long index, long count, Node location) {
+        checkRange(source.size, sourceIndex, count, location);
+        checkRange(size, index, count, location);
+        if (source.elementType == elementType) {
+            final int width = elementType.getWidth();
+            final ByteBuffer from = source.buffer.duplicate();
+            from.limit((int) (sourceIndex + count) * width).position((int) sourceIndex * width);
+            final ByteBuffer to = buffer.duplicate();
+            to.position((int) index * width);
+            to.put(from);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            copyElement(source.read(source.elementType, (int) sourceIndex + i), (int) index + i, location);
+        }
+    }
+
+    /**
+     * Copies {@code count} elements of an array, converting them one by one.
+     */
+    @TruffleBoundary
+    public void copy(LSArray source, long sourceIndex, long index, long count, Node location) {
+        checkRange(source.getSize(), sourceIndex, count, location);
+        checkRange(size, index, count, location);
+        for (int i = 0; i < count; i++) {
+            copyElement(source.get((int) sourceIndex + i), (int) index + i, location);
+        }
+    }
+
+    private void copyElement(Object value, int index, Node location) {
+        if (!write(elementType, index, value)) {
+            throw LSException.typeError(location, this, value);
+        }
+    }
+
+    private static void checkRange(int size, long index, long count, Node location) {
+        if (count < 0 || index < 0 || index > size - count) {
+            throw new LSException("Range of " + count + " elements at " + index + " is out of bounds for a size of " + size,
+                            location);
+        }
+    }
+
+    /**
+     * Returns a copy of the elements in the heap, as the storage of an
+     * {@link LSArray}.
+     */
+    @TruffleBoundary
+    public Object toStorage() {
+        if (elementType == ElementType.FLOAT64) {
+            final double[] result = new double[size];
+            buffer.duplicate().order(buffer.order()).asDoubleBuffer().get(result);
+            return result;
+        }
+        final long[] result = new long[size];
+        if (elementType == ElementType.INT64) {
+            buffer.duplicate().order(buffer.order()).asLongBuffer().get(result);
+        } else {
+            for (int i = 0; i < size; i++) {
+                result[i] = buffer.get(i) & 0xFF;
+            }
+        }
+        return result;
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return elementType == ElementType.INT64 ? "anInt64Array" : "a" + elementType.getName();
+    }
+
+    @ExportMessage
+    boolean hasArrayElements() {
+        return true;
+    }
+
+    @ExportMessage
+    Object readArrayElement(long index) throws InvalidArrayIndexException {
+        if (!isInBounds(index)) {
+            throw InvalidArrayIndexException.create(index);
+        }
+        return read(elementType, (int) index);
+    }
+
+    @ExportMessage
+    boolean isArrayElementReadable(long index) {
+        return isInBounds(index);
+    }
+
+    @ExportMessage
+    boolean isArrayElementModifiable(long index) {
+        return isInBounds(index);
+    }
+
+    @ExportMessage
+    boolean isArrayElementInsertable(long index) {
+        return false;
+    }
+
+    @ExportMessage
+    long getArraySize() {
+        return size;
+    }
+
+    /**
+     * Writes an element given by the host or by another language, any number
+     * that fits the element type is accepted.
+     */
+    @ExportMessage
+    void writeArrayElement(long index, Object value,
+                    @CachedLibrary(limit = "3") InteropLibrary numbers) throws InvalidArrayIndexException, UnsupportedTypeException {
+        if (!isInBounds(index)) {
+            throw InvalidArrayIndexException.create(index);
+        }
+        Object number = value;
+        try {
+            if (elementType == ElementType.FLOAT64 && numbers.fitsInDouble(value)) {
+                number = numbers.asDouble(value);
+            } else if (numbers.fitsInLong(value)) {
+                number = numbers.asLong(value);
+            }
+        } catch (UnsupportedMessageException e) {
+            throw UnsupportedTypeException.create(new Object[]{value});
+        }
+        if (!write(elementType, (int) index, number)) {
+            throw UnsupportedTypeException.create(new Object[]{value});
+        }
+    }
+
+    @ExportMessage
+    boolean hasMetaObject() {
+        return true;
+    }
+
+    @ExportMessage
+    Object getMetaObject() {
+        return LSMetaType.ARRAY;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.runtime.objects;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.runtime.LSContext;
+import com.guillermomolina.lazyscript.runtime.LSException;
+import com.guillermomolina.lazyscript.runtime.LSMessages;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * A worker, created by the {@code worker(code)} builtin, runs LazyScript code
+ * in its own inner context, so it shares no objects with the context that
+ * created it. The code of the worker defines an {@code onMessage} function,
+ * that is called with each message {@link #post posted} to the worker, and
+ * the results are {@link #receive received} in the order of the messages.
+ * The messages and the results are moved between the contexts by
+ * {@link LSMessages}, the results are always transferred.
+ * <p>
+ * The code and the messages of a worker run one at a time, on the threads of
+ * the {@link com.guillermomolina.lazyscript.runtime.LSWorkerPool pool} that
+ * all the workers of a context share. The contexts of the workers share the
+ * engine, so the same code is only parsed and compiled once for all of them.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class LSWorker extends LSObject {
+    public static final String ON_MESSAGE = "onMessage";
+
+    /** A result of the worker, either a detached value or an error message. */
+    private static final class Reply {
+        private final Object value;
+        private final String error;
+
+        Reply(Object value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    private final TruffleContext innerContext;
+    private final Executor executor;
+    private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+    /** The tasks of the worker that did not run yet, they run in order. */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    /** Whether a thread of the pool is running the tasks of the worker. */
+    private boolean running;
+    private int pending;
+    private boolean closed;
+    /** The error thrown by the code of the worker, only read by its tasks. */
+    private String failure;
+
+    public LSWorker(TruffleContext innerContext, Executor executor) {
+        this.innerContext = innerContext;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the code of the worker, that defines its {@link #ON_MESSAGE}
+     * function.
+     */
+    @TruffleBoundary
+    public synchronized void start(Source source) {
+        schedule(() -> {
+            try {
+                LSLanguage.getCurrentContext().parse(source).call();
+            } catch (AbstractTruffleException e) {
+                failure = e.getMessage();
+            }
+        });
+    }
+
+    @TruffleBoundary
+    public synchronized void post(Object message, boolean transfer, Node location) {
+        if (closed) {
+            throw new LSException("Worker is closed", location);
+        }
+        final Object detached = LSMessages.detach(message, transfer, location);
+        pending++;
+        schedule(() -> replies.add(handle(detached)));
+    }
+
+    private Reply handle(Object message) {
+        if (failure != null) {
+            return new Reply(null, failure);
+        }
+        final LSContext context = LSLanguage.getCurrentContext();
+        final LSGlobalObject global = context.getGlobalObject();
+        final LSPropertyCell cell = global.getCell(ON_MESSAGE);
+        if (cell == null || !(cell.getValue() instanceof LSFunction)) {
+            return new Reply(null, "Worker does not define the function " + ON_MESSAGE);
+        }
+        final LSFunction function = (LSFunction) cell.getValue();
+        try {
+            final Object result = IndirectCallNode.getUncached().call(function.getCallTarget(), global,
+                            LSMessages.attach(message, context));
+            return new Reply(LSMessages.detach(result, true, null), null);
+        } catch (AbstractTruffleException e) {
+            return new Reply(null, e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the next result of the worker and attaches it to the given
+     * context. If the message threw, the error is thrown here.
+     */
+    @TruffleBoundary
+    public Object receive(LSContext context, Node location) {
+        synchronized (this) {
+            if (pending == 0) {
+                throw new LSException("Worker has no pending messages", location);
+            }
+            pending--;
+        }
+        final Reply reply;
+        try {
+            reply = replies.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LSException("Interrupted while receiving from a worker", location);
+        }
+        if (reply.error != null) {
+            throw new LSException("Worker failed: " + reply.error, location);
+        }
+        return LSMessages.attach(reply.value, context);
+    }
+
+    /**
+     * Waits for the pending messages and closes the context of the worker.
+     */
+    @TruffleBoundary
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            boolean interrupted = false;
+            while (running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        innerContext.close();
+    }
+
+    /**
+     * Closes the context of the worker, without running the pending messages.
+     * Called when the context that created the worker is finalized, once the
+     * threads of the pool are stopped.
+     */
+    @TruffleBoundary
+    public void closeNow() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            tasks.clear();
+            running = false;
+        }
+        innerContext.close();
+    }
+
+    private void schedule(Runnable task) {
+        tasks.add(task);
+        if (!running) {
+            executor.execute(this::runTasks);
+            running = true;
+        }
+    }
+
+    /**
+     * Runs the tasks of the worker, in the inner context, until there are no
+     * more.
+     */
+    private void runTasks() {
+        boolean done = false;
+        try {
+            while (true) {
+                final Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        done = true;
+                        running = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+                /* The pool thread runs no node of the language, there is no location. */
+                final Object previous = innerContext.enter(null);
+                try {
+                    task.run();
+                } finally {
+                    innerContext.leave(null, previous);
+                }
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    running = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    @ExportMessage
+    @TruffleBoundary
+    @Override
+    Object toDisplayString(boolean allowSideEffects) {
+        return "aWorker";
+    }
+}
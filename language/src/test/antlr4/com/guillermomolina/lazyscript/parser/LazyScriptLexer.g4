@@ -11,6 +11,7 @@ LCURLY: '{';
 RCURLY: '}';
 
 COMMA: ',';
+RANGE: '..';
 DOT: '.';
 COLON: ':';
 
@@ -46,12 +47,21 @@ DECIMAL_LITERAL:
 	('0' | [1-9] [0-9_]*) '.' [0-9] [0-9_]* ([eE] [+-]? [0-9_]+)?;
 
 BREAK: 'break';
+CATCH: 'catch';
 CONTINUE: 'continue';
 DEBUGGER: 'debugger';
 ELSE: 'else';
+FINALLY: 'finally';
+FOR: 'for';
 FUNCTION: 'function';
 IF: 'if';
+IMPORT: 'import';
+IN: 'in';
+LAZY: 'lazy';
+OF: 'of';
 RETURN: 'return';
+THROW: 'throw';
+TRY: 'try';
 WHILE: 'while';
 
 WS: [\t\u000B\u000C\u0020\u00A0]+ -> channel(HIDDEN);
@@ -43,15 +43,25 @@ module: statement* EOF;
 
 statement:
 	whileStatement
+	| forStatement
+	| forOfStatement
 	| ifStatement
 	| breakStatement
 	| continueStatement
 	| returnStatement
+	| throwStatement
+	| tryStatement
 	| expressionStatement;
 
 whileStatement:
 	WHILE LPAREN condition = expression RPAREN block;
 
+forStatement:
+	FOR LPAREN identifier IN start = expression RANGE end = expression RPAREN block;
+
+forOfStatement:
+	FOR LPAREN identifier OF expression RPAREN block;
+
 breakStatement: BREAK eos;
 
 continueStatement: CONTINUE eos;
@@ -65,6 +75,14 @@ debuggerStatement: DEBUGGER eos;
 
 returnStatement: RETURN ({this.notEOL()}? expression)? eos;
 
+throwStatement: THROW {this.notEOL()}? expression eos;
+
+tryStatement: TRY block (catchClause finallyClause? | finallyClause);
+
+catchClause: CATCH LPAREN identifier RPAREN block;
+
+finallyClause: FINALLY block;
+
 expressionStatement:
 	{this.notLCURLYAndNotFUNCTION()}? expression eos;
 
@@ -83,6 +101,8 @@ expression:
 	| expression operator = BITOR expression
 	| expression operator = AND expression
 	| expression operator = OR expression
+	| LAZY expression
+	| IMPORT stringLiteral
 	| <assoc = right> expression operator = ASSIGN expression
 	| thisLiteral
 	| identifier
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.NotImplementedException;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.parser.LazyScriptParser.ExpressionContext;
+import com.guillermomolina.lazyscript.parser.LazyScriptParser.IdentifierContext;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.source.Source;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Builds the AST from the parse tree of the ANTLR generated LazyScript
+ * {@link Parser}. The nodes are created by the {@link LSNodeFactory}, this
+ * class only walks the tree. The language uses the hand written
+ * {@link LSParser}, that creates the same AST in a single pass, this one only
+ * ships with the tests, as the reference implementation of the grammar.
+ */
+public class LSParserVisitor extends LazyScriptParserBaseVisitor<Node> {
+    private static final class BailoutErrorListener extends BaseErrorListener {
+        private final Source source;
+
+        BailoutErrorListener(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                String msg, RecognitionException e) {
+            Token token = (Token) offendingSymbol;
+            throw parseError(source, token, msg);
+        }
+    }
+
+    private static LSParseError parseError(Source source, ParserRuleContext ctx, String message) {
+        return new LSParseError(source, ctx.start.getLine(), ctx.start.getCharPositionInLine() + 1,
+                ctx.stop.getStopIndex() - ctx.start.getStartIndex(), message);
+    }
+
+    private static LSParseError parseError(Source source, Token token, String message) {
+        return new LSParseError(source, token.getLine(), token.getCharPositionInLine() + 1,
+                token == null ? 1 : Math.max(token.getStopIndex() - token.getStartIndex(), 0), message);
+    }
+
+    private final LSNodeFactory factory;
+    private final LSLanguage language;
+    private final Source source;
+
+    public LSParserVisitor(LSLanguage language, Source source) {
+        this(language, source, new LSNodeFactory(language, source));
+    }
+
+    private LSParserVisitor(LSLanguage language, Source source, LSNodeFactory factory) {
+        this.language = language;
+        this.source = source;
+        this.factory = factory;
+    }
+
+    public LSExpressionNode parse() {
+        LazyScriptLexer lexer = new LazyScriptLexer(CharStreams.fromString(source.getCharacters().toString()));
+        LazyScriptParser parser = new LazyScriptParser(new CommonTokenStream(lexer));
+        lexer.removeErrorListeners();
+        parser.removeErrorListeners();
+        BailoutErrorListener listener = new BailoutErrorListener(source);
+        lexer.addErrorListener(listener);
+        parser.addErrorListener(listener);
+        return (LSExpressionNode) visit(parser.module());
+    }
+
+    private static int start(ParserRuleContext ctx) {
+        return ctx.start.getStartIndex();
+    }
+
+    private static int length(ParserRuleContext ctx) {
+        return ctx.stop.getStopIndex() - ctx.start.getStartIndex() + 1;
+    }
+
+    private List<LSStatementNode> visitStatements(List<LazyScriptParser.StatementContext> statementCtxList) {
+        final List<LSStatementNode> statementNodes = new ArrayList<>(statementCtxList.size());
+        for (LazyScriptParser.StatementContext statementCtx : statementCtxList) {
+            statementNodes.add((LSStatementNode) visit(statementCtx));
+        }
+        return statementNodes;
+    }
+
+    private static List<String> parameterNames(LazyScriptParser.ParameterListContext parameterListCtx) {
+        final List<String> parameterNames = new ArrayList<>();
+        if (parameterListCtx != null) {
+            for (IdentifierContext identifierCtx : parameterListCtx.identifier()) {
+                parameterNames.add(identifierCtx.getText());
+            }
+        }
+        return parameterNames;
+    }
+
+    /**
+     * The statements of a body are visited on its first call, with the factory
+     * of the body and the parse tree that was kept alive until then.
+     */
+    private LSNodeFactory.BodyParser bodyParser(LazyScriptParser.BlockContext blockCtx) {
+        return bodyFactory -> new LSParserVisitor(language, source, bodyFactory)
+                .visitStatements(blockCtx.statement());
+    }
+
+    @Override
+    public Node visitModule(LazyScriptParser.ModuleContext ctx) {
+        final List<LSStatementNode> argumentInitializationNodes = factory.startModule();
+        final List<LSStatementNode> statementNodes = visitStatements(ctx.statement());
+        return factory.createModule(argumentInitializationNodes, statementNodes, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitFunctionLiteral(LazyScriptParser.FunctionLiteralContext ctx) {
+        final LazyScriptParser.BlockContext blockCtx = ctx.block();
+        final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.identifier());
+        return factory.createFunctionLiteral(nameNode, parameterNames(ctx.parameterList()), bodyParser(blockCtx),
+                start(blockCtx), length(blockCtx), start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitBlockLiteral(LazyScriptParser.BlockLiteralContext ctx) {
+        final LazyScriptParser.BlockContext blockCtx = ctx.block();
+        return factory.createBlockLiteral(parameterNames(ctx.parameterList()), bodyParser(blockCtx),
+                start(blockCtx), length(blockCtx), start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitBlock(LazyScriptParser.BlockContext ctx) {
+        return factory.createBlock(visitStatements(ctx.statement()), start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitStatement(LazyScriptParser.StatementContext ctx) {
+        if (ctx.ifStatement() != null) {
+            return visit(ctx.ifStatement());
+        }
+        if (ctx.whileStatement() != null) {
+            return visit(ctx.whileStatement());
+        }
+        if (ctx.forStatement() != null) {
+            return visit(ctx.forStatement());
+        }
+        if (ctx.forOfStatement() != null) {
+            return visit(ctx.forOfStatement());
+        }
+        if (ctx.breakStatement() != null) {
+            return visit(ctx.breakStatement());
+        }
+        if (ctx.continueStatement() != null) {
+            return visit(ctx.continueStatement());
+        }
+        if (ctx.returnStatement() != null) {
+            return visit(ctx.returnStatement());
+        }
+        if (ctx.throwStatement() != null) {
+            return visit(ctx.throwStatement());
+        }
+        if (ctx.tryStatement() != null) {
+            return visit(ctx.tryStatement());
+        }
+        if (ctx.expressionStatement() != null) {
+            return visit(ctx.expressionStatement().expression());
+        }
+        throw parseError(source, ctx, "Invalid statement: " + ctx.getText());
+    }
+
+    @Override
+    public Node visitExpression(LazyScriptParser.ExpressionContext ctx) {
+        if (ctx.parenExpression() != null) {
+            return visit(ctx.parenExpression().expression());
+        }
+        if (ctx.identifier() != null) {
+            return createIdentifierExpression(ctx);
+        }
+        if (ctx.index() != null) {
+            return createIndexExpression(ctx);
+        }
+        if (ctx.member() != null) {
+            return createMemberExpression(ctx);
+        }
+        if (ctx.arguments() != null) {
+            return createCallExpression(ctx);
+        }
+        if (ctx.ASSIGN() != null) {
+            return createAssignExpression(ctx);
+        }
+        if (ctx.LAZY() != null) {
+            return createLazyExpression(ctx);
+        }
+        if (ctx.IMPORT() != null) {
+            return createImportExpression(ctx);
+        }
+        if (ctx.expression().size() == 1) {
+            return createUnaryExpression(ctx);
+        }
+        if (ctx.expression().size() == 2) {
+            return createBinaryExpression(ctx);
+        }
+        // literals
+        return visitChildren(ctx);
+    }
+
+    LSExpressionNode createLazyExpression(LazyScriptParser.ExpressionContext ctx) {
+        final List<LSStatementNode> bodyNodeList = factory.startLazy();
+        final ExpressionContext expressionCtx = ctx.expression(0);
+        final LSExpressionNode valueNode = (LSExpressionNode) visit(expressionCtx);
+        return factory.createLazy(bodyNodeList, valueNode, start(expressionCtx), length(expressionCtx), start(ctx),
+                length(ctx));
+    }
+
+    LSExpressionNode createImportExpression(LazyScriptParser.ExpressionContext ctx) {
+        final String literal = ctx.stringLiteral().STRING_LITERAL().getText();
+        return factory.createImport(literal.substring(1, literal.length() - 1), start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createUnaryExpression(LazyScriptParser.ExpressionContext ctx) {
+        final LSExpressionNode valueNode = (LSExpressionNode) visit(ctx.expression(0));
+        return factory.createUnary(ctx.operator.getText(), valueNode, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createBinaryExpression(LazyScriptParser.ExpressionContext ctx) {
+        final LSExpressionNode leftNode = (LSExpressionNode) visit(ctx.expression(0));
+        final LSExpressionNode rightNode = (LSExpressionNode) visit(ctx.expression(1));
+        return factory.createBinary(ctx.operator.getText(), leftNode, rightNode, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createMemberExpression(LazyScriptParser.ExpressionContext ctx) {
+        final LSExpressionNode receiverNode = (LSExpressionNode) visit(ctx.expression(0));
+        final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.member().identifier());
+        return factory.createReadProperty(receiverNode, nameNode, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createIndexExpression(LazyScriptParser.ExpressionContext ctx) {
+        final LSExpressionNode receiverNode = (LSExpressionNode) visit(ctx.expression(0));
+        final LSExpressionNode indexNode = (LSExpressionNode) visit(ctx.index().expression());
+        return factory.createReadProperty(receiverNode, indexNode, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createIdentifierExpression(LazyScriptParser.ExpressionContext ctx) {
+        final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.identifier());
+        return factory.createReadVariable(nameNode, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createCallExpression(LazyScriptParser.ExpressionContext ctx) {
+        final ExpressionContext receivcCtx = ctx.expression(0);
+        final LSExpressionNode receiverNode;
+        final LSExpressionNode nameNode;
+        if (receivcCtx.member() != null) {
+            receiverNode = (LSExpressionNode) visit(receivcCtx.expression(0));
+            nameNode = (LSExpressionNode) visit(receivcCtx.member().identifier());
+        } else if (receivcCtx.index() != null) {
+            receiverNode = (LSExpressionNode) visit(receivcCtx.expression(0));
+            nameNode = (LSExpressionNode) visit(receivcCtx.index().expression());
+        } else if (receivcCtx.identifier() != null) {
+            receiverNode = factory.createReadThis();
+            nameNode = (LSExpressionNode) visit(receivcCtx.identifier());
+        } else {
+            throw new NotImplementedException();
+        }
+        final List<LSExpressionNode> argumentNodes = new ArrayList<>();
+        if (ctx.arguments().argumentList() != null) {
+            for (LazyScriptParser.ExpressionContext expression : ctx.arguments().argumentList().expression()) {
+                argumentNodes.add((LSExpressionNode) visit(expression));
+            }
+        }
+        return factory.createCall(receiverNode, nameNode, argumentNodes, start(ctx), length(ctx));
+    }
+
+    LSExpressionNode createAssignExpression(LazyScriptParser.ExpressionContext ctx) {
+        final ExpressionContext receivcCtx = ctx.expression(0);
+        if (receivcCtx.member() != null) {
+            final LSExpressionNode receiverNode = (LSExpressionNode) visit(receivcCtx.expression(0));
+            final LSExpressionNode nameNode = (LSExpressionNode) visit(receivcCtx.member().identifier());
+            LSExpressionNode valueNode = (LSExpressionNode) visit(ctx.expression(1));
+            return factory.createWriteProperty(receiverNode, nameNode, valueNode, start(ctx), length(ctx));
+        }
+        if (receivcCtx.index() != null) {
+            final LSExpressionNode receiverNode = (LSExpressionNode) visit(receivcCtx.expression(0));
+            final LSExpressionNode indexNode = (LSExpressionNode) visit(receivcCtx.index().expression());
+            LSExpressionNode valueNode = (LSExpressionNode) visit(ctx.expression(1));
+            return factory.createWriteProperty(receiverNode, indexNode, valueNode, start(ctx), length(ctx));
+        }
+        if (receivcCtx.identifier() != null) {
+            final LSExpressionNode nameNode = (LSExpressionNode) visit(receivcCtx.identifier());
+            LSExpressionNode valueNode = (LSExpressionNode) visit(ctx.expression(1));
+            return factory.createWriteVariable(nameNode, valueNode);
+        }
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public Node visitThisLiteral(LazyScriptParser.ThisLiteralContext ctx) {
+        return factory.createThisLiteral(start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitBreakStatement(LazyScriptParser.BreakStatementContext ctx) {
+        return factory.createBreak(start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitContinueStatement(LazyScriptParser.ContinueStatementContext ctx) {
+        return factory.createContinue(start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitWhileStatement(LazyScriptParser.WhileStatementContext ctx) {
+        LSExpressionNode conditionNode = (LSExpressionNode) visit(ctx.condition);
+
+        factory.pushScope(true);
+        LSStatementNode blockNode = (LSStatementNode) visit(ctx.block());
+        factory.popScope();
+
+        return factory.createWhile(conditionNode, blockNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitForStatement(LazyScriptParser.ForStatementContext ctx) {
+        LSExpressionNode startNode = (LSExpressionNode) visit(ctx.start);
+        LSExpressionNode endNode = (LSExpressionNode) visit(ctx.end);
+
+        final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.identifier());
+        final LSNodeFactory.ForHeader header = factory.startFor(nameNode);
+        LSStatementNode blockNode = (LSStatementNode) visit(ctx.block());
+        return factory.createFor(startNode, endNode, header, blockNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitForOfStatement(LazyScriptParser.ForOfStatementContext ctx) {
+        LSExpressionNode iterableNode = (LSExpressionNode) visit(ctx.expression());
+
+        final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.identifier());
+        final LSExpressionNode variableNode = factory.startForOf(nameNode);
+        LSStatementNode blockNode = (LSStatementNode) visit(ctx.block());
+        return factory.createForOf(iterableNode, variableNode, blockNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitIfStatement(LazyScriptParser.IfStatementContext ctx) {
+        LSExpressionNode conditionNode = (LSExpressionNode) visit(ctx.condition);
+
+        factory.pushScope(factory.isInLoop());
+        LSStatementNode thenPartNode = (LSStatementNode) visit(ctx.block(0));
+        factory.popScope();
+
+        LSStatementNode elsePartNode = null;
+        if (ctx.ELSE() != null) {
+            factory.pushScope(factory.isInLoop());
+            elsePartNode = (LSStatementNode) visit(ctx.block(1));
+            factory.popScope();
+        }
+
+        return factory.createIf(conditionNode, thenPartNode, elsePartNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitReturnStatement(LazyScriptParser.ReturnStatementContext ctx) {
+        LSExpressionNode valueNode = null;
+        if (ctx.expression() != null) {
+            valueNode = (LSExpressionNode) visit(ctx.expression());
+        }
+        return factory.createReturn(valueNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitThrowStatement(LazyScriptParser.ThrowStatementContext ctx) {
+        final LSExpressionNode valueNode = (LSExpressionNode) visit(ctx.expression());
+        return factory.createThrow(valueNode, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitTryStatement(LazyScriptParser.TryStatementContext ctx) {
+        factory.pushScope(factory.isInLoop());
+        final LSStatementNode tryBlockNode = (LSStatementNode) visit(ctx.block());
+        factory.popScope();
+
+        LSExpressionNode catchVariableNode = null;
+        LSStatementNode catchBlockNode = null;
+        if (ctx.catchClause() != null) {
+            factory.pushScope(factory.isInLoop());
+            final LSExpressionNode nameNode = (LSExpressionNode) visit(ctx.catchClause().identifier());
+            catchVariableNode = factory.createCatchVariable(nameNode);
+            catchBlockNode = (LSStatementNode) visit(ctx.catchClause().block());
+            factory.popScope();
+        }
+
+        LSStatementNode finallyBlockNode = null;
+        if (ctx.finallyClause() != null) {
+            factory.pushScope(factory.isInLoop());
+            finallyBlockNode = (LSStatementNode) visit(ctx.finallyClause().block());
+            factory.popScope();
+        }
+
+        return factory.createTry(tryBlockNode, catchVariableNode, catchBlockNode, finallyBlockNode, start(ctx),
+                length(ctx));
+    }
+
+    @Override
+    public Node visitIdentifier(LazyScriptParser.IdentifierContext ctx) {
+        return factory.createIdentifier(ctx.IDENTIFIER().getText(), start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitNullLiteral(LazyScriptParser.NullLiteralContext ctx) {
+        return factory.createNullLiteral(start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitBooleanLiteral(LazyScriptParser.BooleanLiteralContext ctx) {
+        boolean value;
+        if (ctx.TRUE() != null) {
+            value = true;
+        } else if (ctx.FALSE() != null) {
+            value = false;
+        } else {
+            throw parseError(source, ctx, "Invalid constant literal: " + ctx.getText());
+        }
+        return factory.createBooleanLiteral(value, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitStringLiteral(LazyScriptParser.StringLiteralContext ctx) {
+        String literal = ctx.STRING_LITERAL().getText();
+        assert literal.length() >= 2 && literal.startsWith("\"") && literal.endsWith("\"");
+        literal = literal.substring(1, literal.length() - 1);
+        return factory.createStringLiteral(literal, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitNumericLiteral(LazyScriptParser.NumericLiteralContext ctx) {
+        if (ctx.DECIMAL_INTEGER_LITERAL() != null) {
+            return factory.createIntegerLiteral(ctx.DECIMAL_INTEGER_LITERAL().getText(), start(ctx), length(ctx));
+        } else if (ctx.HEX_INTEGER_LITERAL() != null) {
+            throw new NotImplementedException();
+        } else if (ctx.OCTAL_INTEGER_LITERAL() != null) {
+            throw new NotImplementedException();
+        } else if (ctx.BINARY_INTEGER_LITERAL() != null) {
+            throw new NotImplementedException();
+        } else if (ctx.DECIMAL_LITERAL() != null) {
+            return factory.createDecimalLiteral(ctx.DECIMAL_LITERAL().getText(), start(ctx), length(ctx));
+        } else {
+            throw parseError(source, ctx, "Invalid numeric literal: " + ctx.getText());
+        }
+    }
+
+    @Override
+    public Node visitArrayLiteral(LazyScriptParser.ArrayLiteralContext ctx) {
+        List<LSExpressionNode> elementNodes = new ArrayList<>();
+        if (ctx.elementList() != null) {
+            for (LazyScriptParser.ExpressionContext expression : ctx.elementList().expression()) {
+                elementNodes.add((LSExpressionNode) visit(expression));
+            }
+        }
+        return factory.createArrayLiteral(elementNodes, start(ctx), length(ctx));
+    }
+
+    @Override
+    public Node visitObjectLiteral(LazyScriptParser.ObjectLiteralContext ctx) {
+        List<LSExpressionNode> nameNodes = new ArrayList<>();
+        List<LSExpressionNode> valueNodes = new ArrayList<>();
+        if (ctx.propertyAssignment() != null) {
+            for (LazyScriptParser.PropertyAssignmentContext propertyAssignmentCtx : ctx.propertyAssignment()) {
+                nameNodes.add((LSExpressionNode) visit(propertyAssignmentCtx.propertyName()));
+                valueNodes.add((LSExpressionNode) visit(propertyAssignmentCtx.expression()));
+            }
+        }
+        return factory.createObjectLiteral(nameNodes, valueNodes, start(ctx), length(ctx));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.stream.Stream;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LSCodeCacheTest {
+
+    private static final String SCRIPT = "" +
+                    "this.fib = function fib(n) {\n" +
+                    "  if (n < 2) {\n" +
+                    "    return n;\n" +
+                    "  }\n" +
+                    "  return this.fib(n - 1) + this.fib(n - 2);\n" +
+                    "};\n" +
+                    "square = (x) => { return x * x; };\n" +
+                    "total = 0;\n" +
+                    "for (i in 1..5) {\n" +
+                    "  total = total + square.invoke(i);\n" +
+                    "}\n" +
+                    "later = lazy total + 1;\n" +
+                    "try {\n" +
+                    "  throw \"oops\";\n" +
+                    "} catch (e) {\n" +
+                    "  e.println();\n" +
+                    "}\n" +
+                    "for (x of [1, 2]) {\n" +
+                    "  x.println();\n" +
+                    "}\n" +
+                    "this.fib(10).println();\n" +
+                    "total.println();\n" +
+                    "later.println();\n" +
+                    "this.unused = function unused() {\n" +
+                    "  return 1;\n" +
+                    "};\n";
+
+    private static final String OUTPUT = "oops\n1\n2\n55\n30\n31\n";
+
+    private Path directory;
+    private File script;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("lscodecache");
+        script = directory.resolve("script.ls").toFile();
+        Files.write(script.toPath(), SCRIPT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private List<String> run() throws IOException {
+        final List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getMessage().startsWith("Built ")) {
+                    messages.add("Built " + record.getParameters()[0]);
+                } else {
+                    messages.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowIO(true).out(out)
+                        .option("ls.CodeCache", directory.resolve("cache").toString())
+                        .option("log.ls.com.guillermomolina.lazyscript.runtime.LSCodeCache.level", "FINE")
+                        .option("log.ls.com.guillermomolina.lazyscript.parser.LSNodeFactory.level", "FINE")
+                        .logHandler(handler).build()) {
+            context.eval(Source.newBuilder("ls", script).build());
+        }
+        assertEquals(OUTPUT, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        return messages;
+    }
+
+    private static boolean contains(List<String> messages, String prefix) {
+        return messages.stream().anyMatch(message -> message.startsWith(prefix));
+    }
+
+    private Path cacheFile() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("cache"))) {
+            return files.filter(path -> path.toString().endsWith(".lsc")).findFirst().get();
+        }
+    }
+
+    @Test
+    public void testSecondRunIsAHit() throws IOException {
+        List<String> first = run();
+        assertTrue(contains(first, "Code cache miss"));
+        assertTrue(contains(first, "Wrote code cache file"));
+        List<String> second = run();
+        assertTrue(contains(second, "Code cache hit"));
+        assertTrue(!contains(second, "Code cache miss"));
+    }
+
+    @Test
+    public void testCorruptedFileIsIgnored() throws IOException {
+        run();
+        Path file = cacheFile();
+        byte[] data = Files.readAllBytes(file);
+        data[data.length - 1] ^= 0x55;
+        Files.write(file, data);
+        assertTrue(contains(run(), "Code cache miss"));
+        assertTrue(contains(run(), "Code cache hit"));
+    }
+
+    @Test
+    public void testChangedScriptIsParsed() throws IOException {
+        run();
+        Files.write(script.toPath(), ("\n" + SCRIPT).getBytes(StandardCharsets.UTF_8));
+        assertTrue(contains(run(), "Code cache miss"));
+    }
+
+    /**
+     * Only the function fib of the script is called, the body of the function
+     * unused is never built.
+     */
+    @Test
+    public void testBodiesAreBuiltOnFirstCall() throws IOException {
+        List<String> first = run();
+        assertEquals(1, Collections.frequency(first, "Built function"));
+        List<String> second = run();
+        assertTrue(contains(second, "Code cache hit"));
+        assertEquals(1, Collections.frequency(second, "Built function"));
+    }
+}
@@ -41,8 +41,21 @@
 package com.guillermomolina.lazyscript.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.oracle.truffle.api.CallTarget;
+
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
@@ -81,4 +94,175 @@ public class LSCodeSharingTest {
         }
     }
 
+    @Test
+    public void testSharedParseKeepsContextsIsolated() throws Exception {
+        try (Engine engine = Engine.create()) {
+            try (Context first = Context.newBuilder().engine(engine).build();
+                            Context second = Context.newBuilder().engine(engine).build()) {
+                /* Equal sources built separately share the parsed call target. */
+                first.eval(Source.create("ls", "this.n = 0;"));
+                second.eval(Source.create("ls", "this.n = 0;"));
+                first.eval(Source.create("ls", "this.n = this.n + 1;"));
+                first.eval(Source.create("ls", "this.n = this.n + 1;"));
+                second.eval(Source.create("ls", "this.n = this.n + 1;"));
+                assertEquals(2, first.eval(Source.create("ls", "return this.n;")).asInt());
+                assertEquals(1, second.eval(Source.create("ls", "return this.n;")).asInt());
+            }
+        }
+    }
+
+    @Test
+    public void testSecondParseReturnsTheSameCallTarget() throws Exception {
+        try (Engine engine = Engine.create()) {
+            try (Context first = Context.newBuilder().engine(engine).build();
+                            Context second = Context.newBuilder().engine(engine).build()) {
+                /* Equal sources built separately share the parsed call target. */
+                CallTarget firstTarget = parse(first, "this.n = 0;");
+                CallTarget secondTarget = parse(second, "this.n = 0;");
+                assertSame(firstTarget, secondTarget);
+                assertSame(firstTarget, parse(first, "this.n = 0;"));
+            }
+        }
+    }
+
+    private static CallTarget parse(Context context, String code) {
+        com.oracle.truffle.api.source.Source source = com.oracle.truffle.api.source.Source.newBuilder(LSLanguage.ID, code, "shared.ls").build();
+        context.initialize(LSLanguage.ID);
+        context.enter();
+        try {
+            return LSLanguage.getCurrentContext().parse(source);
+        } finally {
+            context.leave();
+        }
+    }
+
+    @Test
+    public void testBuiltinsAreShared() throws Exception {
+        List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage() + " " + record.getParameters()[0]);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (Engine engine = Engine.newBuilder().logHandler(handler)
+                        .option("log.ls.com.guillermomolina.lazyscript.LSLanguage.level", "FINE").build()) {
+            ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+            try (Context first = Context.newBuilder().engine(engine).out(firstOut).build();
+                            Context second = Context.newBuilder().engine(engine).out(secondOut).build()) {
+                first.eval(Source.create("ls", "\"first\".println();"));
+                second.eval(Source.create("ls", "\"second\".println();"));
+            }
+            assertEquals("first\n", new String(firstOut.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("second\n", new String(secondOut.toByteArray(), StandardCharsets.UTF_8));
+        }
+        assertEquals(1, Collections.frequency(messages, "Created call target for builtin: {0} println"));
+    }
+
+    @Test
+    public void testFunctionLiteralsAreCachedPerContext() throws Exception {
+        Source source = Source.create("ls", "" +
+                        "this.make = function make() {\n" +
+                        "  return function inner(x) { return x; };\n" +
+                        "};\n" +
+                        "return this.make() == this.make();\n");
+        try (Engine engine = Engine.create()) {
+            try (Context first = Context.newBuilder().engine(engine).build();
+                            Context second = Context.newBuilder().engine(engine).build()) {
+                assertTrue(first.eval(source).asBoolean());
+                assertTrue(second.eval(source).asBoolean());
+            }
+        }
+    }
+
+    @Test
+    public void testFunctionLiteralsAreKeptWhenContextsAlternate() throws Exception {
+        Source define = Source.create("ls", "" +
+                        "this.make = function make() {\n" +
+                        "  return function inner(x) { return x; };\n" +
+                        "};\n" +
+                        "this.kept = this.make();\n");
+        Source check = Source.create("ls", "return this.kept == this.make();\n");
+        try (Engine engine = Engine.create()) {
+            try (Context first = Context.newBuilder().engine(engine).build();
+                            Context second = Context.newBuilder().engine(engine).build()) {
+                first.eval(define);
+                second.eval(define);
+                assertTrue(first.eval(check).asBoolean());
+                assertTrue(second.eval(check).asBoolean());
+                assertTrue(first.eval(check).asBoolean());
+            }
+        }
+    }
+
+    @Test
+    public void testGlobalsAreReadPerContext() throws Exception {
+        Source call = Source.create("ls", "return this.f();\n");
+        try (Engine engine = Engine.create()) {
+            try (Context first = Context.newBuilder().engine(engine).build();
+                            Context second = Context.newBuilder().engine(engine).build()) {
+                first.eval(Source.create("ls", "this.f = function f() { return 1; };"));
+                second.eval(Source.create("ls", "this.f = function f() { return 2; };"));
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(1, first.eval(call).asInt());
+                    assertEquals(2, second.eval(call).asInt());
+                }
+                second.eval(Source.create("ls", "this.f = function f() { return 3; };"));
+                assertEquals(1, first.eval(call).asInt());
+                assertEquals(3, second.eval(call).asInt());
+            }
+        }
+    }
+
+    @Test
+    public void testBuiltinsDoNotReplaceRedefinitions() throws Exception {
+        try (Context context = Context.create("ls")) {
+            context.eval(Source.create("ls", "Object.nanoTime = function nanoTime() { return 42; };"));
+            assertEquals(42, context.eval(Source.create("ls", "return this.nanoTime();")).asInt());
+            /* The first lookup that fails installs the pending builtins. */
+            context.eval(Source.create("ls", "this.missing = [].sequence();"));
+            assertEquals(42, context.eval(Source.create("ls", "return this.nanoTime();")).asInt());
+        }
+    }
+
+    @Test
+    public void testPendingBuiltinsAreMembers() throws Exception {
+        try (Context context = Context.create("ls")) {
+            assertTrue(context.eval(Source.create("ls", "return Object;")).getMemberKeys().contains("nanoTime"));
+        }
+    }
+
+    private static boolean isConstant(Context context, String name) {
+        context.enter();
+        try {
+            return LSLanguage.getCurrentContext().getGlobalObject().getCell(name).getConstantAssumption().isValid();
+        } finally {
+            context.leave();
+        }
+    }
+
+    @Test
+    public void testEqualWritesKeepGlobalsConstant() throws Exception {
+        try (Context context = Context.create("ls")) {
+            Source main = Source.create("ls", "this.n = 1000; this.x = 0.5;");
+            context.eval(main);
+            context.eval(main);
+            assertTrue(isConstant(context, "main"));
+            context.eval(Source.create("ls", "this.n = 999 + 1; this.x = 1.0 / 2;"));
+            assertTrue(isConstant(context, "n"));
+            assertTrue(isConstant(context, "x"));
+            context.eval(Source.create("ls", "this.n = 1001;"));
+            assertFalse(isConstant(context, "n"));
+            assertEquals(1001, context.eval(Source.create("ls", "return this.n;")).asInt());
+        }
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.graalvm.polyglot.Context;
+import org.junit.Test;
+
+public class LSEvalCacheTest {
+
+    private static final String SCRIPT = "" +
+                    "total = 0;\n" +
+                    "round = 0;\n" +
+                    "while (round < 3) {\n" +
+                    "  i = 0;\n" +
+                    "  while (i < 20) {\n" +
+                    "    total = total + eval(\"ls\", \"return \" + i + \";\");\n" +
+                    "    i = i + 1;\n" +
+                    "  }\n" +
+                    "  round = round + 1;\n" +
+                    "}\n" +
+                    "return total;\n";
+
+    private static List<LogRecord> evalScript(String cacheSize) {
+        final List<LogRecord> misses = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                misses.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (Context context = Context.newBuilder("ls").option("ls.EvalCacheSize", cacheSize).option("log.ls.com.guillermomolina.lazyscript.runtime.LSEvalCache.level", "FINE").logHandler(handler).build()) {
+            assertEquals(570, context.eval("ls", SCRIPT).asInt());
+        }
+        return misses;
+    }
+
+    @Test
+    public void testRepeatedSourcesAreParsedOnce() {
+        assertTrue(evalScript("256").size() <= 20);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSourcesAreEvicted() {
+        assertTrue(evalScript("4").size() > 20);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.junit.Test;
+
+public class LSEventLoopTest {
+
+    private static String run(String code, boolean allowIO) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowIO(allowIO).out(out).build()) {
+            context.eval("ls", code);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String quote(File file) {
+        return "\"" + file.getAbsolutePath().replace("\\", "\\\\") + "\"";
+    }
+
+    @Test
+    public void testReadFileAsync() throws IOException {
+        File file = File.createTempFile("lazyscript", ".txt");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                text.append("line ").append(i).append('\n');
+            }
+            Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+            assertEquals("before\n" + text + "\n", run("" +
+                            "contents = readFileAsync(" + quote(file) + ");\n" +
+                            "contents.then((text) => { text.println(); });\n" +
+                            "\"before\".println();\n", true));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadMissingFileRejects() {
+        assertEquals("rejected\n", run("" +
+                        "readFileAsync(\"/nonexistent/lazyscript.txt\").onError((e) => { \"rejected\".println(); });\n", true));
+    }
+
+    @Test
+    public void testReadFileNotAllowed() {
+        try {
+            run("readFileAsync(\"/etc/hosts\");\n", false);
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No file access allowed."));
+            return;
+        }
+        throw new AssertionError("expected the file access to be denied");
+    }
+
+    @Test
+    public void testUnhandledRejectionIsThrown() {
+        try {
+            run("async(() => { throw \"lost\"; });\n", false);
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("lost"));
+            return;
+        }
+        throw new AssertionError("expected the rejection to be thrown");
+    }
+
+    @Test
+    public void testAwaitNeverSettledPromise() {
+        assertEquals("The awaited promise is never settled\n", run("" +
+                        "pending = null;\n" +
+                        "pending = async(() => { return async(() => { return pending.await(); }); });\n" +
+                        "try {\n" +
+                        "    pending.await();\n" +
+                        "} catch (e) {\n" +
+                        "    e.println();\n" +
+                        "}\n", false));
+    }
+}
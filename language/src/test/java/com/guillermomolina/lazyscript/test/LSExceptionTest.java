@@ -55,6 +55,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
 
+import com.guillermomolina.lazyscript.runtime.LSException;
+
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.HostAccess.Export;
 import org.graalvm.polyglot.PolyglotException;
@@ -161,6 +163,40 @@ public class LSExceptionTest {
         }
     }
 
+    @Test
+    public void testStackTraceLimit() {
+        String source = "o = {};\n" +
+                        "o.recurse = function recurse(n) { if (n == 0) { return 1 < \"x\"; } return this.recurse(n - 1); };\n" +
+                        "o.recurse(10);";
+        try (Context limited = Context.newBuilder("ls").option("ls.StackTraceLimit", "3").build()) {
+            limited.eval(Source.create("ls", source));
+            fail();
+        } catch (PolyglotException e) {
+            assertTrue(e.isGuestException());
+            int guestFrames = 0;
+            for (StackFrame frame : e.getPolyglotStackTrace()) {
+                if (frame.isGuestFrame()) {
+                    guestFrames++;
+                }
+            }
+            assertEquals(3, guestFrames);
+        }
+    }
+
+    @Test
+    public void testCreatedWithoutContext() {
+        LSException e = new LSException("no context", null);
+        assertEquals("no context", e.getMessage());
+    }
+
+    @Test
+    public void testCaughtError() {
+        String source = "try { 1 < \"x\"; } catch (e) { return e.message; }";
+        Value message = ctx.eval(Source.create("ls", source));
+        assertTrue(message.asString().startsWith("Type error"));
+        assertEquals(42, ctx.eval(Source.create("ls", "try { throw 42; } catch (e) { return e; }")).asInt());
+    }
+
     @Test
     public void testGuestLanguageError() {
         try {
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LSFileTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("lazyscript", ".dat");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private String path() {
+        return "\"" + file.getAbsolutePath().replace("\\", "\\\\") + "\"";
+    }
+
+    private static String run(String code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowIO(true).out(out).build()) {
+            context.eval("ls", code);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTypedReads() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(21);
+        data.putLong(1234567890123L).putDouble(2.5).putInt(-7).put((byte) -1);
+        Files.write(file.toPath(), data.array());
+        assertEquals("21\n1234567890123\n2.5\n-7\n-1\n-1\n", run("" +
+                        "data = mapFile(" + path() + ");\n" +
+                        "data.getSize().println();\n" +
+                        "data.readLong(0).println();\n" +
+                        "data.readDouble(8).println();\n" +
+                        "data.readInt(16).println();\n" +
+                        "data.readByte(20).println();\n" +
+                        "data[20].println();\n"));
+    }
+
+    @Test
+    public void testReadLines() throws IOException {
+        Files.write(file.toPath(), "first\r\n\nthird\nlast".getBytes(StandardCharsets.UTF_8));
+        assertEquals("[first]\n[]\n[third]\n[last]\n", run("" +
+                        "data = mapFile(" + path() + ");\n" +
+                        "offset = 0;\n" +
+                        "line = data.readLine(offset);\n" +
+                        "while (line != null) {\n" +
+                        "    (\"[\" + line + \"]\").println();\n" +
+                        "    offset = data.nextLineOffset(offset);\n" +
+                        "    line = data.readLine(offset);\n" +
+                        "}\n"));
+    }
+
+    @Test
+    public void testReadsAreBoundsChecked() throws IOException {
+        Files.write(file.toPath(), new byte[12]);
+        assertEquals("Offset 8 is out of bounds for a file of 12 bytes\nOffset -1 is out of bounds for a file of 12 bytes\n", run("" +
+                        "data = mapFile(" + path() + ");\n" +
+                        "data.readInt(8);\n" +
+                        "try { data.readLong(8); } catch (e) { e.println(); }\n" +
+                        "try { data.readByte(0 - 1); } catch (e) { e.println(); }\n"));
+    }
+
+    @Test
+    public void testClosedFile() throws IOException {
+        Files.write(file.toPath(), new byte[8]);
+        String output = run("" +
+                        "data = mapFile(" + path() + ").close();\n" +
+                        "try { data.readLong(0); } catch (e) { e.println(); }\n");
+        assertTrue(output, output.endsWith("is closed\n"));
+    }
+
+    @Test
+    public void testMappedFileIsAnArray() throws IOException {
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        try (Context context = Context.newBuilder("ls").allowIO(true).build()) {
+            Value data = context.eval("ls", "return mapFile(" + path() + ");");
+            assertTrue(data.hasArrayElements());
+            assertEquals(3, data.getArraySize());
+            assertEquals(2, data.getArrayElement(1).asInt());
+        }
+    }
+
+    @Test
+    public void testFileLines() throws IOException {
+        Files.write(file.toPath(), "a\n\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("[a]\n[]\n[b]\n[c]\n2\n", run("" +
+                        "for (line of fileLines(" + path() + ")) {\n" +
+                        "    (\"[\" + line + \"]\").println();\n" +
+                        "}\n" +
+                        "fileLines(" + path() + ").sequence().filter((line) => { return line != \"\"; }).take(2).toArray().getSize().println();\n"));
+    }
+
+    @Test
+    public void testJsonFileRecords() throws IOException {
+        Files.write(file.toPath(), "{\"id\": 1, \"tags\": [\"a\"]}\n{\"id\": 2, \"tags\": []}\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("1\n{\"id\":2,\"tags\":[]}\nnull\n", run("" +
+                        "records = JSON.fileRecords(" + path() + ");\n" +
+                        "records.next().id.println();\n" +
+                        "JSON.write(records.next());\n" +
+                        "records.next().println();\n"));
+    }
+
+    @Test
+    public void testJsonRecordsAreObjects() throws IOException {
+        Files.write(file.toPath(), "{\"name\": \"x\", \"size\": 3}".getBytes(StandardCharsets.UTF_8));
+        try (Context context = Context.newBuilder("ls").allowIO(true).build()) {
+            Value record = context.eval("ls", "return JSON.fileRecords(" + path() + ").next();");
+            assertTrue(record.hasMembers());
+            assertEquals("x", record.getMember("name").asString());
+            assertEquals(3, record.getMember("size").asInt());
+        }
+    }
+
+    @Test
+    public void testJsonRecordsWithTheSameKeys() throws IOException {
+        Files.write(file.toPath(), ("{\"id\": 1, \"name\": \"a\"}\n{\"id\": 2, \"name\": \"b\"}\n" +
+                        "{\"id\": \"c\", \"name\": 3.5}\n{\"id\": 4, \"name\": \"d\"}\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals("{\"id\":1,\"name\":\"a\"}\n{\"id\":2,\"name\":\"b\"}\n{\"id\":\"c\",\"name\":3.5}\n{\"id\":4,\"name\":\"d\"}\n", run("" +
+                        "records = JSON.fileRecords(" + path() + ");\n" +
+                        "JSON.write(records.next());\n" +
+                        "JSON.write(records.next());\n" +
+                        "JSON.write(records.next());\n" +
+                        "JSON.write(records.next());\n"));
+    }
+
+    @Test
+    public void testFilesNeedIOAccess() {
+        try (Context context = Context.newBuilder("ls").build()) {
+            context.eval("ls", "mapFile(" + path() + ");");
+        } catch (PolyglotException e) {
+            assertEquals("No file access allowed.", e.getMessage());
+            return;
+        }
+        throw new AssertionError("expected the file access to be denied");
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.stream.Stream;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LSModuleTest {
+
+    private Path directory;
+    private final List<String> messages = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("lsmodules");
+        Files.createDirectories(directory.resolve("lib"));
+        write("lib/helper.ls", "" +
+                        "\"helper loaded\".println();\n" +
+                        "this.prefix = \"lib.\";\n");
+        write("lib/math.ls", "" +
+                        "helper = import \"helper.ls\";\n" +
+                        "\"math loaded\".println();\n" +
+                        "this.square = (x) => { return x * x; };\n" +
+                        "this.twice = function twice(x) { return x * 2; };\n" +
+                        "this.name = helper.prefix + \"math\";\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void write(String name, String code) throws IOException {
+        Files.write(directory.resolve(name), code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String run(String name) throws IOException {
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage() + " " + record.getParameters()[0]);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowIO(true).allowCreateThread(true).out(out)
+                        .option("log.ls.com.guillermomolina.lazyscript.runtime.LSModuleLoader.level", "FINE")
+                        .logHandler(handler).build()) {
+            context.eval(Source.newBuilder("ls", directory.resolve(name).toFile()).build());
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testModulesRunOnce() throws IOException {
+        write("main.ls", "" +
+                        "math = import \"lib/math.ls\";\n" +
+                        "math.square.invoke(4).println();\n" +
+                        "math.twice(3).println();\n" +
+                        "math.name.println();\n" +
+                        "again = import \"lib/math.ls\";\n" +
+                        "(again == math).println();\n" +
+                        "(import \"lib/helper.ls\").prefix.println();\n");
+        assertEquals("helper loaded\nmath loaded\n16\n6\nlib.math\ntrue\nlib.\n", run("main.ls"));
+    }
+
+    @Test
+    public void testImportsAreParsedBeforeRunning() throws IOException {
+        write("main.ls", "" +
+                        "f = () => { return import \"lib/helper.ls\"; };\n" +
+                        "(import \"lib/math.ls\").name.println();\n");
+        assertEquals("helper loaded\nmath loaded\nlib.math\n", run("main.ls"));
+        final String helper = directory.resolve("lib/helper.ls").toRealPath().toString();
+        final String math = directory.resolve("lib/math.ls").toRealPath().toString();
+        assertTrue(messages.contains("Parsed module: {0} " + helper));
+        assertTrue(messages.contains("Parsed module: {0} " + math));
+        assertTrue(messages.indexOf("Parsed module: {0} " + helper) < messages.indexOf("Running module: {0} " + math));
+    }
+
+    @Test
+    public void testCyclicImport() throws IOException {
+        write("a.ls", "" +
+                        "this.name = \"a\";\n" +
+                        "b = import \"b.ls\";\n" +
+                        "this.fromB = b.fromA;\n");
+        write("b.ls", "" +
+                        "a = import \"a.ls\";\n" +
+                        "this.fromA = a.name;\n");
+        write("main.ls", "(import \"a.ls\").fromB.println();\n");
+        assertEquals("a\n", run("main.ls"));
+    }
+
+    @Test
+    public void testMissingModule() throws IOException {
+        write("main.ls", "import \"missing.ls\";\n");
+        try {
+            run("main.ls");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot import module: missing.ls"));
+            return;
+        }
+        throw new AssertionError("Should not import a missing module.");
+    }
+
+    @Test
+    public void testOtherThreadsCannotEnterTheContext() throws Exception {
+        try (Context context = Context.newBuilder("ls").allowCreateThread(true).build()) {
+            context.initialize("ls");
+            context.enter();
+            try {
+                final Throwable[] failure = new Throwable[1];
+                final Thread thread = new Thread(() -> {
+                    try {
+                        context.eval("ls", "return 1;");
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                });
+                thread.start();
+                thread.join();
+                assertTrue(failure[0] instanceof IllegalStateException);
+            } finally {
+                context.leave();
+            }
+        }
+    }
+}
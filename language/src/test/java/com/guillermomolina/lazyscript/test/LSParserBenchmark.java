@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.parser.LSParser;
+import com.guillermomolina.lazyscript.parser.LSParserVisitor;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Compares the parse throughput of the hand written {@link LSParser} and of
+ * the ANTLR based {@link LSParserVisitor}, on the same corpus of scripts. The
+ * time only includes building the AST of each module, the bodies of the
+ * functions are built when they are first called.
+ *
+ * It is not a unit test, run it from the test class path, with the directory
+ * of the scripts (by default the {@code tests} directory of the test
+ * scripts) and the number of iterations as arguments:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *     com.guillermomolina.lazyscript.test.LSParserBenchmark [directory] [iterations]
+ * </pre>
+ */
+public final class LSParserBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 50;
+
+    private LSParserBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Path root = args.length > 0 ? FileSystems.getDefault().getPath(args[0]) : defaultRoot();
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        final List<Source> sources = new ArrayList<>();
+        long characters = 0;
+        for (Source source : corpus(root)) {
+            if (parses(source)) {
+                sources.add(source);
+                characters += source.getLength();
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("No scripts to parse in: " + root);
+            System.exit(1);
+        }
+        final double antlr = measure(LSParserBenchmark::parseWithAntlr, sources, iterations);
+        final double handWritten = measure(LSParserBenchmark::parse, sources, iterations);
+        System.out.printf("Parsed %d scripts, %d characters, %d times%n", sources.size(), characters, iterations);
+        report("ANTLR", antlr, characters * iterations);
+        report("hand written", handWritten, characters * iterations);
+        System.out.printf("hand written is %.1fx faster%n", antlr / handWritten);
+    }
+
+    private static Path defaultRoot() {
+        final Path root = LSTestRunner.getRootViaResourceURL(LSParserBenchmark.class, new String[] { "tests" });
+        return root != null ? root : FileSystems.getDefault().getPath("tests");
+    }
+
+    private static List<Source> corpus(Path root) throws IOException {
+        final List<Source> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".ls")).sorted().collect(Collectors.toList())) {
+                final String code = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                sources.add(Source.newBuilder(LSLanguage.ID, code, file.getFileName().toString()).build());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Only the scripts that both parsers accept are measured, the tests also
+     * have scripts with syntax errors.
+     */
+    private static boolean parses(Source source) {
+        try {
+            parse(source);
+            parseWithAntlr(source);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static LSExpressionNode parse(Source source) {
+        return new LSParser(null, source).parse();
+    }
+
+    private static LSExpressionNode parseWithAntlr(Source source) {
+        return new LSParserVisitor(null, source).parse();
+    }
+
+    /**
+     * Returns the milliseconds it takes to parse the sources the number of
+     * iterations, after parsing them as many times to warm up.
+     */
+    private static double measure(Function<Source, LSExpressionNode> parser, List<Source> sources, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            for (Source source : sources) {
+                parser.apply(source);
+            }
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Source source : sources) {
+                parser.apply(source);
+            }
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void report(String name, double millis, long characters) {
+        System.out.printf("%s: %.1f ms, %.0f characters/s%n", name, millis, characters / (millis / 1000));
+    }
+}
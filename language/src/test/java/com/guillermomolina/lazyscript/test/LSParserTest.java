@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.guillermomolina.lazyscript.LSLanguage;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSBreakNode;
+import com.guillermomolina.lazyscript.nodes.controlflow.LSLazyFunctionBodyNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSExpressionNode;
+import com.guillermomolina.lazyscript.nodes.expression.LSStatementNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSFunctionLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSLazyLiteralNode;
+import com.guillermomolina.lazyscript.nodes.literals.LSStringLiteralNode;
+import com.guillermomolina.lazyscript.parser.LSParser;
+import com.guillermomolina.lazyscript.parser.LSParserVisitor;
+import com.guillermomolina.lazyscript.parser.LSRecordedParser;
+import com.guillermomolina.lazyscript.parser.LSRecordingNodeFactory;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.NodeUtil;
+import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.source.Source;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks that the hand written {@link LSParser} builds the same AST as the
+ * ANTLR based {@link LSParserVisitor} of the tests, and that it reports the
+ * syntax errors of the bodies that it does not build. Their parse throughput
+ * is compared by {@link LSParserBenchmark}.
+ */
+public class LSParserTest {
+
+    private static List<Source> testSources() throws IOException {
+        Path root = LSTestRunner.getRootViaResourceURL(LSParserTest.class, new String[] { "tests" });
+        if (root == null) {
+            root = FileSystems.getDefault().getPath("tests");
+        }
+        Assume.assumeTrue(Files.isDirectory(root));
+        final List<Source> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".ls")).sorted().collect(Collectors.toList())) {
+                final String code = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                sources.add(Source.newBuilder(LSLanguage.ID, code, file.getFileName().toString()).build());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the AST of the module and of all the functions, blocks and lazy
+     * expressions in it, with their source sections, or the exception thrown
+     * by the parser.
+     */
+    private static String dump(Function<Source, LSExpressionNode> parser, Source source) {
+        final StringBuilder result = new StringBuilder();
+        try {
+            final Deque<RootNode> pending = new ArrayDeque<>();
+            pending.add(((LSFunctionLiteralNode) parser.apply(source)).getCallTarget().getRootNode());
+            while (!pending.isEmpty()) {
+                final RootNode rootNode = pending.poll();
+                for (LSLazyFunctionBodyNode bodyNode : NodeUtil.findAllNodeInstances(rootNode,
+                        LSLazyFunctionBodyNode.class)) {
+                    bodyNode.materialize();
+                }
+                result.append(rootNode.getName()).append(' ').append(rootNode.getSourceSection()).append('\n');
+                dump(rootNode, 1, result, pending);
+            }
+        } catch (RuntimeException e) {
+            result.append("throws ").append(e.getClass().getSimpleName());
+        }
+        return result.toString();
+    }
+
+    private static void dump(Node node, int depth, StringBuilder result, Deque<RootNode> pending) {
+        for (int i = 0; i < depth; i++) {
+            result.append("  ");
+        }
+        result.append(node.getClass().getSimpleName());
+        if (node instanceof LSStatementNode && ((LSStatementNode) node).hasSource()) {
+            final LSStatementNode statement = (LSStatementNode) node;
+            result.append(" [").append(statement.getSourceCharIndex()).append(", ")
+                    .append(statement.getSourceLength()).append(']');
+        }
+        if (node instanceof LSStringLiteralNode) {
+            result.append(" \"").append(((LSStringLiteralNode) node).executeGeneric(null)).append('"');
+        } else if (node instanceof LSFunctionLiteralNode) {
+            pending.add(((LSFunctionLiteralNode) node).getCallTarget().getRootNode());
+        } else if (node instanceof LSLazyLiteralNode) {
+            pending.add(((LSLazyLiteralNode) node).getCallTarget().getRootNode());
+        }
+        result.append('\n');
+        for (Node child : node.getChildren()) {
+            dump(child, depth + 1, result, pending);
+        }
+    }
+
+    private static LSExpressionNode parse(Source source) {
+        return new LSParser(null, source).parse();
+    }
+
+    private static LSExpressionNode parseWithAntlr(Source source) {
+        return new LSParserVisitor(null, source).parse();
+    }
+
+    @Test
+    public void testSameTreeAsAntlr() throws IOException {
+        for (Source source : testSources()) {
+            assertEquals(source.getName(), dump(LSParserTest::parseWithAntlr, source),
+                    dump(LSParserTest::parse, source));
+        }
+    }
+
+    /**
+     * Records the calls of the parser to the node factory, building all the
+     * bodies, and builds the AST again by replaying them, as the code cache
+     * does.
+     */
+    private static LSExpressionNode parseRecorded(Source source) {
+        final LSRecordingNodeFactory factory = new LSRecordingNodeFactory(null, source);
+        dump(s -> new LSParser(null, s, factory).parse(), source);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            factory.getRecording().write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new LSRecordedParser(null, source, bytes.toByteArray(), 0).parse();
+    }
+
+    @Test
+    public void testSameTreeWhenRecorded() throws IOException {
+        for (Source source : testSources()) {
+            final String expected = dump(LSParserTest::parse, source);
+            if (!expected.contains("throws")) {
+                assertEquals(source.getName(), expected, dump(LSParserTest::parseRecorded, source));
+            }
+        }
+    }
+
+    @Test
+    public void testSyntaxErrorLocation() {
+        final Source source = Source.newBuilder(LSLanguage.ID, "a = 1;\nb = (2 + ;\n", "error.ls").build();
+        try {
+            parse(source);
+        } catch (RuntimeException e) {
+            assertEquals("Error(s) parsing script:\n-- line 2 col 10: no viable alternative at input ';'",
+                    e.getMessage().replace(System.lineSeparator(), "\n"));
+            return;
+        }
+        throw new AssertionError("Should be a syntax error.");
+    }
+
+    private static void assertSyntaxError(String code, String expected) {
+        final Source source = Source.newBuilder(LSLanguage.ID, code, "error.ls").build();
+        try {
+            parse(source);
+        } catch (RuntimeException e) {
+            assertEquals(expected, e.getMessage().replace(System.lineSeparator(), "\n"));
+            return;
+        }
+        throw new AssertionError("Should be a syntax error.");
+    }
+
+    /**
+     * The bodies of function and block literals are built on their first call,
+     * but their syntax errors are reported when the module is parsed.
+     */
+    @Test
+    public void testSyntaxErrorInBodyLocation() {
+        assertSyntaxError("this.f = function f(a) { return (a + ; };\nreturn 1;",
+                "Error(s) parsing script:\n-- line 1 col 38: no viable alternative at input ';'");
+        assertSyntaxError("f = (a) => {\n  g = () => { a + };\n  a\n};",
+                "Error(s) parsing script:\n-- line 2 col 19: no viable alternative at input '}'");
+        assertSyntaxError("while (true) {\n  f = () => { break };\n}",
+                "Error(s) parsing script:\n-- line 2 col 15: break used outside of loop");
+    }
+
+    @Test
+    public void testBodyBuiltOnFirstCall() {
+        final Source source = Source.newBuilder(LSLanguage.ID,
+                "f = (a) => {\n  for (i of a) { if (i) { break } }\n  () => { i }\n};", "lazy.ls").build();
+        final RootNode rootNode = ((LSFunctionLiteralNode) parse(source)).getCallTarget().getRootNode();
+        final List<LSFunctionLiteralNode> literalNodes = NodeUtil.findAllNodeInstances(rootNode,
+                LSFunctionLiteralNode.class);
+        assertEquals(1, literalNodes.size());
+        final List<LSLazyFunctionBodyNode> bodyNodes = NodeUtil.findAllNodeInstances(
+                literalNodes.get(0).getCallTarget().getRootNode(), LSLazyFunctionBodyNode.class);
+        assertEquals(1, bodyNodes.size());
+        assertEquals(1, NodeUtil.findAllNodeInstances(bodyNodes.get(0).materialize(), LSBreakNode.class).size());
+    }
+}
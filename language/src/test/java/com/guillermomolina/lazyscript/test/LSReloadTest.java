@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LSReloadTest {
+
+    private static final String VERSION_1 = "" +
+                    "this.twice = function twice(x) { return x * 2; };\n" +
+                    "this.inc = function inc(x) { return x + 1; };\n" +
+                    "this.saved = this.inc;\n" +
+                    "this.savedTwice = this.twice;\n";
+
+    private static final String VERSION_2 = "" +
+                    "this.twice = function twice(x) { return x * 2; };\n" +
+                    "this.inc = function inc(x) { return x + 10; };\n";
+
+    /** Moves {@code twice} one line down. */
+    private static final String VERSION_3 = "" +
+                    "this.one = 1;\n" +
+                    "this.twice = function twice(x) { return x * 2; };\n" +
+                    "this.inc = function inc(x) { return x + 1; };\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> messages = new ArrayList<>();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private Context context;
+
+    @Before
+    public void setUp() {
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage() + " " + record.getParameters()[0]);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        context = Context.newBuilder("ls").out(out)
+                        .option("log.ls.com.guillermomolina.lazyscript.parser.LSNodeFactory.level", "FINE")
+                        .option("log.ls.com.guillermomolina.lazyscript.runtime.objects.LSFunction.level", "FINE")
+                        .logHandler(handler).build();
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    private String eval(String code, String name) {
+        return eval(Source.newBuilder("ls", code, name).buildLiteral());
+    }
+
+    /**
+     * Evaluates a version of the script of the given file, without writing it.
+     */
+    private String load(String code, String fileName) throws IOException {
+        return eval(Source.newBuilder("ls", new File(folder.getRoot(), fileName)).content(code).build());
+    }
+
+    private String eval(Source source) {
+        out.reset();
+        context.eval(source);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testChangedFunctionIsSwapped() throws IOException {
+        load(VERSION_1, "live.ls");
+        assertEquals("2\n", eval("this.saved(1).println();", "check.ls"));
+        messages.clear();
+        load(VERSION_2, "live.ls");
+        assertEquals("11\ntrue\n", eval("this.saved(1).println();\n(this.saved == this.inc).println();", "check.ls"));
+        assertEquals(true, messages.contains("Installed call target for: {0} inc"));
+    }
+
+    @Test
+    public void testUnchangedFunctionIsKept() throws IOException {
+        load(VERSION_1, "live.ls");
+        messages.clear();
+        load(VERSION_2, "live.ls");
+        assertEquals(true, messages.contains("Kept call target for: {0} twice"));
+        assertEquals(false, messages.contains("Kept call target for: {0} inc"));
+        assertEquals(false, messages.contains("Installed call target for: {0} twice"));
+        assertEquals("true\n6\n", eval("(this.savedTwice == this.twice).println();\nthis.twice(3).println();", "check.ls"));
+    }
+
+    @Test
+    public void testMovedFunctionIsRebuilt() throws IOException {
+        load(VERSION_1, "live.ls");
+        messages.clear();
+        load(VERSION_3, "live.ls");
+        assertEquals(false, messages.contains("Kept call target for: {0} twice"));
+        assertEquals(true, messages.contains("Installed call target for: {0} twice"));
+        assertEquals("6\n", eval("this.savedTwice(3).println();", "check.ls"));
+        Value twice = context.eval(Source.create("ls", "return this.twice;"));
+        assertEquals(2, twice.getSourceLocation().getStartLine());
+    }
+
+    @Test
+    public void testOtherScriptsAreNotSwapped() throws IOException {
+        load(VERSION_1, "live.ls");
+        load(VERSION_2, "other.ls");
+        assertEquals("2\nfalse\n", eval("this.saved(1).println();\n(this.saved == this.inc).println();", "check.ls"));
+    }
+
+    @Test
+    public void testScriptsWithTheSameNameAreNotSwapped() throws IOException {
+        folder.newFolder("other");
+        load(VERSION_1, "live.ls");
+        load(VERSION_2, "other/live.ls");
+        assertEquals("2\nfalse\n", eval("this.saved(1).println();\n(this.saved == this.inc).println();", "check.ls"));
+    }
+
+    @Test
+    public void testLiteralSourcesAreNotReloaded() {
+        eval(VERSION_1, "Unnamed");
+        messages.clear();
+        eval(VERSION_2, "Unnamed");
+        assertEquals(false, messages.contains("Kept call target for: {0} twice"));
+        assertEquals("2\nfalse\n", eval("this.saved(1).println();\n(this.saved == this.inc).println();", "check.ls"));
+    }
+}
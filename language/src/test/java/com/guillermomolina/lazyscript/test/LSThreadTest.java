@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.junit.Test;
+
+public class LSThreadTest {
+
+    private static String run(String code, boolean allowCreateThread) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowCreateThread(allowCreateThread)
+                        .option("ls.Threads", "true").out(out).build()) {
+            context.eval("ls", code);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSpawnAndJoin() {
+        assertEquals("28\n4000\n4000\n", run("" +
+                        "counter = {};\n" +
+                        "counter.count = 0;\n" +
+                        "hits = [0];\n" +
+                        "threads = [null, null, null, null];\n" +
+                        "for (t in 0..4) {\n" +
+                        "    threads[t] = spawn(() => {\n" +
+                        "        for (i in 0..1000) {\n" +
+                        "            counter.getAndAdd(\"count\", 1);\n" +
+                        "            hits.synchronized(() => { hits[0] = hits[0] + 1; });\n" +
+                        "        }\n" +
+                        "        return 7;\n" +
+                        "    });\n" +
+                        "}\n" +
+                        "total = 0;\n" +
+                        "for (thread of threads) {\n" +
+                        "    total = total + thread.join();\n" +
+                        "}\n" +
+                        "total.println();\n" +
+                        "counter.count.println();\n" +
+                        "hits[0].println();\n", true));
+    }
+
+    @Test
+    public void testPropertiesAddedByThreads() {
+        assertEquals("200\n", run("" +
+                        "shared = {};\n" +
+                        "a = spawn(() => { for (i in 0..100) { shared[\"a\" + i] = i; } });\n" +
+                        "b = spawn(() => { for (i in 0..100) { shared[\"b\" + i] = i; } });\n" +
+                        "a.join();\n" +
+                        "b.join();\n" +
+                        "count = 0;\n" +
+                        "for (name of shared) {\n" +
+                        "    count = count + 1;\n" +
+                        "}\n" +
+                        "count.println();\n", true));
+    }
+
+    @Test
+    public void testCompareAndSet() {
+        assertEquals("true\nfalse\n2\ntrue\n3\n", run("" +
+                        "cell = { value: 1 };\n" +
+                        "cell.compareAndSet(\"value\", 1, 2).println();\n" +
+                        "cell.compareAndSet(\"value\", 1, 3).println();\n" +
+                        "cell.value.println();\n" +
+                        "array = [1, 2];\n" +
+                        "array.compareAndSet(1, 2, 3).println();\n" +
+                        "array[1].println();\n", false));
+    }
+
+    @Test
+    public void testJoinThrowsTheErrorOfTheBlock() {
+        assertEquals("boom\n", run("" +
+                        "thread = spawn(() => { throw \"boom\"; });\n" +
+                        "try {\n" +
+                        "    thread.join();\n" +
+                        "} catch (e) {\n" +
+                        "    e.println();\n" +
+                        "}\n", true));
+    }
+
+    @Test
+    public void testSharedLazyValueIsEvaluatedOnce() {
+        assertEquals("1999998000000\n1\n", run("" +
+                        "counter = {};\n" +
+                        "counter.count = 0;\n" +
+                        "work = () => {\n" +
+                        "    counter.getAndAdd(\"count\", 1);\n" +
+                        "    sum = 0;\n" +
+                        "    for (i in 0..1000000) {\n" +
+                        "        sum = sum + i;\n" +
+                        "    }\n" +
+                        "    return sum;\n" +
+                        "};\n" +
+                        "value = lazy work.invoke();\n" +
+                        "threads = [null, null, null, null];\n" +
+                        "for (t in 0..4) {\n" +
+                        "    threads[t] = spawn(() => { return value + 0; });\n" +
+                        "}\n" +
+                        "total = 0;\n" +
+                        "for (thread of threads) {\n" +
+                        "    total = total + thread.join();\n" +
+                        "}\n" +
+                        "total.println();\n" +
+                        "counter.count.println();\n", true));
+    }
+
+    @Test
+    public void testParallelArrays() {
+        assertEquals("1000000\n999998000001\n499999500000\n", run("" +
+                        "numbers = range(0, 1000000).toArray();\n" +
+                        "squares = numbers.parallelMap((x) => { return x * x; });\n" +
+                        "squares.getSize().println();\n" +
+                        "squares[999999].println();\n" +
+                        "numbers.parallelReduce(0, (sum, x) => { return sum + x; }).println();\n", true));
+    }
+
+    @Test
+    public void testParallelArraysWithoutThreads() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowCreateThread(true).out(out).build()) {
+            context.eval("ls", "" +
+                            "numbers = range(0, 100000).toArray();\n" +
+                            "numbers.parallelMap((x) => { return x * 2; })[99999].println();\n" +
+                            "numbers.parallelFilter((x) => { return x < 10; }).getSize().println();\n");
+        }
+        assertEquals("199998\n10\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSpawnNeedsThreadAccess() {
+        try {
+            run("spawn(() => { return 1; });\n", false);
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Creating threads is not allowed"));
+            return;
+        }
+        throw new AssertionError("Should not spawn a thread.");
+    }
+
+    @Test
+    public void testSpawnNeedsThreadsOption() {
+        try (Context context = Context.newBuilder("ls").allowCreateThread(true).build()) {
+            context.eval("ls", "spawn(() => { return 1; });\n");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Threads are not enabled"));
+            return;
+        }
+        throw new AssertionError("Should not spawn a thread.");
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LSTypedArrayTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = Context.create("ls");
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void testHostReadsAndWritesElements() {
+        final Value array = context.eval("ls", "this.data = float64Array([1, 2.5]); return data;");
+        assertTrue(array.hasArrayElements());
+        assertEquals(2, array.getArraySize());
+        assertEquals(2.5, array.getArrayElement(1).asDouble(), 0);
+
+        array.setArrayElement(0, 3);
+        final Value sum = context.eval("ls", "" +
+                        "total = 0;\n" +
+                        "for (x of data) {\n" +
+                        "  total = total + x;\n" +
+                        "}\n" +
+                        "return total;");
+        assertEquals(5.5, sum.asDouble(), 0);
+    }
+
+    @Test
+    public void testHostWritesAreChecked() {
+        final Value array = context.eval("ls", "return byteArray(2);");
+        array.setArrayElement(0, 300);
+        assertEquals(44, array.getArrayElement(0).asInt());
+        try {
+            array.setArrayElement(1, 0.5);
+            fail("Expecting a type error");
+        } catch (ClassCastException e) {
+            assertEquals(0, array.getArrayElement(1).asInt());
+        }
+        try {
+            array.setArrayElement(2, 1);
+            fail("Expecting an index error");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            assertEquals(2, array.getArraySize());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012, 2019, Guillermo Adrián Molina. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.guillermomolina.lazyscript.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.junit.Test;
+
+public class LSWorkerTest {
+
+    private static final String SUM = "code = \"" +
+                    "this.onMessage = function onMessage(message) {" +
+                    "    sum = 0;" +
+                    "    for (x of message.values) {" +
+                    "        sum = sum + x;" +
+                    "    }" +
+                    "    return [message.id, sum];" +
+                    "};\";\n";
+
+    private static String run(String code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("ls").allowCreateThread(true).option("ls.Threads", "true")
+                        .out(out).build()) {
+            context.eval("ls", SUM + code);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPostAndReceive() {
+        assertEquals("4\n1\n10\n2\n10\n", run("" +
+                        "a = worker(code);\n" +
+                        "b = worker(code);\n" +
+                        "data = [1, 2, 3, 4];\n" +
+                        "a.post({ id: 1, values: data });\n" +
+                        "b.post({ id: 2, values: data });\n" +
+                        "data.getSize().println();\n" +
+                        "first = a.receive();\n" +
+                        "second = b.receive();\n" +
+                        "first[0].println();\n" +
+                        "first[1].println();\n" +
+                        "second[0].println();\n" +
+                        "second[1].println();\n"));
+    }
+
+    @Test
+    public void testMessagesAreHandledInOrder() {
+        assertEquals("0\n1\n2\n3\n4\n", run("" +
+                        "w = worker(\"this.onMessage = function onMessage(m) { return m; };\");\n" +
+                        "for (i in 0..5) {\n" +
+                        "    w.post(i);\n" +
+                        "}\n" +
+                        "for (i in 0..5) {\n" +
+                        "    w.receive().println();\n" +
+                        "}\n" +
+                        "w.close();\n"));
+    }
+
+    @Test
+    public void testTransferEmptiesTheArray() {
+        assertEquals("0\n10\n", run("" +
+                        "w = worker(code);\n" +
+                        "data = [1, 2, 3, 4];\n" +
+                        "w.transfer({ id: 1, values: data });\n" +
+                        "data.getSize().println();\n" +
+                        "w.receive()[1].println();\n"));
+    }
+
+    @Test
+    public void testTypedArraysShareTheirMemory() {
+        assertEquals("10\n42\n", run("" +
+                        "w = worker(\"this.onMessage = function onMessage(m) { m[0] = 42; return m[1]; };\");\n" +
+                        "data = int64Array([1, 10]);\n" +
+                        "w.post(data);\n" +
+                        "w.receive().println();\n" +
+                        "data[0].println();\n"));
+    }
+
+    @Test
+    public void testCopyKeepsCycles() {
+        assertEquals("true\n", run("" +
+                        "w = worker(\"this.onMessage = function onMessage(m) { return m.self == m; };\");\n" +
+                        "node = {};\n" +
+                        "node.self = node;\n" +
+                        "w.post(node);\n" +
+                        "w.receive().println();\n"));
+    }
+
+    @Test
+    public void testWorkerErrors() {
+        assertEquals("Worker failed: Uncaught exception at worker line 1 col 42: boom\n", run("" +
+                        "w = worker(\"this.onMessage = function onMessage(m) { throw m; };\");\n" +
+                        "w.post(\"boom\");\n" +
+                        "try {\n" +
+                        "    w.receive();\n" +
+                        "} catch (e) {\n" +
+                        "    e.println();\n" +
+                        "}\n"));
+    }
+
+    @Test
+    public void testFunctionsCannotBeSent() {
+        try {
+            run("" +
+                            "w = worker(code);\n" +
+                            "w.post(() => { return 1; });\n");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot send to a worker"));
+            return;
+        }
+        throw new AssertionError("Should not send a block.");
+    }
+
+    @Test
+    public void testWorkerNeedsThreadsOption() {
+        try (Context context = Context.newBuilder("ls").allowCreateThread(true).build()) {
+            context.eval("ls", SUM + "worker(code);\n");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Threads are not enabled"));
+            return;
+        }
+        throw new AssertionError("Should not create a worker.");
+    }
+}
@@ -57,6 +57,10 @@ public final class LSMain {
 
     private static final String LazyScript = "ls";
 
+    /* The access of the program is opt-in, with these launcher options */
+    private static final String ALLOW_IO = "--allow-io";
+    private static final String ALLOW_CREATE_THREAD = "--allow-create-thread";
+
     /**
      * The main entry point.
      */
@@ -64,8 +68,14 @@ public final class LSMain {
         Source source;
         Map<String, String> options = new HashMap<>();
         String file = null;
+        boolean allowIO = false;
+        boolean allowCreateThread = false;
         for (String arg : args) {
-            if (parseOption(options, arg)) {
+            if (arg.equals(ALLOW_IO)) {
+                allowIO = true;
+            } else if (arg.equals(ALLOW_CREATE_THREAD)) {
+                allowCreateThread = true;
+            } else if (parseOption(options, arg)) {
                 continue;
             } else {
                 if (file == null) {
@@ -84,14 +94,16 @@ public final class LSMain {
             source = Source.newBuilder(LazyScript, new File(file)).build();
         }
 
-        System.exit(executeSource(source, System.in, System.out, options));
+        System.exit(executeSource(source, System.in, System.out, options, allowIO, allowCreateThread));
     }
 
-    private static int executeSource(Source source, InputStream in, PrintStream out, Map<String, String> options) {
+    private static int executeSource(Source source, InputStream in, PrintStream out, Map<String, String> options,
+                    boolean allowIO, boolean allowCreateThread) {
         Context context;
         PrintStream err = System.err;
         try {
-            context = Context.newBuilder(LazyScript).in(in).out(out).options(options).build();
+            context = Context.newBuilder(LazyScript).in(in).out(out).options(options).allowIO(allowIO)
+                            .allowCreateThread(allowCreateThread).build();
         } catch (IllegalArgumentException e) {
             err.println(e.getMessage());
             return 1;